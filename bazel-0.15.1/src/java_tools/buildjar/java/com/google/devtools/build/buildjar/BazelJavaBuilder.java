@@ -33,6 +33,8 @@ import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** The JavaBuilder main called by bazel. */
 public abstract class BazelJavaBuilder {
@@ -54,37 +56,74 @@ public abstract class BazelJavaBuilder {
   }
 
   private static int runPersistentWorker() {
-    while (true) {
-      try {
+    // Requests with a non-zero id come from a multiplexing Bazel, which expects them to be
+    // processed concurrently and the responses to be tagged with the request id. They are
+    // compiled on this pool, which is created on demand.
+    ExecutorService multiplexExecutor = null;
+    try {
+      while (true) {
         WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
         if (request == null) {
           break;
         }
 
-        try (StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw)) {
-          int exitCode = processRequest(request.getArgumentsList(), pw);
-          WorkResponse.newBuilder()
-              .setOutput(sw.toString())
-              .setExitCode(exitCode)
-              .build()
-              .writeDelimitedTo(System.out);
-          System.out.flush();
+        if (request.getRequestId() != 0) {
+          if (multiplexExecutor == null) {
+            multiplexExecutor = Executors.newCachedThreadPool();
+          }
+          multiplexExecutor.execute(
+              () -> {
+                try {
+                  respond(request);
+                } catch (IOException e) {
+                  // Bazel went away or closed our stdout, there is nobody left to talk to.
+                  e.printStackTrace();
+                  System.exit(1);
+                }
+              });
+        } else {
+          respond(request);
 
           // Hint to the system that now would be a good time to run a gc.  After a compile
           // completes lots of objects should be available for collection and it should be cheap to
           // collect them.
           System.gc();
         }
-      } catch (IOException e) {
-        e.printStackTrace();
-        return 1;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      if (multiplexExecutor != null) {
+        // Bazel closed our stdin, so nobody is waiting for the outstanding responses anymore.
+        multiplexExecutor.shutdownNow();
       }
     }
     return 0;
   }
 
+  /**
+   * Processes {@code request} and writes the response to stdout. Safe to call concurrently for
+   * multiplexed requests.
+   */
+  private static void respond(WorkRequest request) throws IOException {
+    try (StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw)) {
+      int exitCode = processRequest(request.getArgumentsList(), pw);
+      WorkResponse response =
+          WorkResponse.newBuilder()
+              .setOutput(sw.toString())
+              .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
+              .build();
+      synchronized (System.out) {
+        response.writeDelimitedTo(System.out);
+        System.out.flush();
+      }
+    }
+  }
+
   public static int processRequest(List<String> args, PrintWriter err) {
     try {
       JavaLibraryBuildRequest build = parse(args);
@@ -22,6 +22,7 @@ import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec.VisibleForSerialization;
 import com.google.devtools.build.lib.util.Fingerprint;
+import java.util.function.Consumer;
 
 /** A representation of a list of arguments. */
 public abstract class CommandLine {
@@ -52,6 +53,20 @@ public abstract class CommandLine {
     return arguments();
   }
 
+  /**
+   * Passes each argument of {@link #arguments(ArtifactExpander)} to {@code consumer}, in order.
+   *
+   * <p>By default, this iterates over the evaluated command line. Subclasses that build the
+   * argument list on every call should override this method to pass the arguments on as they are
+   * expanded instead, so that large command lines need not be held in memory to be written out.
+   */
+  public void forEachArgument(ArtifactExpander artifactExpander, Consumer<String> consumer)
+      throws CommandLineExpansionException {
+    for (String argument : arguments(artifactExpander)) {
+      consumer.accept(argument);
+    }
+  }
+
   public void addToFingerprint(ActionKeyContext actionKeyContext, Fingerprint fingerprint)
       throws CommandLineExpansionException {
     for (String s : arguments()) {
@@ -14,12 +14,14 @@
 package com.google.devtools.build.lib.actions;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.util.FileType;
 import com.google.devtools.build.lib.util.ShellEscaper;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 
 /**
@@ -95,6 +97,39 @@ public class ParameterFile {
     }
   }
 
+  /**
+   * Writes the arguments of a command line to a parameter file as they are expanded, without
+   * holding all of them in memory if the command line supports it; see {@link
+   * CommandLine#forEachArgument}.
+   */
+  public static void writeParameterFile(
+      OutputStream out,
+      CommandLine commandLine,
+      ArtifactExpander artifactExpander,
+      ParameterFileType type,
+      Charset charset)
+      throws CommandLineExpansionException, IOException {
+    OutputStreamWriter writer = new OutputStreamWriter(out, charset);
+    try {
+      commandLine.forEachArgument(
+          artifactExpander,
+          argument -> {
+            try {
+              writer.write(
+                  type == ParameterFileType.SHELL_QUOTED
+                      ? ShellEscaper.escapeString(argument)
+                      : argument);
+              writer.write('\n');
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.flush();
+  }
+
   /** Writes the arguments from the list into the parameter file. */
   private static void writeContentUnquoted(
       OutputStream outputStream, Iterable<String> arguments, Charset charset) throws IOException {
@@ -21,6 +21,7 @@ import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionKeyContext;
 import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.CommandLineItem;
 import com.google.devtools.build.lib.analysis.actions.AbstractFileWriteAction;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -35,8 +36,6 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -56,6 +55,20 @@ public final class SourceManifestAction extends AbstractFileWriteAction {
 
   private static final String GUID = "07459553-a3d0-4d37-9d78-18ed942470f4";
 
+  /** Fingerprints a runfiles symlink, as part of the symlinks of the action key. */
+  private static final CommandLineItem.MapFn<Runfiles.SymlinkEntry> SYMLINK_ENTRY_KEY =
+      (entry, args) -> {
+        args.accept(entry.getPath().getPathString());
+        args.accept(entry.getArtifact().getExecPathString());
+      };
+
+  /** Fingerprints a runfiles artifact, as part of the artifacts of the action key. */
+  private static final CommandLineItem.MapFn<Artifact> RUNFILES_ARTIFACT_KEY =
+      (artifact, args) -> {
+        args.accept(artifact.getRootRelativePath().getPathString());
+        args.accept(artifact.getExecPathString());
+      };
+
   /**
    * Interface for defining manifest formatting and reporting specifics. Implementations must be
    * immutable.
@@ -128,17 +141,16 @@ public final class SourceManifestAction extends AbstractFileWriteAction {
     writeFile(out, runfiles.getRunfilesInputs(eventHandler, getOwner().getLocation()));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The runfiles are only expanded once the manifest is written, and the expansion is dropped
+   * as soon as it is, so an action that is never executed never flattens its runfiles.
+   */
   @Override
-  public DeterministicWriter newDeterministicWriter(ActionExecutionContext ctx)
-      throws IOException {
-    final Map<PathFragment, Artifact> runfilesInputs =
-        runfiles.getRunfilesInputs(ctx.getEventHandler(), getOwner().getLocation());
-    return new DeterministicWriter() {
-      @Override
-      public void writeOutputFile(OutputStream out) throws IOException {
-        writeFile(out, runfilesInputs);
-      }
-    };
+  public DeterministicWriter newDeterministicWriter(ActionExecutionContext ctx) {
+    EventHandler eventHandler = ctx.getEventHandler();
+    return out -> writeOutputFile(out, eventHandler);
   }
 
   @Override
@@ -171,17 +183,8 @@ public final class SourceManifestAction extends AbstractFileWriteAction {
   private void writeFile(OutputStream out, Map<PathFragment, Artifact> output) throws IOException {
     Writer manifestFile = new BufferedWriter(new OutputStreamWriter(out, ISO_8859_1));
 
-    Comparator<Map.Entry<PathFragment, Artifact>> fragmentComparator =
-          new Comparator<Map.Entry<PathFragment, Artifact>>() {
-      @Override
-      public int compare(Map.Entry<PathFragment, Artifact> path1,
-                         Map.Entry<PathFragment, Artifact> path2) {
-        return path1.getKey().compareTo(path2.getKey());
-      }
-    };
-
     List<Map.Entry<PathFragment, Artifact>> sortedManifest = new ArrayList<>(output.entrySet());
-    Collections.sort(sortedManifest, fragmentComparator);
+    sortedManifest.sort(Map.Entry.comparingByKey());
 
     for (Map.Entry<PathFragment, Artifact> line : sortedManifest) {
       manifestWriter.writeEntry(manifestFile, line.getKey(), line.getValue());
@@ -205,22 +208,16 @@ public final class SourceManifestAction extends AbstractFileWriteAction {
     fp.addString(GUID);
     fp.addBoolean(runfiles.getLegacyExternalRunfiles());
     fp.addPath(runfiles.getSuffix());
-    Map<PathFragment, Artifact> symlinks = runfiles.getSymlinksAsMap(null);
-    fp.addInt(symlinks.size());
-    for (Map.Entry<PathFragment, Artifact> symlink : symlinks.entrySet()) {
-      fp.addPath(symlink.getKey());
-      fp.addPath(symlink.getValue().getExecPath());
-    }
-    Map<PathFragment, Artifact> rootSymlinks = runfiles.getRootSymlinksAsMap(null);
-    fp.addInt(rootSymlinks.size());
-    for (Map.Entry<PathFragment, Artifact> rootSymlink : rootSymlinks.entrySet()) {
-      fp.addPath(rootSymlink.getKey());
-      fp.addPath(rootSymlink.getValue().getExecPath());
-    }
-
-    for (Artifact artifact : runfiles.getArtifacts()) {
-      fp.addPath(artifact.getRootRelativePath());
-      fp.addPath(artifact.getExecPath());
+    // The nested sets are fingerprinted rather than flattened: the digests of the subsets shared
+    // with the runfiles of other targets are cached in the ActionKeyContext.
+    actionKeyContext.addNestedSetToFingerprint(SYMLINK_ENTRY_KEY, fp, runfiles.getSymlinks());
+    actionKeyContext.addNestedSetToFingerprint(SYMLINK_ENTRY_KEY, fp, runfiles.getRootSymlinks());
+    actionKeyContext.addNestedSetToFingerprint(
+        RUNFILES_ARTIFACT_KEY, fp, runfiles.getUnconditionalArtifacts());
+    for (Runfiles.PruningManifest manifest : runfiles.getPruningManifests()) {
+      fp.addPath(manifest.getManifestFile().getExecPath());
+      actionKeyContext.addNestedSetToFingerprint(
+          RUNFILES_ARTIFACT_KEY, fp, manifest.getCandidateRunfiles());
     }
   }
 
@@ -18,6 +18,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Interner;
@@ -63,11 +65,11 @@ public final class CustomCommandLine extends CommandLine {
      *
      * @param arguments The command line's argument vector.
      * @param argi The index of the next available argument.
-     * @param builder The command line builder to which we should add arguments.
+     * @param consumer The consumer to which we should pass the arguments.
      * @return The index of the next argument, after the ArgvFragment has consumed its args. If the
      *     ArgvFragment doesn't have any args, it should return {@code argi} unmodified.
      */
-    int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder);
+    int eval(List<Object> arguments, int argi, Consumer<String> consumer);
 
     int addToFingerprint(
         List<Object> arguments,
@@ -83,8 +85,8 @@ public final class CustomCommandLine extends CommandLine {
    */
   private abstract static class StandardArgvFragment implements ArgvFragment {
     @Override
-    public final int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder) {
-      eval(builder);
+    public final int eval(List<Object> arguments, int argi, Consumer<String> consumer) {
+      eval(consumer);
       return argi; // Doesn't consume any arguments, so return argi unmodified
     }
 
@@ -98,7 +100,7 @@ public final class CustomCommandLine extends CommandLine {
       return argi; // Doesn't consume any arguments, so return argi unmodified
     }
 
-    abstract void eval(ImmutableList.Builder<String> builder);
+    abstract void eval(Consumer<String> consumer);
 
     abstract void addToFingerprint(ActionKeyContext actionKeyContext, Fingerprint fingerprint);
   }
@@ -367,7 +369,7 @@ public final class CustomCommandLine extends CommandLine {
 
       @SuppressWarnings("unchecked")
       @Override
-      public int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder) {
+      public int eval(List<Object> arguments, int argi, Consumer<String> consumer) {
         final List<String> mutatedValues;
         CommandLineItem.MapFn<Object> mapFn =
             hasMapEach ? (CommandLineItem.MapFn<Object>) arguments.get(argi++) : null;
@@ -410,15 +412,15 @@ public final class CustomCommandLine extends CommandLine {
         if (hasBeforeEach) {
           String beforeEach = (String) arguments.get(argi++);
           for (int i = 0; i < count; ++i) {
-            builder.add(beforeEach);
-            builder.add(mutatedValues.get(i));
+            consumer.accept(beforeEach);
+            consumer.accept(mutatedValues.get(i));
           }
         } else if (hasJoinWith) {
           String joinWith = (String) arguments.get(argi++);
-          builder.add(Joiner.on(joinWith).join(mutatedValues));
+          consumer.accept(Joiner.on(joinWith).join(mutatedValues));
         } else {
           for (int i = 0; i < count; ++i) {
-            builder.add(mutatedValues.get(i));
+            consumer.accept(mutatedValues.get(i));
           }
         }
         return argi;
@@ -502,14 +504,14 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    public int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder) {
+    public int eval(List<Object> arguments, int argi, Consumer<String> consumer) {
       int argCount = (Integer) arguments.get(argi++);
       String formatStr = (String) arguments.get(argi++);
       Object[] args = new Object[argCount];
       for (int i = 0; i < argCount; ++i) {
         args[i] = CommandLineItem.expandToCommandLine(arguments.get(argi++));
       }
-      builder.add(String.format(formatStr, args));
+      consumer.accept(String.format(formatStr, args));
       return argi;
     }
 
@@ -541,10 +543,10 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    public int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder) {
+    public int eval(List<Object> arguments, int argi, Consumer<String> consumer) {
       String before = (String) arguments.get(argi++);
       Object arg = arguments.get(argi++);
-      builder.add(before + CommandLineItem.expandToCommandLine(arg));
+      consumer.accept(before + CommandLineItem.expandToCommandLine(arg));
       return argi;
     }
 
@@ -591,10 +593,10 @@ public final class CustomCommandLine extends CommandLine {
    */
   private abstract static class TreeArtifactExpansionArgvFragment extends StandardArgvFragment {
     /**
-     * Evaluates this argument fragment into an argument string and adds it into {@code builder}.
+     * Evaluates this argument fragment into argument strings and passes them to {@code consumer}.
      * The enclosed TreeArtifact will be expanded using {@code artifactExpander}.
      */
-    abstract void eval(ImmutableList.Builder<String> builder, ArtifactExpander artifactExpander);
+    abstract void eval(Consumer<String> consumer, ArtifactExpander artifactExpander);
 
     /**
      * Returns a string that describes this argument fragment. The string can be used as part of an
@@ -611,8 +613,8 @@ public final class CustomCommandLine extends CommandLine {
      * <p>Internally this method just calls {@link #describe}.
      */
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(describe());
+    void eval(Consumer<String> consumer) {
+      consumer.accept(describe());
     }
   }
 
@@ -630,12 +632,12 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder, ArtifactExpander artifactExpander) {
+    void eval(Consumer<String> consumer, ArtifactExpander artifactExpander) {
       Set<Artifact> expandedArtifacts = new TreeSet<>();
       artifactExpander.expand(treeArtifact, expandedArtifacts);
 
       for (Artifact expandedArtifact : expandedArtifacts) {
-        builder.add(expandedArtifact.getExecPathString());
+        consumer.accept(expandedArtifact.getExecPathString());
       }
     }
 
@@ -1134,6 +1136,28 @@ public final class CustomCommandLine extends CommandLine {
     return builder;
   }
   
+  /**
+   * Command lines with fewer arguments than this are cheap enough to expand again every time and
+   * are not cached.
+   */
+  private static final int MIN_CACHED_ARGUMENTS = 100;
+
+  /** The maximum total number of arguments held by the expansion cache. */
+  private static final int MAX_CACHED_ARGUMENTS = 1 << 20;
+
+  /**
+   * Expansions of large command lines, which are requested several times for each action: for its
+   * spawn, its parameter file, the build event protocol and aquery. The cache holds its keys
+   * weakly and compares them by identity, so it never keeps a command line alive, and is bounded
+   * by the total number of arguments it holds. Callers of {@link #arguments} share the cached list.
+   */
+  private static final Cache<CustomCommandLine, ImmutableList<String>> expansionCache =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .maximumWeight(MAX_CACHED_ARGUMENTS)
+          .weigher((CustomCommandLine key, ImmutableList<String> value) -> value.size())
+          .build();
+
   private final ImmutableList<Object> arguments;
 
   /**
@@ -1181,33 +1205,71 @@ public final class CustomCommandLine extends CommandLine {
     return argumentsInternal(Preconditions.checkNotNull(artifactExpander));
   }
 
-  private Iterable<String> argumentsInternal(@Nullable ArtifactExpander artifactExpander) {
+  /**
+   * Passes the arguments to {@code consumer} as they are expanded. Unless this command line's
+   * expansion is already cached, the argument list is never materialized, so this is the cheapest
+   * way to write a large command line to a parameter file.
+   */
+  @Override
+  public void forEachArgument(ArtifactExpander artifactExpander, Consumer<String> consumer) {
+    ImmutableList<String> cached = expansionCache.getIfPresent(this);
+    if (cached != null) {
+      cached.forEach(consumer);
+    } else {
+      expand(Preconditions.checkNotNull(artifactExpander), consumer);
+    }
+  }
+
+  private ImmutableList<String> argumentsInternal(@Nullable ArtifactExpander artifactExpander) {
+    ImmutableList<String> cached = expansionCache.getIfPresent(this);
+    if (cached != null) {
+      return cached;
+    }
     ImmutableList.Builder<String> builder = ImmutableList.builder();
+    boolean hasTreeArtifactExpansion = expand(artifactExpander, builder::add);
+    ImmutableList<String> result = builder.build();
+    // The expansion of a TreeArtifact depends on the expander, so it can't be shared.
+    if (!hasTreeArtifactExpansion && result.size() >= MIN_CACHED_ARGUMENTS) {
+      expansionCache.put(this, result);
+    }
+    return result;
+  }
+
+  /**
+   * Expands this command line, passing each argument to {@code consumer} in order. Returns whether
+   * it has a TreeArtifact to expand, which is evaluated with {@code artifactExpander} if there is
+   * one, or to a placeholder otherwise.
+   */
+  private boolean expand(@Nullable ArtifactExpander artifactExpander, Consumer<String> consumer) {
+    boolean hasTreeArtifactExpansion = false;
     int count = arguments.size();
     for (int i = 0; i < count; ) {
       Object arg = arguments.get(i++);
       Object substitutedArg = substituteTreeFileArtifactArgvFragment(arg);
       if (substitutedArg instanceof Iterable) {
-        evalSimpleVectorArg((Iterable<?>) substitutedArg, builder);
+        evalSimpleVectorArg((Iterable<?>) substitutedArg, consumer);
       } else if (substitutedArg instanceof ArgvFragment) {
+        if (substitutedArg instanceof TreeArtifactExpansionArgvFragment) {
+          hasTreeArtifactExpansion = true;
+        }
         if (artifactExpander != null
             && substitutedArg instanceof TreeArtifactExpansionArgvFragment) {
           TreeArtifactExpansionArgvFragment expansionArg =
               (TreeArtifactExpansionArgvFragment) substitutedArg;
-          expansionArg.eval(builder, artifactExpander);
+          expansionArg.eval(consumer, artifactExpander);
         } else {
-          i = ((ArgvFragment) substitutedArg).eval(arguments, i, builder);
+          i = ((ArgvFragment) substitutedArg).eval(arguments, i, consumer);
         }
       } else {
-        builder.add(CommandLineItem.expandToCommandLine(substitutedArg));
+        consumer.accept(CommandLineItem.expandToCommandLine(substitutedArg));
       }
     }
-    return builder.build();
+    return hasTreeArtifactExpansion;
   }
 
-  private void evalSimpleVectorArg(Iterable<?> arg, ImmutableList.Builder<String> builder) {
+  private void evalSimpleVectorArg(Iterable<?> arg, Consumer<String> consumer) {
     for (Object value : arg) {
-      builder.add(CommandLineItem.expandToCommandLine(value));
+      consumer.accept(CommandLineItem.expandToCommandLine(value));
     }
   }
 
@@ -119,9 +119,14 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
   @Override
   public DeterministicWriter newDeterministicWriter(ActionExecutionContext ctx)
       throws ExecException {
+    ArtifactExpander artifactExpander = Preconditions.checkNotNull(ctx.getArtifactExpander());
+    if (commandLine instanceof CustomCommandLine) {
+      // Can't fail to expand, so it's safe to defer expansion until the file is written.
+      return new StreamingParamFileWriter(
+          (CustomCommandLine) commandLine, artifactExpander, type, charset);
+    }
     final Iterable<String> arguments;
     try {
-      ArtifactExpander artifactExpander = Preconditions.checkNotNull(ctx.getArtifactExpander());
       arguments = commandLine.arguments(artifactExpander);
     } catch (CommandLineExpansionException e) {
       throw new UserExecException(e);
@@ -151,6 +156,37 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     }
   }
 
+  /**
+   * Writes a {@link CustomCommandLine} as it is expanded, so the argument list of a large command
+   * line is never built just to be written.
+   */
+  private static class StreamingParamFileWriter implements DeterministicWriter {
+    private final CustomCommandLine commandLine;
+    private final ArtifactExpander artifactExpander;
+    private final ParameterFileType type;
+    private final Charset charset;
+
+    StreamingParamFileWriter(
+        CustomCommandLine commandLine,
+        ArtifactExpander artifactExpander,
+        ParameterFileType type,
+        Charset charset) {
+      this.commandLine = commandLine;
+      this.artifactExpander = artifactExpander;
+      this.type = type;
+      this.charset = charset;
+    }
+
+    @Override
+    public void writeOutputFile(OutputStream out) throws IOException {
+      try {
+        ParameterFile.writeParameterFile(out, commandLine, artifactExpander, type, charset);
+      } catch (CommandLineExpansionException e) {
+        throw new IllegalStateException("CustomCommandLine failed to expand", e);
+      }
+    }
+  }
+
   @Override
   protected void computeKey(ActionKeyContext actionKeyContext, Fingerprint fp)
       throws CommandLineExpansionException {
@@ -102,7 +102,7 @@ public final class BuildOptions implements Cloneable, Serializable {
       if (optionsClasses.contains(options.getClass())
           // TODO(bazel-team): make this non-hacky while not requiring BuildConfiguration access
           // to BuildOptions.
-          || options.toString().contains("BuildConfiguration$Options")) {
+          || options.getClass().getName().endsWith("BuildConfiguration$Options")) {
         builder.add(options);
       }
     }
@@ -565,6 +565,7 @@ public final class BuildOptions implements Cloneable, Serializable {
     private final ImmutableList<FragmentOptions> extraSecondFragments;
     private final byte[] baseFingerprint;
     private final String checksum;
+    private final int hashCode; // Precomputed, as configuration keys are hashed on every lookup.
 
     OptionsDiffForReconstruction(
         Map<Class<? extends FragmentOptions>, Map<String, Object>> differingOptions,
@@ -577,6 +578,7 @@ public final class BuildOptions implements Cloneable, Serializable {
       this.extraSecondFragments = extraSecondFragments;
       this.baseFingerprint = baseFingerprint;
       this.checksum = checksum;
+      this.hashCode = 31 * Arrays.hashCode(baseFingerprint) + checksum.hashCode();
     }
 
     private static OptionsDiffForReconstruction getEmpty(byte[] baseFingerprint, String checksum) {
@@ -625,7 +627,8 @@ public final class BuildOptions implements Cloneable, Serializable {
         return false;
       }
       OptionsDiffForReconstruction that = (OptionsDiffForReconstruction) o;
-      return Arrays.equals(this.baseFingerprint, that.baseFingerprint)
+      return this.hashCode == that.hashCode
+          && Arrays.equals(this.baseFingerprint, that.baseFingerprint)
           && this.checksum.equals(that.checksum);
     }
 
@@ -639,7 +642,7 @@ public final class BuildOptions implements Cloneable, Serializable {
 
     @Override
     public int hashCode() {
-      return 31 * Arrays.hashCode(baseFingerprint) + checksum.hashCode();
+      return hashCode;
     }
   }
 }
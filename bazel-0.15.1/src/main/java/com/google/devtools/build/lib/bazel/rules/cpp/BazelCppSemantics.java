@@ -25,7 +25,7 @@ import com.google.devtools.build.lib.rules.cpp.CppCompileActionBuilder;
 import com.google.devtools.build.lib.rules.cpp.CppConfiguration;
 import com.google.devtools.build.lib.rules.cpp.CppConfiguration.HeadersCheckingMode;
 import com.google.devtools.build.lib.rules.cpp.IncludeProcessing;
-import com.google.devtools.build.lib.rules.cpp.NoProcessing;
+import com.google.devtools.build.lib.rules.cpp.IncludeScanning;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 
 /** C++ compilation semantics. */
@@ -35,18 +35,20 @@ public class BazelCppSemantics implements AspectLegalCppSemantics {
   private final IncludeProcessing includeProcessing;
 
   private BazelCppSemantics() {
-    this.includeProcessing = NoProcessing.INSTANCE;
+    // Only actions that should be include-scanned use it.
+    this.includeProcessing = IncludeScanning.INSTANCE;
   }
 
   @Override
   public void finalizeCompileActionBuilder(
       RuleContext ruleContext, CppCompileActionBuilder actionBuilder) {
+    CppConfiguration cppConfiguration = ruleContext.getFragment(CppConfiguration.class);
     actionBuilder
-        .setCppConfiguration(ruleContext.getFragment(CppConfiguration.class))
-        // Because Bazel does not support include scanning, we need the entire crosstool filegroup,
-        // including header files, as opposed to just the "compile" filegroup.
+        .setCppConfiguration(cppConfiguration)
+        // Include scanning doesn't look for the headers of the crosstool, so we need the entire
+        // crosstool filegroup, including header files, as opposed to just the "compile" filegroup.
         .addTransitiveMandatoryInputs(actionBuilder.getToolchain().getCrosstool())
-        .setShouldScanIncludes(false);
+        .setShouldScanIncludes(cppConfiguration.includeScanning());
   }
 
   @Override
@@ -70,7 +72,7 @@ public class BazelCppSemantics implements AspectLegalCppSemantics {
 
   @Override
   public boolean needsIncludeScanning(RuleContext ruleContext) {
-    return false;
+    return ruleContext.getFragment(CppConfiguration.class).includeScanning();
   }
 
   @Override
@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.devtools.build.lib.buildeventstream.transports.BuildEventStreamOptions;
 import com.google.devtools.build.lib.buildeventstream.transports.BuildEventTransportFactory;
+import com.google.devtools.build.lib.buildeventstream.transports.QueuedBuildEventTransport;
 import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -196,6 +197,13 @@ public abstract class BuildEventServiceModule<T extends BuildEventServiceOptions
       }
 
       transports = transportsBuilder.build();
+      if (bepOptions.transportQueueSize > 0) {
+        transports =
+            transports
+                .stream()
+                .map(t -> new QueuedBuildEventTransport(t, bepOptions.transportQueueSize))
+                .collect(ImmutableSet.toImmutableSet());
+      }
       if (!transports.isEmpty()) {
         BuildEventStreamOptions buildEventStreamOptions =
             optionsProvider.getOptions(BuildEventStreamOptions.class);
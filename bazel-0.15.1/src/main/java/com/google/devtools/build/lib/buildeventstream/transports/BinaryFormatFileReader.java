@@ -0,0 +1,69 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildeventstream.transports;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the build events written by a {@link BinaryFormatFileTransport}, compressed or not.
+ *
+ * <p>Whether the input is compressed is detected from its first bytes.
+ */
+public final class BinaryFormatFileReader implements Closeable {
+  private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+  private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+
+  private final InputStream in;
+
+  public BinaryFormatFileReader(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in);
+    this.in = isGzipped(buffered) ? new GZIPInputStream(buffered) : buffered;
+  }
+
+  private static boolean isGzipped(BufferedInputStream in) throws IOException {
+    in.mark(2);
+    try {
+      return in.read() == GZIP_MAGIC_FIRST_BYTE && in.read() == GZIP_MAGIC_SECOND_BYTE;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /** Returns the next event, or null if the end of the input was reached. */
+  @Nullable
+  public BuildEvent read() throws IOException {
+    return BuildEvent.parseDelimitedFrom(in);
+  }
+
+  /** Returns all remaining events. */
+  public ImmutableList<BuildEvent> readAll() throws IOException {
+    ImmutableList.Builder<BuildEvent> events = ImmutableList.builder();
+    for (BuildEvent event = read(); event != null; event = read()) {
+      events.add(event);
+    }
+    return events.build();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -16,28 +16,65 @@ package com.google.devtools.build.lib.buildeventstream.transports;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
 import com.google.devtools.build.lib.buildeventstream.BuildEvent;
 import com.google.devtools.build.lib.buildeventstream.BuildEventContext;
 import com.google.devtools.build.lib.buildeventstream.BuildEventProtocolOptions;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
 
 /**
  * A simple {@link BuildEventTransport} that writes a varint delimited binary representation of
  * {@link BuildEvent} protocol buffers to a file.
+ *
+ * <p>Optionally, the file is gzip compressed. The compressor is flushed after every event, so that
+ * the file can be read up to the last event written while the build is still running. Flushing
+ * keeps the compression window, so the long file URIs, event ids and configuration ids that events
+ * repeat from earlier ones are still encoded as back-references. Use {@link
+ * BinaryFormatFileReader} to read either format.
  */
 public final class BinaryFormatFileTransport extends FileTransport {
+  private static final Logger logger = Logger.getLogger(BinaryFormatFileTransport.class.getName());
+
   private final BuildEventProtocolOptions options;
   private final PathConverter pathConverter;
 
+  // Only set if the output is compressed. The compressor writes to the buffer, whose contents are
+  // then written to the file.
+  @Nullable private final ByteArrayOutputStream compressedBuffer;
+  @Nullable private final GZIPOutputStream compressor;
+  private boolean finished;
+
   BinaryFormatFileTransport(
       String path, BuildEventProtocolOptions options, PathConverter pathConverter)
           throws IOException {
+    this(path, options, pathConverter, /*compress=*/ false);
+  }
+
+  BinaryFormatFileTransport(
+      String path,
+      BuildEventProtocolOptions options,
+      PathConverter pathConverter,
+      boolean compress)
+      throws IOException {
     super(path);
     this.options = options;
     this.pathConverter = pathConverter;
+    if (compress) {
+      compressedBuffer = new ByteArrayOutputStream();
+      compressor = new GZIPOutputStream(compressedBuffer, /*syncFlush=*/ true);
+    } else {
+      compressedBuffer = null;
+      compressor = null;
+    }
   }
 
   @Override
@@ -65,6 +102,51 @@ public final class BinaryFormatFileTransport extends FileTransport {
             return options;
           }
         };
-    write(event.asStreamProto(converters));
+    BuildEventStreamProtos.BuildEvent proto = event.asStreamProto(converters);
+    if (compressor == null) {
+      write(proto);
+      return;
+    }
+    try {
+      proto.writeDelimitedTo(compressor);
+      compressor.flush();
+    } catch (IOException e) {
+      // Can only happen after close.
+      logger.log(Level.SEVERE, e.getMessage(), e);
+    }
+    writeCompressedBuffer();
+  }
+
+  private void writeCompressedBuffer() {
+    if (compressedBuffer.size() > 0) {
+      write(compressedBuffer.toByteArray());
+      compressedBuffer.reset();
+    }
+  }
+
+  /** Writes the end of the compressed stream, if the output is compressed. */
+  private synchronized void finishCompression() {
+    if (compressor == null || finished) {
+      return;
+    }
+    finished = true;
+    try {
+      compressor.close();
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, e.getMessage(), e);
+    }
+    writeCompressedBuffer();
+  }
+
+  @Override
+  public synchronized ListenableFuture<Void> close() {
+    finishCompression();
+    return super.close();
+  }
+
+  @Override
+  public void closeNow() {
+    finishCompression();
+    super.closeNow();
   }
 }
@@ -80,6 +80,17 @@ public class BuildEventStreamOptions extends OptionsBase {
   )
   public boolean buildEventBinaryFilePathConversion;
 
+  @Option(
+      name = "experimental_build_event_binary_file_compression",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.LOGGING,
+      effectTags = {OptionEffectTag.AFFECTS_OUTPUTS},
+      help =
+          "If set, the file written by --build_event_binary_file is gzip compressed. The stream "
+              + "is flushed after every event, so that the file can be read while the build is "
+              + "running.")
+  public boolean buildEventBinaryFileCompression;
+
   @Option(
     name = "experimental_build_event_json_file_path_conversion",
     oldName = "build_event_json_file_path_conversion",
@@ -115,6 +126,17 @@ public class BuildEventStreamOptions extends OptionsBase {
   )
   public int maxNamedSetEntries;
 
+  @Option(
+      name = "experimental_build_event_transport_queue_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.LOGGING,
+      effectTags = {OptionEffectTag.AFFECTS_OUTPUTS},
+      help =
+          "If positive, each build event transport serializes and sends events on its own thread, "
+              + "queueing up to this many events; posting an event blocks while the queue is "
+              + "full. If 0, events are serialized on the thread that posts them.")
+  public int transportQueueSize;
+
   // TODO(ruperts): Remove these public getter methods for consistency with other options classes?
   public String getBuildEventTextFile() {
     return buildEventTextFile;
@@ -124,6 +146,10 @@ public class BuildEventStreamOptions extends OptionsBase {
     return buildEventBinaryFile;
   }
 
+  public boolean getBuildEventBinaryFileCompression() {
+    return buildEventBinaryFileCompression;
+  }
+
   public String getBuildEventJsonFile() {
     return buildEventJsonFile;
   }
@@ -61,7 +61,8 @@ public enum BuildEventTransportFactory {
           protocolOptions,
           options.getBuildEventBinaryFilePathConversion()
               ? pathConverter
-              : new NullPathConverter());
+              : new NullPathConverter(),
+          options.getBuildEventBinaryFileCompression());
     }
   },
 
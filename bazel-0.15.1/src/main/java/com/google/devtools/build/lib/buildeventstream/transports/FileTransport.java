@@ -60,6 +60,14 @@ abstract class FileTransport implements BuildEventTransport {
     }
   }
 
+  protected void write(byte[] data) {
+    try {
+      out.write(data);
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
 
   @Override
   public synchronized ListenableFuture<Void> close() {
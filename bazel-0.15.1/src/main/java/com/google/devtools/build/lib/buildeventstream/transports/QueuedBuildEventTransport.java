@@ -0,0 +1,117 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildeventstream.transports;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
+import com.google.devtools.build.lib.buildeventstream.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link BuildEventTransport} that hands events to another transport on a dedicated thread.
+ *
+ * <p>Transports convert each event to its protocol buffer representation, and possibly to JSON,
+ * while it is posted; for large events such as named sets of files, and for transports that wait
+ * for a remote endpoint, this is expensive. Wrapping a transport in this class moves that work off
+ * the thread that posts the event, which only has to enqueue it. Events are passed on in the order
+ * in which they were posted.
+ *
+ * <p>At most a fixed number of events are queued. If the wrapped transport falls that far behind,
+ * posting blocks until there is room again, so that a slow transport slows the build down rather
+ * than exhausting the memory.
+ */
+@ThreadSafe
+public final class QueuedBuildEventTransport implements BuildEventTransport {
+  private static final Logger logger = Logger.getLogger(QueuedBuildEventTransport.class.getName());
+
+  private final BuildEventTransport delegate;
+  private final ThreadPoolExecutor executor;
+  private final SettableFuture<Void> closeFuture = SettableFuture.create();
+  private boolean closing;
+
+  public QueuedBuildEventTransport(BuildEventTransport delegate, int maxQueuedEvents) {
+    Preconditions.checkArgument(maxQueuedEvents > 0, maxQueuedEvents);
+    this.delegate = delegate;
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxQueuedEvents),
+            new ThreadFactoryBuilder()
+                .setNameFormat(delegate.name() + "-queue-%d")
+                .setDaemon(true)
+                .build(),
+            new BlockWhenFull());
+  }
+
+  /** Makes the posting thread wait for room in the queue instead of rejecting the event. */
+  private static final class BlockWhenFull implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        // The transport was closed; like other transports, ignore further events.
+        return;
+      }
+      Uninterruptibles.putUninterruptibly(executor.getQueue(), task);
+    }
+  }
+
+  @Override
+  public String name() {
+    return delegate.name();
+  }
+
+  @Override
+  public void sendBuildEvent(BuildEvent event, ArtifactGroupNamer namer) {
+    executor.execute(
+        () -> {
+          try {
+            delegate.sendBuildEvent(event, namer);
+          } catch (RuntimeException e) {
+            // Transports should not throw; make sure that one that does doesn't lose the rest.
+            logger.log(Level.SEVERE, "Failed to send build event to " + delegate.name(), e);
+          }
+        });
+  }
+
+  @Override
+  public synchronized ListenableFuture<Void> close() {
+    if (!closing) {
+      closing = true;
+      executor.execute(() -> closeFuture.setFuture(delegate.close()));
+      executor.shutdown();
+    }
+    return closeFuture;
+  }
+
+  @Override
+  public void closeNow() {
+    executor.shutdownNow();
+    delegate.closeNow();
+    closeFuture.set(null);
+  }
+}
@@ -134,8 +134,11 @@ public class ExecutionTool {
     for (BlazeModule module : runtime.getBlazeModules()) {
       module.executorInit(env, request, builder);
     }
-    builder.addActionContext(new SymlinkTreeStrategy(
-                env.getOutputService(), env.getBlazeWorkspace().getBinTools()));
+    builder.addActionContext(
+        new SymlinkTreeStrategy(
+            env.getOutputService(),
+            env.getBlazeWorkspace().getBinTools(),
+            request.getOptions(ExecutionOptions.class).incrementalRunfilesUpdate));
     // TODO(philwo) - the ExecutionTool should not add arbitrary dependencies on its own, instead
     // these dependencies should be added to the ActionContextConsumer of the module that actually
     // depends on them.
@@ -0,0 +1,42 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.exec.ActionContextConsumer;
+import com.google.devtools.build.lib.exec.SpawnActionContextMaps;
+
+/**
+ * {@link ActionContextConsumer} that makes "dynamic" the default spawn strategy and requests the
+ * local and remote strategies it delegates to.
+ */
+final class DynamicActionContextConsumer implements ActionContextConsumer {
+  private final DynamicExecutionOptions options;
+
+  DynamicActionContextConsumer(DynamicExecutionOptions options) {
+    this.options = options;
+  }
+
+  @Override
+  public void populate(SpawnActionContextMaps.Builder builder) {
+    // This makes the "dynamic" strategy the default Spawn strategy, unless it is overridden by a
+    // later BlazeModule or by --spawn_strategy.
+    builder.strategyByMnemonicMap().put("", "dynamic");
+
+    // Fails the build early if the strategies to race don't exist, and hands them to
+    // DynamicActionContextProvider#executorCreated.
+    builder.strategyByContextMap().put(SpawnActionContext.class, options.localStrategy);
+    builder.strategyByContextMap().put(SpawnActionContext.class, options.remoteStrategy);
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.ActionContext;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.exec.ActionContextProvider;
+import com.google.devtools.build.lib.util.ExitCode;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/** Provides the {@link DynamicSpawnStrategy} and connects it to the strategies it races. */
+final class DynamicActionContextProvider extends ActionContextProvider {
+  private static final Logger logger =
+      Logger.getLogger(DynamicActionContextProvider.class.getName());
+
+  private final DynamicExecutionOptions options;
+  private final ExecutorService executorService;
+  private final DynamicExecutionStatistics statistics;
+  private final DynamicSpawnStrategy strategy;
+
+  DynamicActionContextProvider(
+      DynamicExecutionOptions options, DynamicExecutionStatistics statistics) {
+    this.options = options;
+    // Every raced spawn occupies two threads, which mostly wait for their subprocess or for the
+    // remote system. The number of local executions is limited separately.
+    this.executorService =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("dynamic-execution-thread-%d")
+                .setDaemon(true)
+                .build());
+    this.statistics = statistics;
+    int localJobs =
+        options.localJobs > 0 ? options.localJobs : Runtime.getRuntime().availableProcessors();
+    this.strategy = new DynamicSpawnStrategy(executorService, localJobs, statistics);
+  }
+
+  @Override
+  public Iterable<? extends ActionContext> getActionContexts() {
+    return ImmutableList.of(strategy);
+  }
+
+  @Override
+  public void executorCreated(Iterable<ActionContext> usedContexts) throws ExecutorInitException {
+    SandboxedSpawnActionContext localStrategy = findStrategy(usedContexts, options.localStrategy);
+    SandboxedSpawnActionContext remoteStrategy = findStrategy(usedContexts, options.remoteStrategy);
+    if (localStrategy.getClass() == remoteStrategy.getClass()) {
+      throw new ExecutorInitException(
+          "The dynamic strategy needs two different strategies, but got '"
+              + options.localStrategy
+              + "' and '"
+              + options.remoteStrategy
+              + "'",
+          ExitCode.COMMAND_LINE_ERROR);
+    }
+    strategy.setStrategies(localStrategy, remoteStrategy);
+  }
+
+  private static SandboxedSpawnActionContext findStrategy(
+      Iterable<ActionContext> usedContexts, String name) throws ExecutorInitException {
+    SpawnActionContext context = findSpawnActionContext(usedContexts, name);
+    if (!(context instanceof SandboxedSpawnActionContext)) {
+      throw new ExecutorInitException(
+          "The '" + name + "' strategy can't be used by the dynamic strategy",
+          ExitCode.COMMAND_LINE_ERROR);
+    }
+    return (SandboxedSpawnActionContext) context;
+  }
+
+  @Nullable
+  private static SpawnActionContext findSpawnActionContext(
+      Iterable<ActionContext> usedContexts, String name) {
+    for (ActionContext context : usedContexts) {
+      ExecutionStrategy annotation = context.getClass().getAnnotation(ExecutionStrategy.class);
+      if (annotation != null
+          && annotation.contextType() == SpawnActionContext.class
+          && Arrays.asList(annotation.name()).contains(name)) {
+        return (SpawnActionContext) context;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void executionPhaseEnding() {
+    executorService.shutdownNow();
+    String summary = statistics.summary();
+    if (!summary.isEmpty()) {
+      logger.info("Dynamic execution statistics:\n" + summary);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Module that provides the "dynamic" spawn strategy, which races local against remote execution.
+ * Must be loaded after the modules that provide the strategies it races.
+ */
+public class DynamicExecutionModule extends BlazeModule {
+  // Kept across builds, so that incremental builds benefit from what earlier builds learned.
+  private DynamicExecutionStatistics statistics;
+  private int minLocalWinsPercent;
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return "build".equals(command.name())
+        ? ImmutableList.of(DynamicExecutionOptions.class)
+        : ImmutableList.of();
+  }
+
+  @Override
+  public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
+    DynamicExecutionOptions options = env.getOptions().getOptions(DynamicExecutionOptions.class);
+    if (options == null || !options.dynamicExecution) {
+      return;
+    }
+    if (statistics == null || minLocalWinsPercent != options.minLocalWinsPercent) {
+      statistics = new DynamicExecutionStatistics(options.minLocalWinsPercent);
+      minLocalWinsPercent = options.minLocalWinsPercent;
+    }
+    builder.addActionContextProvider(new DynamicActionContextProvider(options, statistics));
+    builder.addActionContextConsumer(new DynamicActionContextConsumer(options));
+  }
+}
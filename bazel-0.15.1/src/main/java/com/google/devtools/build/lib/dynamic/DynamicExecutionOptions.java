@@ -0,0 +1,79 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionDocumentationCategory;
+import com.google.devtools.common.options.OptionEffectTag;
+import com.google.devtools.common.options.OptionsBase;
+
+/** Options for the dynamic execution of spawns, racing local against remote execution. */
+public class DynamicExecutionOptions extends OptionsBase {
+  @Option(
+    name = "experimental_dynamic_execution",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "Makes 'dynamic' the default spawn strategy. It executes each spawn both locally and "
+            + "remotely, takes the result of whichever finishes first and cancels the other. "
+            + "Individual mnemonics can still be mapped to other strategies with --strategy."
+  )
+  public boolean dynamicExecution;
+
+  @Option(
+    name = "experimental_dynamic_local_strategy",
+    defaultValue = "sandboxed",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "The strategy the dynamic strategy uses to execute spawns locally. It should not write to "
+            + "the execution root before it finishes, e.g. 'sandboxed' or 'worker'."
+  )
+  public String localStrategy;
+
+  @Option(
+    name = "experimental_dynamic_remote_strategy",
+    defaultValue = "remote",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help = "The strategy the dynamic strategy uses to execute spawns remotely."
+  )
+  public String remoteStrategy;
+
+  @Option(
+    name = "experimental_dynamic_local_jobs",
+    defaultValue = "0",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {
+      OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS,
+      OptionEffectTag.EXECUTION
+    },
+    help =
+        "The maximum number of spawns the dynamic strategy executes locally at the same time. "
+            + "Spawns beyond that are only executed remotely. 0 means the number of processors."
+  )
+  public int localJobs;
+
+  @Option(
+    name = "experimental_dynamic_min_local_wins_percent",
+    defaultValue = "5",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "Once a mnemonic was raced often enough, spawns with that mnemonic are mostly executed "
+            + "only remotely if local execution won less than this percentage of the races."
+  )
+  public int minLocalWinsPercent;
+}
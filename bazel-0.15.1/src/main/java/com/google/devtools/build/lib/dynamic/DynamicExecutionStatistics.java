@@ -0,0 +1,121 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-mnemonic statistics about the races between local and remote execution, used to decide
+ * whether racing a spawn is worthwhile.
+ *
+ * <p>Racing costs a local slot and the local resources of the spawn. If local execution rarely wins
+ * for a mnemonic, e.g. because its actions are expensive and the remote system is fast, its spawns
+ * are only executed remotely. Every so often such a spawn is raced anyway, so that the statistics
+ * notice when the balance changes, e.g. because the remote system becomes overloaded.
+ */
+@ThreadSafe
+class DynamicExecutionStatistics {
+  /** The number of races per mnemonic before the statistics are used at all. */
+  @VisibleForTesting static final int WARMUP_RACES = 10;
+
+  /** Every this many spawns that were not raced, one is raced anyway. */
+  @VisibleForTesting static final int RERACE_INTERVAL = 20;
+
+  /** When a mnemonic was raced this often, its counts are halved to forget older results. */
+  private static final int DECAY_RACES = 1000;
+
+  private static final class MnemonicStatistics {
+    private int races;
+    private int localWins;
+    private int skipped;
+    private long localWinNanos;
+    private long remoteWinNanos;
+    private long totalRaces;
+    private long totalLocalWins;
+    private long totalSkipped;
+  }
+
+  private final int minLocalWinsPercent;
+  private final Map<String, MnemonicStatistics> statistics = new TreeMap<>();
+
+  DynamicExecutionStatistics(int minLocalWinsPercent) {
+    this.minLocalWinsPercent = minLocalWinsPercent;
+  }
+
+  private MnemonicStatistics get(String mnemonic) {
+    return statistics.computeIfAbsent(mnemonic, m -> new MnemonicStatistics());
+  }
+
+  /** Returns whether a spawn with the given mnemonic should be executed locally and remotely. */
+  synchronized boolean shouldRace(String mnemonic) {
+    MnemonicStatistics stats = get(mnemonic);
+    if (stats.races < WARMUP_RACES
+        || stats.localWins * 100L >= (long) stats.races * minLocalWinsPercent) {
+      return true;
+    }
+    if (++stats.skipped >= RERACE_INTERVAL) {
+      stats.skipped = 0;
+      return true;
+    }
+    stats.totalSkipped++;
+    return false;
+  }
+
+  /** Records the outcome of a race for a spawn with the given mnemonic. */
+  synchronized void recordRace(String mnemonic, boolean localWon, Duration elapsed) {
+    MnemonicStatistics stats = get(mnemonic);
+    stats.races++;
+    stats.totalRaces++;
+    if (localWon) {
+      stats.localWins++;
+      stats.totalLocalWins++;
+      stats.localWinNanos += elapsed.toNanos();
+    } else {
+      stats.remoteWinNanos += elapsed.toNanos();
+    }
+    if (stats.races >= DECAY_RACES) {
+      stats.races /= 2;
+      stats.localWins /= 2;
+    }
+  }
+
+  /** Returns a human-readable summary of the statistics, one line per mnemonic. */
+  synchronized String summary() {
+    StringBuilder result = new StringBuilder();
+    for (Map.Entry<String, MnemonicStatistics> entry : statistics.entrySet()) {
+      MnemonicStatistics stats = entry.getValue();
+      long remoteWins = stats.totalRaces - stats.totalLocalWins;
+      result.append(
+          String.format(
+              "%s: %d races (local won %d in %.3fs avg, remote won %d in %.3fs avg), "
+                  + "%d only remote%n",
+              entry.getKey(),
+              stats.totalRaces,
+              stats.totalLocalWins,
+              average(stats.localWinNanos, stats.totalLocalWins),
+              remoteWins,
+              average(stats.remoteWinNanos, remoteWins),
+              stats.totalSkipped));
+    }
+    return result.toString();
+  }
+
+  private static double average(long nanos, long count) {
+    return count == 0 ? 0 : nanos / 1e9 / count;
+  }
+}
@@ -0,0 +1,296 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.Spawns;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A spawn strategy that executes each spawn both with a local and with a remote strategy, takes the
+ * result of whichever finishes first and cancels the other.
+ *
+ * <p>Both strategies execute the spawn without touching the execution root. When one of them is
+ * done, it claims the right to write the outputs by setting a shared {@link AtomicReference} (see
+ * {@link SandboxedSpawnActionContext}); the other one then abandons its results. Each execution
+ * writes its stdout and stderr to its own files, and only those of the winner are copied to the
+ * action's output.
+ *
+ * <p>The number of concurrent local executions is limited; spawns that don't get a local slot are
+ * only executed remotely, as are spawns whose mnemonic rarely wins locally according to the {@link
+ * DynamicExecutionStatistics}. Spawns that must not be executed remotely are only executed locally.
+ */
+@ThreadSafe
+@ExecutionStrategy(
+  name = {"dynamic"},
+  contextType = SpawnActionContext.class
+)
+final class DynamicSpawnStrategy implements SpawnActionContext {
+  private static final Logger logger = Logger.getLogger(DynamicSpawnStrategy.class.getName());
+
+  private final ExecutorService executorService;
+  private final Semaphore localSlots;
+  private final DynamicExecutionStatistics statistics;
+
+  // Set by DynamicActionContextProvider#executorCreated, once all strategies exist.
+  private volatile SandboxedSpawnActionContext localStrategy;
+  private volatile SandboxedSpawnActionContext remoteStrategy;
+
+  DynamicSpawnStrategy(
+      ExecutorService executorService, int localJobs, DynamicExecutionStatistics statistics) {
+    Preconditions.checkArgument(localJobs > 0, localJobs);
+    this.executorService = executorService;
+    this.localSlots = new Semaphore(localJobs);
+    this.statistics = statistics;
+  }
+
+  void setStrategies(
+      SandboxedSpawnActionContext localStrategy, SandboxedSpawnActionContext remoteStrategy) {
+    this.localStrategy = Preconditions.checkNotNull(localStrategy);
+    this.remoteStrategy = Preconditions.checkNotNull(remoteStrategy);
+  }
+
+  @Override
+  public List<SpawnResult> exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    Preconditions.checkState(localStrategy != null, "Strategies not set");
+    if (!Spawns.mayBeExecutedRemotely(spawn)) {
+      return localStrategy.exec(spawn, actionExecutionContext);
+    }
+    if (!statistics.shouldRace(spawn.getMnemonic()) || !localSlots.tryAcquire()) {
+      return remoteStrategy.exec(spawn, actionExecutionContext);
+    }
+    return race(spawn, actionExecutionContext);
+  }
+
+  /**
+   * Executes {@code spawn} locally and remotely at the same time. Must be called with a local slot,
+   * which is released when the local execution is done.
+   */
+  private List<SpawnResult> race(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    AtomicReference<Class<? extends SpawnActionContext>> outputsOwner = new AtomicReference<>();
+    BlockingQueue<Branch> finished = new LinkedBlockingQueue<>();
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    Branch local =
+        new Branch(
+            localStrategy,
+            spawn,
+            actionExecutionContext.withFileOutErr(createBranchOutErr(outErr, ".local")),
+            outputsOwner,
+            finished,
+            localSlots::release);
+    Branch remote =
+        new Branch(
+            remoteStrategy,
+            spawn,
+            actionExecutionContext.withFileOutErr(createBranchOutErr(outErr, ".remote")),
+            outputsOwner,
+            finished,
+            () -> {});
+
+    long startTime = System.nanoTime();
+    try {
+      local.submit(executorService);
+    } catch (RuntimeException e) {
+      localSlots.release();
+      throw e;
+    }
+    try {
+      remote.submit(executorService);
+      Branch winner = finished.take();
+      if (!winner.succeeded() && !winner.ownsOutputs()) {
+        // The first branch failed without touching the outputs, e.g. because the remote system is
+        // unavailable, or it lost the race. Either way, the other one decides.
+        winner = finished.take();
+      }
+      Branch loser = winner == local ? remote : local;
+      loser.cancelAndAwait();
+      statistics.recordRace(
+          spawn.getMnemonic(), winner == local, Duration.ofNanos(System.nanoTime() - startTime));
+      copyOutErr(winner.context.getFileOutErr(), outErr);
+      return winner.getResult();
+    } finally {
+      // Also reached when this thread is interrupted.
+      local.cancelAndAwait();
+      remote.cancelAndAwait();
+      clearOutErr(local.context.getFileOutErr());
+      clearOutErr(remote.context.getFileOutErr());
+    }
+  }
+
+  /** Returns a {@link FileOutErr} that writes to files next to those of {@code outErr}. */
+  private static FileOutErr createBranchOutErr(FileOutErr outErr, String suffix) {
+    Path outputPath = outErr.getOutputPath();
+    Path errorPath = outErr.getErrorPath();
+    if (outputPath == null || errorPath == null) {
+      return new FileOutErr();
+    }
+    if (outputPath.equals(errorPath)) {
+      return new FileOutErr(withSuffix(outputPath, suffix));
+    }
+    return new FileOutErr(withSuffix(outputPath, suffix), withSuffix(errorPath, suffix));
+  }
+
+  private static Path withSuffix(Path path, String suffix) {
+    return path.getParentDirectory().getChild(path.getBaseName() + suffix);
+  }
+
+  private static void copyOutErr(FileOutErr from, FileOutErr to) {
+    try {
+      // The branch is done; make sure everything it wrote is on disk.
+      from.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close output of a dynamic execution branch", e);
+    }
+    if (from.hasRecordedStdout()) {
+      from.dumpOutAsLatin1(to.getOutputStream());
+    }
+    if (from.hasRecordedStderr() && !from.getErrorPath().equals(from.getOutputPath())) {
+      from.dumpErrAsLatin1(to.getErrorStream());
+    }
+  }
+
+  private static void clearOutErr(FileOutErr outErr) {
+    try {
+      outErr.clearOut();
+      outErr.clearErr();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to delete output of a dynamic execution branch", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "dynamic";
+  }
+
+  /** One of the two executions of a raced spawn. */
+  private static final class Branch implements Runnable {
+    private final SandboxedSpawnActionContext strategy;
+    private final Spawn spawn;
+    private final ActionExecutionContext context;
+    private final AtomicReference<Class<? extends SpawnActionContext>> outputsOwner;
+    private final BlockingQueue<Branch> finished;
+    private final Runnable onDone;
+    private final CountDownLatch done = new CountDownLatch(1);
+    // Only accessed by the thread that races the spawn.
+    private boolean submitted;
+
+    // Guarded by this; the thread is null until the branch runs and after it is done.
+    @Nullable private Thread thread;
+    private boolean cancelled;
+
+    // Written before done is counted down.
+    private List<SpawnResult> result;
+    private Throwable failure;
+
+    Branch(
+        SandboxedSpawnActionContext strategy,
+        Spawn spawn,
+        ActionExecutionContext context,
+        AtomicReference<Class<? extends SpawnActionContext>> outputsOwner,
+        BlockingQueue<Branch> finished,
+        Runnable onDone) {
+      this.strategy = strategy;
+      this.spawn = spawn;
+      this.context = context;
+      this.outputsOwner = outputsOwner;
+      this.finished = finished;
+      this.onDone = onDone;
+    }
+
+    void submit(ExecutorService executorService) {
+      executorService.execute(this);
+      submitted = true;
+    }
+
+    @Override
+    public void run() {
+      try {
+        synchronized (this) {
+          if (cancelled) {
+            throw new InterruptedException();
+          }
+          thread = Thread.currentThread();
+        }
+        result = strategy.exec(spawn, context, outputsOwner);
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        synchronized (this) {
+          thread = null;
+          // Don't leak the interrupt into the next task of the pool.
+          Thread.interrupted();
+        }
+        onDone.run();
+        done.countDown();
+        finished.add(this);
+      }
+    }
+
+    /** Interrupts this branch if it is still running and waits until it is done. */
+    void cancelAndAwait() {
+      synchronized (this) {
+        cancelled = true;
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+      if (submitted) {
+        Uninterruptibles.awaitUninterruptibly(done);
+      }
+    }
+
+    boolean succeeded() {
+      return failure == null;
+    }
+
+    /** Returns whether this branch claimed the right to write the outputs of the spawn. */
+    boolean ownsOutputs() {
+      return outputsOwner.get() == strategy.getClass();
+    }
+
+    List<SpawnResult> getResult() throws ExecException, InterruptedException {
+      if (failure != null) {
+        Throwables.propagateIfPossible(failure, ExecException.class, InterruptedException.class);
+        throw new IllegalStateException(failure);
+      }
+      return result;
+    }
+  }
+}
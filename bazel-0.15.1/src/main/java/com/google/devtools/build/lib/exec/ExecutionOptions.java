@@ -300,6 +300,18 @@ public class ExecutionOptions extends OptionsBase {
   )
   public String executionLogFile;
 
+  @Option(
+    name = "experimental_incremental_runfiles_update",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "If enabled, runfiles trees are updated in process by only writing the entries that "
+            + "changed since the tree was last created, instead of running build-runfiles to "
+            + "check the whole tree."
+  )
+  public boolean incrementalRunfilesUpdate;
+
   /** Converter for the --flaky_test_attempts option. */
   public static class TestAttemptsConverter extends PerLabelOptions.PerLabelOptionsConverter {
     private static final int MIN_VALUE = 1;
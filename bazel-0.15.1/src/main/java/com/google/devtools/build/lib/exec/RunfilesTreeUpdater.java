@@ -0,0 +1,158 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Updates a runfiles tree in process by applying the difference between the manifest it was last
+ * created from and the new input manifest, instead of letting {@code build-runfiles} scan and
+ * compare the whole tree.
+ *
+ * <p>The manifest the tree was last created from is kept in the tree as {@link #APPLIED_MANIFEST}.
+ * The regular output manifest can't be used for that, because it is deleted before the symlink
+ * tree action runs. The applied manifest is deleted before the tree is modified and written again
+ * only once the tree is complete, so a tree that was left behind half-updated is never trusted.
+ * {@code build-runfiles} deletes it as an extraneous file when it recreates the tree.
+ *
+ * <p>Only runfiles trees are supported; fileset trees have relative links and metadata lines.
+ */
+final class RunfilesTreeUpdater {
+  @VisibleForTesting static final String APPLIED_MANIFEST = "MANIFEST.applied";
+
+  private final Path inputManifest;
+  private final Path symlinkTreeRoot;
+
+  RunfilesTreeUpdater(Path inputManifest, Path symlinkTreeRoot) {
+    this.inputManifest = inputManifest;
+    this.symlinkTreeRoot = symlinkTreeRoot;
+  }
+
+  /**
+   * Brings the tree up to date with the input manifest and writes its output manifest.
+   *
+   * @return false, without modifying anything, if it is not known which manifest the existing tree
+   *     was created from; the tree then has to be recreated by {@code build-runfiles}
+   * @throws IOException if the tree could not be updated; it is then left in an unknown state and
+   *     has to be recreated by {@code build-runfiles}
+   */
+  boolean update() throws IOException {
+    Path appliedManifest = symlinkTreeRoot.getChild(APPLIED_MANIFEST);
+    SortedMap<String, String> oldEntries;
+    if (appliedManifest.exists()) {
+      oldEntries = readManifest(appliedManifest);
+      appliedManifest.delete();
+    } else if (!symlinkTreeRoot.exists()) {
+      oldEntries = new TreeMap<>();
+    } else {
+      return false;
+    }
+    SortedMap<String, String> newEntries = readManifest(inputManifest);
+    symlinkTreeRoot.createDirectoryAndParents();
+    apply(oldEntries, newEntries);
+    writeManifests();
+    return true;
+  }
+
+  /** Records that the tree was just created from the input manifest by {@code build-runfiles}. */
+  void recordTreeCreated() throws IOException {
+    FileSystemUtils.copyFile(inputManifest, symlinkTreeRoot.getChild(APPLIED_MANIFEST));
+  }
+
+  private void apply(
+      SortedMap<String, String> oldEntries, SortedMap<String, String> newEntries)
+      throws IOException {
+    Set<String> newDirectories = new HashSet<>();
+    for (String link : newEntries.keySet()) {
+      for (int i = link.lastIndexOf('/'); i > 0; i = link.lastIndexOf('/', i - 1)) {
+        if (!newDirectories.add(link.substring(0, i))) {
+          break;
+        }
+      }
+    }
+
+    // Delete everything that is gone or changed first, so that an entry can turn into a directory
+    // and vice versa. Entries are processed in order, so that those in the same directory are
+    // written together.
+    for (Map.Entry<String, String> entry : oldEntries.entrySet()) {
+      String link = entry.getKey();
+      if (!Objects.equals(entry.getValue(), newEntries.get(link))) {
+        symlinkTreeRoot.getRelative(link).delete();
+        deleteEmptyParentDirectories(link, newDirectories);
+      }
+    }
+
+    for (Map.Entry<String, String> entry : newEntries.entrySet()) {
+      String link = entry.getKey();
+      String target = entry.getValue();
+      if (target.equals(oldEntries.get(link))) {
+        continue;
+      }
+      Path path = symlinkTreeRoot.getRelative(link);
+      path.getParentDirectory().createDirectoryAndParents();
+      if (target.isEmpty()) {
+        FileSystemUtils.createEmptyFile(path);
+      } else {
+        path.createSymbolicLink(PathFragment.create(target));
+      }
+    }
+  }
+
+  private void deleteEmptyParentDirectories(String link, Set<String> newDirectories)
+      throws IOException {
+    for (int i = link.lastIndexOf('/'); i > 0; i = link.lastIndexOf('/', i - 1)) {
+      String directory = link.substring(0, i);
+      Path path = symlinkTreeRoot.getRelative(directory);
+      if (newDirectories.contains(directory) || !path.getDirectoryEntries().isEmpty()) {
+        return;
+      }
+      path.delete();
+    }
+  }
+
+  private void writeManifests() throws IOException {
+    Path outputManifest = symlinkTreeRoot.getChild("MANIFEST");
+    Path temp = symlinkTreeRoot.getChild("MANIFEST.tmp");
+    FileSystemUtils.copyFile(inputManifest, temp);
+    temp.renameTo(outputManifest);
+    recordTreeCreated();
+  }
+
+  /** Reads a runfiles manifest into a map from link to target, which is empty for empty files. */
+  @VisibleForTesting
+  static SortedMap<String, String> readManifest(Path manifest) throws IOException {
+    SortedMap<String, String> entries = new TreeMap<>();
+    for (String line : FileSystemUtils.iterateLinesAsLatin1(manifest)) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      if (space <= 0 || line.startsWith("/")) {
+        throw new IOException("Malformed line in runfiles manifest " + manifest + ": " + line);
+      }
+      entries.put(line.substring(0, space), line.substring(space + 1));
+    }
+    return entries;
+  }
+}
@@ -35,12 +35,16 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Helper class responsible for the symlink tree creation. Used to generate runfiles and fileset
  * symlink farms.
  */
 public final class SymlinkTreeHelper {
+  private static final Logger logger = Logger.getLogger(SymlinkTreeHelper.class.getName());
+
   @VisibleForTesting
   public static final String BUILD_RUNFILES = "build-runfiles" + OsUtils.executableExtension();
 
@@ -129,6 +133,36 @@ public final class SymlinkTreeHelper {
     }
   }
 
+  /**
+   * Creates a runfiles symlink tree by updating the existing one in process where possible, and by
+   * running build-runfiles otherwise.
+   *
+   * <p>Only the entries that changed since the tree was last created are written, which is much
+   * faster than build-runfiles for large trees of which only a few entries change.
+   */
+  public void updateRunfilesSymlinks(
+      ActionExecutionContext actionExecutionContext,
+      BinTools binTools,
+      ImmutableMap<String, String> shellEnvironment)
+      throws ExecException {
+    Preconditions.checkState(!filesetTree);
+    RunfilesTreeUpdater updater = new RunfilesTreeUpdater(inputManifest, symlinkTreeRoot);
+    try {
+      if (updater.update()) {
+        return;
+      }
+    } catch (IOException e) {
+      logger.log(
+          Level.WARNING, "Failed to update " + symlinkTreeRoot + ", recreating it from scratch", e);
+    }
+    createSymlinks(actionExecutionContext, binTools, shellEnvironment, /*enableRunfiles=*/ true);
+    try {
+      updater.recordTreeCreated();
+    } catch (IOException e) {
+      throw new UserExecException(e.getMessage(), e);
+    }
+  }
+
   @VisibleForTesting
   Spawn createSpawn(
       ActionExecutionMetadata owner,
@@ -22,6 +22,7 @@ import com.google.devtools.build.lib.analysis.actions.SymlinkTreeAction;
 import com.google.devtools.build.lib.analysis.actions.SymlinkTreeActionContext;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.skyframe.OutputService;
+import com.google.devtools.build.lib.util.OS;
 import java.util.logging.Logger;
 
 /**
@@ -34,10 +35,18 @@ public final class SymlinkTreeStrategy implements SymlinkTreeActionContext {
 
   private final OutputService outputService;
   private final BinTools binTools;
+  private final boolean incrementalRunfilesUpdate;
 
   public SymlinkTreeStrategy(OutputService outputService, BinTools binTools) {
+    this(outputService, binTools, /*incrementalRunfilesUpdate=*/ false);
+  }
+
+  public SymlinkTreeStrategy(
+      OutputService outputService, BinTools binTools, boolean incrementalRunfilesUpdate) {
     this.outputService = outputService;
     this.binTools = binTools;
+    // Relies on symlinks created through the Java file system, which Windows doesn't support.
+    this.incrementalRunfilesUpdate = incrementalRunfilesUpdate && OS.getCurrent() != OS.WINDOWS;
   }
 
   @Override
@@ -65,7 +74,12 @@ public final class SymlinkTreeStrategy implements SymlinkTreeActionContext {
                       .getInputPath(action.getOutputManifest())
                       .getParentDirectory(),
                   action.isFilesetTree());
-          helper.createSymlinks(actionExecutionContext, binTools, shellEnvironment, enableRunfiles);
+          if (incrementalRunfilesUpdate && enableRunfiles && !action.isFilesetTree()) {
+            helper.updateRunfilesSymlinks(actionExecutionContext, binTools, shellEnvironment);
+          } else {
+            helper.createSymlinks(
+                actionExecutionContext, binTools, shellEnvironment, enableRunfiles);
+          }
         }
       } catch (ExecException e) {
         throw e.toActionExecutionException(
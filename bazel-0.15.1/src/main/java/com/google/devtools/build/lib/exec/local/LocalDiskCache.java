@@ -0,0 +1,415 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of spawn outputs that can be shared by all Bazel servers of a user.
+ *
+ * <p>The cache consists of a content-addressed store of files ({@code cas/}), and of entries that
+ * map a spawn key to the outputs of the spawn ({@code ac/}). Both are sharded by the first two
+ * characters of their name. Files are copied into the store, and hard-linked out of it whenever
+ * possible, so a cache hit doesn't copy any data. To make that safe, all files in the store are
+ * read-only. Outputs are never linked into the store: a spawn or the user may still write to them
+ * in place, which would change the cached contents.
+ *
+ * <p>All updates are done by renaming a fully written temporary file, so concurrent readers and
+ * writers, even from other processes, only ever see complete files. The modification time of an
+ * entry records when it was last used, which {@link #collectGarbage} uses to evict the least
+ * recently used entries first.
+ */
+@ThreadSafe
+final class LocalDiskCache {
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  /** Temporary files older than this are left over from crashed processes. */
+  private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /** A single output file of a cached spawn. */
+  static final class OutputFile {
+    private final PathFragment execPath;
+    private final String digest;
+    private final boolean executable;
+
+    OutputFile(PathFragment execPath, String digest, boolean executable) {
+      this.execPath = Preconditions.checkNotNull(execPath);
+      this.digest = Preconditions.checkNotNull(digest);
+      this.executable = executable;
+    }
+
+    PathFragment getExecPath() {
+      return execPath;
+    }
+
+    String getDigest() {
+      return digest;
+    }
+
+    boolean isExecutable() {
+      return executable;
+    }
+  }
+
+  /** The outputs of a cached spawn. */
+  static final class Entry {
+    @Nullable private final String stdoutDigest;
+    @Nullable private final String stderrDigest;
+    private final ImmutableList<OutputFile> outputFiles;
+
+    Entry(
+        @Nullable String stdoutDigest,
+        @Nullable String stderrDigest,
+        ImmutableList<OutputFile> outputFiles) {
+      this.stdoutDigest = stdoutDigest;
+      this.stderrDigest = stderrDigest;
+      this.outputFiles = outputFiles;
+    }
+
+    /** Returns the digest of the spawn's stdout, or null if there was no output. */
+    @Nullable
+    String getStdoutDigest() {
+      return stdoutDigest;
+    }
+
+    /** Returns the digest of the spawn's stderr, or null if there was no output. */
+    @Nullable
+    String getStderrDigest() {
+      return stderrDigest;
+    }
+
+    ImmutableList<OutputFile> getOutputFiles() {
+      return outputFiles;
+    }
+
+    private String serialize() {
+      StringBuilder result = new StringBuilder();
+      if (stdoutDigest != null) {
+        result.append("stdout ").append(stdoutDigest).append('\n');
+      }
+      if (stderrDigest != null) {
+        result.append("stderr ").append(stderrDigest).append('\n');
+      }
+      for (OutputFile file : outputFiles) {
+        result
+            .append("file ")
+            .append(file.getDigest())
+            .append(file.isExecutable() ? " x " : " - ")
+            .append(file.getExecPath().getPathString())
+            .append('\n');
+      }
+      return result.toString();
+    }
+
+    private static Entry deserialize(String content) throws IOException {
+      String stdoutDigest = null;
+      String stderrDigest = null;
+      ImmutableList.Builder<OutputFile> outputFiles = ImmutableList.builder();
+      for (String line : content.split("\n")) {
+        String[] fields = line.split(" ", 4);
+        if (line.isEmpty()) {
+          continue;
+        } else if (fields.length == 2 && fields[0].equals("stdout")) {
+          stdoutDigest = fields[1];
+        } else if (fields.length == 2 && fields[0].equals("stderr")) {
+          stderrDigest = fields[1];
+        } else if (fields.length == 4 && fields[0].equals("file")) {
+          outputFiles.add(
+              new OutputFile(PathFragment.create(fields[3]), fields[1], fields[2].equals("x")));
+        } else {
+          throw new IOException("Corrupt cache entry: '" + line + "'");
+        }
+      }
+      return new Entry(stdoutDigest, stderrDigest, outputFiles.build());
+    }
+  }
+
+  private final Path root;
+  private final Path casDir;
+  private final Path acDir;
+  private final Path tmpDir;
+
+  /** The size of the store as of the last garbage collection, or -1 if unknown. */
+  private long lastKnownSize = -1;
+
+  /** The number of bytes added to the store by this process since the last garbage collection. */
+  private final AtomicLong bytesAdded = new AtomicLong();
+
+  LocalDiskCache(Path root) {
+    this.root = root;
+    this.casDir = root.getChild("cas");
+    this.acDir = root.getChild("ac");
+    this.tmpDir = root.getChild("tmp");
+  }
+
+  Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Returns the entry for {@code key} and marks it as recently used, or returns null if there is no
+   * complete entry for it.
+   */
+  @Nullable
+  Entry getEntry(String key) throws IOException {
+    Path entryPath = getShardedPath(acDir, key);
+    String content;
+    try {
+      content = new String(FileSystemUtils.readContent(entryPath), UTF_8);
+    } catch (IOException e) {
+      if (!entryPath.exists()) {
+        return null;
+      }
+      throw e;
+    }
+    Entry entry = Entry.deserialize(content);
+    // Files may have been garbage collected by another process in the meantime.
+    for (OutputFile file : entry.getOutputFiles()) {
+      if (!getBlobPath(file.getDigest(), file.isExecutable()).exists()) {
+        return null;
+      }
+    }
+    if ((entry.getStdoutDigest() != null && !getBlobPath(entry.getStdoutDigest(), false).exists())
+        || (entry.getStderrDigest() != null
+            && !getBlobPath(entry.getStderrDigest(), false).exists())) {
+      return null;
+    }
+    entryPath.setLastModifiedTime(-1L);
+    return entry;
+  }
+
+  /** Adds or replaces the entry for {@code key}. All its files must already be in the store. */
+  void putEntry(String key, Entry entry) throws IOException {
+    Path tmp = createTempPath();
+    FileSystemUtils.writeContent(tmp, UTF_8, entry.serialize());
+    Path entryPath = getShardedPath(acDir, key);
+    entryPath.getParentDirectory().createDirectoryAndParents();
+    tmp.renameTo(entryPath);
+  }
+
+  /**
+   * Copies the contents of {@code file} to the store, unless they are already there, and returns
+   * their digest.
+   */
+  String putFile(Path file, boolean executable) throws IOException {
+    String digest = HEX.encode(file.getDigest());
+    Path blob = getBlobPath(digest, executable);
+    if (blob.exists()) {
+      return digest;
+    }
+    Path tmp = createTempPath();
+    try (InputStream in = file.getInputStream();
+        OutputStream out = tmp.getOutputStream()) {
+      ByteStreams.copy(in, out);
+    }
+    tmp.setExecutable(executable);
+    tmp.setWritable(false);
+    blob.getParentDirectory().createDirectoryAndParents();
+    tmp.renameTo(blob);
+    bytesAdded.addAndGet(blob.getFileSize());
+    return digest;
+  }
+
+  /**
+   * Creates {@code target} with the contents of the given file from the store, hard-linking it if
+   * possible. Any existing file at {@code target} is replaced.
+   */
+  void materializeFile(String digest, boolean executable, Path target) throws IOException {
+    Path blob = getBlobPath(digest, executable);
+    target.getParentDirectory().createDirectoryAndParents();
+    target.delete();
+    try {
+      blob.createHardLink(target);
+    } catch (IOException | UnsupportedOperationException e) {
+      FileSystemUtils.copyFile(blob, target);
+    }
+  }
+
+  /** Writes the contents of the given (non-executable) file from the store to {@code out}. */
+  void writeFile(String digest, OutputStream out) throws IOException {
+    try (InputStream in = getBlobPath(digest, false).getInputStream()) {
+      ByteStreams.copy(in, out);
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns whether the store may have grown beyond {@code maxSizeBytes} since the last garbage
+   * collection, i.e., whether {@link #collectGarbage} would do anything.
+   */
+  synchronized boolean needsGarbageCollection(long maxSizeBytes) {
+    return lastKnownSize < 0 || lastKnownSize + bytesAdded.get() > maxSizeBytes;
+  }
+
+  /**
+   * Deletes the least recently used entries until the store is at most 90% of {@code maxSizeBytes}
+   * large. The margin keeps us from collecting garbage after every single build.
+   *
+   * @return the number of bytes freed
+   */
+  synchronized long collectGarbage(long maxSizeBytes) throws IOException {
+    long now = System.currentTimeMillis();
+    deleteStaleTempFiles(now);
+
+    Map<String, Long> blobSizes = new HashMap<>();
+    long totalSize = 0;
+    for (Path blob : listShardedFiles(casDir)) {
+      FileStatus stat = blob.statIfFound(Symlinks.NOFOLLOW);
+      if (stat != null) {
+        blobSizes.put(blob.getBaseName(), stat.getSize());
+        totalSize += stat.getSize();
+      }
+    }
+
+    List<Path> entries = new ArrayList<>();
+    Map<Path, Long> entryTimes = new HashMap<>();
+    Map<Path, List<String>> entryBlobs = new HashMap<>();
+    Map<String, Integer> refCounts = new HashMap<>();
+    for (Path entryPath : listShardedFiles(acDir)) {
+      FileStatus stat = entryPath.statIfFound(Symlinks.NOFOLLOW);
+      if (stat == null) {
+        continue;
+      }
+      List<String> blobs;
+      try {
+        blobs =
+            getBlobNames(
+                Entry.deserialize(new String(FileSystemUtils.readContent(entryPath), UTF_8)));
+      } catch (IOException e) {
+        // Racing with another process, or corrupt; in either case, the entry is of no use.
+        entryPath.delete();
+        continue;
+      }
+      entries.add(entryPath);
+      entryTimes.put(entryPath, stat.getLastModifiedTime());
+      entryBlobs.put(entryPath, blobs);
+      for (String blob : blobs) {
+        refCounts.merge(blob, 1, Integer::sum);
+      }
+    }
+
+    long targetSize = maxSizeBytes - maxSizeBytes / 10;
+    long freed = 0;
+    // Files that are no longer referenced are only deleted once we're over the limit, since
+    // another process may be in the middle of adding an entry for them.
+    if (totalSize > maxSizeBytes) {
+      for (Map.Entry<String, Long> blob : blobSizes.entrySet()) {
+        if (!refCounts.containsKey(blob.getKey()) && totalSize > targetSize) {
+          deleteBlob(blob.getKey());
+          totalSize -= blob.getValue();
+          freed += blob.getValue();
+        }
+      }
+      entries.sort(Comparator.comparing(entryTimes::get));
+      for (Path entryPath : entries) {
+        if (totalSize <= targetSize) {
+          break;
+        }
+        entryPath.delete();
+        for (String blob : entryBlobs.get(entryPath)) {
+          if (refCounts.merge(blob, -1, Integer::sum) == 0 && blobSizes.containsKey(blob)) {
+            deleteBlob(blob);
+            totalSize -= blobSizes.get(blob);
+            freed += blobSizes.get(blob);
+          }
+        }
+      }
+    }
+
+    lastKnownSize = totalSize;
+    bytesAdded.set(0);
+    return freed;
+  }
+
+  @VisibleForTesting
+  Path getBlobPath(String digest, boolean executable) {
+    return getShardedPath(casDir, executable ? digest + "x" : digest);
+  }
+
+  private static List<String> getBlobNames(Entry entry) {
+    List<String> result = new ArrayList<>();
+    if (entry.getStdoutDigest() != null) {
+      result.add(entry.getStdoutDigest());
+    }
+    if (entry.getStderrDigest() != null) {
+      result.add(entry.getStderrDigest());
+    }
+    for (OutputFile file : entry.getOutputFiles()) {
+      result.add(file.isExecutable() ? file.getDigest() + "x" : file.getDigest());
+    }
+    return result;
+  }
+
+  private void deleteBlob(String name) throws IOException {
+    getShardedPath(casDir, name).delete();
+  }
+
+  private void deleteStaleTempFiles(long now) throws IOException {
+    if (!tmpDir.exists()) {
+      return;
+    }
+    for (Path tmp : tmpDir.getDirectoryEntries()) {
+      FileStatus stat = tmp.statIfFound(Symlinks.NOFOLLOW);
+      if (stat != null && now - stat.getLastModifiedTime() > STALE_TEMP_FILE_MILLIS) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static List<Path> listShardedFiles(Path dir) throws IOException {
+    List<Path> result = new ArrayList<>();
+    if (!dir.exists()) {
+      return result;
+    }
+    for (Path shard : dir.getDirectoryEntries()) {
+      if (shard.isDirectory(Symlinks.NOFOLLOW)) {
+        result.addAll(shard.getDirectoryEntries());
+      }
+    }
+    return result;
+  }
+
+  private Path createTempPath() throws IOException {
+    tmpDir.createDirectoryAndParents();
+    return tmpDir.getChild(UUID.randomUUID().toString());
+  }
+
+  private static Path getShardedPath(Path dir, String name) {
+    return dir.getChild(name.substring(0, 2)).getChild(name);
+  }
+}
@@ -59,4 +59,16 @@ public class LocalExecutionOptions extends OptionsBase {
             + "locally executed actions which don't use sandboxing"
   )
   public boolean collectLocalExecutionStatistics;
+
+  @Option(
+    name = "experimental_local_direct_output",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "When enabled, the stdout and stderr of local actions that run without the process "
+            + "wrapper are written directly to their output files by the operating system, "
+            + "instead of being copied through the Bazel server by one thread per stream"
+  )
+  public boolean localDirectOutput;
 }
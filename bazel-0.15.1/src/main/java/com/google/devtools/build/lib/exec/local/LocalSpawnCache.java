@@ -0,0 +1,282 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.SpawnResult.Status;
+import com.google.devtools.build.lib.actions.Spawns;
+import com.google.devtools.build.lib.actions.cache.Metadata;
+import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
+import com.google.devtools.build.lib.analysis.platform.PlatformInfo;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.SpawnCache;
+import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
+import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
+import com.google.devtools.build.lib.exec.local.LocalDiskCache.Entry;
+import com.google.devtools.build.lib.exec.local.LocalDiskCache.OutputFile;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SpawnCache} that stores the outputs of successful spawns in a {@link LocalDiskCache},
+ * for builds without a remote cache.
+ *
+ * <p>The key of a spawn covers its command line, environment, execution info and execution
+ * platform, the paths and digests of all its inputs, and the paths of its outputs; it doesn't
+ * depend on the location of the execution root, so different workspaces of the same user share
+ * cache entries.
+ */
+@ThreadSafe
+@ExecutionStrategy(
+    name = {"local-cache"},
+    contextType = SpawnCache.class)
+final class LocalSpawnCache implements SpawnCache {
+  /** Change this whenever the key computation changes, to invalidate all existing entries. */
+  private static final String KEY_VERSION = "2";
+
+  private final Path execRoot;
+  private final LocalDiskCache cache;
+  @Nullable private final Reporter cmdlineReporter;
+
+  private final Set<String> reportedErrors = new HashSet<>();
+
+  LocalSpawnCache(Path execRoot, LocalDiskCache cache, @Nullable Reporter cmdlineReporter) {
+    this.execRoot = execRoot;
+    this.cache = cache;
+    this.cmdlineReporter = cmdlineReporter;
+  }
+
+  @Override
+  public CacheHandle lookup(Spawn spawn, SpawnExecutionContext context)
+      throws InterruptedException, IOException {
+    if (!Spawns.mayBeCached(spawn)) {
+      return SpawnCache.NO_RESULT_NO_STORE;
+    }
+    String key = computeKey(spawn, context);
+    if (key == null) {
+      return SpawnCache.NO_RESULT_NO_STORE;
+    }
+
+    context.report(ProgressStatus.CHECKING_CACHE, "local-cache");
+    Entry entry = null;
+    try {
+      entry = cache.getEntry(key);
+    } catch (IOException e) {
+      reportError("Error reading from the local spawn cache", e);
+    }
+    if (entry != null) {
+      context.lockOutputFiles();
+      if (materialize(entry, context.getFileOutErr())) {
+        SpawnResult spawnResult =
+            new SpawnResult.Builder()
+                .setStatus(Status.SUCCESS)
+                .setExitCode(0)
+                .setCacheHit(true)
+                .setRunnerName("local cache hit")
+                .build();
+        return SpawnCache.success(spawnResult);
+      }
+    }
+
+    return new CacheHandle() {
+      @Override
+      public boolean hasResult() {
+        return false;
+      }
+
+      @Override
+      public SpawnResult getResult() {
+        throw new NoSuchElementException();
+      }
+
+      @Override
+      public boolean willStore() {
+        return true;
+      }
+
+      @Override
+      public void store(SpawnResult result) {
+        if (!Status.SUCCESS.equals(result.status()) || result.exitCode() != 0) {
+          return;
+        }
+        try {
+          Entry newEntry = createEntry(spawn, context.getFileOutErr());
+          if (newEntry != null) {
+            cache.putEntry(key, newEntry);
+          }
+        } catch (IOException e) {
+          reportError("Error writing to the local spawn cache", e);
+        }
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  /**
+   * Computes the cache key for {@code spawn}, or returns null if the spawn has inputs whose
+   * contents we can't identify by digest, like directories.
+   */
+  @VisibleForTesting
+  @Nullable
+  static String computeKey(Spawn spawn, SpawnExecutionContext context) throws IOException {
+    Fingerprint fp = new Fingerprint();
+    fp.addString(KEY_VERSION);
+    fp.addStrings(spawn.getArguments());
+    fp.addStringMap(ImmutableSortedMap.copyOf(spawn.getEnvironment()));
+    fp.addStringMap(ImmutableSortedMap.copyOf(spawn.getExecutionInfo()));
+    PlatformInfo executionPlatform = spawn.getExecutionPlatform();
+    fp.addBoolean(executionPlatform != null);
+    if (executionPlatform != null) {
+      executionPlatform.addTo(fp);
+    }
+
+    SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping();
+    fp.addInt(inputMap.size());
+    for (Map.Entry<PathFragment, ActionInput> input : inputMap.entrySet()) {
+      fp.addPath(input.getKey());
+      if (input.getValue() == null) {
+        // An empty file, e.g. an __init__.py in the runfiles tree.
+        fp.addInt(0);
+      } else if (input.getValue() instanceof VirtualActionInput) {
+        byte[] content = ((VirtualActionInput) input.getValue()).getBytes().toByteArray();
+        fp.addInt(content.length);
+        fp.addBytes(content);
+      } else {
+        Metadata metadata = context.getActionInputFileCache().getMetadata(input.getValue());
+        if (metadata == null || metadata.getDigest() == null) {
+          return null;
+        }
+        fp.addBytes(metadata.getDigest());
+      }
+    }
+
+    Set<PathFragment> outputPaths = new TreeSet<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputPaths.add(output.getExecPath());
+    }
+    fp.addPaths(outputPaths);
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Adds the outputs of {@code spawn} to the cache and returns the entry describing them, or
+   * returns null if the outputs can't be cached, e.g. because they include a directory.
+   */
+  @Nullable
+  private Entry createEntry(Spawn spawn, FileOutErr outErr) throws IOException {
+    ImmutableList.Builder<OutputFile> outputFiles = ImmutableList.builder();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      Path path = execRoot.getRelative(output.getExecPath());
+      FileStatus stat = path.statIfFound(Symlinks.NOFOLLOW);
+      if (stat == null) {
+        // Outputs may be optional.
+        continue;
+      }
+      if (!stat.isFile() || output.getExecPathString().contains("\n")) {
+        return null;
+      }
+      boolean executable = path.isExecutable();
+      String digest = cache.putFile(path, executable);
+      outputFiles.add(new OutputFile(output.getExecPath(), digest, executable));
+    }
+    String stdoutDigest =
+        outErr.hasRecordedStdout() ? cache.putFile(outErr.getOutputPath(), false) : null;
+    String stderrDigest =
+        outErr.hasRecordedStderr() ? cache.putFile(outErr.getErrorPath(), false) : null;
+    return new Entry(stdoutDigest, stderrDigest, outputFiles.build());
+  }
+
+  /**
+   * Creates the outputs described by {@code entry} in the execution root. Returns false and removes
+   * whatever it already created if that fails, so that the spawn can be executed instead.
+   */
+  private boolean materialize(Entry entry, FileOutErr outErr) {
+    List<Path> created = new ArrayList<>();
+    try {
+      for (OutputFile file : entry.getOutputFiles()) {
+        Path target = execRoot.getRelative(file.getExecPath());
+        cache.materializeFile(file.getDigest(), file.isExecutable(), target);
+        created.add(target);
+      }
+      if (entry.getStdoutDigest() != null) {
+        cache.writeFile(entry.getStdoutDigest(), outErr.getOutputStream());
+      }
+      if (entry.getStderrDigest() != null) {
+        cache.writeFile(entry.getStderrDigest(), outErr.getErrorStream());
+      }
+      return true;
+    } catch (IOException e) {
+      try {
+        // Never leave behind hard links into the cache that an execution could write through.
+        for (Path path : created) {
+          path.delete();
+        }
+        outErr.clearOut();
+        outErr.clearErr();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      reportError("Error reading from the local spawn cache", e);
+      return false;
+    }
+  }
+
+  private void reportError(String message, IOException e) {
+    String errorMsg = e.getMessage();
+    if (isNullOrEmpty(errorMsg)) {
+      errorMsg = e.getClass().getSimpleName();
+    }
+    report(Event.warn(message + ":\n" + errorMsg));
+  }
+
+  private void report(Event evt) {
+    if (cmdlineReporter == null) {
+      return;
+    }
+
+    synchronized (this) {
+      if (reportedErrors.contains(evt.getMessage())) {
+        return;
+      }
+      reportedErrors.add(evt.getMessage());
+      cmdlineReporter.handle(evt);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.OptionsBase;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Module that provides a {@link LocalSpawnCache}, if enabled. Must be loaded before the remote
+ * module, so that a remote cache takes precedence.
+ */
+public final class LocalSpawnCacheModule extends BlazeModule {
+  private static final Logger logger = Logger.getLogger(LocalSpawnCacheModule.class.getName());
+
+  private CommandEnvironment env;
+  private LocalSpawnCacheOptions options;
+  // Kept across commands to remember how much we added since the last garbage collection.
+  private LocalDiskCache cache;
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return "build".equals(command.name())
+        ? ImmutableList.of(LocalSpawnCacheOptions.class)
+        : ImmutableList.of();
+  }
+
+  @Override
+  public void beforeCommand(CommandEnvironment env) {
+    this.env = env;
+    env.getEventBus().register(this);
+  }
+
+  @Override
+  public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
+    options = request.getOptions(LocalSpawnCacheOptions.class);
+    if (options == null || !options.localSpawnCache) {
+      return;
+    }
+    Path root =
+        options.localSpawnCacheDir == null
+            ? env.getDirectories()
+                .getServerDirectories()
+                .getOutputUserRoot()
+                .getRelative("spawn-cache")
+            : env.getWorkingDirectory().getRelative(options.localSpawnCacheDir);
+    // Digests computed with different hash functions must not be mixed up.
+    root = root.getChild(root.getFileSystem().getDigestFunction().name().toLowerCase());
+    if (cache == null || !cache.getRoot().equals(root)) {
+      cache = new LocalDiskCache(root);
+    }
+    builder.addActionContext(new LocalSpawnCache(env.getExecRoot(), cache, env.getReporter()));
+  }
+
+  @Subscribe
+  public void buildComplete(BuildCompleteEvent event) {
+    if (options == null || !options.localSpawnCache || cache == null) {
+      return;
+    }
+    long maxSizeBytes = options.localSpawnCacheMaxSizeMb * 1024 * 1024;
+    if (!cache.needsGarbageCollection(maxSizeBytes)) {
+      return;
+    }
+    try (AutoProfiler p = AutoProfiler.logged("collecting local spawn cache garbage", logger)) {
+      cache.collectGarbage(maxSizeBytes);
+    } catch (IOException e) {
+      env.getReporter()
+          .handle(Event.warn("Failed to clean up the local spawn cache: " + e.getMessage()));
+    }
+  }
+
+  @Override
+  public void afterCommand() {
+    this.env = null;
+    this.options = null;
+  }
+}
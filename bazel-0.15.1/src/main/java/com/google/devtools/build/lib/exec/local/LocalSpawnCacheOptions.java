@@ -0,0 +1,61 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionDocumentationCategory;
+import com.google.devtools.common.options.OptionEffectTag;
+import com.google.devtools.common.options.OptionsBase;
+
+/** Options for the local spawn cache. */
+public class LocalSpawnCacheOptions extends OptionsBase {
+
+  @Option(
+    name = "experimental_local_spawn_cache",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "If enabled, the outputs of locally executed actions are stored in a cache on the local "
+            + "disk that is shared by all workspaces, and reused instead of executing an action "
+            + "again. Has no effect if a remote cache is used."
+  )
+  public boolean localSpawnCache;
+
+  @Option(
+    name = "experimental_local_spawn_cache_dir",
+    defaultValue = "null",
+    converter = OptionsUtils.PathFragmentConverter.class,
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "The directory of the local spawn cache. Defaults to a directory in the output user "
+            + "root. Outputs are hard-linked from the cache if it's on the same file system as the "
+            + "output base, and copied otherwise."
+  )
+  public PathFragment localSpawnCacheDir;
+
+  @Option(
+    name = "experimental_local_spawn_cache_max_size_mb",
+    defaultValue = "10240",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.EXECUTION},
+    help =
+        "The size the local spawn cache may grow to, in MB. The least recently used entries are "
+            + "deleted at the end of a build once the cache is larger than this."
+  )
+  public long localSpawnCacheMaxSizeMb;
+}
@@ -2281,6 +2281,20 @@ public final class Attribute implements Comparable<Attribute> {
     return defaultValue;
   }
 
+  /**
+   * Returns the value populating the attributes of a rule sets this attribute to when the rule
+   * does not set it, if it is the same for every rule, or null otherwise. This is the late-bound
+   * default or the computed default function itself, unless the attribute has a condition or a
+   * Skylark computed default.
+   */
+  @Nullable
+  Object getRuleIndependentDefaultValue() {
+    if (condition != null || defaultValue instanceof SkylarkComputedDefaultTemplate) {
+      return null;
+    }
+    return defaultValue;
+  }
+
   public LateBoundDefault<?, ?> getLateBoundDefault() {
     Preconditions.checkState(isLateBound());
     return (LateBoundDefault<?, ?>) defaultValue;
@@ -30,22 +30,28 @@ import javax.annotation.Nullable;
  * <p>This class provides the lowest-level access to attribute information. It is *not*
  * intended to be a robust public interface, but rather just an input to {@link AttributeMap}
  * instances. Use those instances for all domain-level attribute access.
+ *
+ * <p>There are millions of rules in a large build, and most of them leave most of their
+ * attributes at the default value, so only the values that differ from what the rule class
+ * expects are stored; the other attributes take three bits each.
  */
 public class AttributeContainer {
 
   private final RuleClass ruleClass;
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // Three bits per attribute, packed by attribute index. With n attributes, bits [0, n) record
+  // which attributes have been set, bits [n, 2n) which of those hold a value other than the one
+  // the rule class expects by default (see RuleClass#getUnstoredAttributeValue), and bits [2n, 3n)
+  // which were set explicitly in the BUILD file.
+  private final long[] bits;
+
+  // The values of the attributes with their second bit set, ordered by attribute index. There may
+  // be unused slots at the end.
+  private Object[] attributeValues;
 
-  // Holds two lists of attribute indices.
-  // The first byte gives the length of the first list.
-  // The first list records which attributes were set explicitly in the BUILD file.
-  // The second list ends at the end of the array.
-  // The second list records which attributes have Locations, in reverse order
-  // from the attributeLocations array.
-  // Between the lists there may be unused zero bytes (zeros are forbidden within each list).
-  private byte[] state;
+  // The attribute index + 1 of each location in attributeLocations, in the same order. Unused
+  // slots at the end are zero.
+  private byte[] locationIndices;
 
   // Attribute locations, packed:
   private Location[] attributeLocations;
@@ -61,17 +67,19 @@ public class AttributeContainer {
   AttributeContainer(RuleClass ruleClass, Location[] locations) {
     int n = ruleClass.getAttributeCount();
     if (n > 254) {
-      // We reserve the zero byte as a hole/sentinel inside state[].
+      // We reserve the zero byte as a hole/sentinel inside locationIndices[].
       // If you hit this limit, replace byte with char and remove the masking with 0xff.
       throw new AssertionError("can't pack " + n + " rule indices into bytes");
     }
     this.ruleClass = ruleClass;
-    this.attributeValues = new Object[n];
-    this.state = EMPTY_STATE;
+    this.bits = new long[(3 * n + 63) >>> 6];
+    this.attributeValues = EMPTY_VALUES;
+    this.locationIndices = locations.length == 0 ? EMPTY_INDICES : new byte[locations.length];
     this.attributeLocations = locations;
   }
 
-  private static final byte[] EMPTY_STATE = {0};
+  private static final Object[] EMPTY_VALUES = {};
+  private static final byte[] EMPTY_INDICES = {};
   private static final Location[] EMPTY_LOCATIONS = {};
 
   /**
@@ -80,7 +88,7 @@ public class AttributeContainer {
   @Nullable
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -98,78 +106,57 @@ public class AttributeContainer {
    */
   public boolean isAttributeValueExplicitlySpecified(String attributeName) {
     Integer idx = ruleClass.getAttributeIndex(attributeName);
-    return idx != null && getExplicit(idx);
+    return idx != null && getBit(2 * ruleClass.getAttributeCount() + idx);
+  }
+
+  private boolean getBit(int bit) {
+    return (bits[bit >>> 6] & (1L << bit)) != 0;
   }
 
- /**
-  * Returns the number of elements of state[] currently used to store
-  * indices of "explicitly set" attributes.
-  */
-  private int explicitCount() {
-    return 0xff & state[0];
+  private void setBit(int bit) {
+    bits[bit >>> 6] |= 1L << bit;
   }
 
-  private boolean getExplicit(int index) {
-    int n = explicitCount();
-    for (int i = 1; i <= n; ++i) {
-      if ((0xff & state[i]) == index + 1) {
-        return true;
+  private void clearBit(int bit) {
+    bits[bit >>> 6] &= ~(1L << bit);
+  }
+
+  /** Returns the number of bits set in [from, to). */
+  private int countBits(int from, int to) {
+    int count = 0;
+    while (from < to) {
+      int wordEnd = ((from >>> 6) + 1) << 6;
+      long mask = -1L << from;
+      if (to < wordEnd) {
+        mask &= ~(-1L << to);
       }
+      count += Long.bitCount(bits[from >>> 6] & mask);
+      from = wordEnd;
     }
-    return false;
+    return count;
   }
 
   private int getLocationIndex(int index) {
-    int n = explicitCount();
-    for (int i = state.length - 1; i > n; --i) {
-      if ((0xff & state[i]) == index + 1) {
-        return state.length - 1 - i;
+    for (int i = 0; i < locationIndices.length; ++i) {
+      if ((0xff & locationIndices[i]) == index + 1) {
+        return i;
       }
     }
     return -1;
   }
 
-  private void setExplicit(int index) {
-    if (getExplicit(index)) {
-      return;
-    }
-    ensureSpace();
-    int n = explicitCount() + 1;
-    state[0] = (byte) n;
-    state[n] = (byte) (index + 1);
-  }
-
   private int addLocationIndex(int index) {
-    ensureSpace();
-    for (int i = state.length - 1; ; --i) {
-      if (i <= explicitCount()) {
-        throw new AssertionError("ensureSpace() did not insert a zero");
-      }
-      if (state[i] == 0) {
-        state[i] = (byte) (index + 1);
-        return state.length - 1 - i;
-      }
+    int i = 0;
+    while (i < locationIndices.length && locationIndices[i] != 0) {
+      ++i;
     }
-  }
-
-  /**
-   * Ensures that the state[n] byte is equal to the sentinel value 0, so there is room for another
-   * attribute's explicit bit to be set, or for an attribute's location to be set.
-   */
-  private void ensureSpace() {
-    int n = explicitCount() + 1;
-    if (n < state.length && state[n] == 0) {
-      return;
+    if (i == locationIndices.length) {
+      // Grow up to the next multiple of eight bytes, as the object will be
+      // aligned to eight bytes anyway.
+      locationIndices = Arrays.copyOf(locationIndices, (locationIndices.length | 7) + 1);
     }
-    // Grow up to the next multiple of eight bytes, as the object will be
-    // aligned to eight bytes anyway.  Insert zeros between the two lists.
-    byte[] newState = new byte[(state.length | 7) + 1];
-    // Copy stored explicit attributes to the beginning of the array.
-    System.arraycopy(state, 0, newState, 0, n);
-    // Copy stored attribute locations to the *end* of the array.
-    int oldLocations = state.length - n;
-    System.arraycopy(state, n, newState, newState.length - oldLocations, oldLocations);
-    state = newState;
+    locationIndices[i] = (byte) (index + 1);
+    return i;
   }
 
   /**
@@ -182,21 +169,57 @@ public class AttributeContainer {
   }
 
   Object getAttributeValue(int index) {
-    return attributeValues[index];
+    int n = ruleClass.getAttributeCount();
+    if (getBit(n + index)) {
+      return attributeValues[countBits(n, n + index)];
+    }
+    return getBit(index) ? ruleClass.getUnstoredAttributeValue(index) : null;
   }
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
     String name = attribute.getName();
     Integer index = ruleClass.getAttributeIndex(name);
-    if (!explicit && getExplicit(index)) {
+    int n = ruleClass.getAttributeCount();
+    if (!explicit && getBit(2 * n + index)) {
       throw new IllegalArgumentException("attribute " + name + " already explicitly set");
     }
-    attributeValues[index] = value;
+    value = ruleClass.shareAttributeValue(attribute, value);
+    Object unstoredValue = ruleClass.getUnstoredAttributeValue(index);
+    boolean isStored = getBit(n + index);
+    int position = countBits(n, n + index);
+    if (value == unstoredValue || (value != null && value.equals(unstoredValue))) {
+      if (isStored) {
+        int count = countBits(n, 2 * n);
+        System.arraycopy(attributeValues, position + 1, attributeValues, position,
+            count - position - 1);
+        attributeValues[count - 1] = null;
+        clearBit(n + index);
+      }
+    } else if (isStored) {
+      attributeValues[position] = value;
+    } else {
+      int count = countBits(n, 2 * n);
+      if (count == attributeValues.length) {
+        // Grow by two references, as the object will be aligned to eight bytes anyway.
+        attributeValues = Arrays.copyOf(attributeValues, count + 2);
+      }
+      System.arraycopy(attributeValues, position, attributeValues, position + 1, count - position);
+      attributeValues[position] = value;
+      setBit(n + index);
+    }
+    setBit(index);
     if (explicit) {
-      setExplicit(index);
+      setBit(2 * n + index);
     }
   }
 
+  /** Returns the number of attribute values this container holds a reference to. */
+  @VisibleForTesting
+  int getStoredValueCount() {
+    int n = ruleClass.getAttributeCount();
+    return countBits(n, 2 * n);
+  }
+
   // This sets the attribute "explicitly" as if it came from the BUILD file.
   // At present, the sole use of this is for the test_suite.$implicit_tests
   // attribute, which is synthesized during package loading.  We do want to
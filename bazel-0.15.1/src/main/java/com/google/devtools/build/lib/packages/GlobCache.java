@@ -17,6 +17,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.SettableFuture;
@@ -31,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -138,16 +140,48 @@ public class GlobCache {
       throws BadGlobException {
     Future<List<Path>> cached = globCache.get(Pair.of(pattern, excludeDirs));
     if (cached == null) {
-      if (maxDirectoriesToEagerlyVisit > -1
-          && !globalStarted.getAndSet(true)) {
-        packageDirectory.prefetchPackageAsync(maxDirectoriesToEagerlyVisit);
-      }
+      maybePrefetchPackage();
       cached = safeGlobUnsorted(pattern, excludeDirs);
       setGlobPaths(pattern, excludeDirs, cached);
     }
     return cached;
   }
 
+  /**
+   * Starts evaluating the given glob patterns against this package's directory, unless they were
+   * started already. The new patterns are all matched in a single traversal of the directory, which
+   * lists each subdirectory at most once however many of the patterns reach it.
+   *
+   * @throws BadGlobException if any of the patterns was syntactically invalid, or contained uplevel
+   *     references, in which case none of them is started.
+   */
+  void startGlobsAsync(Iterable<String> patterns, boolean excludeDirs) throws BadGlobException {
+    Set<String> newPatterns = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      if (!globCache.containsKey(Pair.of(pattern, excludeDirs))) {
+        checkPattern(pattern);
+        newPatterns.add(pattern);
+      }
+    }
+    if (newPatterns.isEmpty()) {
+      return;
+    }
+    maybePrefetchPackage();
+    List<? extends Future<List<Path>>> futures =
+        newGlob(newPatterns, excludeDirs).globAsyncByPattern(true);
+    int i = 0;
+    for (String pattern : newPatterns) {
+      setGlobPaths(pattern, excludeDirs, futures.get(i++));
+    }
+  }
+
+  private void maybePrefetchPackage() {
+    if (maxDirectoriesToEagerlyVisit > -1
+        && !globalStarted.getAndSet(true)) {
+      packageDirectory.prefetchPackageAsync(maxDirectoriesToEagerlyVisit);
+    }
+  }
+
   @VisibleForTesting
   List<String> getGlobUnsorted(String pattern)
       throws IOException, BadGlobException, InterruptedException {
@@ -195,6 +229,11 @@ public class GlobCache {
    */
   @VisibleForTesting
   Future<List<Path>> safeGlobUnsorted(String pattern, boolean excludeDirs) throws BadGlobException {
+    checkPattern(pattern);
+    return newGlob(ImmutableList.of(pattern), excludeDirs).globAsync(true);
+  }
+
+  private static void checkPattern(String pattern) throws BadGlobException {
     // Forbidden patterns:
     if (pattern.indexOf('?') != -1) {
       throw new BadGlobException("glob pattern '" + pattern + "' contains forbidden '?' wildcard");
@@ -204,13 +243,15 @@ public class GlobCache {
     if (error != null) {
       throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
     }
+  }
+
+  private UnixGlob.Builder newGlob(Collection<String> patterns, boolean excludeDirs) {
     return UnixGlob.forPath(packageDirectory)
-        .addPattern(pattern)
+        .addPatterns(patterns)
         .setExcludeDirectories(excludeDirs)
         .setDirectoryFilter(childDirectoryPredicate)
         .setThreadPool(globExecutor)
-        .setFilesystemCalls(syscalls)
-        .globAsync(true);
+        .setFilesystemCalls(syscalls);
   }
 
   /**
@@ -239,13 +280,9 @@ public class GlobCache {
       List<String> includes,
       List<String> excludes,
       boolean excludeDirs) throws IOException, BadGlobException, InterruptedException {
-    // Start globbing all patterns in parallel. The getGlob() calls below will
-    // block on an individual pattern's results, but the other globs can
-    // continue in the background.
-    for (String pattern : Iterables.concat(includes, excludes)) {
-      @SuppressWarnings("unused") 
-      Future<?> possiblyIgnoredError = getGlobUnsortedAsync(pattern, excludeDirs);
-    }
+    // Start globbing all patterns in a single traversal. The getGlob() calls below will
+    // block until it completes.
+    startGlobsAsync(Iterables.concat(includes, excludes), excludeDirs);
 
     HashSet<String> results = new HashSet<>();
     for (String pattern : includes) {
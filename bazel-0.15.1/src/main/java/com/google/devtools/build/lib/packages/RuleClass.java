@@ -27,6 +27,7 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -36,6 +37,7 @@ import com.google.devtools.build.lib.analysis.config.transitions.SplitTransition
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.NullEventHandler;
@@ -124,6 +126,9 @@ public class RuleClass {
 
   public static final PathFragment THIRD_PARTY_PREFIX = PathFragment.create("third_party");
 
+  /** The longest list attribute value that rules of the same class share. */
+  private static final int MAX_SHARED_LIST_SIZE = 4;
+
   /**
    * A constraint for the package name of the Rule instances.
    */
@@ -1226,6 +1231,16 @@ public class RuleClass {
   /** Names of the non-configurable attributes of this rule class. */
   private final ImmutableList<String> nonConfigurableAttributes;
 
+  /**
+   * The value each attribute of a rule of this class holds unless it is set to something else,
+   * ordered by attributeIndex value. See {@link #getUnstoredAttributeValue}.
+   */
+  private final Object[] unstoredAttributeValues;
+
+  /** Shares small list attribute values among the rules of this class. */
+  private final Interner<ImmutableList<?>> sharedAttributeValues =
+      BlazeInterners.newWeakInterner();
+
   /**
    * The set of implicit outputs generated by a rule, expressed as a function
    * of that rule.
@@ -1387,6 +1402,11 @@ public class RuleClass {
       }
     }
     this.nonConfigurableAttributes = nonConfigurableAttributesBuilder.build();
+
+    unstoredAttributeValues = new Object[this.attributes.size()];
+    for (int i = 0; i < this.attributes.size(); i++) {
+      unstoredAttributeValues[i] = this.attributes.get(i).getRuleIndependentDefaultValue();
+    }
   }
 
   private void validateNoClashInPublicNames(Iterable<Attribute> attributes) {
@@ -1510,6 +1530,38 @@ public class RuleClass {
     return i == null ? null : attributes.get(i);
   }
 
+  /**
+   * Returns the value that {@link AttributeContainer} does not need to store for the attribute
+   * whose index is 'attrIndex'. See {@link Attribute#getRuleIndependentDefaultValue}. Most rules
+   * leave most of their attributes at these values.
+   */
+  Object getUnstoredAttributeValue(int attrIndex) {
+    return unstoredAttributeValues[attrIndex];
+  }
+
+  /**
+   * Returns an instance equal to the given value of the attribute that may be shared with other
+   * rules of this class. Empty lists, and short string and nodep label lists such as tags or
+   * visibility, tend to repeat across most of the rules of a class. Other label lists, like srcs
+   * or deps, are mostly unique and not worth an interner entry.
+   */
+  Object shareAttributeValue(Attribute attribute, Object value) {
+    if (!(value instanceof ArrayList || value instanceof ImmutableList)) {
+      return value;
+    }
+    List<?> list = (List<?>) value;
+    if (list.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Type<?> type = attribute.getType();
+    if ((type != Type.STRING_LIST && type != BuildType.NODEP_LABEL_LIST)
+        || list.size() > MAX_SHARED_LIST_SIZE
+        || list.contains(null)) {
+      return value;
+    }
+    return sharedAttributeValues.intern(ImmutableList.copyOf(list));
+  }
+
   /**
    * Returns the number of attributes defined for this rule class.
    */
@@ -144,6 +144,18 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public int maxDirectoriesToEagerlyVisitInGlobbing;
 
+  @Option(
+    name = "experimental_prefetch_package_deps",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If true, the first time a BUILD file is loaded, the globs it calls with literal patterns "
+            + "are requested in the same batch as the .bzl files it loads, and its evaluation "
+            + "waits for all of them, instead of globbing on the loading thread."
+  )
+  public boolean prefetchPackageDeps;
+
   @Option(
     name = "fetch",
     defaultValue = "true",
@@ -89,6 +89,12 @@ public enum ProfilerTask {
   SKYLARK_BUILTIN_FN("Skylark builtin function call", -1, 0x990033, 0),
   SKYLARK_USER_COMPILED_FN("Skylark compiled user function call", -1, 0xCC0033, 0),
   ACTION_FS_STAGING("Staging per-action file system", -1, 0x000000, 0),
+  WORKER_BORROW("borrowing a worker", 10000000, 0x6699CC, 0),
+  WORKER_POOL("worker pool", -1, 0x336699, 0),
+  PACKAGE_PARSE("BUILD file parsing", -1, 0x6699CC, 30),
+  PACKAGE_LOAD_RESOLUTION("BUILD file load() resolution", -1, 0x336699, 30),
+  PACKAGE_EVAL("BUILD file evaluation", -1, 0x99CCFF, 30),
+  PACKAGE_GLOB_WAIT("BUILD file glob wait", -1, 0x999966, 30),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
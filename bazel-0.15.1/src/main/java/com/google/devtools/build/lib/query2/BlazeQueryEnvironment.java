@@ -18,6 +18,8 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
@@ -29,28 +31,37 @@ import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
+import com.google.devtools.build.lib.packages.DependencyFilter;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.OutputFile;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PackageProvider;
 import com.google.devtools.build.lib.pkgcache.TargetEdgeObserver;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.DigraphQueryEvalResult;
+import com.google.devtools.build.lib.query2.engine.IndexedRdepsQueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.MinDepthUniquifier;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.QueryUtil;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.MinDepthUniquifierImpl;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.MutableKeyExtractorBackedMapImpl;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.ThreadSafeMutableKeyExtractorBackedSetImpl;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.UniquifierImpl;
 import com.google.devtools.build.lib.query2.engine.SkyframeRestartQueryException;
+import com.google.devtools.build.lib.query2.engine.TargetLiteral;
 import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
 import com.google.devtools.build.lib.query2.engine.Uniquifier;
+import com.google.devtools.build.lib.query2.engine.VariableContext;
+import com.google.devtools.build.lib.skyframe.QueryResultCache;
+import com.google.devtools.build.lib.skyframe.ReverseDependencyIndex;
 import com.google.devtools.build.lib.skyframe.SkyframeLabelVisitor;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -60,15 +71,18 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * The environment of a Blaze query. Not thread-safe.
  */
-public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
+public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
+    implements IndexedRdepsQueryEnvironment<Target> {
   private static final int MAX_DEPTH_FULL_SCAN_LIMIT = 20;
   private final Map<String, Set<Target>> resolvedTargetPatterns = new HashMap<>();
   private final TargetPatternEvaluator targetPatternEvaluator;
@@ -79,6 +93,17 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   private final ErrorPrintingTargetEdgeErrorObserver errorObserver;
   private final LabelVisitor labelVisitor;
   protected final int loadingPhaseThreads;
+  @Nullable private ReverseDependencyIndex reverseDependencyIndex;
+  @Nullable private PackageProvider packageProvider;
+  @Nullable private QueryResultCache queryResultCache;
+  /** The results of the expressions evaluated by the current query, by cache key. */
+  private final Map<String, ImmutableList<Target>> evaluatedResults = new LinkedHashMap<>();
+  /**
+   * The packages and target patterns the results of the current query depend on, besides those of
+   * the targets in the graph and the patterns resolved by the query itself.
+   */
+  private final Set<PackageIdentifier> extraResultPackages = new HashSet<>();
+  private final Set<String> extraResultTargetPatterns = new HashSet<>();
 
   private final BlazeTargetAccessor accessor = new BlazeTargetAccessor(this);
 
@@ -121,6 +146,225 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     // BlazeQueryEnvironment has no resources that need to be cleaned up.
   }
 
+  /**
+   * Makes {@code rdeps} use the given index instead of computing the transitive closure of the
+   * universe, when dependencies aren't filtered. The index is brought up to date with the packages
+   * of the universe, which are loaded by {@code packageProvider}.
+   */
+  public void setReverseDependencyIndex(
+      ReverseDependencyIndex reverseDependencyIndex, PackageProvider packageProvider) {
+    this.reverseDependencyIndex = reverseDependencyIndex;
+    this.packageProvider = packageProvider;
+  }
+
+  /**
+   * Makes the results of the expressions of successful queries be cached in {@code
+   * queryResultCache}, and reused by later queries.
+   */
+  public void setQueryResultCache(QueryResultCache queryResultCache) {
+    this.queryResultCache = queryResultCache;
+  }
+
+  @Override
+  public boolean canUseRdepsIndex() {
+    return reverseDependencyIndex != null && dependencyFilter == DependencyFilter.ALL_DEPS;
+  }
+
+  @Override
+  public QueryTaskFuture<Void> getRdepsFromIndex(
+      QueryExpression caller,
+      QueryExpression expression,
+      int depth,
+      QueryExpression universe,
+      VariableContext<Target> context,
+      Callback<Target> callback) {
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> universeValueFuture =
+        QueryUtil.evalAll(this, context, universe);
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> argumentValueFuture =
+        QueryUtil.evalAll(this, context, expression);
+    return whenAllSucceedCall(
+        ImmutableList.of(universeValueFuture, argumentValueFuture),
+        () -> {
+          ThreadSafeMutableSet<Target> universeValue = universeValueFuture.getIfSuccessful();
+          Set<PackageIdentifier> universePackages =
+              universeValue
+                  .stream()
+                  .map(t -> t.getLabel().getPackageIdentifier())
+                  .collect(toImmutableSet());
+          Set<Label> universeLabels =
+              universeValue.stream().map(Target::getLabel).collect(toImmutableSet());
+          syncReverseDependencyIndex(caller, universeLabels, universePackages);
+          if (queryResultCache != null) {
+            // The result depends on packages that aren't in the graph.
+            extraResultPackages.addAll(
+                reverseDependencyIndex.getTransitivePackages(universePackages));
+          }
+          List<Label> roots = new ArrayList<>();
+          for (Target target : argumentValueFuture.getIfSuccessful()) {
+            roots.add(target.getLabel());
+          }
+          callback.process(
+              getTargetsFromIndex(
+                  reverseDependencyIndex.getReverseDepsInUniverse(universeLabels, roots, depth)));
+          return null;
+        });
+  }
+
+  /**
+   * Brings the index up to date with the packages of {@code universe}. The transitive closure of
+   * the targets of the universe that haven't been visited without errors since it last changed is
+   * loaded in parallel first, which reports loading errors like {@link #buildTransitiveClosure}.
+   * Unlike {@link #buildTransitiveClosure}, a closure that was visited without errors and hasn't
+   * changed since isn't visited again.
+   */
+  private void syncReverseDependencyIndex(
+      QueryExpression caller, Set<Label> universe, Set<PackageIdentifier> universePackages)
+      throws QueryException, InterruptedException {
+    Set<Label> labels = reverseDependencyIndex.getLabelsToVisit(universe);
+    if (labels.isEmpty() && !reverseDependencyIndex.needsUpdate(universePackages)) {
+      return;
+    }
+    boolean visitedWithoutErrors = true;
+    if (transitivePackageLoader != null && !labels.isEmpty()) {
+      visitedWithoutErrors =
+          ((SkyframeLabelVisitor) transitivePackageLoader)
+              .sync(eventHandler, labels, keepGoing, loadingPhaseThreads, /*errorOnCycles=*/ false);
+      if (!visitedWithoutErrors) {
+        reportBuildFileError(caller, "errors were encountered while computing transitive closure");
+      }
+    }
+    reverseDependencyIndex.update(eventHandler, packageProvider, universePackages);
+    if (visitedWithoutErrors) {
+      // With --keep_going, the errors have to be reported again by the next query.
+      reverseDependencyIndex.markVisited(labels);
+    }
+  }
+
+  /**
+   * Returns the targets with the given labels, with the edges between them as known to the index
+   * added to the graph, for the output formatters that use it.
+   */
+  private List<Target> getTargetsFromIndex(List<Label> labels)
+      throws QueryException, InterruptedException {
+    Map<Label, Target> targets = new LinkedHashMap<>();
+    for (Label label : labels) {
+      try {
+        targets.put(label, getTarget(label));
+      } catch (TargetNotFoundException e) {
+        throw new QueryException(e.getMessage());
+      }
+    }
+    for (Target target : targets.values()) {
+      for (Label dep : reverseDependencyIndex.getDeps(target.getLabel())) {
+        Target to = targets.get(dep);
+        if (to != null) {
+          makeEdge(target, to);
+        }
+      }
+    }
+    return new ArrayList<>(targets.values());
+  }
+
+  @Override
+  public QueryTaskFuture<Void> eval(
+      QueryExpression expr, VariableContext<Target> context, Callback<Target> callback) {
+    // Target patterns are already cached by Skyframe, and the values of variables aren't keyed.
+    if (queryResultCache == null || expr instanceof TargetLiteral || !context.isEmpty()) {
+      return super.eval(expr, context, callback);
+    }
+    String key = getQueryResultCacheKey(expr);
+    QueryResultCache.Result cachedResult = queryResultCache.get(key);
+    if (cachedResult != null) {
+      return executeAsync(
+          () -> {
+            for (Target target : cachedResult.getTargets()) {
+              getNode(target);
+            }
+            for (Map.Entry<Target, Target> edge : cachedResult.getEdges().entries()) {
+              makeEdge(edge.getKey(), edge.getValue());
+            }
+            extraResultPackages.addAll(cachedResult.getPackages());
+            extraResultTargetPatterns.addAll(cachedResult.getTargetPatterns());
+            callback.process(cachedResult.getTargets());
+            return null;
+          });
+    }
+    QueryUtil.AggregateAllCallback<Target, ?> aggregateAllCallback =
+        QueryUtil.newOrderedAggregateAllOutputFormatterCallback(this);
+    return whenSucceedsCall(
+        expr.eval(this, context, aggregateAllCallback),
+        () -> {
+          ImmutableList<Target> result = ImmutableList.copyOf(aggregateAllCallback.getResult());
+          evaluatedResults.put(key, result);
+          callback.process(result);
+          return null;
+        });
+  }
+
+  private String getQueryResultCacheKey(QueryExpression expr) {
+    return settings + " " + strictScope + " " + targetPatternEvaluator.getOffset() + " " + expr;
+  }
+
+  @Override
+  protected void evalTopLevelInternal(
+      QueryExpression expr, OutputFormatterCallback<Target> callback)
+      throws QueryException, InterruptedException {
+    if (queryResultCache == null) {
+      super.evalTopLevelInternal(expr, callback);
+      return;
+    }
+    // The target patterns of the query have been evaluated, so Skyframe has processed all the
+    // invalidations that happened since the last command.
+    long version = queryResultCache.getVersion();
+    evaluatedResults.clear();
+    extraResultPackages.clear();
+    extraResultTargetPatterns.clear();
+    super.evalTopLevelInternal(expr, callback);
+    if (!eventHandler.hasErrors()) {
+      cacheEvaluatedResults(version);
+    }
+  }
+
+  /**
+   * Caches the results of the expressions of the current query, each of which is assumed to
+   * depend on all the packages of the graph and all the target patterns of the query.
+   */
+  private void cacheEvaluatedResults(long version) {
+    ImmutableSet.Builder<PackageIdentifier> packages = ImmutableSet.builder();
+    for (Node<Target> node : graph.getNodes()) {
+      packages.add(node.getLabel().getLabel().getPackageIdentifier());
+      packages.add(node.getLabel().getPackage().getPackageIdentifier());
+    }
+    packages.addAll(extraResultPackages);
+    ImmutableSet<PackageIdentifier> resultPackages = packages.build();
+    ImmutableSet<String> resultTargetPatterns =
+        ImmutableSet.<String>builder()
+            .addAll(resolvedTargetPatterns.keySet())
+            .addAll(extraResultTargetPatterns)
+            .build();
+    for (Map.Entry<String, ImmutableList<Target>> result : evaluatedResults.entrySet()) {
+      Set<Target> targets = new HashSet<>(result.getValue());
+      ImmutableSetMultimap.Builder<Target, Target> edges = ImmutableSetMultimap.builder();
+      for (Target target : result.getValue()) {
+        Node<Target> node = graph.getNode(target);
+        if (node == null) {
+          continue;
+        }
+        for (Node<Target> successor : node.getSuccessors()) {
+          if (targets.contains(successor.getLabel())) {
+            edges.put(target, successor.getLabel());
+          }
+        }
+      }
+      queryResultCache.put(
+          result.getKey(),
+          new QueryResultCache.Result(
+              result.getValue(), edges.build(), resultPackages, resultTargetPatterns),
+          version);
+    }
+    evaluatedResults.clear();
+  }
+
   @Override
   public DigraphQueryEvalResult<Target> evaluateQuery(
       QueryExpression expr,
@@ -38,7 +38,10 @@ public class CommonQueryOptions extends OptionsBase {
       effectTags = {OptionEffectTag.TERMINAL_OUTPUT},
       help =
           "The format in which the query results should be printed. Allowed values for query are: "
-              + "build, graph, label, label_kind, locations, maxrank, minrank, package, proto, xml."
+              + "build, graph, label, label_kind, locations, maxrank, minrank, package, proto, "
+              + "streamed_graph, streamed_proto, xml. The streamed formats write each target as "
+              + "soon as it is produced without holding the whole result in memory; use them with "
+              + "--order_output=no to stream during query evaluation. "
               + "Currently you should never explicitly set this flag for cquery."
   )
   public String outputFormat;
@@ -0,0 +1,34 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * The environment of a Blaze query which may be able to evaluate {@code rdeps} from an index of
+ * reverse dependencies, instead of computing the transitive closure of the universe.
+ *
+ * @param <T> the node type of the dependency graph
+ */
+public interface IndexedRdepsQueryEnvironment<T> extends QueryEnvironment<T> {
+  /** Returns whether {@link #getRdepsFromIndex} can be used by this environment. */
+  boolean canUseRdepsIndex();
+
+  /** Evaluates {@code rdeps(universe, expression, depth)} from the index. */
+  QueryTaskFuture<Void> getRdepsFromIndex(
+      QueryExpression caller,
+      QueryExpression expression,
+      int depth,
+      QueryExpression universe,
+      VariableContext<T> context,
+      Callback<T> callback);
+}
@@ -0,0 +1,57 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns dense, non-negative int ids to keys, in the order in which they are first seen.
+ *
+ * <p>An instance is meant to be shared by all the {@link QueryUtil.InternedKeyUniquifierImpl}s and
+ * {@link QueryUtil.InternedKeyMinDepthUniquifierImpl}s of a query, so that each key is stored only
+ * once, however many of them see it.
+ */
+@ThreadSafe
+public final class KeyInterner<K> {
+  private final ConcurrentMap<K, Integer> ids;
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  public KeyInterner(int concurrencyLevel) {
+    this.ids =
+        new ConcurrentHashMap<>(/*initialCapacity=*/ concurrencyLevel, /*loadFactor=*/ 0.75f);
+  }
+
+  /** Returns the id of {@code key}, assigning it the next free id if it doesn't have one yet. */
+  public int getId(K key) {
+    Integer id = ids.get(key);
+    if (id != null) {
+      return id;
+    }
+    return ids.computeIfAbsent(key, k -> nextId.getAndIncrement());
+  }
+
+  /** Returns the id of {@code key}, or -1 if it doesn't have one yet. */
+  public int getIdIfPresent(K key) {
+    Integer id = ids.get(key);
+    return id != null ? id : -1;
+  }
+
+  /** Returns the number of ids assigned so far. */
+  public int size() {
+    return nextId.get();
+  }
+}
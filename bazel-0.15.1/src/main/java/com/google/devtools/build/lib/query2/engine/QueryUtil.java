@@ -13,6 +13,8 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.collect.compacthashset.CompactHashSet;
@@ -30,6 +32,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.annotation.Nullable;
 
 /** Several query utilities to make easier to work with query callbacks and uniquifiers. */
@@ -308,4 +313,185 @@ public final class QueryUtil {
           : true;
     }
   }
+
+  /**
+   * A {@link Uniquifier} that keeps one bit per key, indexed by the id a {@link KeyInterner} gave
+   * the key.
+   *
+   * <p>The bits are kept in pages that are allocated when the first of their keys is seen, so the
+   * uniquifier costs little more than a bit per key of the interner, instead of a hash set entry
+   * per key seen. Seeing a key that already has a page doesn't allocate at all.
+   */
+  public static final class InternedKeyUniquifierImpl<T, K> implements Uniquifier<T> {
+    private static final int PAGE_BITS = 16;
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
+
+    private final KeyExtractor<T, K> extractor;
+    private final KeyInterner<K> interner;
+    private final PagedArray<AtomicLongArray> pages =
+        new PagedArray<>(() -> new AtomicLongArray(WORDS_PER_PAGE));
+
+    public InternedKeyUniquifierImpl(KeyExtractor<T, K> extractor, KeyInterner<K> interner) {
+      this.extractor = extractor;
+      this.interner = interner;
+    }
+
+    @Override
+    public boolean uniquePure(T element) {
+      int id = interner.getIdIfPresent(extractor.extractKey(element));
+      if (id < 0) {
+        return true;
+      }
+      AtomicLongArray page = pages.getIfPresent(id >>> PAGE_BITS);
+      return page == null || (page.get(wordIndex(id)) & bit(id)) == 0;
+    }
+
+    @Override
+    public boolean unique(T element) {
+      int id = interner.getId(extractor.extractKey(element));
+      AtomicLongArray page = pages.get(id >>> PAGE_BITS);
+      int wordIndex = wordIndex(id);
+      long bit = bit(id);
+      while (true) {
+        long word = page.get(wordIndex);
+        if ((word & bit) != 0) {
+          return false;
+        }
+        if (page.compareAndSet(wordIndex, word, word | bit)) {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public ImmutableList<T> unique(Iterable<T> newElements) {
+      ImmutableList.Builder<T> result = ImmutableList.builder();
+      for (T element : newElements) {
+        if (unique(element)) {
+          result.add(element);
+        }
+      }
+      return result.build();
+    }
+
+    private static int wordIndex(int id) {
+      return (id & ((1 << PAGE_BITS) - 1)) >>> 6;
+    }
+
+    private static long bit(int id) {
+      return 1L << id;
+    }
+  }
+
+  /**
+   * A {@link MinDepthUniquifier} that keeps the minimum depth of each key in an int array, indexed
+   * by the id a {@link KeyInterner} gave the key.
+   *
+   * <p>Like {@link InternedKeyUniquifierImpl}, the array is allocated in pages as the keys are
+   * seen, and updates are lock-free.
+   */
+  public static final class InternedKeyMinDepthUniquifierImpl<T, K>
+      implements MinDepthUniquifier<T> {
+    private static final int PAGE_BITS = 12;
+
+    private final KeyExtractor<T, K> extractor;
+    private final KeyInterner<K> interner;
+    // Depths are stored complemented, so that the initial 0 means that a key hasn't been seen.
+    private final PagedArray<AtomicIntegerArray> pages =
+        new PagedArray<>(() -> new AtomicIntegerArray(1 << PAGE_BITS));
+
+    public InternedKeyMinDepthUniquifierImpl(
+        KeyExtractor<T, K> extractor, KeyInterner<K> interner) {
+      this.extractor = extractor;
+      this.interner = interner;
+    }
+
+    @Override
+    public final ImmutableList<T> uniqueAtDepthLessThanOrEqualTo(
+        Iterable<T> newElements, int depth) {
+      ImmutableList.Builder<T> resultBuilder = ImmutableList.builder();
+      for (T newElement : newElements) {
+        if (uniqueAtDepthLessThanOrEqualTo(newElement, depth)) {
+          resultBuilder.add(newElement);
+        }
+      }
+      return resultBuilder.build();
+    }
+
+    @Override
+    public boolean uniqueAtDepthLessThanOrEqualTo(T newElement, int depth) {
+      Preconditions.checkArgument(depth >= 0, depth);
+      int id = interner.getId(extractor.extractKey(newElement));
+      AtomicIntegerArray page = pages.get(id >>> PAGE_BITS);
+      int index = id & ((1 << PAGE_BITS) - 1);
+      while (true) {
+        int previous = page.get(index);
+        if (previous != 0 && depth >= ~previous) {
+          return false;
+        }
+        if (page.compareAndSet(index, previous, ~depth)) {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public boolean uniqueAtDepthLessThanOrEqualToPure(T newElement, int depth) {
+      int id = interner.getIdIfPresent(extractor.extractKey(newElement));
+      if (id < 0) {
+        return true;
+      }
+      AtomicIntegerArray page = pages.getIfPresent(id >>> PAGE_BITS);
+      if (page == null) {
+        return true;
+      }
+      int previous = page.get(id & ((1 << PAGE_BITS) - 1));
+      return previous == 0 || depth < ~previous;
+    }
+  }
+
+  /**
+   * A growable array of pages that are created on first access.
+   *
+   * <p>Reading an existing page is lock-free. Pages are created, and the array grown, under a
+   * lock, which is rare since a page holds many keys.
+   */
+  private static final class PagedArray<P> {
+    private final Supplier<P> pageFactory;
+    private volatile AtomicReferenceArray<P> pages = new AtomicReferenceArray<>(16);
+
+    private PagedArray(Supplier<P> pageFactory) {
+      this.pageFactory = pageFactory;
+    }
+
+    @Nullable
+    P getIfPresent(int index) {
+      AtomicReferenceArray<P> current = pages;
+      return index < current.length() ? current.get(index) : null;
+    }
+
+    P get(int index) {
+      P page = getIfPresent(index);
+      return page != null ? page : create(index);
+    }
+
+    private synchronized P create(int index) {
+      AtomicReferenceArray<P> current = pages;
+      if (index >= current.length()) {
+        AtomicReferenceArray<P> grown =
+            new AtomicReferenceArray<>(Math.max(index + 1, current.length() * 2));
+        for (int i = 0; i < current.length(); i++) {
+          grown.set(i, current.get(i));
+        }
+        pages = grown;
+        current = grown;
+      }
+      P page = current.get(index);
+      if (page == null) {
+        page = pageFactory.get();
+        current.set(index, page);
+      }
+      return page;
+    }
+  }
 }
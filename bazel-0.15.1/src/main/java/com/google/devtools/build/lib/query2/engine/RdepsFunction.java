@@ -68,6 +68,11 @@ public final class RdepsFunction extends AllRdepsFunction {
               argumentExpression, universeExpression, context, callback)
           : streamableEnv.getRdepsBoundedParallel(
               argumentExpression, depth, universeExpression, context, callback);
+    } else if (env instanceof IndexedRdepsQueryEnvironment
+        && ((IndexedRdepsQueryEnvironment<T>) env).canUseRdepsIndex()) {
+      return ((IndexedRdepsQueryEnvironment<T>) env)
+          .getRdepsFromIndex(
+              expression, argumentExpression, depth, universeExpression, context, callback);
     } else {
       return evalWithBoundedDepth(
           env, expression, context, argumentExpression, depth, universeExpression, callback);
@@ -41,6 +41,11 @@ public class VariableContext<T> {
     return context.get(name);
   }
 
+  /** Returns whether no variables are defined. */
+  public boolean isEmpty() {
+    return context.isEmpty();
+  }
+
   /** Returns a {@link VariableContext} with no variables defined. */
   public static <T> VariableContext<T> empty() {
     return new VariableContext<>(ImmutableMap.<String, Set<T>>of());
@@ -117,7 +117,9 @@ public abstract class OutputFormatter implements Serializable {
         new LocationOutputFormatter(),
         new GraphOutputFormatter(),
         new XmlOutputFormatter(),
-        new ProtoOutputFormatter());
+        new ProtoOutputFormatter(),
+        new StreamedProtoOutputFormatter(),
+        new StreamedGraphOutputFormatter());
   }
 
   public static String formatterNames(Iterable<OutputFormatter> formatters) {
@@ -250,10 +252,10 @@ public abstract class OutputFormatter implements Serializable {
   }
 
   /** Abstract class supplying a {@link PrintStream} to implementations, flushing it on close. */
-  private abstract static class TextOutputFormatterCallback<T> extends OutputFormatterCallback<T> {
+  abstract static class TextOutputFormatterCallback<T> extends OutputFormatterCallback<T> {
     protected PrintStream printStream;
 
-    private TextOutputFormatterCallback(OutputStream out) {
+    TextOutputFormatterCallback(OutputStream out) {
       this.printStream = new PrintStream(out);
     }
 
@@ -19,6 +19,7 @@ import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionDocumentationCategory;
 import com.google.devtools.common.options.OptionEffectTag;
+import com.google.devtools.common.options.OptionMetadataTag;
 import java.util.Set;
 
 /** Command-line options for the Blaze query language, revision 2. */
@@ -170,6 +171,35 @@ public class QueryOptions extends CommonQueryOptions {
   )
   public String queryFile;
 
+  @Option(
+    name = "experimental_rdeps_index",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.QUERY,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If true, rdeps(u, x) is computed from an index of the reverse dependencies of the loaded "
+            + "packages, which is kept by the server and updated as packages change, instead of "
+            + "from the transitive closure of u. Only used when --universe_scope is not set and "
+            + "all dependencies are followed. Loading errors in the transitive closure of u are "
+            + "only reported when the index has to be updated."
+  )
+  public boolean useRdepsIndex;
+
+  @Option(
+    name = "experimental_query_result_cache",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.QUERY,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If true, the results of the subexpressions of successful queries are kept by the server "
+            + "until one of the packages or target patterns they were computed from changes, and "
+            + "reused by later queries that contain the same subexpressions. Only used when "
+            + "--universe_scope is not set."
+  )
+  public boolean useQueryResultCache;
+
   /** Ugly workaround since line terminator option default has to be constant expression. */
   public String getLineTerminator() {
     if (lineTerminatorNull) {
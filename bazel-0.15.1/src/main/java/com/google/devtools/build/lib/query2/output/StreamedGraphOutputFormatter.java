@@ -0,0 +1,132 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.OutputFile;
+import com.google.devtools.build.lib.packages.PackageGroup;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.SynchronizedDelegatingOutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An output formatter that prints the result as an unfactored graph in AT&amp;T GraphViz format,
+ * like {@link GraphOutputFormatter}, without ever building a {@link
+ * com.google.devtools.build.lib.graph.Digraph} of the result.
+ *
+ * <p>Each node is printed as soon as its target is produced, and each edge as soon as both of its
+ * ends have been. Only the labels of the targets printed so far and the edges whose dependency
+ * hasn't been produced yet are kept in memory. The edges of a target are its direct dependencies,
+ * as listed in the {@code rule_input}s of {@code --output=proto}, its generating rule, and its
+ * visibility and package group includes; only edges between targets of the result are printed.
+ *
+ * <p>Since the graph is never complete, nodes can't be factored, and are printed in the order in
+ * which they are produced.
+ */
+class StreamedGraphOutputFormatter extends OutputFormatter.AbstractUnorderedFormatter {
+  @Override
+  public String getName() {
+    return "streamed_graph";
+  }
+
+  @Override
+  public OutputFormatterCallback<Target> createPostFactoStreamCallback(
+      OutputStream out, QueryOptions options) {
+    return new TextOutputFormatterCallback<Target>(out) {
+      private final String lineTerm = options.getLineTerminator();
+      private final Set<Label> printedNodes = new HashSet<>();
+      // Edges from the values to the keys, which haven't been printed yet.
+      private final ListMultimap<Label, Label> pendingEdges = ArrayListMultimap.create();
+
+      @Override
+      public void start() {
+        printStream.append("digraph mygraph {").append(lineTerm);
+        printStream.append("  node [shape=box];").append(lineTerm);
+      }
+
+      @Override
+      public void processOutput(Iterable<Target> partialResult) throws InterruptedException {
+        for (Target target : partialResult) {
+          Label label = target.getLabel();
+          if (!printedNodes.add(label)) {
+            continue;
+          }
+          printStream.append('"').append(label.toString()).append('"').append(lineTerm);
+          for (Label from : pendingEdges.removeAll(label)) {
+            printEdge(from, label);
+          }
+          for (Label dep : getDependencies(target)) {
+            if (printedNodes.contains(dep)) {
+              printEdge(label, dep);
+            } else {
+              pendingEdges.put(dep, label);
+            }
+          }
+        }
+      }
+
+      private void printEdge(Label from, Label to) {
+        printStream
+            .append('"')
+            .append(from.toString())
+            .append("\" -> \"")
+            .append(to.toString())
+            .append('"')
+            .append(lineTerm);
+      }
+
+      @Override
+      public void close(boolean failFast) throws IOException {
+        if (!failFast) {
+          printStream.append('}').append(lineTerm);
+        }
+        super.close(failFast);
+      }
+    };
+  }
+
+  @Override
+  public ThreadSafeOutputFormatterCallback<Target> createStreamCallback(
+      OutputStream out, QueryOptions options, QueryEnvironment<?> env) {
+    return new SynchronizedDelegatingOutputFormatterCallback<>(
+        createPostFactoStreamCallback(out, options));
+  }
+
+  private Set<Label> getDependencies(Target target) throws InterruptedException {
+    ImmutableSet.Builder<Label> deps = ImmutableSet.builder();
+    if (target instanceof Rule) {
+      Rule rule = (Rule) target;
+      deps.addAll(rule.getLabels(dependencyFilter));
+      deps.addAll(aspectResolver.computeAspectDependencies(target, dependencyFilter).values());
+    } else if (target instanceof OutputFile) {
+      deps.add(((OutputFile) target).getGeneratingRule().getLabel());
+    } else if (target instanceof PackageGroup) {
+      deps.addAll(((PackageGroup) target).getIncludes());
+    }
+    if (!(target instanceof PackageGroup)) {
+      deps.addAll(target.getVisibility().getDependencyLabels());
+    }
+    return deps.build();
+  }
+}
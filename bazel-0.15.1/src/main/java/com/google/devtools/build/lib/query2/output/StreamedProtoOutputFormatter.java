@@ -0,0 +1,84 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output formatter that writes each target of the query result as a length-delimited {@link
+ * Build.Target} protocol buffer, instead of a single {@link Build.QueryResult}.
+ *
+ * <p>Targets are written as soon as they are produced, so the result is never held in memory as a
+ * whole. When results are streamed during query evaluation (with {@code --order_output=no}), each
+ * batch of targets is serialized by the thread that produced it, so that batches produced in
+ * parallel are also serialized in parallel; only writing the serialized bytes to the output is
+ * done by one thread at a time.
+ */
+class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
+  /** Serialized targets are written to the output when the buffer of a thread gets this large. */
+  private static final int MAX_BUFFERED_BYTES = 1 << 16;
+
+  @Override
+  public String getName() {
+    return "streamed_proto";
+  }
+
+  @Override
+  public OutputFormatterCallback<Target> createPostFactoStreamCallback(
+      final OutputStream out, final QueryOptions options) {
+    return new OutputFormatterCallback<Target>() {
+      @Override
+      public void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        for (Target target : partialResult) {
+          toTargetProtoBuffer(target).writeDelimitedTo(out);
+        }
+      }
+    };
+  }
+
+  @Override
+  public ThreadSafeOutputFormatterCallback<Target> createStreamCallback(
+      final OutputStream out, final QueryOptions options) {
+    return new ThreadSafeOutputFormatterCallback<Target>() {
+      @Override
+      public void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (Target target : partialResult) {
+          toTargetProtoBuffer(target).writeDelimitedTo(buffer);
+          if (buffer.size() >= MAX_BUFFERED_BYTES) {
+            write(buffer);
+          }
+        }
+        write(buffer);
+      }
+
+      private void write(ByteArrayOutputStream buffer) throws IOException {
+        // Every target is a self-contained record, so the records of different batches may be
+        // interleaved.
+        synchronized (this) {
+          buffer.writeTo(out);
+        }
+        buffer.reset();
+      }
+    };
+  }
+}
@@ -125,6 +125,7 @@ final class RemoteSpawnCache implements SpawnCache {
           // We don't cache failed actions, so we know the outputs exist.
           // For now, download all outputs locally; in the future, we can reuse the digests to
           // just update the TreeNodeRepository and continue the build.
+          context.lockOutputFiles();
           remoteCache.download(result, execRoot, context.getFileOutErr());
           SpawnResult spawnResult =
               new SpawnResult.Builder()
@@ -43,7 +43,6 @@ import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.DigestUtil.ActionKey;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.util.ExitCode;
-import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.remoteexecution.v1test.Action;
@@ -168,7 +167,7 @@ class RemoteSpawnRunner implements SpawnRunner {
                     + actionKey.getDigest());
           }
           try {
-            return downloadRemoteResults(cachedResult, context.getFileOutErr())
+            return downloadRemoteResults(cachedResult, context)
                 .setCacheHit(true)
                 .setRunnerName("remote cache hit")
                 .build();
@@ -211,7 +210,7 @@ class RemoteSpawnRunner implements SpawnRunner {
       }
 
       try {
-        return downloadRemoteResults(result, context.getFileOutErr())
+        return downloadRemoteResults(result, context)
             .setRunnerName(remoteCacheHit ? "remote cache hit" : getName())
             .setCacheHit(remoteCacheHit)
             .build();
@@ -249,9 +248,11 @@ class RemoteSpawnRunner implements SpawnRunner {
     }
   }
 
-  private SpawnResult.Builder downloadRemoteResults(ActionResult result, FileOutErr outErr)
+  private SpawnResult.Builder downloadRemoteResults(
+      ActionResult result, SpawnExecutionContext context)
       throws ExecException, IOException, InterruptedException {
-    remoteCache.download(result, execRoot, outErr);
+    context.lockOutputFiles();
+    remoteCache.download(result, execRoot, context.getFileOutErr());
     int exitCode = result.getExitCode();
     return new SpawnResult.Builder()
         .setStatus(exitCode == 0 ? Status.SUCCESS : Status.NON_ZERO_EXIT)
@@ -276,10 +277,11 @@ class RemoteSpawnRunner implements SpawnRunner {
             && RemoteRetrierUtils.causedByExecTimeout((RetryException) cause))) {
       return execLocally(spawn, context, inputMap, uploadLocalResults, remoteCache, actionKey);
     }
-    return handleError(cause, context.getFileOutErr(), actionKey);
+    return handleError(cause, context, actionKey);
   }
 
-  private SpawnResult handleError(IOException exception, FileOutErr outErr, ActionKey actionKey)
+  private SpawnResult handleError(
+      IOException exception, SpawnExecutionContext context, ActionKey actionKey)
       throws ExecException, InterruptedException, IOException {
     final Throwable cause = exception.getCause();
     if (cause instanceof ExecutionStatusException) {
@@ -287,9 +289,11 @@ class RemoteSpawnRunner implements SpawnRunner {
       if (e.getResponse() != null) {
         ExecuteResponse resp = e.getResponse();
         maybeDownloadServerLogs(resp, actionKey);
-        if (resp.hasResult()) {
-          // We try to download all (partial) results even on server error, for debuggability.
-          remoteCache.download(resp.getResult(), execRoot, outErr);
+        // We try to download all (partial) results even on server error, for debuggability. Not
+        // when speculating though, as that would prevent a concurrent execution from succeeding.
+        if (resp.hasResult() && !context.speculating()) {
+          context.lockOutputFiles();
+          remoteCache.download(resp.getResult(), execRoot, context.getFileOutErr());
         }
       }
       if (e.isExecutionTimeout()) {
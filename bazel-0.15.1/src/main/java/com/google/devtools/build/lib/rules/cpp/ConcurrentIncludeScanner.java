@@ -0,0 +1,268 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.ErrorClassifier;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link IncludeScanner} that visits the files included by the sources of an action
+ * concurrently, and resolves their inclusions against the headers the action may include, the way
+ * the compiler would in a sandbox that only contains those headers.
+ *
+ * <p>When the closure can't be determined, because a file includes a computed name or a generated
+ * header that has no extracted inclusions, all the headers the action may include are returned.
+ */
+final class ConcurrentIncludeScanner implements IncludeScanner {
+  private final IncludeParser parser;
+  private final ExecutorService executor;
+  /** The headers the action may include, by exec path. */
+  private final Map<PathFragment, Artifact> includableHeaders;
+  /** The quote include paths followed by the include paths, which is the search order of "". */
+  private final ImmutableList<PathFragment> searchPath;
+  /** The index in {@link #searchPath} of the first include path, where <> starts searching. */
+  private final int angleSearchStart;
+
+  ConcurrentIncludeScanner(
+      IncludeParser parser,
+      ExecutorService executor,
+      Map<PathFragment, Artifact> includableHeaders,
+      List<PathFragment> quoteIncludePaths,
+      List<PathFragment> includePaths) {
+    this.parser = parser;
+    this.executor = executor;
+    this.includableHeaders = includableHeaders;
+    this.searchPath =
+        ImmutableList.<PathFragment>builder()
+            .addAll(quoteIncludePaths)
+            .addAll(includePaths)
+            .build();
+    this.angleSearchStart = quoteIncludePaths.size();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The include paths are the ones this scanner was created with.
+   */
+  @Override
+  public void process(
+      Artifact mainSource,
+      Collection<Artifact> sources,
+      Map<Artifact, Artifact> legalOutputPaths,
+      List<PathFragment> quoteIncludeDirs,
+      List<PathFragment> includeDirs,
+      List<String> cmdlineIncludes,
+      Set<Artifact> includes,
+      ActionExecutionContext actionExecutionContext,
+      Artifact grepIncludes,
+      Set<Artifact> modularHeaders)
+      throws IOException, InterruptedException {
+    Visitor visitor =
+        new Visitor(
+            mainSource,
+            legalOutputPaths,
+            includes,
+            actionExecutionContext,
+            modularHeaders);
+    for (String cmdlineInclude : cmdlineIncludes) {
+      // -include files are looked for in the working directory, then like a quote inclusion of
+      // the main source.
+      PathFragment name = PathFragment.create(cmdlineInclude);
+      Artifact header = includableHeaders.get(name);
+      if (header != null) {
+        visitor.found(header, -1);
+      } else {
+        visitor.resolve(mainSource, -1, new Inclusion(cmdlineInclude, Inclusion.Kind.QUOTE));
+      }
+    }
+    visitor.found(mainSource, -1);
+    for (Artifact source : sources) {
+      visitor.found(source, -1);
+    }
+    visitor.awaitCompletion();
+    if (visitor.incomplete) {
+      includes.addAll(includableHeaders.values());
+    }
+  }
+
+  /** The traversal of the files included by one action. */
+  private final class Visitor extends AbstractQueueVisitor {
+    private final Artifact mainSource;
+    private final Map<Artifact, Artifact> legalOutputPaths;
+    private final Set<Artifact> includes;
+    private final ActionExecutionContext actionExecutionContext;
+    @Nullable private final Set<Artifact> modularHeaders;
+
+    /** The inclusions of each file visited so far. */
+    private final Map<Artifact, ImmutableList<Inclusion>> inclusions = new ConcurrentHashMap<>();
+    /**
+     * The files visited so far, with the index of the include path they were found in, which their
+     * #include_next directives depend on.
+     */
+    private final Set<Pair<Artifact, Integer>> visitedContexts = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean incomplete = false;
+
+    private Visitor(
+        Artifact mainSource,
+        Map<Artifact, Artifact> legalOutputPaths,
+        Set<Artifact> includes,
+        ActionExecutionContext actionExecutionContext,
+        @Nullable Set<Artifact> modularHeaders) {
+      super(
+          /*executorService=*/ executor,
+          // The executor is shared by all the actions being scanned.
+          /*shutdownOnCompletion=*/ false,
+          /*failFastOnException=*/ true,
+          ErrorClassifier.DEFAULT);
+      this.mainSource = mainSource;
+      this.legalOutputPaths = legalOutputPaths;
+      this.includes = includes;
+      this.actionExecutionContext = actionExecutionContext;
+      this.modularHeaders = modularHeaders;
+    }
+
+    /**
+     * Records that {@code file} is included, and schedules its visitation.
+     *
+     * @param searchIndex the index in {@link #searchPath} of the include path {@code file} was
+     *     found in, or -1 if it wasn't found through the include paths
+     */
+    private void found(Artifact file, int searchIndex) {
+      includes.add(file);
+      if (modularHeaders != null && modularHeaders.contains(file)) {
+        // The header module provides the files this header includes.
+        return;
+      }
+      if (visitedContexts.add(Pair.of(file, searchIndex))) {
+        execute(() -> visit(file, searchIndex));
+      }
+    }
+
+    private void visit(Artifact file, int searchIndex) {
+      if (incomplete) {
+        return;
+      }
+      ImmutableList<Inclusion> fileInclusions = inclusions.get(file);
+      boolean firstVisit = false;
+      if (fileInclusions == null) {
+        try {
+          fileInclusions = getInclusions(file);
+        } catch (IOException e) {
+          throw new ScanningException(e);
+        }
+        if (fileInclusions == null) {
+          incomplete = true;
+          return;
+        }
+        firstVisit = inclusions.putIfAbsent(file, fileInclusions) == null;
+      }
+      // Only #include_next directives resolve differently when the file is found elsewhere.
+      for (Inclusion inclusion : fileInclusions) {
+        if (firstVisit || inclusion.isNext()) {
+          resolve(file, searchIndex, inclusion);
+        }
+      }
+    }
+
+    /** Returns the inclusions of {@code file}, or null if they can't be determined. */
+    @Nullable
+    private ImmutableList<Inclusion> getInclusions(Artifact file) throws IOException {
+      Path path;
+      if (legalOutputPaths.containsKey(file)) {
+        // A generated header, which may not have been built yet: its inclusions were extracted by
+        // an action this one depends on.
+        Artifact extractedInclusions = legalOutputPaths.get(file);
+        if (extractedInclusions != null) {
+          path = actionExecutionContext.getInputPath(extractedInclusions);
+        } else if (file.equals(mainSource)) {
+          path = actionExecutionContext.getInputPath(file);
+        } else {
+          return null;
+        }
+      } else {
+        path = actionExecutionContext.getInputPath(file);
+      }
+      ImmutableList<Inclusion> fileInclusions = parser.getInclusions(path);
+      for (Inclusion inclusion : fileInclusions) {
+        if (inclusion.getKind() == Inclusion.Kind.COMPUTED) {
+          return null;
+        }
+      }
+      return fileInclusions;
+    }
+
+    /** Looks for the file {@code inclusion} of {@code includer} refers to. */
+    private void resolve(Artifact includer, int includerSearchIndex, Inclusion inclusion) {
+      PathFragment name = PathFragment.create(inclusion.getName());
+      if (name.isAbsolute()) {
+        return;
+      }
+      int searchStart = inclusion.isQuote() ? 0 : angleSearchStart;
+      if (inclusion.isNext() && includerSearchIndex >= 0) {
+        searchStart = Math.max(searchStart, includerSearchIndex + 1);
+      } else if (inclusion.isQuote()) {
+        Artifact header =
+            includableHeaders.get(includer.getExecPath().getParentDirectory().getRelative(name));
+        if (header != null) {
+          found(header, -1);
+          return;
+        }
+      }
+      for (int i = searchStart; i < searchPath.size(); i++) {
+        Artifact header = includableHeaders.get(searchPath.get(i).getRelative(name));
+        if (header != null) {
+          found(header, i);
+          return;
+        }
+      }
+    }
+
+    private void awaitCompletion() throws IOException, InterruptedException {
+      try {
+        awaitQuiescence(/*interruptWorkers=*/ true);
+      } catch (ScanningException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  /** Carries an {@link IOException} out of a visitation task. */
+  private static final class ScanningException extends RuntimeException {
+    private ScanningException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -1250,10 +1250,10 @@ public class CppCompileAction extends AbstractAction
         new HeaderDiscovery.Builder()
             .setAction(this)
             .setSourceFile(getSourceFile())
-            .setDependencies(
-                processDepset(actionExecutionContext, execRoot, reply).getDependencies())
+            .setDotdFileParser(parseDotdFile(actionExecutionContext, execRoot, reply))
             .setPermittedSystemIncludePrefixes(getPermittedSystemIncludePrefixes(execRoot))
-            .setAllowedDerivedinputs(getAllowedDerivedInputs());
+            .setAllowedDerivedinputs(getAllowedDerivedInputs())
+            .setDeclaredIncludeSrcs(getDeclaredIncludeSrcs());
 
     if (needsIncludeValidation) {
       discoveryBuilder.shouldValidateInclusions();
@@ -1262,6 +1262,30 @@ public class CppCompileAction extends AbstractAction
     return discoveryBuilder.build().discoverInputsFromDependencies(execRoot, artifactResolver);
   }
 
+  /**
+   * Returns a parser of the .d file, which {@link HeaderDiscovery} resolves without decoding the
+   * dependencies it already knows.
+   */
+  private DependencySet.Parser parseDotdFile(
+      ActionExecutionContext actionExecutionContext, Path execRoot, Reply reply)
+      throws ActionExecutionException {
+    DotdFile dotdFile = getDotdFile();
+    Preconditions.checkNotNull(dotdFile);
+    try {
+      // See processDepset for when the .d file is in memory.
+      if (dotdFile.artifact() == null && reply != null) {
+        return new DependencySet.Parser(reply.getContents());
+      }
+      Path dotdPath =
+          dotdFile.artifact() != null
+              ? dotdFile.getPath(actionExecutionContext)
+              : execRoot.getRelative(dotdFile.getSafeExecPath());
+      return new DependencySet.Parser(FileSystemUtils.readContent(dotdPath));
+    } catch (IOException e) {
+      throw new ActionExecutionException("error while parsing .d file", e, this, false);
+    }
+  }
+
   public DependencySet processDepset(
       ActionExecutionContext actionExecutionContext, Path execRoot, Reply reply)
       throws ActionExecutionException {
@@ -766,6 +766,11 @@ public final class CppConfiguration extends BuildConfiguration.Fragment
     return cppOptions.linkCompileOutputSeparately;
   }
 
+  /** Whether the inputs of compile actions are pruned to the headers found by include scanning. */
+  public boolean includeScanning() {
+    return cppOptions.includeScanning;
+  }
+
   /*
    * If true then the directory name for non-LIPO targets will have a '-lipodata' suffix in
    * AutoFDO mode.
@@ -0,0 +1,80 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionExecutionException;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.rules.cpp.IncludeScanner.IncludeScannerSupplier;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CppIncludeScanningContext} that scans the sources of the actions that should be
+ * include-scanned with a {@link ConcurrentIncludeScanner}, so that only the headers they include
+ * are inputs of the action.
+ */
+@ExecutionStrategy(contextType = CppIncludeScanningContext.class)
+public class CppIncludeScanningContextImpl implements CppIncludeScanningContext {
+  private final IncludeParser includeParser;
+  private final ExecutorService executor;
+
+  /**
+   * @param includeParser the parser of the inclusions of each file, which may be shared with other
+   *     builds
+   * @param executor the executor the inclusions of the scanned files are resolved on
+   */
+  public CppIncludeScanningContextImpl(IncludeParser includeParser, ExecutorService executor) {
+    this.includeParser = includeParser;
+    this.executor = executor;
+  }
+
+  @Nullable
+  @Override
+  public Iterable<Artifact> findAdditionalInputs(
+      CppCompileAction action,
+      ActionExecutionContext actionExecutionContext,
+      IncludeProcessing includeProcessing)
+      throws ExecException, InterruptedException, ActionExecutionException {
+    if (!action.shouldScanIncludes()) {
+      return null;
+    }
+    Map<PathFragment, Artifact> includableHeaders = new HashMap<>();
+    for (Artifact header : action.getDeclaredIncludeSrcs()) {
+      if (header.isTreeArtifact()) {
+        // The headers in the directory aren't known until it is built.
+        return null;
+      }
+      includableHeaders.put(header.getExecPath(), header);
+    }
+    Map<PathFragment, Artifact> unmodifiableIncludableHeaders =
+        Collections.unmodifiableMap(includableHeaders);
+    IncludeScannerSupplier includeScannerSupplier =
+        (quoteIncludePaths, includePaths) ->
+            new ConcurrentIncludeScanner(
+                includeParser,
+                executor,
+                unmodifiableIncludableHeaders,
+                quoteIncludePaths,
+                includePaths);
+    return includeProcessing.determineAdditionalInputs(
+        includeScannerSupplier, action, actionExecutionContext);
+  }
+}
@@ -850,6 +850,23 @@ public class CppOptions extends FragmentOptions {
   )
   public boolean inmemoryDotdFiles;
 
+  @Option(
+    name = "experimental_cc_include_scanning",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.BUILD_TIME_OPTIMIZATION,
+    effectTags = {
+      OptionEffectTag.LOADING_AND_ANALYSIS,
+      OptionEffectTag.EXECUTION,
+      OptionEffectTag.CHANGES_INPUTS
+    },
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If enabled, the sources of C++ compile actions are scanned for #include directives "
+            + "before they run, and only the headers they transitively include are inputs of the "
+            + "action, instead of all the headers of their dependencies."
+  )
+  public boolean includeScanning;
+
   @Option(
     name = "prune_cpp_modules",
     defaultValue = "true",
@@ -988,6 +1005,7 @@ public class CppOptions extends FragmentOptions {
     host.fdoProfileLabel = null;
     host.lipoModeForBuild = LipoMode.OFF;
     host.inmemoryDotdFiles = inmemoryDotdFiles;
+    host.includeScanning = includeScanning;
     host.pruneCppInputDiscovery = pruneCppInputDiscovery;
 
     return host;
@@ -0,0 +1,95 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.devtools.build.lib.actions.Artifact;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/**
+ * An open-addressing table of artifacts keyed by exec path, which is looked up with the raw bytes
+ * of a path, as read from a .d file, without decoding them into a {@link String} or a {@link
+ * com.google.devtools.build.lib.vfs.PathFragment}.
+ *
+ * <p>The table only holds references to the artifacts and reuses the hash codes their exec path
+ * strings cache, so building it costs a single array. Only ASCII paths are found; a path with any
+ * other byte has to be decoded and looked up the slow way.
+ */
+final class ExecPathIndex {
+  private final Artifact[] table;
+  private final int mask;
+
+  ExecPathIndex(Collection<Artifact> artifacts) {
+    int capacity = Integer.highestOneBit(Math.max(artifacts.size(), 4) * 3) << 1;
+    this.table = new Artifact[capacity];
+    this.mask = capacity - 1;
+    for (Artifact artifact : artifacts) {
+      put(artifact);
+    }
+  }
+
+  private void put(Artifact artifact) {
+    String execPath = artifact.getExecPathString();
+    int i = spread(execPath.hashCode()) & mask;
+    while (table[i] != null) {
+      if (table[i].getExecPathString().equals(execPath)) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    table[i] = artifact;
+  }
+
+  /**
+   * Returns the artifact whose exec path is the first {@code length} bytes of {@code buffer}, or
+   * null if there is none or the path is not ASCII.
+   */
+  @Nullable
+  Artifact get(byte[] buffer, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      byte b = buffer[i];
+      if (b < 0) {
+        return null;
+      }
+      // For ASCII, this is exactly String.hashCode() of the decoded path.
+      hash = 31 * hash + b;
+    }
+    int i = spread(hash) & mask;
+    for (Artifact artifact = table[i]; artifact != null; artifact = table[i]) {
+      String execPath = artifact.getExecPathString();
+      if (execPath.hashCode() == hash && matches(execPath, buffer, length)) {
+        return artifact;
+      }
+      i = (i + 1) & mask;
+    }
+    return null;
+  }
+
+  private static boolean matches(String execPath, byte[] buffer, int length) {
+    if (execPath.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (execPath.charAt(i) != buffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -15,6 +15,7 @@
 package com.google.devtools.build.lib.rules.cpp;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.actions.Action;
@@ -27,12 +28,15 @@ import com.google.devtools.build.lib.cmdline.RepositoryName;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.util.DependencySet;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * HeaderDiscovery checks whether all header files that a compile action uses are actually declared
@@ -42,6 +46,10 @@ import java.util.List;
  * accepted. Testing whether a used header file is prefixed by any tree artifact is linear search,
  * but the result is cached. If all files in a tree artifact are at the root of the artifact, the
  * entire check is performed by hash lookups.
+ *
+ * <p>Dependencies read from a .d file are first looked up by their raw bytes among the artifacts
+ * the action knows about, which resolves most of them without allocating; only the others are
+ * decoded into paths and resolved through the {@link ArtifactResolver}.
  */
 public class HeaderDiscovery {
 
@@ -57,6 +65,7 @@ public class HeaderDiscovery {
   private final boolean shouldValidateInclusions;
 
   private final Collection<Path> dependencies;
+  @Nullable private final DependencySet.Parser dotdFileParser;
   private final List<Path> permittedSystemIncludePrefixes;
 
   /**
@@ -65,6 +74,13 @@ public class HeaderDiscovery {
    */
   private final ImmutableMap<PathFragment, Artifact> allowedDerivedInputsMap;
 
+  /**
+   * knownInputs indexes the file artifacts a dependency from the .d file is expected to resolve to:
+   * the allowed derived inputs, the declared include srcs and the source file. It is null when
+   * dependencies are not read from a .d file.
+   */
+  @Nullable private final ExecPathIndex knownInputs;
+
   /**
    * treeArtifactPaths contains the paths of tree artifacts given as input to the action.
    *
@@ -95,15 +111,19 @@ public class HeaderDiscovery {
       Artifact sourceFile,
       boolean shouldValidateInclusions,
       Collection<Path> dependencies,
+      @Nullable DependencySet.Parser dotdFileParser,
       List<Path> permittedSystemIncludePrefixes,
       ImmutableMap<PathFragment, Artifact> allowedDerivedInputsMap,
+      @Nullable ExecPathIndex knownInputs,
       ImmutableSet<PathFragment> treeArtifactPaths) {
     this.action = Preconditions.checkNotNull(action);
     this.sourceFile = Preconditions.checkNotNull(sourceFile);
     this.shouldValidateInclusions = shouldValidateInclusions;
     this.dependencies = dependencies;
+    this.dotdFileParser = dotdFileParser;
     this.permittedSystemIncludePrefixes = permittedSystemIncludePrefixes;
     this.allowedDerivedInputsMap = allowedDerivedInputsMap;
+    this.knownInputs = knownInputs;
     this.treeArtifactPaths = treeArtifactPaths;
 
     this.allowedDirs = new HashMap<>();
@@ -126,56 +146,35 @@ public class HeaderDiscovery {
   NestedSet<Artifact> discoverInputsFromDependencies(
       Path execRoot, ArtifactResolver artifactResolver) throws ActionExecutionException {
     NestedSetBuilder<Artifact> inputs = NestedSetBuilder.stableOrder();
-    if (dependencies == null) {
+    if (dependencies == null && dotdFileParser == null) {
       return inputs.build();
     }
 
     // Check inclusions.
     IncludeProblems problems = new IncludeProblems();
-    for (Path execPath : dependencies) {
-      PathFragment execPathFragment = execPath.asFragment();
-      if (execPathFragment.isAbsolute()) {
-        // Absolute includes from system paths are ignored.
-        if (FileSystemUtils.startsWithAny(execPath, permittedSystemIncludePrefixes)) {
+    if (dotdFileParser != null) {
+      // A relative dependency that is byte for byte the exec path of a known input resolves to it,
+      // unless the system include prefixes overlap the exec root and might claim it.
+      boolean resolveKnownInputs = !overlapsAny(execRoot, permittedSystemIncludePrefixes);
+      while (dotdFileParser.next()) {
+        if (dotdFileParser.isTarget()) {
           continue;
         }
-        // Since gcc is given only relative paths on the command line,
-        // non-system include paths here should never be absolute. If they
-        // are, it's probably due to a non-hermetic #include, & we should stop
-        // the build with an error.
-        if (execPath.startsWith(execRoot)) {
-          execPathFragment = execPath.relativeTo(execRoot); // funky but tolerable path
-        } else {
-          problems.add(execPathFragment.getPathString());
-          continue;
+        if (resolveKnownInputs) {
+          Artifact artifact =
+              knownInputs.get(dotdFileParser.getBuffer(), dotdFileParser.getLength());
+          if (artifact != null) {
+            inputs.add(artifact);
+            continue;
+          }
         }
+        discoverInput(
+            dotdFileParser.getPath(execRoot), execRoot, artifactResolver, inputs, problems);
       }
-      Artifact artifact = allowedDerivedInputsMap.get(execPathFragment);
-      if (artifact == null) {
-        try {
-          RepositoryName repository =
-              PackageIdentifier.discoverFromExecPath(execPathFragment, false).getRepository();
-          artifact = artifactResolver.resolveSourceArtifact(execPathFragment, repository);
-        } catch (LabelSyntaxException e) {
-          throw new ActionExecutionException(
-              String.format("Could not find the external repository for %s", execPathFragment),
-              e,
-              action,
-              false);
-        }
-      }
-      if (artifact != null) {
-        inputs.add(artifact);
-        continue;
-      }
-
-      if (inTreeArtifact(execPathFragment)) {
-        continue;
+    } else {
+      for (Path execPath : dependencies) {
+        discoverInput(execPath, execRoot, artifactResolver, inputs, problems);
       }
-
-      // Abort if we see files that we can't resolve, likely caused by
-      // undeclared includes or illegal include constructs.
-      problems.add(execPathFragment.getPathString());
     }
     if (shouldValidateInclusions) {
       problems.assertProblemFree(action, sourceFile);
@@ -183,6 +182,67 @@ public class HeaderDiscovery {
     return inputs.build();
   }
 
+  private void discoverInput(
+      Path execPath,
+      Path execRoot,
+      ArtifactResolver artifactResolver,
+      NestedSetBuilder<Artifact> inputs,
+      IncludeProblems problems)
+      throws ActionExecutionException {
+    PathFragment execPathFragment = execPath.asFragment();
+    if (execPathFragment.isAbsolute()) {
+      // Absolute includes from system paths are ignored.
+      if (FileSystemUtils.startsWithAny(execPath, permittedSystemIncludePrefixes)) {
+        return;
+      }
+      // Since gcc is given only relative paths on the command line,
+      // non-system include paths here should never be absolute. If they
+      // are, it's probably due to a non-hermetic #include, & we should stop
+      // the build with an error.
+      if (execPath.startsWith(execRoot)) {
+        execPathFragment = execPath.relativeTo(execRoot); // funky but tolerable path
+      } else {
+        problems.add(execPathFragment.getPathString());
+        return;
+      }
+    }
+    Artifact artifact = allowedDerivedInputsMap.get(execPathFragment);
+    if (artifact == null) {
+      try {
+        RepositoryName repository =
+            PackageIdentifier.discoverFromExecPath(execPathFragment, false).getRepository();
+        artifact = artifactResolver.resolveSourceArtifact(execPathFragment, repository);
+      } catch (LabelSyntaxException e) {
+        throw new ActionExecutionException(
+            String.format("Could not find the external repository for %s", execPathFragment),
+            e,
+            action,
+            false);
+      }
+    }
+    if (artifact != null) {
+      inputs.add(artifact);
+      return;
+    }
+
+    if (inTreeArtifact(execPathFragment)) {
+      return;
+    }
+
+    // Abort if we see files that we can't resolve, likely caused by
+    // undeclared includes or illegal include constructs.
+    problems.add(execPathFragment.getPathString());
+  }
+
+  private static boolean overlapsAny(Path execRoot, List<Path> prefixes) {
+    for (Path prefix : prefixes) {
+      if (prefix.startsWith(execRoot) || execRoot.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean inTreeArtifact(PathFragment execPathFragment) {
     PathFragment dir = execPathFragment.getParentDirectory();
     Boolean allowed = allowedDirs.get(dir);
@@ -201,8 +261,10 @@ public class HeaderDiscovery {
     private boolean shouldValidateInclusions = false;
 
     private Collection<Path> dependencies;
+    private DependencySet.Parser dotdFileParser;
     private List<Path> permittedSystemIncludePrefixes;
     private Iterable<Artifact> allowedDerivedInputs;
+    private Iterable<Artifact> declaredIncludeSrcs = ImmutableList.of();
 
     /** Sets the action for which to discover inputs. */
     public Builder setAction(Action action) {
@@ -228,6 +290,15 @@ public class HeaderDiscovery {
       return this;
     }
 
+    /**
+     * Sets the parser of the .d file capturing used headers by this compile, instead of the
+     * dependencies.
+     */
+    public Builder setDotdFileParser(DependencySet.Parser dotdFileParser) {
+      this.dotdFileParser = dotdFileParser;
+      return this;
+    }
+
     /** Sets prefixes of allowed absolute inclusions */
     public Builder setPermittedSystemIncludePrefixes(List<Path> systemIncludePrefixes) {
       this.permittedSystemIncludePrefixes = systemIncludePrefixes;
@@ -240,24 +311,46 @@ public class HeaderDiscovery {
       return this;
     }
 
+    /**
+     * Sets the headers the compile declares, which dependencies from the .d file are resolved to
+     * directly.
+     */
+    public Builder setDeclaredIncludeSrcs(Iterable<Artifact> declaredIncludeSrcs) {
+      this.declaredIncludeSrcs = declaredIncludeSrcs;
+      return this;
+    }
+
     /** Creates a CppHeaderDiscovery instance. */
     public HeaderDiscovery build() {
       ImmutableMap.Builder<PathFragment, Artifact> allowedDerivedInputsMap = ImmutableMap.builder();
       ImmutableSet.Builder<PathFragment> treeArtifactPrefixes = ImmutableSet.builder();
+      List<Artifact> knownInputs = dotdFileParser == null ? null : new ArrayList<>();
       for (Artifact a : allowedDerivedInputs) {
         if (a.isTreeArtifact()) {
           treeArtifactPrefixes.add(a.getExecPath());
+        } else if (knownInputs != null) {
+          knownInputs.add(a);
         }
         allowedDerivedInputsMap.put(a.getExecPath(), a);
       }
+      if (knownInputs != null) {
+        knownInputs.add(sourceFile);
+        for (Artifact a : declaredIncludeSrcs) {
+          if (!a.isTreeArtifact()) {
+            knownInputs.add(a);
+          }
+        }
+      }
 
       return new HeaderDiscovery(
           action,
           sourceFile,
           shouldValidateInclusions,
           dependencies,
+          dotdFileParser,
           permittedSystemIncludePrefixes,
           allowedDerivedInputsMap.build(),
+          knownInputs == null ? null : new ExecPathIndex(knownInputs),
           treeArtifactPrefixes.build());
     }
   }
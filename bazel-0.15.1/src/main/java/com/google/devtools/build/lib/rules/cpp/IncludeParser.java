@@ -0,0 +1,321 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Extracts the {@code #include} directives of C++ source files, and caches them by the digest of
+ * the file, so that each version of a header is only parsed once however many compiles include it.
+ *
+ * <p>The parser only looks at lines that start with a directive. It joins lines continued with a
+ * backslash and skips comments within a directive, but it doesn't evaluate conditionals or skip
+ * lines in block comments, so the files it finds over-approximate the files the compiler includes.
+ * A directive it can't make sense of is reported as {@link Inclusion.Kind#COMPUTED}, so that the
+ * scan falls back to all the headers the file may include rather than missing one.
+ */
+@ThreadSafe
+public final class IncludeParser {
+  private static final long MAX_CACHED_FILES = 500000;
+
+  /** A directive that includes another file. */
+  @Immutable
+  public static final class Inclusion {
+    /** The kind of an inclusion, which determines where the included file is looked for. */
+    public enum Kind {
+      /** {@code #include "name"}. */
+      QUOTE("include \"", "\""),
+      /** {@code #include <name>}. */
+      ANGLE("include <", ">"),
+      /** {@code #include_next "name"}. */
+      NEXT_QUOTE("include_next \"", "\""),
+      /** {@code #include_next <name>}. */
+      NEXT_ANGLE("include_next <", ">"),
+      /** An inclusion whose name is computed by the preprocessor, e.g. {@code #include FOO_H}. */
+      COMPUTED("include ", "");
+
+      private final String prefix;
+      private final String suffix;
+
+      Kind(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+      }
+    }
+
+    private final String name;
+    private final Kind kind;
+
+    @VisibleForTesting
+    Inclusion(String name, Kind kind) {
+      this.name = Preconditions.checkNotNull(name);
+      this.kind = Preconditions.checkNotNull(kind);
+    }
+
+    /** Returns the name of the included file, or the tokens it is computed from. */
+    public String getName() {
+      return name;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /** Whether the included file is first looked for next to the including file. */
+    public boolean isQuote() {
+      return kind == Kind.QUOTE || kind == Kind.NEXT_QUOTE;
+    }
+
+    /** Whether the search resumes after the include path the including file was found in. */
+    public boolean isNext() {
+      return kind == Kind.NEXT_QUOTE || kind == Kind.NEXT_ANGLE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Inclusion)) {
+        return false;
+      }
+      Inclusion that = (Inclusion) o;
+      return kind == that.kind && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, kind);
+    }
+
+    /** Returns the directive, which {@link #extractInclusions} parses back to this inclusion. */
+    @Override
+    public String toString() {
+      return "#" + kind.prefix + name + kind.suffix;
+    }
+  }
+
+  private final Cache<HashCode, ImmutableList<Inclusion>> inclusionsByDigest =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_FILES).build();
+
+  /** Returns the inclusions of the file at {@code path}. */
+  public ImmutableList<Inclusion> getInclusions(Path path) throws IOException {
+    HashCode digest = HashCode.fromBytes(DigestUtils.getDigestOrFail(path, path.getFileSize()));
+    ImmutableList<Inclusion> inclusions = inclusionsByDigest.getIfPresent(digest);
+    if (inclusions == null) {
+      inclusions = extractInclusions(FileSystemUtils.readContent(path));
+      inclusionsByDigest.put(digest, inclusions);
+    }
+    return inclusions;
+  }
+
+  /** Writes the inclusions of the file at {@code input} to {@code output}, one per line. */
+  public void writeInclusions(Path input, Path output) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (Inclusion inclusion : getInclusions(input)) {
+      content.append(inclusion).append('\n');
+    }
+    FileSystemUtils.writeContent(output, StandardCharsets.ISO_8859_1, content.toString());
+  }
+
+  /** Returns the inclusions of a file with the given content, in order. */
+  @VisibleForTesting
+  static ImmutableList<Inclusion> extractInclusions(byte[] content) {
+    ImmutableList.Builder<Inclusion> inclusions = ImmutableList.builder();
+    int lineStart = 0;
+    while (lineStart < content.length) {
+      int lineEnd = lineStart;
+      boolean continued = false;
+      while (lineEnd < content.length
+          && (content[lineEnd] != '\n' || isContinuation(content, lineStart, lineEnd))) {
+        continued |= content[lineEnd] == '\n';
+        lineEnd++;
+      }
+      Inclusion inclusion;
+      if (continued) {
+        byte[] line = joinContinuedLines(content, lineStart, lineEnd);
+        inclusion = parseLine(line, 0, line.length);
+      } else {
+        inclusion = parseLine(content, lineStart, lineEnd);
+      }
+      if (inclusion != null) {
+        inclusions.add(inclusion);
+      }
+      lineStart = lineEnd + 1;
+    }
+    return inclusions.build();
+  }
+
+  /** Whether the newline at {@code newline} is escaped, which continues the line it ends. */
+  private static boolean isContinuation(byte[] content, int lineStart, int newline) {
+    int pos = newline - 1;
+    if (pos > lineStart && content[pos] == '\r') {
+      pos--;
+    }
+    return pos >= lineStart && content[pos] == '\\';
+  }
+
+  /** Returns the given lines with their escaped newlines removed, as the preprocessor does. */
+  private static byte[] joinContinuedLines(byte[] content, int start, int end) {
+    byte[] line = new byte[end - start];
+    int length = 0;
+    for (int pos = start; pos < end; pos++) {
+      if (content[pos] == '\n') {
+        // Drop the carriage return, if there is one, and the backslash before the newline.
+        if (line[length - 1] == '\r') {
+          length--;
+        }
+        length--;
+      } else {
+        line[length++] = content[pos];
+      }
+    }
+    return Arrays.copyOf(line, length);
+  }
+
+  /** Returns the inclusion on the given line, or null if there is none. */
+  private static Inclusion parseLine(byte[] content, int start, int end) {
+    int pos = skipWhitespaceAndComments(content, start, end);
+    if (pos == end || content[pos] != '#') {
+      return null;
+    }
+    pos = skipWhitespaceAndComments(content, pos + 1, end);
+    boolean next;
+    if (startsWith(content, pos, end, "include_next")) {
+      next = true;
+      pos += "include_next".length();
+    } else if (startsWith(content, pos, end, "include")) {
+      next = false;
+      pos += "include".length();
+    } else if (startsWith(content, pos, end, "import")) {
+      // Objective-C's #import includes a file at most once, which only matters to the compiler.
+      next = false;
+      pos += "import".length();
+    } else {
+      return null;
+    }
+    if (pos < end
+        && !isWhitespace(content[pos])
+        && content[pos] != '"'
+        && content[pos] != '<'
+        && content[pos] != '/') {
+      // Some other directive whose name starts the same way.
+      return null;
+    }
+    int nameStart = skipWhitespaceAndComments(content, pos, end);
+    if (nameStart == end) {
+      return unparsed(content, pos, end);
+    }
+    byte delimiter = content[nameStart];
+    if (delimiter == '"' || delimiter == '<') {
+      byte closing = delimiter == '"' ? (byte) '"' : (byte) '>';
+      int nameEnd = nameStart + 1;
+      while (nameEnd < end && content[nameEnd] != closing) {
+        nameEnd++;
+      }
+      if (nameEnd == end || nameEnd == nameStart + 1) {
+        return unparsed(content, pos, end);
+      }
+      Inclusion.Kind kind =
+          delimiter == '"'
+              ? (next ? Inclusion.Kind.NEXT_QUOTE : Inclusion.Kind.QUOTE)
+              : (next ? Inclusion.Kind.NEXT_ANGLE : Inclusion.Kind.ANGLE);
+      return new Inclusion(toString(content, nameStart + 1, nameEnd), kind);
+    }
+    int nameEnd = nameStart;
+    while (nameEnd < end && !startsWith(content, nameEnd, end, "//")
+        && !startsWith(content, nameEnd, end, "/*")) {
+      nameEnd++;
+    }
+    while (nameEnd > nameStart && isWhitespace(content[nameEnd - 1])) {
+      nameEnd--;
+    }
+    return new Inclusion(toString(content, nameStart, nameEnd), Inclusion.Kind.COMPUTED);
+  }
+
+  /**
+   * Returns a {@link Inclusion.Kind#COMPUTED} inclusion for an inclusion directive whose operand,
+   * which starts at {@code pos}, isn't a name the parser understands.
+   */
+  private static Inclusion unparsed(byte[] content, int pos, int end) {
+    pos = skipWhitespace(content, pos, end);
+    while (end > pos && isWhitespace(content[end - 1])) {
+      end--;
+    }
+    return new Inclusion(toString(content, pos, end), Inclusion.Kind.COMPUTED);
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0b;
+  }
+
+  private static int skipWhitespace(byte[] content, int pos, int end) {
+    while (pos < end && isWhitespace(content[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /** Skips whitespace and comments; a comment that doesn't end on the line ends the line. */
+  private static int skipWhitespaceAndComments(byte[] content, int pos, int end) {
+    while (true) {
+      pos = skipWhitespace(content, pos, end);
+      if (startsWith(content, pos, end, "//")) {
+        return end;
+      }
+      if (!startsWith(content, pos, end, "/*")) {
+        return pos;
+      }
+      pos += 2;
+      while (pos < end && !startsWith(content, pos, end, "*/")) {
+        pos++;
+      }
+      if (pos == end) {
+        return end;
+      }
+      pos += 2;
+    }
+  }
+
+  private static boolean startsWith(byte[] content, int pos, int end, String prefix) {
+    if (end - pos < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (content[pos + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String toString(byte[] content, int start, int end) {
+    // Bazel represents paths as Latin-1 strings.
+    return new String(content, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+}
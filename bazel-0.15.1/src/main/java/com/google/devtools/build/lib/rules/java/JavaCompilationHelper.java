@@ -241,6 +241,9 @@ public final class JavaCompilationHelper {
   }
 
   private ImmutableMap<String, String> getExecutionInfo() {
+    if (javaToolchain.getJavacSupportsMultiplexWorkers()) {
+      return ExecutionRequirements.WORKER_MULTIPLEX_MODE_ENABLED;
+    }
     if (javaToolchain.getJavacSupportsWorkers()) {
       return ExecutionRequirements.WORKER_MODE_ENABLED;
     }
@@ -62,6 +62,8 @@ public class JavaToolchain implements RuleConfiguredTargetFactory {
         ruleContext, "extclasspath", Mode.HOST);
     boolean javacSupportsWorkers =
         ruleContext.attributes().get("javac_supports_workers", Type.BOOLEAN);
+    boolean javacSupportsMultiplexWorkers =
+        ruleContext.attributes().get("javac_supports_multiplex_workers", Type.BOOLEAN);
     Artifact javac = ruleContext.getPrerequisiteArtifact("javac", Mode.HOST);
     FilesToRunProvider javabuilder =
         ruleContext.getExecutablePrerequisite("javabuilder", Mode.HOST);
@@ -101,6 +103,7 @@ public class JavaToolchain implements RuleConfiguredTargetFactory {
             javacopts,
             jvmOpts,
             javacSupportsWorkers,
+            javacSupportsMultiplexWorkers,
             bootclasspath,
             extclasspath,
             configuration.getDefaultJavacFlags(),
@@ -70,6 +70,7 @@ public class JavaToolchainProvider extends ToolchainInfo {
       ImmutableList<String> javacOptions,
       ImmutableList<String> jvmOptions,
       boolean javacSupportsWorkers,
+      boolean javacSupportsMultiplexWorkers,
       NestedSet<Artifact> bootclasspath,
       NestedSet<Artifact> extclasspath,
       List<String> defaultJavacFlags,
@@ -110,6 +111,7 @@ public class JavaToolchainProvider extends ToolchainInfo {
         ImmutableList.<String>builder().addAll(javacOptions).addAll(defaultJavacFlags).build(),
         jvmOptions,
         javacSupportsWorkers,
+        javacSupportsMultiplexWorkers,
         packageConfiguration,
         javaSemantics);
   }
@@ -133,6 +135,7 @@ public class JavaToolchainProvider extends ToolchainInfo {
   private final ImmutableList<String> javacOptions;
   private final ImmutableList<String> jvmOptions;
   private final boolean javacSupportsWorkers;
+  private final boolean javacSupportsMultiplexWorkers;
   private final ImmutableList<JavaPackageConfigurationProvider> packageConfiguration;
   private final JavaSemantics javaSemantics;
 
@@ -157,6 +160,7 @@ public class JavaToolchainProvider extends ToolchainInfo {
       ImmutableList<String> javacOptions,
       ImmutableList<String> jvmOptions,
       boolean javacSupportsWorkers,
+      boolean javacSupportsMultiplexWorkers,
       ImmutableList<JavaPackageConfigurationProvider> packageConfiguration,
       JavaSemantics javaSemantics) {
     super(ImmutableMap.of(), Location.BUILTIN);
@@ -180,6 +184,7 @@ public class JavaToolchainProvider extends ToolchainInfo {
     this.javacOptions = javacOptions;
     this.jvmOptions = jvmOptions;
     this.javacSupportsWorkers = javacSupportsWorkers;
+    this.javacSupportsMultiplexWorkers = javacSupportsMultiplexWorkers;
     this.packageConfiguration = packageConfiguration;
     this.javaSemantics = javaSemantics;
   }
@@ -298,6 +303,11 @@ public class JavaToolchainProvider extends ToolchainInfo {
     return javacSupportsWorkers;
   }
 
+  /** @return whether JavaBuilders supports running as a multiplex persistent worker or not */
+  public boolean getJavacSupportsMultiplexWorkers() {
+    return javacSupportsMultiplexWorkers;
+  }
+
   /** Returns the global {@code java_plugin_configuration} data. */
   public ImmutableList<JavaPackageConfigurationProvider> packageConfiguration() {
     return packageConfiguration;
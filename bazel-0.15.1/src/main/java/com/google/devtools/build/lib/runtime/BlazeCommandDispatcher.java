@@ -17,6 +17,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -32,6 +33,8 @@ import com.google.devtools.build.lib.events.ExtendedEventHandler.Postable;
 import com.google.devtools.build.lib.events.PrintingEventHandler;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.runtime.proto.InvocationPolicyOuterClass.InvocationPolicy;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.AnsiStrippingOutputStream;
@@ -52,6 +55,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,6 +99,29 @@ public class BlazeCommandDispatcher {
             }
           });
 
+  private static final int PARSED_OPTIONS_CACHE_SIZE = 64;
+
+  /**
+   * The options parsed for recent command lines, keyed by command name, arguments and invocation
+   * policy. Tools tend to run the same small commands over and over, and the arguments include
+   * everything the client read from the rc files and the environment, so the options parsed for
+   * identical arguments can be reused.
+   */
+  private final Cache<List<Object>, ParsedOptions> parsedOptionsCache =
+      CacheBuilder.newBuilder().maximumSize(PARSED_OPTIONS_CACHE_SIZE).build();
+
+  /** The result of successfully parsing the options of a command line. */
+  private static final class ParsedOptions {
+    private final BlazeOptionHandler optionHandler;
+    /** The events reported while parsing the options, to replay each time they are reused. */
+    private final StoredEventHandler events;
+
+    private ParsedOptions(BlazeOptionHandler optionHandler, StoredEventHandler events) {
+      this.optionHandler = optionHandler;
+      this.events = events;
+    }
+  }
+
   /**
    * Create a Blaze dispatcher that uses the specified {@code BlazeRuntime} instance, but overrides
    * the command map with the given commands (plus any commands from modules).
@@ -237,21 +264,47 @@ public class BlazeCommandDispatcher {
     BlazeWorkspace workspace = runtime.getWorkspace();
 
     StoredEventHandler storedEventHandler = new StoredEventHandler();
-    BlazeOptionHandler optionHandler =
-        BlazeOptionHandler.getHandler(
-            runtime,
-            workspace,
-            command,
-            commandAnnotation,
-            // Provide the options parser so that we can cache OptionsData here.
-            createOptionsParser(command),
-            invocationPolicy,
-            runtime
-                .getStartupOptionsProvider()
-                .getOptions(BlazeServerStartupOptions.class)
-                .expandConfigsInPlace);
-    ExitCode earlyExitCode = optionHandler.parseOptions(args, storedEventHandler);
+    // Project files are read while parsing the options, so their results can't be reused.
+    List<Object> parsedOptionsKey =
+        commandAnnotation.builds() && runtime.getProjectFileProvider() != null
+            ? null
+            : ImmutableList.of(commandName, ImmutableList.copyOf(args), invocationPolicy);
+    ParsedOptions parsedOptions =
+        parsedOptionsKey != null ? parsedOptionsCache.getIfPresent(parsedOptionsKey) : null;
+    BlazeOptionHandler optionHandler;
+    ExitCode earlyExitCode;
+    if (parsedOptions != null) {
+      optionHandler = parsedOptions.optionHandler;
+      earlyExitCode = optionHandler.checkCwdInWorkspace(storedEventHandler);
+      if (earlyExitCode.equals(ExitCode.SUCCESS)) {
+        parsedOptions.events.replayOn(storedEventHandler);
+      }
+    } else {
+      optionHandler =
+          BlazeOptionHandler.getHandler(
+              runtime,
+              workspace,
+              command,
+              commandAnnotation,
+              // Provide the options parser so that we can cache OptionsData here.
+              createOptionsParser(command),
+              invocationPolicy,
+              runtime
+                  .getStartupOptionsProvider()
+                  .getOptions(BlazeServerStartupOptions.class)
+                  .expandConfigsInPlace);
+      earlyExitCode = optionHandler.checkCwdInWorkspace(storedEventHandler);
+      if (earlyExitCode.equals(ExitCode.SUCCESS)) {
+        StoredEventHandler parsingEvents = new StoredEventHandler();
+        earlyExitCode = optionHandler.parseCommandLine(args, parsingEvents);
+        parsingEvents.replayOn(storedEventHandler);
+        if (earlyExitCode.equals(ExitCode.SUCCESS) && parsedOptionsKey != null) {
+          parsedOptionsCache.put(parsedOptionsKey, new ParsedOptions(optionHandler, parsingEvents));
+        }
+      }
+    }
     OptionsProvider options = optionHandler.getOptionsResult();
+    long optionsParsedTimeNanos = runtime.getClock().nanoTime();
 
     CommandLineEvent originalCommandLineEvent =
         new CommandLineEvent.OriginalCommandLineEvent(
@@ -264,6 +317,7 @@ public class BlazeCommandDispatcher {
     CommandEnvironment env = workspace.initCommand(commandAnnotation, options, commandEnvWarnings);
     // Record the command's starting time for use by the commands themselves.
     env.recordCommandStartTime(firstContactTime);
+    long envCreatedTimeNanos = runtime.getClock().nanoTime();
 
     // Temporary: there are modules that output events during beforeCommand, but the reporter
     // isn't setup yet. Add the stored event handler to catch those events.
@@ -283,6 +337,7 @@ public class BlazeCommandDispatcher {
       }
     }
     env.getReporter().removeHandler(storedEventHandler);
+    long modulesReadyTimeNanos = runtime.getClock().nanoTime();
 
     // We may only start writing to outErr once we've given the modules the chance to hook into it.
     for (BlazeModule module : runtime.getBlazeModules()) {
@@ -469,6 +524,15 @@ public class BlazeCommandDispatcher {
         env.getSkyframeExecutor().injectExtraPrecomputedValues(module.getPrecomputedValues());
       }
 
+      logStartupLatency(
+          commandName,
+          firstContactTime,
+          waitTimeInMs,
+          parsedOptions != null,
+          execStartTimeNanos,
+          optionsParsedTimeNanos,
+          envCreatedTimeNanos,
+          modulesReadyTimeNanos);
       result = command.exec(env, options);
       ExitCode moduleExitCode = env.precompleteCommand(result.getExitCode());
       // If Blaze did not suffer an infrastructure failure, check for errors in modules.
@@ -506,6 +570,52 @@ public class BlazeCommandDispatcher {
     }
   }
 
+  /**
+   * Logs how long each phase of starting the command took, and adds them to the profile if one is
+   * being recorded. All times but {@code firstContactTime} are from the runtime's nano clock.
+   */
+  private void logStartupLatency(
+      String commandName,
+      long firstContactTime,
+      long waitTimeInMs,
+      boolean reusedParsedOptions,
+      long execStartTimeNanos,
+      long optionsParsedTimeNanos,
+      long envCreatedTimeNanos,
+      long modulesReadyTimeNanos) {
+    long startedTimeNanos = runtime.getClock().nanoTime();
+    long totalTimeMillis = runtime.getClock().currentTimeMillis() - firstContactTime;
+    logger.info(
+        String.format(
+            "Started command '%s' in %d ms: %d ms until dispatched (%d ms waiting for the command "
+                + "lock), %d ms parsing options%s, %d ms creating the command environment, "
+                + "%d ms in module hooks, %d ms setting up the command",
+            commandName,
+            totalTimeMillis,
+            totalTimeMillis - TimeUnit.NANOSECONDS.toMillis(startedTimeNanos - execStartTimeNanos),
+            waitTimeInMs,
+            TimeUnit.NANOSECONDS.toMillis(optionsParsedTimeNanos - execStartTimeNanos),
+            reusedParsedOptions ? " (reused)" : "",
+            TimeUnit.NANOSECONDS.toMillis(envCreatedTimeNanos - optionsParsedTimeNanos),
+            TimeUnit.NANOSECONDS.toMillis(modulesReadyTimeNanos - envCreatedTimeNanos),
+            TimeUnit.NANOSECONDS.toMillis(startedTimeNanos - modulesReadyTimeNanos)));
+    Profiler profiler = Profiler.instance();
+    profiler.logSimpleTask(
+        execStartTimeNanos,
+        optionsParsedTimeNanos,
+        ProfilerTask.INFO,
+        reusedParsedOptions ? "Reusing parsed options" : "Parsing options");
+    profiler.logSimpleTask(
+        optionsParsedTimeNanos,
+        envCreatedTimeNanos,
+        ProfilerTask.INFO,
+        "Creating command environment");
+    profiler.logSimpleTask(
+        envCreatedTimeNanos, modulesReadyTimeNanos, ProfilerTask.INFO, "Module hooks");
+    profiler.logSimpleTask(
+        modulesReadyTimeNanos, startedTimeNanos, ProfilerTask.INFO, "Setting up command");
+  }
+
   /**
    * For testing ONLY. Same as {@link #exec(InvocationPolicy, List, OutErr, LockingMode, String,
    * long, Optional<List<Pair<String, String>>>)}, but automatically uses the current time.
@@ -117,7 +117,7 @@ public abstract class BlazeOptionHandler {
    * Only some commands work if cwd != workspaceSuffix in Blaze. In that case, also check if Blaze
    * was called from the output directory and fail if it was.
    */
-  private ExitCode checkCwdInWorkspace(EventHandler eventHandler) {
+  ExitCode checkCwdInWorkspace(EventHandler eventHandler) {
     if (!commandAnnotation.mustRunInWorkspace()) {
       return ExitCode.SUCCESS;
     }
@@ -264,7 +264,15 @@ public abstract class BlazeOptionHandler {
     if (!earlyExitCode.equals(ExitCode.SUCCESS)) {
       return earlyExitCode;
     }
+    return parseCommandLine(args, eventHandler);
+  }
 
+  /**
+   * Like {@link #parseOptions}, but without {@link #checkCwdInWorkspace checking the working
+   * directory}. Unless project files are read, the result only depends on the command line and the
+   * invocation policy.
+   */
+  ExitCode parseCommandLine(List<String> args, ExtendedEventHandler eventHandler) {
     try {
       parseArgsAndConfigs(args, eventHandler);
       // Allow the command to edit the options.
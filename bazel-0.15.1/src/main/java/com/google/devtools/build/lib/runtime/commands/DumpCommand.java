@@ -17,7 +17,6 @@ package com.google.devtools.build.lib.runtime.commands;
 import static java.util.stream.Collectors.toList;
 
 import com.google.devtools.build.lib.actions.CommandLineExpansionException;
-import com.google.devtools.build.lib.analysis.AnalysisProtos.ActionGraphContainer;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.packages.Attribute;
@@ -34,6 +33,7 @@ import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor.RuleStat;
+import com.google.devtools.build.lib.skyframe.actiongraph.ActionGraphDump;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.common.options.Converters.CommaSeparatedOptionListConverter;
 import com.google.devtools.common.options.EnumConverter;
@@ -301,11 +301,10 @@ public class DumpCommand implements BlazeCommand {
       PrintStream out)
       throws CommandLineExpansionException, IOException {
     out.println("Dumping action graph to '" + path + "'");
-    ActionGraphContainer actionGraphContainer =
-        executor.getActionGraphContainer(actionGraphTargets, includeActionCmdLine);
-    FileOutputStream protoOutputStream = new FileOutputStream(path);
-    actionGraphContainer.writeTo(protoOutputStream);
-    protoOutputStream.close();
+    try (FileOutputStream protoOutputStream = new FileOutputStream(path)) {
+      executor.dumpActionGraph(
+          new ActionGraphDump(actionGraphTargets, includeActionCmdLine, protoOutputStream));
+    }
     return true;
   }
 
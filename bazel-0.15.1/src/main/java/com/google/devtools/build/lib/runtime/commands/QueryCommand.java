@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.query2.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.BlazeQueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
@@ -149,6 +150,15 @@ public final class QueryCommand implements BlazeCommand {
             queryOptions.universeScope,
             options.getOptions(LoadingPhaseThreadsOption.class).threads,
             settings);
+    if (queryOptions.useRdepsIndex && queryEnv instanceof BlazeQueryEnvironment) {
+      ((BlazeQueryEnvironment) queryEnv)
+          .setReverseDependencyIndex(
+              env.getSkyframeExecutor().getReverseDependencyIndex(), env.getPackageManager());
+    }
+    if (queryOptions.useQueryResultCache && queryEnv instanceof BlazeQueryEnvironment) {
+      ((BlazeQueryEnvironment) queryEnv)
+          .setQueryResultCache(env.getSkyframeExecutor().getQueryResultCache());
+    }
     QueryExpression expr;
     try {
       expr = QueryExpression.parse(query, queryEnv);
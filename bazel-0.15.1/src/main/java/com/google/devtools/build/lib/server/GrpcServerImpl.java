@@ -67,15 +67,19 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.Exchanger;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -113,6 +117,9 @@ public class GrpcServerImpl implements RPCServer {
 
   private static final long NANOSECONDS_IN_MS = TimeUnit.MILLISECONDS.toNanos(1);
 
+  /** How long the output of a command may be held back to be sent with later output. */
+  private static final long OUTPUT_FLUSH_WINDOW_MILLIS = 20;
+
   private class RunningCommand implements AutoCloseable {
     private final Thread thread;
     private final String id;
@@ -382,6 +389,15 @@ public class GrpcServerImpl implements RPCServer {
    * being executed and that thread will hold a lock that is needed for the {@code Channel} to be
    * closed and call {@code interrupt()} in {@code #exchange()}, which will in turn try to acquire
    * the interrupt lock.
+   *
+   * <p>Streams created by {@link #createBatchedOutErr} don't send each write as its own response:
+   * they collect small writes into chunks, which are sent when they are full, when the stream is
+   * closed, or when the flush window has passed since the first byte of the chunk was written.
+   * Commands tend to write and flush their output a line at a time, and sending each line through
+   * the sink thread and gRPC costs far more than the line itself, so {@link #flush} doesn't send
+   * the chunk early: it is sent within the flush window anyway. Sending blocks until the client is
+   * ready, so the scheduler only times the flushes, which run on a thread of their own: a slow
+   * client doesn't hold back the output of other commands.
    */
   @VisibleForTesting
   static class RpcOutputStream extends OutputStream {
@@ -395,15 +411,159 @@ public class GrpcServerImpl implements RPCServer {
     private final StreamType type;
     private final GrpcSink sink;
 
+    /** Shared with the other stream of the command, so that their output stays in order. */
+    private final Object lock;
+
+    @Nullable private final ScheduledExecutorService flushScheduler;
+    @Nullable private final Executor flushExecutor;
+    private final long flushWindowMillis;
+
+    /** The bytes written but not sent yet, or null if writes are sent right away. */
+    @Nullable private final byte[] buffer;
+
+    @GuardedBy("lock")
+    private int bufferedBytes = 0;
+
+    @GuardedBy("lock")
+    @Nullable
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    /** The other stream of the command, whose buffered bytes are sent before any of ours. */
+    @GuardedBy("lock")
+    @Nullable
+    private RpcOutputStream otherStream = null;
+
     RpcOutputStream(String commandId, String responseCookie, StreamType type, GrpcSink sink) {
+      this(commandId, responseCookie, type, sink, new Object(), null, null, 0);
+    }
+
+    private RpcOutputStream(
+        String commandId,
+        String responseCookie,
+        StreamType type,
+        GrpcSink sink,
+        Object lock,
+        @Nullable ScheduledExecutorService flushScheduler,
+        @Nullable Executor flushExecutor,
+        long flushWindowMillis) {
       this.commandIdBytes = ByteString.copyFromUtf8(commandId);
       this.responseCookieBytes = ByteString.copyFromUtf8(responseCookie);
       this.type = type;
       this.sink = sink;
+      this.lock = lock;
+      this.flushScheduler = flushScheduler;
+      this.flushExecutor = flushExecutor;
+      this.flushWindowMillis = flushWindowMillis;
+      this.buffer = flushScheduler != null ? new byte[CHUNK_SIZE] : null;
+    }
+
+    /**
+     * Creates the standard output and standard error streams of a command, which batch their
+     * writes and send them at the latest {@code flushWindowMillis} after they were written. The
+     * flushes are timed by {@code flushScheduler}, which must not block, and sent on {@code
+     * flushExecutor}.
+     */
+    static OutErr createBatchedOutErr(
+        String commandId,
+        String responseCookie,
+        GrpcSink sink,
+        ScheduledExecutorService flushScheduler,
+        Executor flushExecutor,
+        long flushWindowMillis) {
+      Object lock = new Object();
+      RpcOutputStream out =
+          new RpcOutputStream(
+              commandId,
+              responseCookie,
+              StreamType.STDOUT,
+              sink,
+              lock,
+              flushScheduler,
+              flushExecutor,
+              flushWindowMillis);
+      RpcOutputStream err =
+          new RpcOutputStream(
+              commandId,
+              responseCookie,
+              StreamType.STDERR,
+              sink,
+              lock,
+              flushScheduler,
+              flushExecutor,
+              flushWindowMillis);
+      synchronized (lock) {
+        out.otherStream = err;
+        err.otherStream = out;
+      }
+      return OutErr.create(out, err);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int inlen) throws IOException {
+      synchronized (lock) {
+        if (buffer == null) {
+          send(b, off, inlen);
+          return;
+        }
+        if (otherStream != null) {
+          otherStream.sendBuffered();
+        }
+        if (bufferedBytes > 0 && bufferedBytes + inlen >= CHUNK_SIZE) {
+          int filling = CHUNK_SIZE - bufferedBytes;
+          System.arraycopy(b, off, buffer, bufferedBytes, filling);
+          bufferedBytes = CHUNK_SIZE;
+          sendBuffered();
+          off += filling;
+          inlen -= filling;
+        }
+        int unbuffered = inlen - inlen % CHUNK_SIZE;
+        send(b, off, unbuffered);
+        System.arraycopy(b, off + unbuffered, buffer, bufferedBytes, inlen - unbuffered);
+        bufferedBytes += inlen - unbuffered;
+        if (bufferedBytes > 0 && scheduledFlush == null) {
+          scheduledFlush =
+              flushScheduler.schedule(
+                  () -> flushExecutor.execute(this::flushScheduled),
+                  flushWindowMillis,
+                  TimeUnit.MILLISECONDS);
+        }
+      }
     }
 
+    /** Sends the bytes written but not sent yet. Nothing may be written afterwards. */
     @Override
-    public synchronized void write(byte[] b, int off, int inlen) throws IOException {
+    public void close() throws IOException {
+      synchronized (lock) {
+        sendBuffered();
+      }
+    }
+
+    private void flushScheduled() {
+      synchronized (lock) {
+        scheduledFlush = null;
+        try {
+          sendBuffered();
+        } catch (IOException e) {
+          // The client disconnected, which the command thread finds out on its next write.
+        }
+      }
+    }
+
+    @GuardedBy("lock")
+    private void sendBuffered() throws IOException {
+      if (scheduledFlush != null) {
+        scheduledFlush.cancel(false);
+        scheduledFlush = null;
+      }
+      if (bufferedBytes > 0) {
+        int length = bufferedBytes;
+        bufferedBytes = 0;
+        send(buffer, 0, length);
+      }
+    }
+
+    @GuardedBy("lock")
+    private void send(byte[] b, int off, int inlen) throws IOException {
       for (int i = 0; i < inlen; i += CHUNK_SIZE) {
         ByteString input = ByteString.copyFrom(b, off + i, Math.min(CHUNK_SIZE, inlen - i));
         RunResponse.Builder response = RunResponse
@@ -500,6 +660,8 @@ public class GrpcServerImpl implements RPCServer {
   private final BlazeCommandDispatcher dispatcher;
   private final ExecutorService streamExecutorPool;
   private final ExecutorService commandExecutorPool;
+  private final ScheduledExecutorService outputFlushScheduler;
+  private final ExecutorService outputFlushExecutorPool;
   private final Clock clock;
   private final Path serverDirectory;
   private final Path workspace;
@@ -549,6 +711,19 @@ public class GrpcServerImpl implements RPCServer {
         Executors.newCachedThreadPool(
             new ThreadFactoryBuilder().setNameFormat("grpc-command-%d").setDaemon(true).build());
 
+    this.outputFlushScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("grpc-output-flush-timer")
+                .setDaemon(true)
+                .build());
+    this.outputFlushExecutorPool =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("grpc-output-flush-%d")
+                .setDaemon(true)
+                .build());
+
     SecureRandom random = new SecureRandom();
     requestCookie = generateCookie(random, 16);
     responseCookie = generateCookie(random, 16);
@@ -807,6 +982,7 @@ public class GrpcServerImpl implements RPCServer {
 
     String commandId;
     BlazeCommandResult result;
+    OutErr rpcOutErr = null;
 
     // TODO(b/63925394): This information needs to be passed to the GotOptionsEvent, which does not
     // currently have the explicit startup options. See Improved Command Line Reporting design doc
@@ -837,9 +1013,14 @@ public class GrpcServerImpl implements RPCServer {
             "The client cancelled the command before receiving the command id: " + e.getMessage());
       }
 
-      OutErr rpcOutErr = OutErr.create(
-          new RpcOutputStream(command.id, responseCookie, StreamType.STDOUT, sink),
-          new RpcOutputStream(command.id, responseCookie, StreamType.STDERR, sink));
+      rpcOutErr =
+          RpcOutputStream.createBatchedOutErr(
+              command.id,
+              responseCookie,
+              sink,
+              outputFlushScheduler,
+              outputFlushExecutorPool,
+              OUTPUT_FLUSH_WINDOW_MILLIS);
 
       try {
         // UTF-8 won't do because we want to be able to pass arbitrary binary strings.
@@ -869,6 +1050,14 @@ public class GrpcServerImpl implements RPCServer {
       commandId = ""; // The default value, the client will ignore it
     }
 
+    if (rpcOutErr != null) {
+      try {
+        rpcOutErr.close();
+      } catch (IOException e) {
+        // The client disconnected, which finishing the sink reports below.
+      }
+    }
+
     if (sink.finish()) {
       // Client disconnected. Then we are not allowed to call any methods on the observer.
       logger.info(
@@ -18,6 +18,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.shell.Consumers.OutErrConsumers;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -194,6 +195,31 @@ public final class Command {
     subprocessBuilder.setTimeoutMillis(timeout.toMillis());
   }
 
+  /**
+   * Just like {@link #Command(String[], Map, File, Duration)}, but the output of the subprocess is
+   * written directly to the given files instead of being pumped through this process. Existing
+   * files are replaced. The output streams passed to {@link #execute(OutputStream, OutputStream)}
+   * and friends do not receive any output from such a command.
+   *
+   * @param stdoutFile the file to redirect stdout to
+   * @param stderrFile the file to redirect stderr to; may be the same as {@code stdoutFile}
+   */
+  public Command(
+      String[] commandLineElements,
+      @Nullable Map<String, String> environmentVariables,
+      @Nullable File workingDirectory,
+      Duration timeout,
+      File stdoutFile,
+      File stderrFile) {
+    this(commandLineElements, environmentVariables, workingDirectory, timeout);
+    subprocessBuilder.setStdout(Preconditions.checkNotNull(stdoutFile));
+    if (stdoutFile.equals(stderrFile)) {
+      subprocessBuilder.redirectErrorStream(true);
+    } else {
+      subprocessBuilder.setStderr(Preconditions.checkNotNull(stderrFile));
+    }
+  }
+
   /** Returns the raw command line elements to be executed */
   public String[] getCommandLineElements() {
     final List<String> elements = subprocessBuilder.getArgv();
@@ -360,8 +386,13 @@ public final class Command {
 
     Subprocess process = startProcess();
 
-    outErrConsumers.logConsumptionStrategy();
-    outErrConsumers.registerInputs(
+    OutErrConsumers consumers =
+        isOutputRedirected()
+            // There is nothing to read, so don't bother the consumer threads.
+            ? Consumers.createDiscardingConsumers()
+            : outErrConsumers;
+    consumers.logConsumptionStrategy();
+    consumers.registerInputs(
         process.getInputStream(), process.getErrorStream(), /* closeStreams= */ false);
 
     // TODO(ulfjack): This call blocks until all input is written. If stdinInput is large (or
@@ -369,7 +400,13 @@ public final class Command {
     // enforced.
     processInput(stdinInput, process);
 
-    return new FutureCommandResultImpl(this, process, outErrConsumers, killSubprocessOnInterrupt);
+    return new FutureCommandResultImpl(this, process, consumers, killSubprocessOnInterrupt);
+  }
+
+  private boolean isOutputRedirected() {
+    return subprocessBuilder.getStdout() == StreamAction.REDIRECT
+        && (subprocessBuilder.redirectErrorStream()
+            || subprocessBuilder.getStderr() == StreamAction.REDIRECT);
   }
 
   private Subprocess startProcess() throws ExecFailedException {
@@ -49,6 +49,10 @@ final class Consumers {
     return new OutErrConsumers(new AccumulatingConsumer(), new AccumulatingConsumer());
   }
 
+  static OutErrConsumers createDiscardingConsumers() {
+    return new OutErrConsumers(new DiscardingConsumer(), new DiscardingConsumer());
+  }
+
   static OutErrConsumers createStreamingConsumers(OutputStream out, OutputStream err) {
     Preconditions.checkNotNull(out);
     Preconditions.checkNotNull(err);
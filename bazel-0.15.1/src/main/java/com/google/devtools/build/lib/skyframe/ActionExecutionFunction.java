@@ -81,12 +81,21 @@ import javax.annotation.Nullable;
 public class ActionExecutionFunction implements SkyFunction, CompletionReceiver {
   private final SkyframeActionExecutor skyframeActionExecutor;
   private final AtomicReference<TimestampGranularityMonitor> tsgm;
+  @Nullable private final OutputFileJournal outputFileJournal;
   private ConcurrentMap<Action, ContinuationState> stateMap;
 
   public ActionExecutionFunction(SkyframeActionExecutor skyframeActionExecutor,
       AtomicReference<TimestampGranularityMonitor> tsgm) {
+    this(skyframeActionExecutor, tsgm, /*outputFileJournal=*/ null);
+  }
+
+  ActionExecutionFunction(
+      SkyframeActionExecutor skyframeActionExecutor,
+      AtomicReference<TimestampGranularityMonitor> tsgm,
+      @Nullable OutputFileJournal outputFileJournal) {
     this.skyframeActionExecutor = skyframeActionExecutor;
     this.tsgm = tsgm;
+    this.outputFileJournal = outputFileJournal;
     stateMap = Maps.newConcurrentMap();
   }
 
@@ -385,7 +394,7 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
     }
     // This may be recreated if we discover inputs.
     ActionMetadataHandler metadataHandler = new ActionMetadataHandler(state.inputArtifactData,
-        action.getOutputs(), tsgm.get());
+        action.getOutputs(), tsgm.get(), outputFileJournal);
     long actionStartTime = BlazeClock.nanoTime();
     // We only need to check the action cache if we haven't done it on a previous run.
     if (!state.hasCheckedActionCache()) {
@@ -462,7 +471,8 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
             new PerActionFileCache(state.inputArtifactData, /*missingArtifactsAllowed=*/ false);
       }
       metadataHandler =
-          new ActionMetadataHandler(state.inputArtifactData, action.getOutputs(), tsgm.get());
+          new ActionMetadataHandler(
+              state.inputArtifactData, action.getOutputs(), tsgm.get(), outputFileJournal);
       // Set the MetadataHandler to accept output information.
       metadataHandler.discardOutputMetadata();
     }
@@ -535,7 +545,8 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
         // markOmitted is only called for remote execution, and this code only gets executed for
         // local execution.
         metadataHandler =
-            new ActionMetadataHandler(state.inputArtifactData, action.getOutputs(), tsgm.get());
+            new ActionMetadataHandler(
+              state.inputArtifactData, action.getOutputs(), tsgm.get(), outputFileJournal);
       }
     }
     Preconditions.checkState(!env.valuesMissing(), action);
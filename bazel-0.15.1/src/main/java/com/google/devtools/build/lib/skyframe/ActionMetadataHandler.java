@@ -127,14 +127,26 @@ public class ActionMetadataHandler implements MetadataHandler {
    */
   private final AtomicBoolean executionMode = new AtomicBoolean(false);
 
+  /** Records the stat of each output file, if set. */
+  @Nullable private final OutputFileJournal outputFileJournal;
+
   @VisibleForTesting
   public ActionMetadataHandler(
       InputArtifactData inputArtifactData,
       Iterable<Artifact> outputs,
       TimestampGranularityMonitor tsgm) {
+    this(inputArtifactData, outputs, tsgm, /*outputFileJournal=*/ null);
+  }
+
+  ActionMetadataHandler(
+      InputArtifactData inputArtifactData,
+      Iterable<Artifact> outputs,
+      TimestampGranularityMonitor tsgm,
+      @Nullable OutputFileJournal outputFileJournal) {
     this.inputArtifactData = Preconditions.checkNotNull(inputArtifactData);
     this.outputs = ImmutableSet.copyOf(outputs);
     this.tsgm = tsgm;
+    this.outputFileJournal = outputFileJournal;
   }
 
   /**
@@ -580,13 +592,36 @@ public class ActionMetadataHandler implements MetadataHandler {
       setPathReadOnlyAndExecutable(artifact);
     }
 
+    if (outputFileJournal != null && statNoFollow == null) {
+      // Stat here rather than in fileValueFromArtifact so that the journal sees the same stat.
+      FileStatus stat = artifact.getPath().statIfFound(Symlinks.NOFOLLOW);
+      statNoFollow = stat == null ? null : FileStatusWithDigestAdapter.adapt(stat);
+    }
     FileValue value = fileValueFromArtifact(artifact, statNoFollow,
         getTimestampGranularityMonitor(artifact));
     FileValue oldFsValue = outputArtifactData.putIfAbsent(artifact, value);
     checkInconsistentData(artifact, oldFsValue, value);
+    if (outputFileJournal != null && statNoFollow != null) {
+      recordInJournal(artifact, value, statNoFollow);
+    }
     return value;
   }
 
+  private void recordInJournal(Artifact artifact, FileValue value, FileStatus statNoFollow)
+      throws IOException {
+    TimestampGranularityMonitor tsgm = getTimestampGranularityMonitor(artifact);
+    if (tsgm != null
+        && statNoFollow.isFile()
+        && !statNoFollow.isSpecialFile()
+        && value.getDigest() != null) {
+      // The journal trusts the ctime even for files that have a digest. Without a digest, the
+      // FileContentsProxy of the value already made the monitor aware of the ctime.
+      tsgm.notifyDependenceOnFileTime(
+          artifact.getPath().asFragment(), statNoFollow.getLastChangeTime());
+    }
+    outputFileJournal.record(artifact, value, statNoFollow);
+  }
+
   @VisibleForTesting
   static FileValue fileValueFromArtifact(Artifact artifact,
       @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm)
@@ -89,8 +89,8 @@ public class BuildConfigurationValue implements SkyValue {
 
     private final FragmentClassSet fragments;
     private final BuildOptions.OptionsDiffForReconstruction optionsDiff;
-    // If hashCode really is -1, we'll recompute it from scratch each time. Oh well.
-    private volatile int hashCode = -1;
+    // Computed up front, as every new key is hashed to be interned.
+    private final int hashCode;
 
     private static Key create(
         FragmentClassSet fragments, BuildOptions.OptionsDiffForReconstruction optionsDiff) {
@@ -100,6 +100,7 @@ public class BuildConfigurationValue implements SkyValue {
     private Key(FragmentClassSet fragments, BuildOptions.OptionsDiffForReconstruction optionsDiff) {
       this.fragments = fragments;
       this.optionsDiff = optionsDiff;
+      this.hashCode = Objects.hash(fragments, optionsDiff);
     }
 
     @VisibleForTesting
@@ -125,15 +126,13 @@ public class BuildConfigurationValue implements SkyValue {
         return false;
       }
       Key otherConfig = (Key) o;
-      return optionsDiff.equals(otherConfig.optionsDiff)
+      return hashCode == otherConfig.hashCode
+          && optionsDiff.equals(otherConfig.optionsDiff)
           && Objects.equals(fragments, otherConfig.fragments);
     }
 
     @Override
     public int hashCode() {
-      if (hashCode == -1) {
-        hashCode = Objects.hash(fragments, optionsDiff);
-      }
       return hashCode;
     }
 
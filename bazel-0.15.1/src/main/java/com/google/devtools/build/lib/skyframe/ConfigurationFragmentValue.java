@@ -24,7 +24,6 @@ import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
-import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
@@ -66,14 +65,15 @@ public class ConfigurationFragmentValue implements SkyValue {
     private static Interner<ConfigurationFragmentKey> interner = BlazeInterners.newWeakInterner();
 
     private final BuildOptions buildOptions;
-    private final String checksum;
     private final Class<? extends Fragment> fragmentType;
+    // Computed up front from the fingerprint of the options, as every new key is interned.
+    private final int hashCode;
 
     private ConfigurationFragmentKey(
         BuildOptions buildOptions, Class<? extends Fragment> fragmentType) {
       this.buildOptions = Preconditions.checkNotNull(buildOptions);
-      this.checksum = Fingerprint.md5Digest(buildOptions.computeCacheKey());
       this.fragmentType = Preconditions.checkNotNull(fragmentType);
+      this.hashCode = Objects.hash(buildOptions, fragmentType);
     }
 
     @AutoCodec.VisibleForSerialization
@@ -100,19 +100,21 @@ public class ConfigurationFragmentValue implements SkyValue {
         return false;
       }
       ConfigurationFragmentKey confObject = (ConfigurationFragmentKey) o;
-      return Objects.equals(fragmentType, confObject.fragmentType)
+      return hashCode == confObject.hashCode
+          && Objects.equals(fragmentType, confObject.fragmentType)
           && Objects.equals(buildOptions, confObject.buildOptions);
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(buildOptions, fragmentType);
+      return hashCode;
     }
 
     @Override
     public String toString() {
+      // The checksum is only needed here, so don't compute it for every key.
       return String.format("ConfigurationFragmentKey(class=%s, checksum=%s)",
-          fragmentType.getName(), checksum);
+          fragmentType.getName(), buildOptions.computeChecksum());
     }
 
     @Override
@@ -35,10 +35,13 @@ import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -78,13 +81,27 @@ public class FilesystemValueChecker {
   private final TimestampGranularityMonitor tsgm;
   @Nullable
   private final Range<Long> lastExecutionTimeRange;
+  @Nullable private final OutputFileJournal outputFileJournal;
   private AtomicInteger modifiedOutputFilesCounter = new AtomicInteger(0);
   private AtomicInteger modifiedOutputFilesIntraBuildCounter = new AtomicInteger(0);
+  private AtomicInteger unchangedOutputFilesFromJournalCounter = new AtomicInteger(0);
 
   public FilesystemValueChecker(@Nullable TimestampGranularityMonitor tsgm,
       @Nullable Range<Long> lastExecutionTimeRange) {
+    this(tsgm, lastExecutionTimeRange, /*outputFileJournal=*/ null);
+  }
+
+  /**
+   * Creates a checker that trusts {@code outputFileJournal} to tell whether an output file is
+   * unchanged from its stat alone, without looking at its digest.
+   */
+  FilesystemValueChecker(
+      @Nullable TimestampGranularityMonitor tsgm,
+      @Nullable Range<Long> lastExecutionTimeRange,
+      @Nullable OutputFileJournal outputFileJournal) {
     this.tsgm = tsgm;
     this.lastExecutionTimeRange = lastExecutionTimeRange;
+    this.outputFileJournal = outputFileJournal;
   }
 
   /**
@@ -191,6 +208,7 @@ public class FilesystemValueChecker {
 
     modifiedOutputFilesCounter.set(0);
     modifiedOutputFilesIntraBuildCounter.set(0);
+    unchangedOutputFilesFromJournalCounter.set(0);
     final ImmutableSet<PathFragment> knownModifiedOutputFiles =
             modifiedOutputFiles == ModifiedFileSet.EVERYTHING_MODIFIED
                     ? null
@@ -222,6 +240,12 @@ public class FilesystemValueChecker {
     boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
     Throwables.propagateIfPossible(wrapper.getFirstThrownError());
     logger.info("Completed output file stat checks");
+    if (outputFileJournal != null) {
+      logger.info(
+          String.format(
+              "%d output files were unchanged according to their stat",
+              unchangedOutputFilesFromJournalCounter.get()));
+    }
     if (interrupted) {
       throw new InterruptedException();
     }
@@ -257,9 +281,13 @@ public class FilesystemValueChecker {
           }
         }
 
-        List<Artifact> artifacts = ImmutableList.copyOf(fileToKeyAndValue.keySet());
+        List<Artifact> artifacts;
         List<FileStatusWithDigest> stats;
         try {
+          if (outputFileJournal != null) {
+            removeFilesUnchangedAccordingToJournal(fileToKeyAndValue, batchStatter);
+          }
+          artifacts = ImmutableList.copyOf(fileToKeyAndValue.keySet());
           stats =
               batchStatter.batchStat(
                   /*includeDigest=*/ true,
@@ -331,6 +359,35 @@ public class FilesystemValueChecker {
     };
   }
 
+  /**
+   * Removes the files from {@code fileToKeyAndValue} that the {@link #outputFileJournal} says are
+   * unchanged, based on a batch stat that does not include digests.
+   */
+  private void removeFilesUnchangedAccordingToJournal(
+      Map<Artifact, Pair<SkyKey, ActionExecutionValue>> fileToKeyAndValue, BatchStat batchStatter)
+      throws IOException, InterruptedException {
+    List<Artifact> artifacts = ImmutableList.copyOf(fileToKeyAndValue.keySet());
+    List<FileStatusWithDigest> stats =
+        batchStatter.batchStat(
+            /*includeDigest=*/ false,
+            /*includeLinks=*/ true,
+            Artifact.asPathFragments(artifacts));
+    Preconditions.checkState(
+        artifacts.size() == stats.size(),
+        "artifacts.size() == %s stats.size() == %s",
+        artifacts.size(),
+        stats.size());
+    for (int i = 0; i < artifacts.size(); i++) {
+      Artifact artifact = artifacts.get(i);
+      FileValue lastKnownData =
+          fileToKeyAndValue.get(artifact).getSecond().getAllFileValues().get(artifact);
+      if (outputFileJournal.isUnchanged(artifact, lastKnownData, stats.get(i))) {
+        unchangedOutputFilesFromJournalCounter.incrementAndGet();
+        fileToKeyAndValue.remove(artifact);
+      }
+    }
+  }
+
   private void updateIntraBuildModifiedCounter(long time, boolean oldWasSymlink,
       boolean newIsSymlink) {
     if (lastExecutionTimeRange != null
@@ -397,8 +454,14 @@ public class FilesystemValueChecker {
       FileValue lastKnownData = entry.getValue();
       if (shouldCheckFile(knownModifiedOutputFiles, file)) {
         try {
-          FileValue fileValue = ActionMetadataHandler.fileValueFromArtifact(file, null,
-              tsgm);
+          FileStatus stat = file.getPath().statIfFound(Symlinks.NOFOLLOW);
+          if (outputFileJournal != null
+              && outputFileJournal.isUnchanged(file, lastKnownData, stat)) {
+            unchangedOutputFilesFromJournalCounter.incrementAndGet();
+            continue;
+          }
+          FileValue fileValue = ActionMetadataHandler.fileValueFromArtifact(file,
+              stat == null ? null : FileStatusWithDigestAdapter.adapt(stat), tsgm);
           if (!fileValue.equals(lastKnownData)) {
             updateIntraBuildModifiedCounter(fileValue.exists()
                 ? fileValue.realRootedPath().asPath().getLastModifiedTime()
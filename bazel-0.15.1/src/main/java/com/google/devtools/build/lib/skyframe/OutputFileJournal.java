@@ -0,0 +1,130 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.skyframe.SkyValue;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the stat of each regular output file at the time its {@link FileValue} was created by
+ * an {@link ActionMetadataHandler}.
+ *
+ * <p>The {@link FilesystemValueChecker} uses this to decide that an output file was not modified
+ * since it was built by looking only at a fresh stat, without computing or fetching its digest. A
+ * file is considered unchanged if its size, ctime and inode number are the same as when it was
+ * recorded, the same assumption {@link FileContentsProxy} relies on for files without a digest.
+ *
+ * <p>An entry also remembers the {@link FileValue} it was recorded for, and only vouches for that
+ * value. This keeps the journal correct if another action wrote the same path later, or if an
+ * entry outlives the action that recorded it. Such stale entries are dropped by {@link
+ * #retainOutputsOf} once per build, before the graph is checked for modified outputs.
+ */
+@ThreadSafe
+final class OutputFileJournal {
+  private static final class Entry {
+    private final FileValue value;
+    private final FileContentsProxy proxy;
+    private final long size;
+
+    private Entry(FileValue value, FileContentsProxy proxy, long size) {
+      this.value = value;
+      this.proxy = proxy;
+      this.size = size;
+    }
+  }
+
+  private final ConcurrentMap<Artifact, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Records that {@code value} was created from {@code statNoFollow}. Only regular files are
+   * recorded, because the stat of a symlink says nothing about its target.
+   */
+  void record(Artifact artifact, FileValue value, FileStatus statNoFollow) {
+    if (!statNoFollow.isFile() || statNoFollow.isSpecialFile() || value.isSymlink()) {
+      entries.remove(artifact);
+      return;
+    }
+    try {
+      entries.put(
+          artifact,
+          new Entry(value, FileContentsProxy.create(statNoFollow), statNoFollow.getSize()));
+    } catch (IOException e) {
+      entries.remove(artifact);
+    }
+  }
+
+  /**
+   * Returns whether the file described by {@code statNoFollow} is still the one that {@code
+   * lastKnownValue} was created from.
+   */
+  boolean isUnchanged(
+      Artifact artifact, FileValue lastKnownValue, @Nullable FileStatus statNoFollow) {
+    if (statNoFollow == null || !statNoFollow.isFile() || statNoFollow.isSpecialFile()) {
+      return false;
+    }
+    Entry entry = entries.get(artifact);
+    if (entry == null || !entry.value.equals(lastKnownValue)) {
+      return false;
+    }
+    try {
+      return entry.size == statNoFollow.getSize()
+          && entry.proxy.equals(FileContentsProxy.create(statNoFollow));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Drops the entries that don't describe an output of one of the {@link ActionExecutionValue}s
+   * among {@code graphValues}, e.g. because the node of the action that built the file was deleted,
+   * or because the file was rebuilt by an action whose node was since invalidated.
+   */
+  void retainOutputsOf(Iterable<SkyValue> graphValues) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    Set<Artifact> live = Sets.newHashSetWithExpectedSize(entries.size());
+    for (SkyValue value : graphValues) {
+      if (!(value instanceof ActionExecutionValue)) {
+        continue;
+      }
+      for (Map.Entry<Artifact, FileValue> output :
+          ((ActionExecutionValue) value).getAllFileValues().entrySet()) {
+        Entry entry = entries.get(output.getKey());
+        if (entry != null && entry.value.equals(output.getValue())) {
+          live.add(output.getKey());
+        }
+      }
+    }
+    entries.keySet().retainAll(live);
+  }
+
+  /** Returns the number of recorded output files. */
+  int size() {
+    return entries.size();
+  }
+
+  void clear() {
+    entries.clear();
+  }
+}
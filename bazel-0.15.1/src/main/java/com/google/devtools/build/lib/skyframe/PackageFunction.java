@@ -50,13 +50,21 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.skyframe.GlobValue.InvalidGlobPatternException;
 import com.google.devtools.build.lib.skyframe.SkylarkImportLookupFunction.SkylarkImportFailedException;
+import com.google.devtools.build.lib.syntax.Argument;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.Expression;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
+import com.google.devtools.build.lib.syntax.Identifier;
+import com.google.devtools.build.lib.syntax.IntegerLiteral;
+import com.google.devtools.build.lib.syntax.ListLiteral;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.SkylarkImport;
 import com.google.devtools.build.lib.syntax.SkylarkSemantics;
 import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.syntax.StringLiteral;
+import com.google.devtools.build.lib.syntax.SyntaxTreeVisitor;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
@@ -94,6 +102,7 @@ public class PackageFunction implements SkyFunction {
   private final Cache<PackageIdentifier, LoadedPackageCacheEntry> packageFunctionCache;
   private final Cache<PackageIdentifier, AstParseResult> astCache;
   private final AtomicBoolean showLoadingProgress;
+  private final AtomicBoolean prefetchPackageDeps;
   private final AtomicInteger numPackagesLoaded;
   @Nullable private final PackageProgressReceiver packageProgress;
   private final Profiler profiler = Profiler.instance();
@@ -112,6 +121,7 @@ public class PackageFunction implements SkyFunction {
       PackageFactory packageFactory,
       CachingPackageLocator pkgLocator,
       AtomicBoolean showLoadingProgress,
+      AtomicBoolean prefetchPackageDeps,
       Cache<PackageIdentifier, LoadedPackageCacheEntry> packageFunctionCache,
       Cache<PackageIdentifier, AstParseResult> astCache,
       AtomicInteger numPackagesLoaded,
@@ -127,6 +137,7 @@ public class PackageFunction implements SkyFunction {
     this.packageFactory = packageFactory;
     this.packageLocator = pkgLocator;
     this.showLoadingProgress = showLoadingProgress;
+    this.prefetchPackageDeps = prefetchPackageDeps;
     this.packageFunctionCache = packageFunctionCache;
     this.astCache = astCache;
     this.numPackagesLoaded = numPackagesLoaded;
@@ -148,6 +159,7 @@ public class PackageFunction implements SkyFunction {
         packageFactory,
         pkgLocator,
         showLoadingProgress,
+        /*prefetchPackageDeps=*/ new AtomicBoolean(false),
         packageFunctionCache,
         astCache,
         numPackagesLoaded,
@@ -830,9 +842,11 @@ public class PackageFunction implements SkyFunction {
   }
 
   private static class LegacyGlobberWithNoGlobDeps implements GlobberWithSkyframeGlobDeps {
+    private final PackageIdentifier packageId;
     private final LegacyGlobber delegate;
 
-    private LegacyGlobberWithNoGlobDeps(LegacyGlobber delegate) {
+    private LegacyGlobberWithNoGlobDeps(PackageIdentifier packageId, LegacyGlobber delegate) {
+      this.packageId = packageId;
       this.delegate = delegate;
     }
 
@@ -849,7 +863,12 @@ public class PackageFunction implements SkyFunction {
 
     @Override
     public List<String> fetch(Token token) throws IOException, InterruptedException {
-      return delegate.fetch(token);
+      Profiler.instance().startTask(ProfilerTask.PACKAGE_GLOB_WAIT, packageId.toString());
+      try {
+        return delegate.fetch(token);
+      } finally {
+        Profiler.instance().completeTask(ProfilerTask.PACKAGE_GLOB_WAIT);
+      }
     }
 
     @Override
@@ -999,7 +1018,12 @@ public class PackageFunction implements SkyFunction {
     @Override
     public List<String> fetch(Token token) throws IOException, InterruptedException {
       HybridToken hybridToken = (HybridToken) token;
-      return hybridToken.resolve(legacyGlobber);
+      Profiler.instance().startTask(ProfilerTask.PACKAGE_GLOB_WAIT, packageId.toString());
+      try {
+        return hybridToken.resolve(legacyGlobber);
+      } finally {
+        Profiler.instance().completeTask(ProfilerTask.PACKAGE_GLOB_WAIT);
+      }
     }
 
     @Override
@@ -1117,6 +1141,76 @@ public class PackageFunction implements SkyFunction {
     }
   }
 
+  /**
+   * Returns the keys of the globs that the given BUILD file calls with literal arguments, which are
+   * the ones its evaluation will request unless the call is never reached. Calls with a computed
+   * argument, and invalid patterns, are left to evaluation.
+   */
+  @VisibleForTesting
+  static ImmutableSet<SkyKey> getStaticGlobKeys(
+      BuildFileAST ast, PackageIdentifier packageId, Root packageRoot) {
+    ImmutableSet.Builder<SkyKey> globKeys = ImmutableSet.builder();
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(FuncallExpression node) {
+        super.visit(node);
+        if (node.getFunction() instanceof Identifier
+            && ((Identifier) node.getFunction()).getName().equals("glob")) {
+          addStaticGlobKeys(node, packageId, packageRoot, globKeys);
+        }
+      }
+    }.visit(ast);
+    return globKeys.build();
+  }
+
+  private static void addStaticGlobKeys(
+      FuncallExpression call,
+      PackageIdentifier packageId,
+      Root packageRoot,
+      ImmutableSet.Builder<SkyKey> globKeys) {
+    // Like SkyframeHybridGlobber, excludes are requested as globs of their own.
+    List<String> patterns = new ArrayList<>();
+    boolean excludeDirs = true;
+    for (Argument.Passed argument : call.getArguments()) {
+      Expression value = argument.getValue();
+      String name = argument.isPositional() ? "include" : argument.getName();
+      if (name == null) {
+        return;
+      }
+      switch (name) {
+        case "include":
+        case "exclude":
+          if (!(value instanceof ListLiteral)) {
+            return;
+          }
+          for (Expression element : ((ListLiteral) value).getElements()) {
+            if (!(element instanceof StringLiteral)) {
+              return;
+            }
+            patterns.add(((StringLiteral) element).getValue());
+          }
+          break;
+        case "exclude_directories":
+          if (!(value instanceof IntegerLiteral)) {
+            return;
+          }
+          excludeDirs = ((IntegerLiteral) value).getValue() != 0;
+          break;
+        default:
+          return;
+      }
+    }
+    for (String pattern : patterns) {
+      try {
+        globKeys.add(
+            GlobValue.key(
+                packageId, packageRoot, pattern, excludeDirs, PathFragment.EMPTY_FRAGMENT));
+      } catch (InvalidGlobPatternException e) {
+        // Evaluation reports it.
+      }
+    }
+  }
+
   private GlobberWithSkyframeGlobDeps makeGlobber(
       Path buildFilePath,
       PackageIdentifier packageId,
@@ -1131,7 +1225,7 @@ public class PackageFunction implements SkyFunction {
         // Skyframe globbing is only useful for incremental correctness and performance. The
         // first time Bazel loads a package ever, Skyframe globbing is actually pure overhead
         // (SkyframeHybridGlobber will make full use of LegacyGlobber).
-        return new LegacyGlobberWithNoGlobDeps(legacyGlobber);
+        return new LegacyGlobberWithNoGlobDeps(packageId, legacyGlobber);
       default:
         throw new IllegalStateException(incrementalityIntent.toString());
     }
@@ -1202,14 +1296,32 @@ public class PackageFunction implements SkyFunction {
             input = ParserInputSource.create(replacementContents, buildFilePath.asFragment());
           }
           StoredEventHandler astParsingEventHandler = new StoredEventHandler();
-          BuildFileAST ast =
-              PackageFactory.parseBuildFile(
-                  packageId, input, preludeStatements, astParsingEventHandler);
+          BuildFileAST ast;
+          profiler.startTask(ProfilerTask.PACKAGE_PARSE, packageId.toString());
+          try {
+            ast =
+                PackageFactory.parseBuildFile(
+                    packageId, input, preludeStatements, astParsingEventHandler);
+          } finally {
+            profiler.completeTask(ProfilerTask.PACKAGE_PARSE);
+          }
           astParseResult = new AstParseResult(ast, astParsingEventHandler);
           astCache.put(packageId, astParseResult);
         }
+        // With prefetching, the globs the BUILD file is known to call are requested along with
+        // its imports, so that Skyframe evaluates all of them in parallel during a single restart,
+        // and evaluation below doesn't have to fall back to globbing on this thread.
+        boolean prefetchGlobs =
+            prefetchPackageDeps.get() && incrementalityIntent == IncrementalityIntent.INCREMENTAL;
         SkylarkImportResult importResult;
+        profiler.startTask(ProfilerTask.PACKAGE_LOAD_RESOLUTION, packageId.toString());
         try {
+          if (prefetchGlobs) {
+            env.getValuesOrThrow(
+                getStaticGlobKeys(astParseResult.ast, packageId, packageRoot),
+                IOException.class,
+                BuildFileNotFoundException.class);
+          }
           importResult =
               fetchImportsFromBuildFile(
                   buildFilePath,
@@ -1222,24 +1334,33 @@ public class PackageFunction implements SkyFunction {
         } catch (InterruptedException e) {
           astCache.invalidate(packageId);
           throw e;
+        } finally {
+          profiler.completeTask(ProfilerTask.PACKAGE_LOAD_RESOLUTION);
         }
-        if (importResult == null) {
+        if (importResult == null || (prefetchGlobs && env.valuesMissing())) {
           return null;
         }
         astCache.invalidate(packageId);
         GlobberWithSkyframeGlobDeps globberWithSkyframeGlobDeps =
             makeGlobber(buildFilePath, packageId, packageRoot, env);
         long startTimeNanos = BlazeClock.nanoTime();
-        Package.Builder pkgBuilder = packageFactory.createPackageFromAst(
-            workspaceName,
-            packageId,
-            buildFilePath,
-            astParseResult,
-            importResult.importMap,
-            importResult.fileDependencies,
-            defaultVisibility,
-            skylarkSemantics,
-            globberWithSkyframeGlobDeps);
+        Package.Builder pkgBuilder;
+        profiler.startTask(ProfilerTask.PACKAGE_EVAL, packageId.toString());
+        try {
+          pkgBuilder =
+              packageFactory.createPackageFromAst(
+                  workspaceName,
+                  packageId,
+                  buildFilePath,
+                  astParseResult,
+                  importResult.importMap,
+                  importResult.fileDependencies,
+                  defaultVisibility,
+                  skylarkSemantics,
+                  globberWithSkyframeGlobDeps);
+        } finally {
+          profiler.completeTask(ProfilerTask.PACKAGE_EVAL);
+        }
         long loadTimeNanos = Math.max(BlazeClock.nanoTime() - startTimeNanos, 0L);
         packageCacheEntry = new LoadedPackageCacheEntry(
             pkgBuilder,
@@ -0,0 +1,178 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.Target;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the results of query expressions, kept across commands, which drops each result when
+ * one of the Skyframe values it was computed from is invalidated.
+ *
+ * <p>A result depends on the {@link PackageValue}s of the packages whose targets were visited to
+ * compute it, and on the {@link TargetPatternValue}s of the target patterns it was computed from,
+ * which are also invalidated when packages matching a wildcard pattern are added or deleted.
+ *
+ * <p>Skyframe only processes invalidations when it next evaluates something, so the cache can
+ * only be consulted once the query has evaluated its target patterns.
+ */
+@ThreadSafe
+public final class QueryResultCache {
+  @VisibleForTesting static final int MAX_ENTRIES = 1000;
+
+  /** The result of a query expression and what it was computed from. */
+  public static final class Result {
+    private final ImmutableList<Target> targets;
+    private final ImmutableSetMultimap<Target, Target> edges;
+    private final ImmutableSet<PackageIdentifier> packages;
+    private final ImmutableSet<String> targetPatterns;
+
+    /**
+     * @param targets the targets of the result, in order
+     * @param edges the dependency edges between {@code targets}
+     * @param packages the packages the result was computed from
+     * @param targetPatterns the target patterns the result was computed from
+     */
+    public Result(
+        ImmutableList<Target> targets,
+        ImmutableSetMultimap<Target, Target> edges,
+        ImmutableSet<PackageIdentifier> packages,
+        ImmutableSet<String> targetPatterns) {
+      this.targets = Preconditions.checkNotNull(targets);
+      this.edges = Preconditions.checkNotNull(edges);
+      this.packages = Preconditions.checkNotNull(packages);
+      this.targetPatterns = Preconditions.checkNotNull(targetPatterns);
+    }
+
+    public ImmutableList<Target> getTargets() {
+      return targets;
+    }
+
+    public ImmutableSetMultimap<Target, Target> getEdges() {
+      return edges;
+    }
+
+    public ImmutableSet<PackageIdentifier> getPackages() {
+      return packages;
+    }
+
+    public ImmutableSet<String> getTargetPatterns() {
+      return targetPatterns;
+    }
+  }
+
+  /** The cached results, least recently used first. */
+  private final Map<String, Result> results = new LinkedHashMap<>(16, 0.75f, /*accessOrder=*/ true);
+
+  private final SetMultimap<PackageIdentifier, String> keysByPackage = HashMultimap.create();
+  private final SetMultimap<String, String> keysByTargetPattern = HashMultimap.create();
+
+  /** The number of invalidations that dropped or could have dropped a result. */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Returns a version to pass to {@link #put}, which tells whether any result has been invalidated
+   * since this was called.
+   */
+  public long getVersion() {
+    return invalidations.get();
+  }
+
+  /** Returns the cached result for {@code key}, or null if there is none. */
+  @Nullable
+  public synchronized Result get(String key) {
+    return results.get(key);
+  }
+
+  /**
+   * Caches {@code result} for {@code key}, unless something has been invalidated since {@link
+   * #getVersion} returned {@code version}, in which case {@code result} may already be stale.
+   */
+  public synchronized void put(String key, Result result, long version) {
+    if (invalidations.get() != version) {
+      return;
+    }
+    remove(key);
+    results.put(key, result);
+    for (PackageIdentifier packageId : result.getPackages()) {
+      keysByPackage.put(packageId, key);
+    }
+    for (String targetPattern : result.getTargetPatterns()) {
+      keysByTargetPattern.put(targetPattern, key);
+    }
+    if (results.size() > MAX_ENTRIES) {
+      remove(results.keySet().iterator().next());
+    }
+  }
+
+  private void remove(String key) {
+    Result result = results.remove(key);
+    if (result == null) {
+      return;
+    }
+    for (PackageIdentifier packageId : result.getPackages()) {
+      keysByPackage.remove(packageId, key);
+    }
+    for (String targetPattern : result.getTargetPatterns()) {
+      keysByTargetPattern.remove(targetPattern, key);
+    }
+  }
+
+  /** Called when the {@link PackageValue} of {@code packageId} is invalidated. */
+  void packageInvalidated(PackageIdentifier packageId) {
+    invalidations.incrementAndGet();
+    synchronized (this) {
+      for (String key : ImmutableList.copyOf(keysByPackage.get(packageId))) {
+        remove(key);
+      }
+    }
+  }
+
+  /** Called when the {@link TargetPatternValue} of {@code targetPattern} is invalidated. */
+  void targetPatternInvalidated(String targetPattern) {
+    invalidations.incrementAndGet();
+    synchronized (this) {
+      for (String key : ImmutableList.copyOf(keysByTargetPattern.get(targetPattern))) {
+        remove(key);
+      }
+    }
+  }
+
+  /** Drops all the cached results. */
+  void clear() {
+    invalidations.incrementAndGet();
+    synchronized (this) {
+      results.clear();
+      keysByPackage.clear();
+      keysByTargetPattern.clear();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return results.size();
+  }
+}
@@ -0,0 +1,394 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.collect.compacthashset.CompactHashSet;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.packages.AggregatingAttributeMapper;
+import com.google.devtools.build.lib.packages.AspectDefinition;
+import com.google.devtools.build.lib.packages.Attribute;
+import com.google.devtools.build.lib.packages.BuildType;
+import com.google.devtools.build.lib.packages.DependencyFilter;
+import com.google.devtools.build.lib.packages.NoSuchThingException;
+import com.google.devtools.build.lib.packages.OutputFile;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageGroup;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PackageProvider;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * An index from each target to the targets that directly depend on it, which lets {@code
+ * rdeps(universe, x)} be answered without loading and traversing the whole universe.
+ *
+ * <p>The index covers whole packages, and is closed under dependencies: whenever a package is
+ * indexed, so are the packages of all the labels its targets depend on. It follows the same edges
+ * as a query that doesn't filter any dependencies: those of all attributes, including nodep ones
+ * and the attributes of aspects, visibility, generating rules and package group includes.
+ *
+ * <p>The index lives as long as the {@link SkyframeExecutor} that keeps it up to date: packages
+ * whose {@link PackageValue} is invalidated are reindexed the next time the index is {@link
+ * #update updated}, together with the packages whose aspect edges depend on them.
+ */
+@ThreadSafe
+public final class ReverseDependencyIndex {
+  /** The direct dependencies of the targets of each indexed package. */
+  private final Map<PackageIdentifier, ImmutableMap<Label, ImmutableSet<Label>>> packages =
+      new HashMap<>();
+
+  private final Map<Label, Set<Label>> reverseDeps = new HashMap<>();
+
+  /** The packages whose aspect edges depend on the rule classes of the targets of each package. */
+  private final SetMultimap<PackageIdentifier, PackageIdentifier> aspectDependents =
+      HashMultimap.create();
+
+  /** Indexed packages that have been invalidated since they were indexed. */
+  private final Set<PackageIdentifier> stalePackages = Sets.newConcurrentHashSet();
+
+  /** The labels whose transitive closure has been visited since it last changed. */
+  private final Set<Label> visitedLabels = new HashSet<>();
+
+  /** Called when the {@link PackageValue} of {@code packageId} is invalidated. */
+  void packageInvalidated(PackageIdentifier packageId) {
+    stalePackages.add(packageId);
+  }
+
+  /** Drops the whole index. */
+  synchronized void clear() {
+    packages.clear();
+    reverseDeps.clear();
+    aspectDependents.clear();
+    stalePackages.clear();
+    visitedLabels.clear();
+  }
+
+  /**
+   * Returns whether {@link #update} would have to load any package, which is when one of {@code
+   * roots} isn't indexed yet or a package has changed since it was indexed.
+   */
+  public synchronized boolean needsUpdate(Iterable<PackageIdentifier> roots) {
+    if (!stalePackages.isEmpty()) {
+      return true;
+    }
+    for (PackageIdentifier root : roots) {
+      if (!packages.containsKey(root)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the labels of {@code universe} whose transitive closure has to be visited to report
+   * its loading errors: those that haven't been {@link #markVisited visited} yet, and those that
+   * depend on a target of a package that has changed since it was indexed.
+   */
+  public synchronized ImmutableSet<Label> getLabelsToVisit(Set<Label> universe) {
+    Set<Label> changed = new HashSet<>();
+    for (PackageIdentifier stale : stalePackages) {
+      changed.addAll(getDependents(packages.getOrDefault(stale, ImmutableMap.of()).keySet()));
+    }
+    ImmutableSet.Builder<Label> result = ImmutableSet.builder();
+    for (Label label : universe) {
+      if (changed.contains(label) || !visitedLabels.contains(label)) {
+        result.add(label);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Records that the transitive closures of {@code labels} have been visited, which {@link
+   * #getLabelsToVisit} assumes until one of them changes.
+   */
+  public synchronized void markVisited(Set<Label> labels) {
+    visitedLabels.addAll(labels);
+  }
+
+  /** Returns {@code labels} and the indexed targets that transitively depend on them. */
+  private Set<Label> getDependents(Collection<Label> labels) {
+    Set<Label> dependents = new HashSet<>(labels);
+    Queue<Label> queue = new ArrayDeque<>(dependents);
+    while (!queue.isEmpty()) {
+      for (Label rdep : reverseDeps.getOrDefault(queue.remove(), ImmutableSet.of())) {
+        if (dependents.add(rdep)) {
+          queue.add(rdep);
+        }
+      }
+    }
+    return dependents;
+  }
+
+  /**
+   * Indexes {@code roots} and all the packages they transitively depend on, and reindexes the
+   * packages that have changed since they were indexed.
+   *
+   * <p>Packages that can't be loaded are indexed as having no targets; it is up to the caller to
+   * report loading errors. If the update is interrupted, the whole index is dropped.
+   */
+  public synchronized void update(
+      ExtendedEventHandler eventHandler,
+      PackageProvider packageProvider,
+      Iterable<PackageIdentifier> roots)
+      throws InterruptedException {
+    Queue<PackageIdentifier> toIndex = new ArrayDeque<>();
+    for (PackageIdentifier root : roots) {
+      toIndex.add(root);
+    }
+    try {
+      // Skyframe only processes invalidations when it next evaluates, which may be while loading
+      // the packages to index, so go on until no more packages are invalidated.
+      do {
+        for (PackageIdentifier stale : ImmutableList.copyOf(stalePackages)) {
+          stalePackages.remove(stale);
+          if (packages.containsKey(stale)) {
+            visitedLabels.removeAll(getDependents(packages.get(stale).keySet()));
+            for (PackageIdentifier dependent : ImmutableList.copyOf(aspectDependents.get(stale))) {
+              toIndex.add(dependent);
+              removePackage(dependent);
+            }
+            toIndex.add(stale);
+            removePackage(stale);
+          }
+        }
+        while (!toIndex.isEmpty()) {
+          PackageIdentifier packageId = toIndex.remove();
+          if (packages.containsKey(packageId)) {
+            continue;
+          }
+          for (PackageIdentifier dep : indexPackage(eventHandler, packageProvider, packageId)) {
+            if (!packages.containsKey(dep)) {
+              toIndex.add(dep);
+            }
+          }
+        }
+      } while (!stalePackages.isEmpty());
+    } catch (InterruptedException e) {
+      // The index is no longer closed under dependencies.
+      clear();
+      throw e;
+    }
+  }
+
+  private void removePackage(PackageIdentifier packageId) {
+    ImmutableMap<Label, ImmutableSet<Label>> targets = packages.remove(packageId);
+    if (targets == null) {
+      return;
+    }
+    for (Map.Entry<Label, ImmutableSet<Label>> target : targets.entrySet()) {
+      for (Label dep : target.getValue()) {
+        Set<Label> rdeps = reverseDeps.get(dep);
+        rdeps.remove(target.getKey());
+        if (rdeps.isEmpty()) {
+          reverseDeps.remove(dep);
+        }
+      }
+    }
+    aspectDependents.values().removeIf(packageId::equals);
+  }
+
+  /** Indexes the given package, and returns the packages of the labels its targets depend on. */
+  private Set<PackageIdentifier> indexPackage(
+      ExtendedEventHandler eventHandler,
+      PackageProvider packageProvider,
+      PackageIdentifier packageId)
+      throws InterruptedException {
+    Package pkg;
+    try {
+      pkg = packageProvider.getPackage(eventHandler, packageId);
+    } catch (NoSuchThingException e) {
+      packages.put(packageId, ImmutableMap.of());
+      return ImmutableSet.of();
+    }
+    ImmutableMap.Builder<Label, ImmutableSet<Label>> targets = ImmutableMap.builder();
+    Set<PackageIdentifier> depPackages = new HashSet<>();
+    for (Target target : pkg.getTargets().values()) {
+      ImmutableSet<Label> deps = getDeps(eventHandler, packageProvider, target);
+      targets.put(target.getLabel(), deps);
+      for (Label dep : deps) {
+        reverseDeps.computeIfAbsent(dep, k -> CompactHashSet.create()).add(target.getLabel());
+        depPackages.add(dep.getPackageIdentifier());
+      }
+    }
+    packages.put(packageId, targets.build());
+    return depPackages;
+  }
+
+  /** Returns the labels {@code target} depends on, like the query {@code LabelVisitor}. */
+  private ImmutableSet<Label> getDeps(
+      ExtendedEventHandler eventHandler, PackageProvider packageProvider, Target target)
+      throws InterruptedException {
+    Set<Label> deps = new LinkedHashSet<>();
+    if (target instanceof OutputFile) {
+      deps.add(((OutputFile) target).getGeneratingRule().getLabel());
+      deps.addAll(target.getVisibility().getDependencyLabels());
+    } else if (target instanceof Rule) {
+      Rule rule = (Rule) target;
+      if (rule.getRuleClassObject().hasAttr("visibility", BuildType.NODEP_LABEL_LIST)) {
+        deps.addAll(target.getVisibility().getDependencyLabels());
+      }
+      List<Map.Entry<Attribute, Label>> edges = new ArrayList<>();
+      AggregatingAttributeMapper.of(rule)
+          .visitLabels((label, attribute) -> edges.add(Maps.immutableEntry(attribute, label)));
+      // Aspects add edges that depend on the rule class of the target of the edge, and may in
+      // turn add edges of their own.
+      for (int i = 0; i < edges.size(); i++) {
+        Attribute attribute = edges.get(i).getKey();
+        Label label = edges.get(i).getValue();
+        deps.add(label);
+        if (attribute.getAspects(rule).isEmpty()) {
+          continue;
+        }
+        aspectDependents.put(label.getPackageIdentifier(), rule.getLabel().getPackageIdentifier());
+        Target to;
+        try {
+          to = packageProvider.getTarget(eventHandler, label);
+        } catch (NoSuchThingException e) {
+          continue;
+        }
+        edges.addAll(
+            AspectDefinition.visitAspectsIfRequired(rule, attribute, to, DependencyFilter.ALL_DEPS)
+                .entries());
+      }
+    } else if (target instanceof PackageGroup) {
+      deps.addAll(((PackageGroup) target).getIncludes());
+    } else {
+      deps.addAll(target.getVisibility().getDependencyLabels());
+    }
+    return ImmutableSet.copyOf(deps);
+  }
+
+  /**
+   * Returns the targets that are in the transitive closure of {@code universe} and depend on one
+   * of {@code roots} at a distance of at most {@code depth}, in breadth-first order from the roots.
+   *
+   * <p>The index must have been {@link #update updated} with the packages of {@code universe}.
+   */
+  public synchronized ImmutableList<Label> getReverseDepsInUniverse(
+      Set<Label> universe, Collection<Label> roots, int depth) {
+    // The targets that depend on one of the roots, whatever the universe.
+    Set<Label> ancestors = new HashSet<>(roots);
+    Queue<Label> queue = new ArrayDeque<>(ancestors);
+    while (!queue.isEmpty()) {
+      for (Label rdep : reverseDeps.getOrDefault(queue.remove(), ImmutableSet.of())) {
+        if (ancestors.add(rdep)) {
+          queue.add(rdep);
+        }
+      }
+    }
+
+    // Those of them that are in the transitive closure of the universe. Every target on a path from
+    // the universe to one of them is also one of them, so the search doesn't have to leave them.
+    Set<Label> inUniverse = new HashSet<>();
+    for (Label ancestor : ancestors) {
+      if (universe.contains(ancestor)) {
+        inUniverse.add(ancestor);
+        queue.add(ancestor);
+      }
+    }
+    while (!queue.isEmpty()) {
+      for (Label dep : getIndexedDeps(queue.remove())) {
+        if (ancestors.contains(dep) && inUniverse.add(dep)) {
+          queue.add(dep);
+        }
+      }
+    }
+
+    ImmutableList.Builder<Label> result = ImmutableList.builder();
+    Set<Label> visited = new HashSet<>();
+    List<Label> current = new ArrayList<>();
+    for (Label root : roots) {
+      if (inUniverse.contains(root) && visited.add(root)) {
+        current.add(root);
+      }
+    }
+    for (int i = 0; i <= depth && !current.isEmpty(); i++) {
+      result.addAll(current);
+      List<Label> next = new ArrayList<>();
+      for (Label label : current) {
+        for (Label rdep : reverseDeps.getOrDefault(label, ImmutableSet.of())) {
+          if (inUniverse.contains(rdep) && visited.add(rdep)) {
+            next.add(rdep);
+          }
+        }
+      }
+      current = next;
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the indexed packages that {@code roots} transitively depend on, including {@code
+   * roots}, which are those whose changes may change the result of {@link
+   * #getReverseDepsInUniverse} for a universe in {@code roots}.
+   */
+  public synchronized ImmutableSet<PackageIdentifier> getTransitivePackages(
+      Iterable<PackageIdentifier> roots) {
+    Set<PackageIdentifier> visited = new LinkedHashSet<>();
+    Queue<PackageIdentifier> queue = new ArrayDeque<>();
+    for (PackageIdentifier root : roots) {
+      if (visited.add(root)) {
+        queue.add(root);
+      }
+    }
+    while (!queue.isEmpty()) {
+      for (ImmutableSet<Label> deps :
+          packages.getOrDefault(queue.remove(), ImmutableMap.of()).values()) {
+        for (Label dep : deps) {
+          if (visited.add(dep.getPackageIdentifier())) {
+            queue.add(dep.getPackageIdentifier());
+          }
+        }
+      }
+    }
+    return ImmutableSet.copyOf(visited);
+  }
+
+  /** Returns the labels the target with the given label depends on, if it is indexed. */
+  public synchronized ImmutableSet<Label> getDeps(Label label) {
+    return getIndexedDeps(label);
+  }
+
+  private ImmutableSet<Label> getIndexedDeps(Label label) {
+    ImmutableMap<Label, ImmutableSet<Label>> targets =
+        packages.getOrDefault(label.getPackageIdentifier(), ImmutableMap.of());
+    return targets.getOrDefault(label, ImmutableSet.of());
+  }
+
+  @VisibleForTesting
+  synchronized boolean isIndexed(PackageIdentifier packageId) {
+    return packages.containsKey(packageId) && !stalePackages.contains(packageId);
+  }
+}
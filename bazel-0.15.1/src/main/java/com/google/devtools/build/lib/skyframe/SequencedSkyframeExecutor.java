@@ -29,7 +29,6 @@ import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.actions.ActionKeyContext;
 import com.google.devtools.build.lib.actions.ArtifactRoot;
 import com.google.devtools.build.lib.actions.CommandLineExpansionException;
-import com.google.devtools.build.lib.analysis.AnalysisProtos.ActionGraphContainer;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
 import com.google.devtools.build.lib.analysis.WorkspaceStatusAction.Factory;
@@ -89,6 +88,7 @@ import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.common.options.OptionsClassProvider;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -660,9 +660,14 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
       ModifiedFileSet modifiedOutputFiles, @Nullable Range<Long> lastExecutionTimeRange)
       throws AbruptExitException, InterruptedException {
 
+    // Forget the output files of actions that are gone from the graph, including those deleted by
+    // deleteOldNodes after the last build. This is the only time the journal is pruned, so that
+    // the graph is walked for it once per build.
+    outputFileJournal.retainOutputsOf(memoizingEvaluator.getValues().values());
     // Detect external modifications in the output tree.
     FilesystemValueChecker fsvc =
-        new FilesystemValueChecker(Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange);
+        new FilesystemValueChecker(
+            Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange, outputFileJournal);
     BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
     recordingDiffer.invalidate(
         fsvc.getDirtyActionValues(
@@ -813,10 +818,8 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   }
 
   @Override
-  public ActionGraphContainer getActionGraphContainer(
-      List<String> actionGraphTargets, boolean includeActionCmdLine)
-      throws CommandLineExpansionException {
-    ActionGraphDump actionGraphDump = new ActionGraphDump(actionGraphTargets, includeActionCmdLine);
+  public void dumpActionGraph(ActionGraphDump actionGraphDump)
+      throws CommandLineExpansionException, IOException {
     for (Map.Entry<SkyKey, ? extends NodeEntry> skyKeyAndNodeEntry :
         memoizingEvaluator.getGraphMap().entrySet()) {
       NodeEntry entry = skyKeyAndNodeEntry.getValue();
@@ -842,7 +845,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
         throw new IllegalStateException("No interruption in sequenced evaluation", e);
       }
     }
-    return actionGraphDump.build();
+    actionGraphDump.flush();
   }
 
 
@@ -55,7 +55,6 @@ import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.FileStateType;
 import com.google.devtools.build.lib.actions.ResourceManager;
-import com.google.devtools.build.lib.analysis.AnalysisProtos.ActionGraphContainer;
 import com.google.devtools.build.lib.analysis.AspectCollection;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.ConfiguredAspect;
@@ -130,6 +129,7 @@ import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompl
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
 import com.google.devtools.build.lib.skyframe.TargetPatternValue.TargetPatternKey;
 import com.google.devtools.build.lib.skyframe.ToolchainUtil.ToolchainContextException;
+import com.google.devtools.build.lib.skyframe.actiongraph.ActionGraphDump;
 import com.google.devtools.build.lib.syntax.SkylarkSemantics;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ResourceUsage;
@@ -161,6 +161,7 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 import com.google.devtools.common.options.OptionsClassProvider;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -236,6 +237,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   // AtomicReferences are used here as mutable boxes shared with value builders.
   private final AtomicBoolean showLoadingProgress = new AtomicBoolean();
+  private final AtomicBoolean prefetchPackageDeps = new AtomicBoolean();
   protected final AtomicReference<UnixGlob.FilesystemCalls> syscalls =
       new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS);
   protected final AtomicReference<PathPackageLocator> pkgLocator =
@@ -246,6 +248,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final AtomicReference<EventBus> eventBus = new AtomicReference<>();
   protected final AtomicReference<TimestampGranularityMonitor> tsgm =
       new AtomicReference<>();
+  // Stats of the output files built by the actions in the graph, to speed up detecting modified
+  // outputs. Only meaningful together with the graph, so it is cleared with it.
+  protected final OutputFileJournal outputFileJournal = new OutputFileJournal();
   protected final AtomicReference<Map<String, String>> clientEnv = new AtomicReference<>();
 
   private final ImmutableMap<BuildInfoKey, BuildInfoFactory> buildInfoFactories;
@@ -263,6 +268,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   protected boolean active = true;
   private final SkyframePackageManager packageManager;
+  private final ReverseDependencyIndex reverseDependencyIndex = new ReverseDependencyIndex();
+  private final QueryResultCache queryResultCache = new QueryResultCache();
 
   private final ResourceManager resourceManager;
 
@@ -447,6 +454,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             pkgFactory,
             packageManager,
             showLoadingProgress,
+            prefetchPackageDeps,
             packageFunctionCache,
             astCache,
             numPackagesLoaded,
@@ -516,7 +524,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         SkyFunctions.COVERAGE_REPORT,
         new CoverageReportFunction(actionKeyContext, removeActionsAfterEvaluation));
     ActionExecutionFunction actionExecutionFunction =
-        new ActionExecutionFunction(skyframeActionExecutor, tsgm);
+        new ActionExecutionFunction(skyframeActionExecutor, tsgm, outputFileJournal);
     map.put(SkyFunctions.ACTION_EXECUTION, actionExecutionFunction);
     this.actionExecutionFunction = actionExecutionFunction;
     map.put(SkyFunctions.RECURSIVE_FILESYSTEM_TRAVERSAL,
@@ -634,9 +642,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     }
   }
 
-  public abstract ActionGraphContainer getActionGraphContainer(
-      List<String> actionGraphTargets, boolean includeActionCmdLine)
-      throws CommandLineExpansionException;
+  /** Dumps the actions of the configured targets and aspects in the graph to {@code dump}. */
+  public abstract void dumpActionGraph(ActionGraphDump dump)
+      throws CommandLineExpansionException, IOException;
 
   class BuildViewProvider {
     /**
@@ -672,6 +680,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   /** Reinitializes the Skyframe evaluator, dropping all previously computed values. */
   public void resetEvaluator() {
     init();
+    reverseDependencyIndex.clear();
+    queryResultCache.clear();
+    outputFileJournal.clear();
     emittedEventState.clear();
     skyframeBuildView.clearLegacyData();
   }
@@ -1113,6 +1124,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     PrecomputedValue.ACTION_ENV.set(injectable(), actionEnv);
     this.clientEnv.set(clientEnv);
     setShowLoadingProgress(packageCacheOptions.showLoadingProgress);
+    prefetchPackageDeps.set(packageCacheOptions.prefetchPackageDeps);
     setDefaultVisibility(packageCacheOptions.defaultVisibility);
     setSkylarkSemantics(skylarkSemanticsOptions.toSkylarkSemantics());
     setupDefaultPackage(defaultsPackageContents);
@@ -2020,6 +2032,22 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return packageManager;
   }
 
+  /**
+   * Returns the index of the reverse dependencies of the packages loaded by this executor, which
+   * is kept up to date as packages change.
+   */
+  public ReverseDependencyIndex getReverseDependencyIndex() {
+    return reverseDependencyIndex;
+  }
+
+  /**
+   * Returns the cache of query results, whose entries are dropped as the packages and target
+   * patterns they were computed from are invalidated.
+   */
+  public QueryResultCache getQueryResultCache() {
+    return queryResultCache;
+  }
+
   public ActionKeyContext getActionKeyContext() {
     return actionKeyContext;
   }
@@ -2302,6 +2330,13 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
     @Override
     public void invalidated(SkyKey skyKey, InvalidationState state) {
+      if (skyKey.functionName().equals(SkyFunctions.PACKAGE)) {
+        reverseDependencyIndex.packageInvalidated((PackageIdentifier) skyKey.argument());
+        queryResultCache.packageInvalidated((PackageIdentifier) skyKey.argument());
+      } else if (skyKey.functionName().equals(SkyFunctions.TARGET_PATTERN)) {
+        queryResultCache.targetPatternInvalidated(
+            ((TargetPatternKey) skyKey.argument()).getPattern());
+      }
       if (ignoreInvalidations) {
         return;
       }
@@ -76,7 +76,8 @@ public final class SkyframeLabelVisitor implements TransitivePackageLoader {
               .stream()
               .filter(error -> Iterables.isEmpty(error.getValue().getCycleInfo()))
               .collect(Collectors.toSet());
-      if (errors.isEmpty()) {
+      // With --keep_going, targets whose dependencies failed to load have root causes instead.
+      if (errors.isEmpty() && !(keepGoing && hasTransitiveRootCauses(result))) {
         return true;
       }
     }
@@ -129,9 +130,10 @@ public final class SkyframeLabelVisitor implements TransitivePackageLoader {
   }
 
   private static boolean hasErrors(EvaluationResult<TransitiveTargetValue> result) {
-    if (result.hasError()) {
-      return true;
-    }
+    return result.hasError() || hasTransitiveRootCauses(result);
+  }
+
+  private static boolean hasTransitiveRootCauses(EvaluationResult<TransitiveTargetValue> result) {
     for (TransitiveTargetValue transitiveTargetValue : result.values()) {
       if (transitiveTargetValue.getTransitiveRootCauses() != null) {
         return true;
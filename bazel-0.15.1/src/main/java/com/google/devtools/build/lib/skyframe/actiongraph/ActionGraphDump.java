@@ -37,17 +37,31 @@ import com.google.devtools.build.lib.collect.nestedset.Order;
 import com.google.devtools.build.lib.packages.AspectDescriptor;
 import com.google.devtools.build.lib.skyframe.AspectValue;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates necessary functionality to dump the current skyframe state of the action graph to
  * proto format.
+ *
+ * <p>The graph is written as it is visited: the records added for each configured target or aspect
+ * are written as an {@link ActionGraphContainer} of their own, right after it is dumped. Since
+ * serialized messages concatenate into their merge, the output parses as a single {@link
+ * ActionGraphContainer}, with every repeated field in the order its records were added. Only the
+ * ids of the records written so far are kept in memory, not the records themselves.
+ *
+ * <p>Without an output stream, the records are kept in memory instead, and returned by {@link
+ * #build}.
  */
 public class ActionGraphDump {
 
   private final ActionGraphContainer.Builder actionGraphBuilder = ActionGraphContainer.newBuilder();
+  @Nullable private final CodedOutputStream codedOutputStream;
   private final ActionKeyContext actionKeyContext = new ActionKeyContext();
   private final Set<String> actionGraphTargets;
 
@@ -59,9 +73,20 @@ public class ActionGraphDump {
   private final KnownRuleConfiguredTargets knownRuleConfiguredTargets;
   private final boolean includeActionCmdLine;
 
+  /** Creates a dump that keeps the action graph in memory, see {@link #build}. */
   public ActionGraphDump(List<String> actionGraphTargets, boolean includeActionCmdLine) {
+    this(actionGraphTargets, includeActionCmdLine, /*outputStream=*/ null);
+  }
+
+  /** Creates a dump that writes the action graph to {@code outputStream} as it is visited. */
+  public ActionGraphDump(
+      List<String> actionGraphTargets,
+      boolean includeActionCmdLine,
+      @Nullable OutputStream outputStream) {
     this.actionGraphTargets = ImmutableSet.copyOf(actionGraphTargets);
     this.includeActionCmdLine = includeActionCmdLine;
+    this.codedOutputStream =
+        outputStream == null ? null : CodedOutputStream.newInstance(outputStream);
 
     knownRuleClassStrings = new KnownRuleClassStrings(actionGraphBuilder);
     knownArtifacts = new KnownArtifacts(actionGraphBuilder);
@@ -150,7 +175,7 @@ public class ActionGraphDump {
   }
 
   public void dumpAspect(AspectValue aspectValue, ConfiguredTargetValue configuredTargetValue)
-      throws CommandLineExpansionException {
+      throws CommandLineExpansionException, IOException {
     ConfiguredTarget configuredTarget = configuredTargetValue.getConfiguredTarget();
     if (!includeInActionGraph(configuredTarget.getLabel().toString())) {
       return;
@@ -159,10 +184,11 @@ public class ActionGraphDump {
       Action action = aspectValue.getAction(i);
       dumpSingleAction(configuredTarget, action);
     }
+    writePendingRecords();
   }
 
   public void dumpConfiguredTarget(ConfiguredTargetValue configuredTargetValue)
-      throws CommandLineExpansionException {
+      throws CommandLineExpansionException, IOException {
     ConfiguredTarget configuredTarget = configuredTargetValue.getConfiguredTarget();
     if (!includeInActionGraph(configuredTarget.getLabel().toString())) {
       return;
@@ -171,9 +197,26 @@ public class ActionGraphDump {
     for (ActionAnalysisMetadata action : actions) {
       dumpSingleAction(configuredTarget, action);
     }
+    writePendingRecords();
+  }
+
+  private void writePendingRecords() throws IOException {
+    if (codedOutputStream != null) {
+      actionGraphBuilder.build().writeTo(codedOutputStream);
+      actionGraphBuilder.clear();
+    }
+  }
+
+  /** Writes out everything that has been dumped so far. Doesn't close the underlying stream. */
+  public void flush() throws IOException {
+    if (codedOutputStream != null) {
+      codedOutputStream.flush();
+    }
   }
 
+  /** Returns the action graph dumped so far, for a dump that keeps it in memory. */
   public ActionGraphContainer build() {
+    Preconditions.checkState(codedOutputStream == null, "The action graph was written out");
     return actionGraphBuilder.build();
   }
 }
@@ -16,12 +16,14 @@ package com.google.devtools.build.lib.skyframe.packages;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.ServerDirectories;
@@ -44,6 +46,8 @@ import com.google.devtools.build.lib.skyframe.ASTFileLookupFunction;
 import com.google.devtools.build.lib.skyframe.BazelSkyframeExecutorConstants;
 import com.google.devtools.build.lib.skyframe.BlacklistedPackagePrefixesFunction;
 import com.google.devtools.build.lib.skyframe.ContainingPackageLookupFunction;
+import com.google.devtools.build.lib.skyframe.DirectoryListingFunction;
+import com.google.devtools.build.lib.skyframe.DirectoryListingStateFunction;
 import com.google.devtools.build.lib.skyframe.ExternalFilesHelper;
 import com.google.devtools.build.lib.skyframe.ExternalFilesHelper.ExternalFileAction;
 import com.google.devtools.build.lib.skyframe.ExternalPackageFunction;
@@ -51,6 +55,7 @@ import com.google.devtools.build.lib.skyframe.FileFunction;
 import com.google.devtools.build.lib.skyframe.FileStateFunction;
 import com.google.devtools.build.lib.skyframe.FileSymlinkCycleUniquenessFunction;
 import com.google.devtools.build.lib.skyframe.FileSymlinkInfiniteExpansionUniquenessFunction;
+import com.google.devtools.build.lib.skyframe.GlobFunction;
 import com.google.devtools.build.lib.skyframe.PackageFunction;
 import com.google.devtools.build.lib.skyframe.PackageFunction.ActionOnIOExceptionReadingBuildFile;
 import com.google.devtools.build.lib.skyframe.PackageFunction.IncrementalityIntent;
@@ -93,27 +98,34 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
- * Abstract base class of a {@link PackageLoader} implementation that has no incrementality or
- * caching.
+ * Abstract base class of a {@link PackageLoader} implementation that has no incrementality, and no
+ * caching across calls unless asked for with {@link Builder#setShareResultsAcrossCalls}.
  */
 public abstract class AbstractPackageLoader implements PackageLoader {
 
   // See {@link PackageFactory.setMaxDirectoriesToEagerlyVisitInGlobbing}.
   private static final int MAX_DIRECTORIES_TO_EAGERLY_VISIT_IN_GLOBBING = 3000;
 
+  private static final ImmutableDiff EMPTY_DIFF =
+      new ImmutableDiff(ImmutableList.of(), ImmutableMap.of());
+
   private final ImmutableDiff preinjectedDiff;
   private final Differencer preinjectedDifferencer =
       new Differencer() {
         @Override
         public Diff getDiff(WalkableGraph fromGraph, Version fromVersion, Version toVersion)
             throws InterruptedException {
-          return preinjectedDiff;
+          // Only inject into a fresh evaluator. A shared one, which keeps no edges, can't tell
+          // whether the values it already has are unchanged, and they never change anyway.
+          return fromVersion == null ? preinjectedDiff : EMPTY_DIFF;
         }
       };
   private final Reporter reporter;
@@ -125,6 +137,14 @@ public abstract class AbstractPackageLoader implements PackageLoader {
   protected final BlazeDirectories directories;
   private final int legacyGlobbingThreads;
   private final int skyframeThreads;
+  private final boolean shareResultsAcrossCalls;
+
+  // Only used if shareResultsAcrossCalls, and created by the first call.
+  @Nullable private MemoizingEvaluator sharedEvaluator;
+  @Nullable private BuildDriver sharedDriver;
+  // The progress receiver of the call the shared evaluator is currently running.
+  private final AtomicReference<EvaluationProgressReceiver> sharedProgressReceiver =
+      new AtomicReference<>();
 
   /** Abstract base class of a builder for {@link PackageLoader} instances. */
   public abstract static class Builder {
@@ -141,6 +161,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     String defaultsPackageContents = getDefaultDefaultPackageContents();
     int legacyGlobbingThreads = 1;
     int skyframeThreads = 1;
+    boolean shareResultsAcrossCalls = false;
 
     protected Builder(Path workspaceDir, Path installBase, Path outputBase) {
       this.workspaceDir = workspaceDir;
@@ -211,6 +232,17 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       return this;
     }
 
+    /**
+     * If true, the loader keeps a single Skyframe evaluator for its whole lifetime, so that the
+     * .bzl files, globs and file system state read to load packages in one call are reused by the
+     * later ones, and globs are evaluated by Skyframe in parallel with the rest of loading. The
+     * workspace must not change while the loader is in use. Packages themselves are not kept.
+     */
+    public Builder setShareResultsAcrossCalls(boolean shareResultsAcrossCalls) {
+      this.shareResultsAcrossCalls = shareResultsAcrossCalls;
+      return this;
+    }
+
     /** Throws {@link IllegalArgumentException} if builder args are incomplete/inconsistent. */
     protected void validate() {
       if (skylarkSemantics == null) {
@@ -239,6 +271,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     this.pkgLocatorRef = builder.pkgLocatorRef;
     this.legacyGlobbingThreads = builder.legacyGlobbingThreads;
     this.skyframeThreads = builder.skyframeThreads;
+    this.shareResultsAcrossCalls = builder.shareResultsAcrossCalls;
     this.directories = builder.directories;
 
     this.externalFilesHelper = builder.externalFilesHelper;
@@ -288,29 +321,90 @@ public abstract class AbstractPackageLoader implements PackageLoader {
   @Override
   public ImmutableMap<PackageIdentifier, PackageLoader.PackageOrException> loadPackages(
       Iterable<? extends PackageIdentifier> pkgIds) throws InterruptedException {
-    ArrayList<SkyKey> keys = new ArrayList<>();
-    for (PackageIdentifier pkgId : ImmutableSet.copyOf(pkgIds)) {
-      keys.add(PackageValue.key(pkgId));
-    }
-
-    EvaluationResult<PackageValue> evalResult =
-        makeFreshDriver().evaluate(keys, /*keepGoing=*/ true, skyframeThreads, reporter);
+    ImmutableSet<? extends PackageIdentifier> uniquePkgIds = ImmutableSet.copyOf(pkgIds);
+    Map<PackageIdentifier, PackageLoader.PackageOrException> packages = new ConcurrentHashMap<>();
+    loadPackages(uniquePkgIds, packages::put);
 
     ImmutableMap.Builder<PackageIdentifier, PackageLoader.PackageOrException> result =
         ImmutableMap.builder();
-    for (SkyKey key : keys) {
+    for (PackageIdentifier pkgId : uniquePkgIds) {
+      result.put(pkgId, Preconditions.checkNotNull(packages.get(pkgId), pkgId));
+    }
+    return result.build();
+  }
+
+  @Override
+  public void loadPackages(
+      Iterable<? extends PackageIdentifier> pkgIds, PackageLoader.PackageCallback callback)
+      throws InterruptedException {
+    ImmutableSet.Builder<SkyKey> keysBuilder = ImmutableSet.builder();
+    for (PackageIdentifier pkgId : pkgIds) {
+      keysBuilder.add(PackageValue.key(pkgId));
+    }
+    ImmutableSet<SkyKey> keys = keysBuilder.build();
+
+    // Packages are handed to the callback as soon as they are built. The ones in error only are
+    // once the evaluation is over, since that is when their ErrorInfo is available.
+    Set<SkyKey> pendingKeys = Sets.newConcurrentHashSet(keys);
+    EvaluationProgressReceiver progressReceiver =
+        new EvaluationProgressReceiver.NullEvaluationProgressReceiver() {
+          @Override
+          public void evaluated(
+              SkyKey skyKey, Supplier<SkyValue> valueSupplier, EvaluationState state) {
+            if (!pendingKeys.contains(skyKey)) {
+              return;
+            }
+            PackageValue packageValue = (PackageValue) valueSupplier.get();
+            if (packageValue != null && pendingKeys.remove(skyKey)) {
+              callback.onPackage(
+                  (PackageIdentifier) skyKey.argument(),
+                  new PackageOrException(packageValue.getPackage(), null));
+            }
+          }
+        };
+    EvaluationResult<PackageValue> evalResult = evaluate(keys, progressReceiver);
+
+    for (SkyKey key : pendingKeys) {
       ErrorInfo error = evalResult.getError(key);
       PackageValue packageValue = evalResult.get(key);
       checkState((error == null) != (packageValue == null));
       PackageIdentifier pkgId = (PackageIdentifier) key.argument();
-      result.put(
+      callback.onPackage(
           pkgId,
           error != null
               ? new PackageOrException(null, exceptionFromErrorInfo(error, pkgId))
               : new PackageOrException(packageValue.getPackage(), null));
     }
+  }
 
-    return result.build();
+  private EvaluationResult<PackageValue> evaluate(
+      ImmutableSet<SkyKey> keys, EvaluationProgressReceiver progressReceiver)
+      throws InterruptedException {
+    if (!shareResultsAcrossCalls) {
+      return new SequentialBuildDriver(makeFreshEvaluator(progressReceiver, /*shared=*/ false))
+          .evaluate(keys, /*keepGoing=*/ true, skyframeThreads, reporter);
+    }
+    synchronized (this) {
+      if (sharedDriver == null) {
+        sharedEvaluator =
+            makeFreshEvaluator(
+                new EvaluationProgressReceiver.NullEvaluationProgressReceiver() {
+                  @Override
+                  public void evaluated(
+                      SkyKey skyKey, Supplier<SkyValue> valueSupplier, EvaluationState state) {
+                    sharedProgressReceiver.get().evaluated(skyKey, valueSupplier, state);
+                  }
+                },
+                /*shared=*/ true);
+        sharedDriver = new SequentialBuildDriver(sharedEvaluator);
+      } else {
+        // Drop the packages of the previous calls, which were handed out already, and only keep
+        // what they were loaded from.
+        sharedEvaluator.delete(key -> key.functionName().equals(SkyFunctions.PACKAGE));
+      }
+      sharedProgressReceiver.set(progressReceiver);
+      return sharedDriver.evaluate(keys, /*keepGoing=*/ true, skyframeThreads, reporter);
+    }
   }
 
   private static NoSuchPackageException exceptionFromErrorInfo(
@@ -331,15 +425,15 @@ public abstract class AbstractPackageLoader implements PackageLoader {
         e);
   }
 
-  private BuildDriver makeFreshDriver() {
-    return new SequentialBuildDriver(
-        InMemoryMemoizingEvaluator.SUPPLIER.create(
-            makeFreshSkyFunctions(),
-            preinjectedDifferencer,
-            new EvaluationProgressReceiver.NullEvaluationProgressReceiver(),
-            GraphInconsistencyReceiver.THROWING,
-            new MemoizingEvaluator.EmittedEventState(),
-            /*keepEdges=*/ false));
+  private MemoizingEvaluator makeFreshEvaluator(
+      EvaluationProgressReceiver progressReceiver, boolean shared) {
+    return InMemoryMemoizingEvaluator.SUPPLIER.create(
+        makeFreshSkyFunctions(shared),
+        preinjectedDifferencer,
+        progressReceiver,
+        GraphInconsistencyReceiver.THROWING,
+        new MemoizingEvaluator.EmittedEventState(),
+        /*keepEdges=*/ false);
   }
 
   /**
@@ -356,7 +450,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
 
   protected abstract ActionOnIOExceptionReadingBuildFile getActionOnIOExceptionReadingBuildFile();
 
-  private ImmutableMap<SkyFunctionName, SkyFunction> makeFreshSkyFunctions() {
+  private ImmutableMap<SkyFunctionName, SkyFunction> makeFreshSkyFunctions(boolean shared) {
     AtomicReference<TimestampGranularityMonitor> tsgm =
         new AtomicReference<>(new TimestampGranularityMonitor(BlazeClock.instance()));
     Cache<PackageIdentifier, LoadedPackageCacheEntry> packageFunctionCache =
@@ -393,6 +487,11 @@ public abstract class AbstractPackageLoader implements PackageLoader {
             SkyFunctions.FILE_SYMLINK_INFINITE_EXPANSION_UNIQUENESS,
             new FileSymlinkInfiniteExpansionUniquenessFunction())
         .put(SkyFunctions.FILE, new FileFunction(pkgLocatorRef))
+        .put(
+            SkyFunctions.DIRECTORY_LISTING_STATE,
+            new DirectoryListingStateFunction(externalFilesHelper))
+        .put(SkyFunctions.DIRECTORY_LISTING, new DirectoryListingFunction())
+        .put(SkyFunctions.GLOB, new GlobFunction(/*alwaysUseDirListing=*/ false))
         .put(
             SkyFunctions.PACKAGE_LOOKUP,
             new PackageLookupFunction(
@@ -421,14 +520,16 @@ public abstract class AbstractPackageLoader implements PackageLoader {
                 pkgFactory,
                 cachingPackageLocator,
                 /*showLoadingProgress=*/ new AtomicBoolean(false),
+                /*prefetchPackageDeps=*/ new AtomicBoolean(shared),
                 packageFunctionCache,
                 astCache,
                 /*numPackagesLoaded=*/ new AtomicInteger(0),
                 /*skylarkImportLookupFunctionForInlining=*/ null,
                 /*packageProgress=*/ null,
                 getActionOnIOExceptionReadingBuildFile(),
-                // Tell PackageFunction to optimize for our use-case of no incrementality.
-                IncrementalityIntent.NON_INCREMENTAL))
+                // Without a shared evaluator, tell PackageFunction to optimize for our use-case of
+                // no incrementality. With one, Skyframe globs are what later calls share.
+                shared ? IncrementalityIntent.INCREMENTAL : IncrementalityIntent.NON_INCREMENTAL))
         .putAll(extraSkyFunctions);
     return builder.build();
   }
@@ -34,8 +34,6 @@ import com.google.devtools.build.lib.runtime.proto.InvocationPolicyOuterClass.In
 import com.google.devtools.build.lib.skyframe.ActionEnvironmentFunction;
 import com.google.devtools.build.lib.skyframe.BazelSkyframeExecutorConstants;
 import com.google.devtools.build.lib.skyframe.ClientEnvironmentFunction;
-import com.google.devtools.build.lib.skyframe.DirectoryListingFunction;
-import com.google.devtools.build.lib.skyframe.DirectoryListingStateFunction;
 import com.google.devtools.build.lib.skyframe.LocalRepositoryLookupFunction;
 import com.google.devtools.build.lib.skyframe.PackageFunction.ActionOnIOExceptionReadingBuildFile;
 import com.google.devtools.build.lib.skyframe.PackageLookupFunction.CrossRepositoryLabelViolationStrategy;
@@ -49,7 +47,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Concrete implementation of {@link PackageLoader} that uses skyframe under the covers, but with no
- * caching or incrementality.
+ * incrementality.
  */
 public class BazelPackageLoader extends AbstractPackageLoader {
 
@@ -78,11 +76,7 @@ public class BazelPackageLoader extends AbstractPackageLoader {
             .put(
                 SkyFunctions.CLIENT_ENVIRONMENT_VARIABLE,
                 new ClientEnvironmentFunction(new AtomicReference<>(ImmutableMap.of())))
-            .put(
-                SkyFunctions.DIRECTORY_LISTING_STATE,
-                new DirectoryListingStateFunction(builder.externalFilesHelper))
             .put(SkyFunctions.ACTION_ENVIRONMENT_VARIABLE, new ActionEnvironmentFunction())
-            .put(SkyFunctions.DIRECTORY_LISTING, new DirectoryListingFunction())
             .put(SkyFunctions.LOCAL_REPOSITORY_LOOKUP, new LocalRepositoryLookupFunction())
             .put(
                 SkyFunctions.REPOSITORY_DIRECTORY,
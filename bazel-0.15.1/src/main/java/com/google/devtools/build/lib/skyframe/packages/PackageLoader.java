@@ -17,6 +17,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
 import javax.annotation.Nullable;
@@ -42,6 +43,21 @@ public interface PackageLoader {
   ImmutableMap<PackageIdentifier, PackageOrException> loadPackages(
       Iterable<? extends PackageIdentifier> pkgIds) throws InterruptedException;
 
+  /**
+   * Loads the Blaze packages specified by {@code pkgIds}, and hands each of them to {@code
+   * callback} as soon as it is loaded, instead of once all of them are. Packages are loaded in
+   * parallel, so {@code callback} may be called concurrently, from different threads.
+   */
+  void loadPackages(Iterable<? extends PackageIdentifier> pkgIds, PackageCallback callback)
+      throws InterruptedException;
+
+  /** Receives the results of {@link PackageLoader#loadPackages(Iterable, PackageCallback)}. */
+  @ThreadSafe
+  interface PackageCallback {
+    /** Called once for each requested package, in no particular order. */
+    void onPackage(PackageIdentifier pkgId, PackageOrException pkg);
+  }
+
   class PackageOrException {
     private final Package pkg;
     private final NoSuchPackageException exception;
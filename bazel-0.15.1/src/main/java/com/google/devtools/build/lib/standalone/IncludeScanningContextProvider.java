@@ -14,35 +14,33 @@
 package com.google.devtools.build.lib.standalone;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionContext;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
-import com.google.devtools.build.lib.actions.ActionExecutionException;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ArtifactResolver;
-import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
-import com.google.devtools.build.lib.rules.cpp.CppCompileAction;
 import com.google.devtools.build.lib.rules.cpp.CppIncludeExtractionContext;
-import com.google.devtools.build.lib.rules.cpp.CppIncludeScanningContext;
-import com.google.devtools.build.lib.rules.cpp.IncludeProcessing;
+import com.google.devtools.build.lib.rules.cpp.CppIncludeScanningContextImpl;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import java.io.IOException;
-import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Provide a standalone, local execution context.
+ * Provides the contexts that scan C++ sources for inclusions in the Blaze server.
  */
-public class DummyIncludeScanningContextProvider extends ActionContextProvider {
+public class IncludeScanningContextProvider extends ActionContextProvider {
 
   /**
-   * An IncludeExtractionContext that does nothing. Since local execution does not need to discover
-   * inclusion in advance, we do not need include scanning.
+   * An IncludeExtractionContext that writes the inclusions of a generated file, so that the file
+   * itself doesn't have to be available to include-scan the actions that may include it.
    */
   @ExecutionStrategy(contextType = CppIncludeExtractionContext.class)
-  class DummyCppIncludeExtractionContext implements CppIncludeExtractionContext {
+  class LocalCppIncludeExtractionContext implements CppIncludeExtractionContext {
     @Override
     public void extractIncludes(
         ActionExecutionContext actionExecutionContext,
@@ -51,8 +49,9 @@ public class DummyIncludeScanningContextProvider extends ActionContextProvider {
         Artifact primaryOutput,
         Artifact grepIncludes)
         throws IOException {
-      FileSystemUtils.writeContent(
-          actionExecutionContext.getInputPath(primaryOutput), new byte[] {});
+      includeParser.writeInclusions(
+          actionExecutionContext.getInputPath(primaryInput),
+          actionExecutionContext.getInputPath(primaryOutput));
     }
 
     @Override
@@ -61,30 +60,29 @@ public class DummyIncludeScanningContextProvider extends ActionContextProvider {
     }
   }
 
-  /** A CppIncludeScanningContext that does nothing. */
-  @ExecutionStrategy(contextType = CppIncludeScanningContext.class)
-  static class DummyCppIncludeScanningContext implements CppIncludeScanningContext {
-    @Override
-    @Nullable
-    public Iterable<Artifact> findAdditionalInputs(
-        CppCompileAction action,
-        ActionExecutionContext actionExecutionContext,
-        IncludeProcessing includeProcessing)
-        throws ExecException, InterruptedException, ActionExecutionException {
-      return null;
-    }
-  }
-
   private final CommandEnvironment env;
+  private final IncludeParser includeParser;
+  private final ExecutorService includeScanningExecutor;
 
-  public DummyIncludeScanningContextProvider(CommandEnvironment env) {
+  public IncludeScanningContextProvider(CommandEnvironment env, IncludeParser includeParser) {
     this.env = env;
+    this.includeParser = includeParser;
+    // Threads are only started once actions are include-scanned.
+    this.includeScanningExecutor =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("include-scanner-%d").setDaemon(true).build());
   }
 
   @Override
   public Iterable<? extends ActionContext> getActionContexts() {
     return ImmutableList.of(
-        new DummyCppIncludeExtractionContext(),
-        new DummyCppIncludeScanningContext());
+        new LocalCppIncludeExtractionContext(),
+        new CppIncludeScanningContextImpl(includeParser, includeScanningExecutor));
+  }
+
+  @Override
+  public void executionPhaseEnding() {
+    includeScanningExecutor.shutdownNow();
   }
 }
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.standalone;
 
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 
@@ -22,10 +23,13 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
  * StandaloneModule provides pluggable functionality for blaze.
  */
 public class StandaloneModule extends BlazeModule {
+  /** Kept across builds, so that unchanged files aren't parsed again. */
+  private final IncludeParser includeParser = new IncludeParser();
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     builder.addActionContextProvider(new StandaloneActionContextProvider(env));
-    builder.addActionContextProvider(new DummyIncludeScanningContextProvider(env));
+    builder.addActionContextProvider(new IncludeScanningContextProvider(env, includeParser));
     builder.addActionContextConsumer(new StandaloneActionContextConsumer());
   }
 }
@@ -105,7 +105,7 @@ public final class DependencySet {
     dependencies.add(depPath);
   }
 
-  private String translatePath(String path) {
+  private static String translatePath(String path) {
     if (OS.getCurrent() != OS.WINDOWS) {
       return path;
     }
@@ -131,93 +131,162 @@ public final class DependencySet {
    * them reach into hundreds of kilobytes.
    */
   public DependencySet process(byte[] content) throws IOException {
-    final int n = content.length;
-    if (n > 0 && content[n - 1] != '\n') {
-      throw new IOException("File does not end in a newline");
-      // From now on, we can safely peek ahead one character when not at a newline.
+    Parser parser = new Parser(content);
+    while (parser.next()) {
+      if (parser.isTarget()) {
+        outputFileName = parser.getString();
+      } else {
+        addDependency(parser.getString());
+      }
     }
-    // Our write position in content[]; we use the prefix as working space to build strings.
-    int w = 0;
+    return this;
+  }
+
+  /**
+   * Splits the content of a .d file into its targets and dependencies without allocating.
+   *
+   * <p>The content is unescaped in place: after each call to {@link #next}, the name of the target
+   * or dependency is in the first {@link #getLength} bytes of {@link #getBuffer}, until the next
+   * call overwrites it. Callers that know the names they expect can compare these bytes directly,
+   * and only decode the others with {@link #getString} or {@link #getPath}.
+   */
+  public static final class Parser {
+    private final byte[] content;
+    // Our read position in content[].
+    private int r = 0;
+    // Our write position in content[]; we use the prefix as working space to build names.
+    private int w = 0;
     // Have we seen a leading "mumble.o:" on this line yet?  If not, we ignore
     // any dependencies we parse.  This is bug-for-bug compatibility with our
     // MSVC wrapper, which generates invalid .d files :(
-    boolean sawTarget = false;
-    for (int r = 0; r < n; ) {
-      final byte c = content[r++];
-      switch (c) {
-
-        case ' ':
-          // If we haven't yet seen the colon delimiting the target name,
-          // keep scanning.  We do this to cope with "foo.o : \" which is
-          // valid Makefile syntax produced by the cuda compiler.
-          if (sawTarget && w > 0) {
-            addDependency(new String(content, 0, w, StandardCharsets.UTF_8));
+    private boolean sawTarget = false;
+    private int length = 0;
+    private boolean target = false;
+
+    /** Creates a parser that takes ownership of, and overwrites, the given .d file content. */
+    public Parser(byte[] content) throws IOException {
+      int n = content.length;
+      if (n > 0 && content[n - 1] != '\n') {
+        throw new IOException("File does not end in a newline");
+        // From now on, we can safely peek ahead one character when not at a newline.
+      }
+      this.content = content;
+    }
+
+    /**
+     * Advances to the next target or dependency, returning false when the end of the content has
+     * been reached.
+     */
+    public boolean next() {
+      final int n = content.length;
+      while (r < n) {
+        final byte c = content[r++];
+        switch (c) {
+
+          case ' ':
+            // If we haven't yet seen the colon delimiting the target name,
+            // keep scanning.  We do this to cope with "foo.o : \" which is
+            // valid Makefile syntax produced by the cuda compiler.
+            if (sawTarget && w > 0) {
+              return emit(false);
+            }
+            continue;
+
+          case '\r':
+            // Ignore, should be followed by a \n.
+            continue;
+
+          case '\n':
+            // This closes a filename.
+            // (Arguably if !sawTarget && w > 0 we should report an error,
+            // as that suggests the .d file is malformed.)
+            if (sawTarget && w > 0) {
+              sawTarget = false;  // reset for new line
+              return emit(false);
+            }
             w = 0;
-          }
-          continue;
-
-        case '\r':
-          // Ignore, should be followed by a \n.
-          continue;
-
-        case '\n':
-          // This closes a filename.
-          // (Arguably if !sawTarget && w > 0 we should report an error,
-          // as that suggests the .d file is malformed.)
-          if (sawTarget && w > 0) {
-            addDependency(new String(content, 0, w, StandardCharsets.UTF_8));
-          }
-          w = 0;
-          sawTarget = false;  // reset for new line
-          continue;
-
-        case ':':
-          // Normally this indicates the target name, but it might be part of a
-          // filename on Windows.  Peek ahead at the next character.
-          switch (content[r]) {
-            case ' ':
-            case '\n':
-            case '\r':
-              if (w > 0) {
-                outputFileName = new String(content, 0, w, StandardCharsets.UTF_8);
-                w = 0;
-                sawTarget = true;
-              }
-              continue;
-            default:
-              content[w++] = c;  // copy a colon to filename
-              continue;
-          }
-
-        case '\\':
-          // Peek ahead at the next character.
-          switch (content[r]) {
-            // Backslashes are taken literally except when followed by whitespace.
-            // See the Windows tests for some of the nonsense we have to tolerate.
-            case ' ':
-              content[w++] = ' ';  // copy a space to the filename
-              ++r;  // skip over the space
-              continue;
-            case '\n':
-              ++r;  // skip over the newline
-              continue;
-            case '\r':
-              // One backslash can escape \r\n, so peek one more character.
-              if (content[++r] == '\n') {
-                ++r;
-              }
-              continue;
-            default:
-              content[w++] = c;  // copy a backlash to the filename
-              continue;
-          }
-
-        default:
-          content[w++] = c;
+            sawTarget = false;  // reset for new line
+            continue;
+
+          case ':':
+            // Normally this indicates the target name, but it might be part of a
+            // filename on Windows.  Peek ahead at the next character.
+            switch (content[r]) {
+              case ' ':
+              case '\n':
+              case '\r':
+                if (w > 0) {
+                  sawTarget = true;
+                  return emit(true);
+                }
+                continue;
+              default:
+                content[w++] = c;  // copy a colon to filename
+                continue;
+            }
 
+          case '\\':
+            // Peek ahead at the next character.
+            switch (content[r]) {
+              // Backslashes are taken literally except when followed by whitespace.
+              // See the Windows tests for some of the nonsense we have to tolerate.
+              case ' ':
+                content[w++] = ' ';  // copy a space to the filename
+                ++r;  // skip over the space
+                continue;
+              case '\n':
+                ++r;  // skip over the newline
+                continue;
+              case '\r':
+                // One backslash can escape \r\n, so peek one more character.
+                if (content[++r] == '\n') {
+                  ++r;
+                }
+                continue;
+              default:
+                content[w++] = c;  // copy a backlash to the filename
+                continue;
+            }
+
+          default:
+            content[w++] = c;
+
+        }
       }
+      return false;
+    }
+
+    private boolean emit(boolean isTarget) {
+      length = w;
+      w = 0;
+      target = isTarget;
+      return true;
+    }
+
+    /** Returns whether the current name is a target rather than a dependency. */
+    public boolean isTarget() {
+      return target;
+    }
+
+    /** Returns the buffer holding the current name in its first {@link #getLength} bytes. */
+    public byte[] getBuffer() {
+      return content;
+    }
+
+    /** Returns the length of the current name in bytes. */
+    public int getLength() {
+      return length;
+    }
+
+    /** Returns the current name. */
+    public String getString() {
+      return new String(content, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the current name as a path, resolved against {@code root} if it is relative. */
+    public Path getPath(Path root) {
+      return root.getRelative(translatePath(getString()));
     }
-    return this;
   }
 
   /**
@@ -93,6 +93,14 @@ public class FileOutErr extends OutErr {
     getFileErrorStream().setFilter(outputFilter);
   }
 
+  /**
+   * Returns true if a filter was set for stdout or stderr. Output that is written directly to the
+   * files of such a FileOutErr bypasses the filters.
+   */
+  public boolean hasOutputFilter() {
+    return getFileOutputStream().hasFilter() || getFileErrorStream().hasFilter();
+  }
+
   /**
    * Returns true if any output was recorded.
    */
@@ -229,6 +237,9 @@ public class FileOutErr extends OutErr {
      * @param outputFilter
      */
     abstract void setFilter(OutputFilter outputFilter);
+
+    /** Returns true if a filter was set for the output. */
+    abstract boolean hasFilter();
   }
 
   /**
@@ -272,6 +283,11 @@ public class FileOutErr extends OutErr {
     @Override
     void setFilter(OutputFilter outputFilter) {}
 
+    @Override
+    boolean hasFilter() {
+      return false;
+    }
+
 
     @Override
     public void write(byte[] b, int off, int len) {
@@ -366,6 +382,11 @@ public class FileOutErr extends OutErr {
       this.outputFilter = outputFilter;
     }
 
+    @Override
+    boolean hasFilter() {
+      return outputFilter != null;
+    }
+
     /**
      * Called whenever the FileRecordingOutputStream finds an error.
      */
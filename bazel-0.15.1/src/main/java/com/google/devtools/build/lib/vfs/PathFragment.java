@@ -527,12 +527,23 @@ public final class PathFragment
     return ImmutableList.copyOf(segments());
   }
 
+  /**
+   * Returns the index of the first segment that is in {@code values}, or {@link #INVALID_SEGMENT}.
+   *
+   * <p>Segments are only split off up to the first match, instead of all of them up front.
+   */
   public int getFirstSegment(Set<String> values) {
-    String[] segments = segments();
-    for (int i = 0; i < segments.length; ++i) {
-      if (values.contains(segments[i])) {
-        return i;
+    int n = normalizedPath.length();
+    int segmentIndex = 0;
+    for (int start = driveStrLength; start < n; ++segmentIndex) {
+      int end = normalizedPath.indexOf(SEPARATOR_CHAR, start);
+      if (end == -1) {
+        end = n;
+      }
+      if (values.contains(normalizedPath.substring(start, end))) {
+        return segmentIndex;
       }
+      start = end + 1;
     }
     return INVALID_SEGMENT;
   }
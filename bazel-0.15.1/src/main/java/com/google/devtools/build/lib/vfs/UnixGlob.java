@@ -36,17 +36,26 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of a subset of UNIX-style file globbing, expanding "*" and "?" as wildcards, but
@@ -424,6 +433,25 @@ public final class UnixGlob {
           checkForInterrupt,
           threadPool);
     }
+
+    /**
+     * Executes the glob asynchronously, like {@link #globAsync}, but returns the matches of each
+     * pattern separately, in the order the patterns were added. The patterns are still all matched
+     * in a single traversal.
+     */
+    public ImmutableList<ListenableFuture<List<Path>>> globAsyncByPattern(
+        boolean checkForInterrupt) {
+      Preconditions.checkNotNull(threadPool, "%s %s", base, patterns);
+      GlobVisitor visitor = new GlobVisitor(threadPool, checkForInterrupt);
+      ListenableFuture<List<Path>> allMatches =
+          visitor.globAsync(base, patterns, excludeDirectories, pathFilter, syscalls.get());
+      ImmutableList.Builder<ListenableFuture<List<Path>>> matchesByPattern =
+          ImmutableList.builder();
+      for (int i = 0; i < patterns.size(); i++) {
+        matchesByPattern.add(new PatternFuture(allMatches, visitor, i));
+      }
+      return matchesByPattern.build();
+    }
   }
 
   /**
@@ -469,13 +497,48 @@ public final class UnixGlob {
     }
   }
 
+  /**
+   * The matches of one of the patterns of a glob, which completes along with the whole glob.
+   * Canceling it cancels the whole glob.
+   */
+  private static class PatternFuture extends ForwardingListenableFuture<List<Path>> {
+    private final ListenableFuture<List<Path>> globFuture;
+    private final GlobVisitor visitor;
+    private final int patternIndex;
+
+    PatternFuture(ListenableFuture<List<Path>> globFuture, GlobVisitor visitor, int patternIndex) {
+      this.globFuture = globFuture;
+      this.visitor = visitor;
+      this.patternIndex = patternIndex;
+    }
+
+    @Override
+    protected ListenableFuture<List<Path>> delegate() {
+      return globFuture;
+    }
+
+    @Override
+    public List<Path> get() throws InterruptedException, ExecutionException {
+      globFuture.get();
+      return visitor.getResultsForPattern(patternIndex);
+    }
+
+    @Override
+    public List<Path> get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      globFuture.get(timeout, unit);
+      return visitor.getResultsForPattern(patternIndex);
+    }
+  }
+
   /**
    * GlobVisitor executes a glob using parallelism, which is useful when
    * the glob() requires many readdir() calls on high latency filesystems.
    */
   private static final class GlobVisitor {
     // These collections are used across workers and must therefore be thread-safe.
-    private final Collection<Path> results = Sets.newConcurrentHashSet();
+    // The matches of each pattern, set up before the first glob task is queued.
+    private List<Set<Path>> resultsByPattern = ImmutableList.of();
     private final Cache<String, Pattern> cache = CacheBuilder.newBuilder().build(
         new CacheLoader<String, Pattern>() {
             @Override
@@ -541,12 +604,16 @@ public final class UnixGlob {
      * Same as {@link #glob}, except does so asynchronously and returns a {@link Future} for the
      * result.
      */
-    Future<List<Path>> globAsync(
+    ListenableFuture<List<Path>> globAsync(
         Path base,
         Collection<String> patterns,
         boolean excludeDirectories,
         Predicate<Path> dirPred,
         FilesystemCalls syscalls) {
+      resultsByPattern = new ArrayList<>(patterns.size());
+      for (int i = 0; i < patterns.size(); i++) {
+        resultsByPattern.add(Sets.newConcurrentHashSet());
+      }
 
       FileStatus baseStat;
       try {
@@ -560,25 +627,13 @@ public final class UnixGlob {
 
       List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
 
-      // We do a dumb loop, even though it will likely duplicate logical work (note that the
-      // physical filesystem operations are cached). In order to optimize, we would need to keep
-      // track of which patterns shared sub-patterns and which did not (for example consider the
-      // glob [*/*.java, sub/*.java, */*.txt]).
+      // All the patterns are matched in a single traversal, so that patterns sharing directories
+      // (for example consider the glob [*/*.java, sub/*.java, */*.txt]) only read them once.
       pendingOps.incrementAndGet();
       try {
-        for (String[] splitPattern : splitPatterns) {
-          boolean containsRecursivePattern = false;
-          for (String pattern : splitPattern) {
-            if (isRecursivePattern(pattern)) {
-              containsRecursivePattern = true;
-              break;
-            }
-          }
-          GlobTaskContext context = containsRecursivePattern
-              ? new RecursiveGlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls)
-              : new GlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls);
-          context.queueGlob(base, baseStat.isDirectory(), 0);
-        }
+        GlobTaskContext context =
+            new GlobTaskContext(splitPatterns, excludeDirectories, dirPred, syscalls);
+        context.queueGlob(base, baseStat.isDirectory(), context.getStartStates());
       } finally {
         decrementAndCheckDone();
       }
@@ -586,6 +641,22 @@ public final class UnixGlob {
       return result;
     }
 
+    /** Returns the matches of the pattern at the given index, once the glob has completed. */
+    private List<Path> getResultsForPattern(int patternIndex) {
+      return ImmutableList.copyOf(resultsByPattern.get(patternIndex));
+    }
+
+    private List<Path> getAllResults() {
+      if (resultsByPattern.size() == 1) {
+        return ImmutableList.copyOf(resultsByPattern.get(0));
+      }
+      Set<Path> results = new HashSet<>();
+      for (Set<Path> patternResults : resultsByPattern) {
+        results.addAll(patternResults);
+      }
+      return ImmutableList.copyOf(results);
+    }
+
     private Throwable getMostSeriousThrowableSoFar() {
       if (error.get() != null) {
         return error.get();
@@ -600,7 +671,7 @@ public final class UnixGlob {
     }
 
     /** Should only be called by link {@GlobTaskContext}. */
-    private void queueGlob(final Path base, final boolean baseIsDir, final int idx,
+    private void queueGlob(final Path base, final boolean baseIsDir, final BitSet states,
         final GlobTaskContext context) {
       enqueue(
           new Runnable() {
@@ -608,7 +679,7 @@ public final class UnixGlob {
             public void run() {
               Profiler.instance().startTask(ProfilerTask.VFS_GLOB, base.getPathString());
               try {
-                reallyGlob(base, baseIsDir, idx, context);
+                reallyGlob(base, baseIsDir, states, context);
               } catch (IOException e) {
                 ioException.set(e);
               } catch (RuntimeException e) {
@@ -625,7 +696,7 @@ public final class UnixGlob {
               return String.format(
                   "%s glob(include=[%s], exclude_directories=%s)",
                   base.getPathString(),
-                  "\"" + Joiner.on("\", \"").join(context.patternParts) + "\"",
+                  "\"" + Joiner.on("\", \"").join(context.patterns) + "\"",
                   context.excludeDirectories);
             }
           });
@@ -673,93 +744,142 @@ public final class UnixGlob {
         } else if (mostSeriousThrowable != null) {
           result.setException(mostSeriousThrowable);
         } else {
-          result.set(ImmutableList.copyOf(results));
+          result.set(getAllResults());
         }
       }
     }
 
-    /** A context for evaluating all the subtasks of a single top-level glob task. */
+    /**
+     * A context for evaluating all the subtasks of a single top-level glob task, which compiles its
+     * patterns into one automaton over path segments.
+     *
+     * <p>A state is a position in one of the patterns: either the index of the segment the next
+     * path segment has to match, or the end of the pattern, which accepts the path reaching it. A
+     * glob subtask visits a path with the set of states it reached, so a directory reached by
+     * several patterns is only read once.
+     */
     private class GlobTaskContext {
-      private final String[] patternParts;
+      private final List<String> patterns;
+      /** The pattern segment of each state, or null for the end of the pattern. */
+      private final String[] segments;
+      /** The index of the pattern of each state. */
+      private final int[] patternIndices;
+      private final BitSet startStates = new BitSet();
       private final boolean excludeDirectories;
       private final Predicate<Path> dirPred;
       private final FilesystemCalls syscalls;
 
+      /**
+       * The states each directory has been queued with, to dedupe glob subtasks. Our naive
+       * implementation of recursive patterns means there are multiple ways to enqueue the same
+       * logical subtask. Null when no pattern is recursive, since each path can then only be
+       * reached once.
+       */
+      @Nullable private final ConcurrentMap<Path, BitSet> queuedStates;
+
       GlobTaskContext(
-          String[] patternParts,
+          List<String[]> splitPatterns,
           boolean excludeDirectories,
           Predicate<Path> dirPred,
           FilesystemCalls syscalls) {
-        this.patternParts = patternParts;
+        List<String> patterns = new ArrayList<>(splitPatterns.size());
+        int stateCount = 0;
+        for (String[] splitPattern : splitPatterns) {
+          patterns.add(Joiner.on('/').join(splitPattern));
+          stateCount += splitPattern.length + 1;
+        }
+        this.patterns = patterns;
+        this.segments = new String[stateCount];
+        this.patternIndices = new int[stateCount];
+        boolean containsRecursivePattern = false;
+        int state = 0;
+        for (int i = 0; i < splitPatterns.size(); i++) {
+          startStates.set(state);
+          for (String segment : splitPatterns.get(i)) {
+            containsRecursivePattern |= isRecursivePattern(segment);
+            segments[state] = segment;
+            patternIndices[state++] = i;
+          }
+          patternIndices[state++] = i;
+        }
         this.excludeDirectories = excludeDirectories;
         this.dirPred = dirPred;
         this.syscalls = syscalls;
+        this.queuedStates = containsRecursivePattern ? new ConcurrentHashMap<>() : null;
       }
 
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        GlobVisitor.this.queueGlob(base, baseIsDir, patternIdx, this);
+      BitSet getStartStates() {
+        return (BitSet) startStates.clone();
       }
-    }
-
-    /**
-     * A special implementation of {@link GlobTaskContext} that dedupes glob subtasks. Our naive
-     * implementation of recursive patterns means there are multiple ways to enqueue the same
-     * logical subtask.
-     */
-    private class RecursiveGlobTaskContext extends GlobTaskContext {
 
-      private class GlobTask {
-        private final Path base;
-        private final int patternIdx;
-
-        private GlobTask(Path base, int patternIdx) {
-          this.base = base;
-          this.patternIdx = patternIdx;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-          if (!(obj instanceof GlobTask)) {
-            return false;
+      /** Queues a glob subtask for the given path, taking ownership of {@code states}. */
+      void queueGlob(Path base, boolean baseIsDir, BitSet states) {
+        if (baseIsDir) {
+          // ** is special: it can match nothing at all.
+          // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
+          for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            if (segments[s] != null && isRecursivePattern(segments[s])) {
+              states.set(s + 1);
+            }
           }
-          GlobTask other = (GlobTask) obj;
-          return base.equals(other.base) && patternIdx == other.patternIdx;
         }
-
-        @Override
-        public int hashCode() {
-          return Objects.hash(base, patternIdx);
+        if (queuedStates != null) {
+          states = markQueued(base, states);
+          if (states == null) {
+            return;
+          }
         }
+        GlobVisitor.this.queueGlob(base, baseIsDir, states, this);
       }
 
-      private final Set<GlobTask> visitedGlobSubTasks = Sets.newConcurrentHashSet();
-
-      private RecursiveGlobTaskContext(
-          String[] patternParts,
-          boolean excludeDirectories,
-          Predicate<Path> dirPred,
-          FilesystemCalls syscalls) {
-        super(patternParts, excludeDirectories, dirPred, syscalls);
+      /**
+       * Records that the path is queued with the given states, and returns those it had not been
+       * queued with yet, or null if there are none. For example of how duplicates can arise,
+       * consider:
+       *   glob(['**' + '/foo.txt'])
+       * with the only file being
+       *   a/foo.txt
+       *
+       * <p>there are two ways to reach a/foo.txt: one by recursively globbing 'foo.txt' in the
+       * subdirectory 'a', and another other by recursively globbing '**' + '/foo.txt' in the
+       * subdirectory 'a'.
+       */
+      @Nullable
+      private BitSet markQueued(Path base, BitSet states) {
+        BitSet[] unqueued = new BitSet[1];
+        queuedStates.compute(
+            base,
+            (path, queued) -> {
+              if (queued == null) {
+                unqueued[0] = states;
+                return (BitSet) states.clone();
+              }
+              BitSet fresh = (BitSet) states.clone();
+              fresh.andNot(queued);
+              if (!fresh.isEmpty()) {
+                queued.or(fresh);
+                unqueued[0] = fresh;
+              }
+              return queued;
+            });
+        return unqueued[0];
       }
+    }
 
-      @Override
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        if (visitedGlobSubTasks.add(new GlobTask(base, patternIdx))) {
-          // This is a unique glob task. For example of how duplicates can arise, consider:
-          //   glob(['**/foo.txt'])
-          // with the only file being
-          //   a/foo.txt
-          //
-          // there are two ways to reach a/foo.txt: one by recursively globbing 'foo.txt' in the
-          // subdirectory 'a', and another other by recursively globbing '**/foo.txt' in the
-          // subdirectory 'a'.
-          super.queueGlob(base, baseIsDir, patternIdx);
-        }
+    /** A child of a directory being globbed, and the states it is reached with. */
+    private static class Child {
+      private final Path path;
+      private final boolean isDir;
+      private final BitSet states = new BitSet();
+
+      private Child(Path path, boolean isDir) {
+        this.path = path;
+        this.isDir = isDir;
       }
     }
 
     /**
-     * Expressed in Haskell:
+     * Expressed in Haskell, for each pattern in the context:
      * <pre>
      *  reallyGlob base []     = { base }
      *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
@@ -768,80 +888,110 @@ public final class UnixGlob {
     private void reallyGlob(
         Path base,
         boolean baseIsDir,
-        int idx,
+        BitSet states,
         GlobTaskContext context) throws IOException {
       if (baseIsDir && !context.dirPred.apply(base)) {
         return;
       }
 
-      if (idx == context.patternParts.length) { // Base case.
-        if (!(context.excludeDirectories && baseIsDir)) {
-          results.add(base);
+      Map<String, Child> children = null;
+      boolean needsReaddir = false;
+      for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+        String pattern = context.segments[s];
+        if (pattern == null) { // Base case.
+          if (!(context.excludeDirectories && baseIsDir)) {
+            resultsByPattern.get(context.patternIndices[s]).add(base);
+          }
+          continue;
         }
 
-        return;
-      }
-
-      if (!baseIsDir) {
-        // Nothing to find here.
-        return;
-      }
-
-      final String pattern = context.patternParts[idx];
-
-      // ** is special: it can match nothing at all.
-      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      final boolean isRecursivePattern = isRecursivePattern(pattern);
-      if (isRecursivePattern) {
-        context.queueGlob(base, baseIsDir, idx + 1);
-      }
+        if (!baseIsDir) {
+          // Nothing to find here.
+          continue;
+        }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
-        // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
-        FileStatus status = context.syscalls.statIfFound(child, Symlinks.FOLLOW);
-        if (status == null || (!status.isDirectory() && !status.isFile())) {
-          // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
+        if (isRecursivePattern(pattern) || pattern.contains("*") || pattern.contains("?")) {
+          needsReaddir = true;
+          continue;
         }
 
-        boolean childIsDir = status.isDirectory();
-        context.queueGlob(child, childIsDir, idx + 1);
-        return;
+        // We do not need to do a readdir for this pattern, just a stat.
+        if (children == null) {
+          children = new HashMap<>();
+        }
+        Child child = children.get(pattern);
+        if (child == null) {
+          Path childPath = base.getChild(pattern);
+          FileStatus status = context.syscalls.statIfFound(childPath, Symlinks.FOLLOW);
+          if (status == null || (!status.isDirectory() && !status.isFile())) {
+            // The file is a dangling symlink, fifo, does not exist, etc.
+            continue;
+          }
+          child = new Child(childPath, status.isDirectory());
+          children.put(pattern, child);
+        }
+        child.states.set(s + 1);
       }
 
-      Collection<Dirent> dents = context.syscalls.readdir(base, Symlinks.FOLLOW);
-
-      for (Dirent dent : dents) {
-        Dirent.Type type = dent.getType();
-        if (type == Dirent.Type.UNKNOWN) {
-          // The file is a dangling symlink, fifo, etc.
-          continue;
+      if (needsReaddir) {
+        Collection<Dirent> dents = context.syscalls.readdir(base, Symlinks.FOLLOW);
+        if (children == null) {
+          children = new HashMap<>();
         }
-        boolean childIsDir = (type == Dirent.Type.DIRECTORY);
-        String text = dent.getName();
-        // Optimize allocations for the case where the pattern doesn't match the dirent.
-        Path child = null;
-
-        if (isRecursivePattern) {
-          // Recurse without shifting the pattern.
-          if (childIsDir) {
-            child = base.getChild(text);
-            context.queueGlob(child, childIsDir, idx);
+
+        for (Dirent dent : dents) {
+          Dirent.Type type = dent.getType();
+          if (type == Dirent.Type.UNKNOWN) {
+            // The file is a dangling symlink, fifo, etc.
+            continue;
           }
-        }
-        if (matches(pattern, text, cache)) {
-          if (child == null) {
-            child = base.getChild(text);
+          boolean childIsDir = (type == Dirent.Type.DIRECTORY);
+          String text = dent.getName();
+          // Optimize allocations for the case where no pattern matches the dirent.
+          Child child = null;
+
+          for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            String pattern = context.segments[s];
+            if (pattern == null) {
+              continue;
+            }
+            boolean isRecursivePattern = isRecursivePattern(pattern);
+            if (!isRecursivePattern && !pattern.contains("*") && !pattern.contains("?")) {
+              // Already looked up above.
+              continue;
+            }
+            if (isRecursivePattern && childIsDir) {
+              // Recurse without shifting the pattern.
+              if (child == null) {
+                child =
+                    children.computeIfAbsent(text, name -> new Child(base.getChild(name), true));
+              }
+              child.states.set(s);
+            }
+            if (matches(pattern, text, cache)) {
+              if (child == null) {
+                child =
+                    children.computeIfAbsent(
+                        text, name -> new Child(base.getChild(name), childIsDir));
+              }
+              // Consume one segment of the pattern.
+              child.states.set(s + 1);
+            }
           }
+        }
+      }
 
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            context.queueGlob(child, childIsDir, idx + 1);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == context.patternParts.length) {
-              results.add(child);
+      if (children == null) {
+        return;
+      }
+      for (Child child : children.values()) {
+        if (child.isDir) {
+          context.queueGlob(child.path, true, child.states);
+        } else {
+          // Instead of using an async call, just repeat the base case above.
+          for (int s = child.states.nextSetBit(0); s >= 0; s = child.states.nextSetBit(s + 1)) {
+            if (context.segments[s] == null) {
+              resultsByPattern.get(context.patternIndices[s]).add(child.path);
             }
           }
         }
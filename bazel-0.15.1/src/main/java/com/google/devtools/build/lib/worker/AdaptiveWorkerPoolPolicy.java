@@ -0,0 +1,108 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.unix.ProcMeminfoParser;
+import com.google.devtools.build.lib.util.OS;
+import java.io.IOException;
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides how far the {@link WorkerPool} may grow beyond its configured number of workers per
+ * mnemonic.
+ *
+ * <p>A pool grows by one worker whenever a request would otherwise have to wait for a worker and
+ * the machine has at least {@code minFreeMemoryMb} of memory available, up to the adaptive maximum
+ * for the mnemonic. It shrinks back towards the configured number once memory becomes scarce.
+ */
+@ThreadSafe
+final class AdaptiveWorkerPoolPolicy {
+
+  /** Reports the amount of memory available to new processes. */
+  interface MemoryProbe {
+    /** Returns the available memory in MB, or -1 if it can't be determined on this platform. */
+    long getAvailableMemoryMb();
+  }
+
+  /** Reads the available memory from /proc/meminfo. Reports -1 on other platforms than Linux. */
+  static final MemoryProbe PROC_MEMINFO_PROBE =
+      () -> {
+        if (OS.getCurrent() != OS.LINUX) {
+          return -1;
+        }
+        try {
+          return (long) ProcMeminfoParser.kbToMb(new ProcMeminfoParser().getFreeRamKb());
+        } catch (IOException | ProcMeminfoParser.KeywordNotFoundException e) {
+          return -1;
+        }
+      };
+
+  private final ImmutableMap<String, Integer> maxInstances;
+  private final int minFreeMemoryMb;
+  private final MemoryProbe memoryProbe;
+
+  /**
+   * @param maxInstances the maximum number of workers per mnemonic the pool may grow to; the empty
+   *     string key specifies the default maximum, if any
+   * @param minFreeMemoryMb the amount of available memory below which no new workers are added
+   * @param memoryProbe the source of the available memory
+   */
+  AdaptiveWorkerPoolPolicy(
+      Map<String, Integer> maxInstances, int minFreeMemoryMb, MemoryProbe memoryProbe) {
+    this.maxInstances = ImmutableMap.copyOf(maxInstances);
+    this.minFreeMemoryMb = minFreeMemoryMb;
+    this.memoryProbe = memoryProbe;
+  }
+
+  /**
+   * Returns how many workers a pool for {@code mnemonic} may grow to. This is never less than
+   * {@code configuredMax}, the statically configured number of workers.
+   */
+  int getMaxInstances(String mnemonic, int configuredMax) {
+    Integer max = maxInstances.get(mnemonic);
+    if (max == null) {
+      max = maxInstances.get("");
+    }
+    return max == null ? configuredMax : Math.max(max, configuredMax);
+  }
+
+  /**
+   * Returns the new size limit for a pool that currently allows {@code currentMax} workers.
+   *
+   * @param configuredMax the statically configured number of workers, which the pool never shrinks
+   *     below
+   * @param adaptiveMax the number of workers the pool never grows beyond
+   * @param exhausted whether the pool has no idle worker left, i.e., whether the next request has to
+   *     wait unless the pool grows
+   */
+  @VisibleForTesting
+  int computeMaxInstances(int currentMax, int configuredMax, int adaptiveMax, boolean exhausted) {
+    if (!exhausted && currentMax <= configuredMax) {
+      // Nobody's waiting and we're not using extra memory; don't bother checking for memory.
+      return currentMax;
+    }
+    long availableMb = memoryProbe.getAvailableMemoryMb();
+    boolean hasSpareMemory = availableMb >= 0 && availableMb >= minFreeMemoryMb;
+    if (exhausted && hasSpareMemory && currentMax < adaptiveMax) {
+      return currentMax + 1;
+    }
+    if (!hasSpareMemory && currentMax > configuredMax) {
+      return currentMax - 1;
+    }
+    return currentMax;
+  }
+}
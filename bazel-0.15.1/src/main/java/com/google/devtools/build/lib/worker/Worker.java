@@ -18,6 +18,8 @@ import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -47,6 +49,7 @@ class Worker {
 
   private Subprocess process;
   private Thread shutdownHook;
+  private RecordingInputStream recordingStream;
 
   Worker(WorkerKey workerKey, int workerId, final Path workDir, Path logFile) {
     this.workerKey = workerKey;
@@ -69,6 +72,15 @@ class Worker {
   }
 
   void createProcess() throws IOException {
+    this.process = startProcess(workerKey, workDir, logFile);
+  }
+
+  /**
+   * Starts the worker process described by {@code workerKey} in {@code workDir}, redirecting its
+   * stderr to {@code logFile}.
+   */
+  static Subprocess startProcess(WorkerKey workerKey, Path workDir, Path logFile)
+      throws IOException {
     List<String> args = workerKey.getArgs();
     File executable = new File(args.get(0));
     if (!executable.isAbsolute() && executable.getParent() != null) {
@@ -80,7 +92,7 @@ class Worker {
     processBuilder.setWorkingDirectory(workDir.getPathFile());
     processBuilder.setStderr(logFile.getPathFile());
     processBuilder.setEnv(workerKey.getEnv());
-    this.process = processBuilder.start();
+    return processBuilder.start();
   }
 
   void destroy() throws IOException {
@@ -98,7 +110,7 @@ class Worker {
    *
    * @param process the process to destroy.
    */
-  private static void destroyProcess(Subprocess process) {
+  static void destroyProcess(Subprocess process) {
     boolean wasInterrupted = false;
     try {
       process.destroy();
@@ -148,6 +160,34 @@ class Worker {
     return process.getOutputStream();
   }
 
+  /** Sends a {@link WorkRequest} to the worker process. */
+  void putRequest(WorkRequest request) throws IOException {
+    request.writeDelimitedTo(getOutputStream());
+    getOutputStream().flush();
+  }
+
+  /**
+   * Waits for the response to the last request sent via {@link #putRequest}.
+   *
+   * @return the response, or null if the worker closed its stdout before sending one
+   */
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    recordingStream = new RecordingInputStream(getInputStream());
+    recordingStream.startRecording(4096);
+    // response can be null when the worker has already closed stdout at this point and thus
+    // the InputStream is at EOF.
+    return WorkResponse.parseDelimitedFrom(recordingStream);
+  }
+
+  /**
+   * Returns whatever the worker process wrote to stdout while we tried to read the last response.
+   * Used to explain unparseable responses to the user.
+   */
+  String getRecordingStreamMessage() {
+    recordingStream.readRemaining();
+    return recordingStream.getRecordedDataAsString();
+  }
+
   public void prepareExecution(
       Map<PathFragment, Path> inputFiles,
       Set<PathFragment> outputFiles,
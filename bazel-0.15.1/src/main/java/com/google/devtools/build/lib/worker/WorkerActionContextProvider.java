@@ -35,14 +35,17 @@ final class WorkerActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
 
   public WorkerActionContextProvider(CommandEnvironment env, WorkerPool workers) {
+    WorkerOptions workerOptions = env.getOptions().getOptions(WorkerOptions.class);
     ImmutableMultimap<String, String> extraFlags =
-        ImmutableMultimap.copyOf(env.getOptions().getOptions(WorkerOptions.class).workerExtraFlags);
+        ImmutableMultimap.copyOf(workerOptions.workerExtraFlags);
 
     WorkerSpawnRunner spawnRunner =
         new WorkerSpawnRunner(
             env.getExecRoot(),
             workers,
             extraFlags,
+            // Multiplex workers share a single working directory, so they can't be sandboxed.
+            workerOptions.workerMultiplex && !workerOptions.workerSandboxing,
             env.getReporter(),
             createFallbackRunner(env));
 
@@ -36,6 +36,7 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   private WorkerOptions workerOptions;
   private final Path workerBaseDir;
+  private final WorkerMultiplexerManager multiplexerManager = new WorkerMultiplexerManager();
   private Reporter reporter;
 
   public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
@@ -59,7 +60,11 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
     Worker worker;
     boolean sandboxed = workerOptions.workerSandboxing || key.mustBeSandboxed();
-    if (sandboxed) {
+    if (key.getProxied()) {
+      // Multiplexed workers share one process and thus one working directory, so they can't be
+      // sandboxed. WorkerSpawnRunner never asks for a sandboxed multiplex worker.
+      worker = new WorkerProxy(key, workerId, key.getExecRoot(), logFile, multiplexerManager);
+    } else if (sandboxed) {
       Path workDir = getSandboxedWorkerPath(key, workerId);
       worker = new SandboxedWorker(key, workerId, workDir, logFile);
     } else {
@@ -70,10 +75,10 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
           Event.info(
               String.format(
                   "Created new %s %s worker (id %d), logging to %s",
-                  sandboxed ? "sandboxed" : "non-sandboxed",
+                  key.getProxied() ? "multiplexed" : sandboxed ? "sandboxed" : "non-sandboxed",
                   key.getMnemonic(),
                   workerId,
-                  logFile)));
+                  worker.getLogFile())));
     }
     return worker;
   }
@@ -98,7 +103,8 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
    */
   @Override
   public void destroyObject(WorkerKey key, PooledObject<Worker> p) throws Exception {
-    if (workerOptions.workerVerbose) {
+    // Idle workers may be evicted between commands, when there is no reporter.
+    if (reporter != null && workerOptions.workerVerbose) {
       reporter.handle(
           Event.info(
               String.format(
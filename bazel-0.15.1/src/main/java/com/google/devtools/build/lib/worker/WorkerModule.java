@@ -30,7 +30,9 @@ import com.google.devtools.build.lib.runtime.commands.CleanCommand.CleanStarting
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.OptionsBase;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /** A module that adds the WorkerActionContextProvider to the available action context providers. */
@@ -40,6 +42,10 @@ public class WorkerModule extends BlazeModule {
   private WorkerFactory workerFactory;
   private WorkerPool workerPool;
   private ImmutableMap<String, Integer> workerPoolConfig;
+  private ImmutableMap<String, Integer> multiplexPoolConfig;
+  private ImmutableMap<String, Integer> adaptivePoolConfig;
+  private int minFreeMemoryMb;
+  private Duration workerMaxIdleTime;
   private WorkerOptions options;
 
   @Override
@@ -97,28 +103,70 @@ public class WorkerModule extends BlazeModule {
     workerFactory.setReporter(env.getReporter());
     workerFactory.setOptions(options);
 
-    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
-    // passed wins.
-    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
-    for (Map.Entry<String, Integer> entry : options.workerMaxInstances) {
-      newConfigBuilder.put(entry.getKey(), entry.getValue());
-    }
-    if (!newConfigBuilder.containsKey("")) {
-      // Empty string gives the number of workers for any type of worker not explicitly specified.
-      // If no value is given, use the default, 4.
-      newConfigBuilder.put("", 4);
-    }
-    ImmutableMap<String, Integer> newConfig = ImmutableMap.copyOf(newConfigBuilder);
+    // If no value is given, use the default of 4 worker processes per mnemonic.
+    ImmutableMap<String, Integer> newConfig = makePoolConfig(options.workerMaxInstances, 4);
+    // A single multiplex worker process gets up to 8 concurrent requests by default.
+    ImmutableMap<String, Integer> newMultiplexConfig =
+        makePoolConfig(options.workerMaxMultiplexInstances, 8);
+    // Without any value, the pools don't grow beyond their configured size.
+    ImmutableMap<String, Integer> newAdaptiveConfig =
+        ImmutableMap.copyOf(makeConfigMap(options.workerAdaptiveMaxInstances));
 
     // If the config changed compared to the last run, we have to create a new pool.
-    if (workerPoolConfig != null && !workerPoolConfig.equals(newConfig)) {
+    if ((workerPoolConfig != null && !workerPoolConfig.equals(newConfig))
+        || (multiplexPoolConfig != null && !multiplexPoolConfig.equals(newMultiplexConfig))
+        || (adaptivePoolConfig != null && !adaptivePoolConfig.equals(newAdaptiveConfig))
+        || (workerMaxIdleTime != null && !workerMaxIdleTime.equals(options.workerMaxIdleTime))
+        || (adaptivePoolConfig != null && minFreeMemoryMb != options.workerMinFreeMemoryMb)) {
       shutdownPool("Worker configuration has changed, restarting worker pool...");
     }
 
     if (workerPool == null) {
       workerPoolConfig = newConfig;
-      workerPool = new WorkerPool(workerFactory, workerPoolConfig, options.highPriorityWorkers);
+      multiplexPoolConfig = newMultiplexConfig;
+      adaptivePoolConfig = newAdaptiveConfig;
+      minFreeMemoryMb = options.workerMinFreeMemoryMb;
+      workerMaxIdleTime = options.workerMaxIdleTime;
+      AdaptiveWorkerPoolPolicy adaptivePolicy =
+          adaptivePoolConfig.isEmpty()
+              ? null
+              : new AdaptiveWorkerPoolPolicy(
+                  adaptivePoolConfig,
+                  minFreeMemoryMb,
+                  AdaptiveWorkerPoolPolicy.PROC_MEMINFO_PROBE);
+      workerPool =
+          new WorkerPool(
+              workerFactory,
+              workerPoolConfig,
+              multiplexPoolConfig,
+              options.highPriorityWorkers,
+              workerMaxIdleTime,
+              adaptivePolicy);
+    }
+  }
+
+  /**
+   * Turns a list of per-mnemonic limits into a pool configuration. The empty string key gives the
+   * limit for any type of worker not explicitly specified and defaults to {@code defaultMax}.
+   */
+  private static ImmutableMap<String, Integer> makePoolConfig(
+      List<Map.Entry<String, Integer>> entries, int defaultMax) {
+    LinkedHashMap<String, Integer> newConfigBuilder = makeConfigMap(entries);
+    if (!newConfigBuilder.containsKey("")) {
+      newConfigBuilder.put("", defaultMax);
+    }
+    return ImmutableMap.copyOf(newConfigBuilder);
+  }
+
+  private static LinkedHashMap<String, Integer> makeConfigMap(
+      List<Map.Entry<String, Integer>> entries) {
+    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
+    // passed wins.
+    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
+    for (Map.Entry<String, Integer> entry : entries) {
+      newConfigBuilder.put(entry.getKey(), entry.getValue());
     }
+    return newConfigBuilder;
   }
 
   @Override
@@ -130,6 +178,9 @@ public class WorkerModule extends BlazeModule {
 
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
+    if (workerPool != null) {
+      workerPool.logStatistics();
+    }
     if (options != null && options.workerQuitAfterBuild) {
       shutdownPool("Build completed, shutting down worker pool...");
     }
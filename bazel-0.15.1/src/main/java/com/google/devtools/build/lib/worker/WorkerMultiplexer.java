@@ -0,0 +1,203 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A single worker process that serves several {@link WorkerProxy} instances at the same time.
+ *
+ * <p>Requests from all proxies are written to the stdin of the shared process. A dedicated thread
+ * reads the responses from its stdout and hands each of them to the proxy that sent the request
+ * with the same request id. The worker process is free to process the requests concurrently and to
+ * answer them in any order.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final WorkerKey workerKey;
+  private final Path logFile;
+
+  /** Responses that have not been received yet, keyed by request id. */
+  private final Map<Integer, SettableFuture<WorkResponse>> pendingResponses =
+      new ConcurrentHashMap<>();
+
+  @GuardedBy("this")
+  private Subprocess process;
+
+  @GuardedBy("this")
+  private Thread readerThread;
+
+  /**
+   * Whatever the worker process wrote to stdout when we last failed to parse a response from it.
+   */
+  private volatile String recordedOutput = "";
+
+  WorkerMultiplexer(WorkerKey workerKey, Path logFile) {
+    this.workerKey = Preconditions.checkNotNull(workerKey);
+    this.logFile = Preconditions.checkNotNull(logFile);
+  }
+
+  /**
+   * Starts the shared worker process, unless it is already running. A process whose stdout reached
+   * EOF or became unparseable is discarded by the reader thread, so it gets restarted here.
+   */
+  synchronized void createProcess(Path workDir) throws IOException {
+    if (process != null) {
+      return;
+    }
+    recordedOutput = "";
+    final Subprocess newProcess = Worker.startProcess(workerKey, workDir, logFile);
+    process = newProcess;
+    readerThread =
+        new Thread(
+            () -> readResponses(newProcess), "worker-multiplexer-" + workerKey.getMnemonic());
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  synchronized boolean isAlive() {
+    return process != null && !process.finished();
+  }
+
+  Path getLogFile() {
+    return logFile;
+  }
+
+  /**
+   * Sends {@code request} to the worker process and returns a future for its response. The future
+   * fails with an {@link IOException} if the worker process dies before answering, and yields null
+   * if it closed its stdout without sending a response.
+   */
+  Future<WorkResponse> putRequest(WorkRequest request) throws IOException {
+    SettableFuture<WorkResponse> response = SettableFuture.create();
+    synchronized (this) {
+      if (process == null) {
+        throw new IOException("The multiplexed worker process is not running");
+      }
+      Preconditions.checkState(
+          pendingResponses.putIfAbsent(request.getRequestId(), response) == null,
+          "Duplicate request id %s",
+          request.getRequestId());
+      try {
+        OutputStream stdin = process.getOutputStream();
+        request.writeDelimitedTo(stdin);
+        stdin.flush();
+      } catch (IOException e) {
+        pendingResponses.remove(request.getRequestId());
+        throw e;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Forgets about the request with the given id, e.g. because the waiting thread was interrupted.
+   * A response for it that arrives later is dropped.
+   */
+  void cancelRequest(int requestId) {
+    SettableFuture<WorkResponse> response = pendingResponses.remove(requestId);
+    if (response != null) {
+      response.cancel(false);
+    }
+  }
+
+  /**
+   * Returns whatever the worker process wrote to stdout when the last response could not be
+   * parsed.
+   */
+  String getRecordedOutput() {
+    return recordedOutput;
+  }
+
+  /** Kills the worker process and fails all outstanding requests. */
+  void destroy() {
+    Subprocess oldProcess;
+    synchronized (this) {
+      oldProcess = process;
+      process = null;
+      if (readerThread != null) {
+        readerThread.interrupt();
+        readerThread = null;
+      }
+    }
+    if (oldProcess != null) {
+      Worker.destroyProcess(oldProcess);
+    }
+    failPendingResponses(new IOException("The multiplexed worker process was destroyed"));
+  }
+
+  private void readResponses(Subprocess owner) {
+    RecordingInputStream recordingStream = new RecordingInputStream(owner.getInputStream());
+    IOException failure = null;
+    try {
+      while (true) {
+        recordingStream.startRecording(4096);
+        WorkResponse response = WorkResponse.parseDelimitedFrom(recordingStream);
+        if (response == null) {
+          // The worker closed its stdout, so no further responses can arrive.
+          break;
+        }
+        SettableFuture<WorkResponse> pending = pendingResponses.remove(response.getRequestId());
+        if (pending != null) {
+          pending.set(response);
+        }
+      }
+    } catch (IOException e) {
+      recordingStream.readRemaining();
+      recordedOutput = recordingStream.getRecordedDataAsString();
+      failure = e;
+    } finally {
+      // Once the stream is at EOF or out of sync, the process is useless. Forget about it before
+      // failing the outstanding requests, so that no new request can sneak in after that.
+      synchronized (this) {
+        if (process == owner) {
+          process = null;
+          readerThread = null;
+        }
+      }
+      Worker.destroyProcess(owner);
+    }
+    if (failure != null) {
+      failPendingResponses(failure);
+    } else {
+      for (Integer requestId : pendingResponses.keySet()) {
+        SettableFuture<WorkResponse> pending = pendingResponses.remove(requestId);
+        if (pending != null) {
+          pending.set(null);
+        }
+      }
+    }
+  }
+
+  private void failPendingResponses(IOException e) {
+    for (Integer requestId : pendingResponses.keySet()) {
+      SettableFuture<WorkResponse> pending = pendingResponses.remove(requestId);
+      if (pending != null) {
+        pending.setException(e);
+      }
+    }
+  }
+}
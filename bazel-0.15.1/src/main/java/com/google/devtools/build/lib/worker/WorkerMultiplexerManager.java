@@ -0,0 +1,76 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Hands out one {@link WorkerMultiplexer} per {@link WorkerKey} and keeps track of how many {@link
+ * WorkerProxy} instances use it. The multiplexer, and with it the worker process, is destroyed once
+ * the last proxy is gone.
+ */
+@ThreadSafe
+final class WorkerMultiplexerManager {
+  private final Map<WorkerKey, InstanceInfo> multiplexers = new HashMap<>();
+
+  /**
+   * Returns the multiplexer for {@code key}, creating it if necessary. Every call must be balanced
+   * by a call to {@link #release}.
+   *
+   * @param logFile the log file for the worker process, if a new multiplexer has to be created
+   */
+  synchronized WorkerMultiplexer acquire(WorkerKey key, Path logFile) {
+    InstanceInfo info = multiplexers.get(key);
+    if (info == null) {
+      info = new InstanceInfo(new WorkerMultiplexer(key, logFile));
+      multiplexers.put(key, info);
+    }
+    info.refCount++;
+    return info.multiplexer;
+  }
+
+  /** Releases a multiplexer previously obtained via {@link #acquire}. */
+  void release(WorkerKey key) {
+    WorkerMultiplexer unused = null;
+    synchronized (this) {
+      InstanceInfo info = Preconditions.checkNotNull(multiplexers.get(key), key);
+      info.refCount--;
+      if (info.refCount == 0) {
+        multiplexers.remove(key);
+        unused = info.multiplexer;
+      }
+    }
+    if (unused != null) {
+      unused.destroy();
+    }
+  }
+
+  /** Returns the number of live multiplexers, i.e., multiplex worker processes. */
+  synchronized int getMultiplexerCount() {
+    return multiplexers.size();
+  }
+
+  private static final class InstanceInfo {
+    private final WorkerMultiplexer multiplexer;
+    private int refCount;
+
+    InstanceInfo(WorkerMultiplexer multiplexer) {
+      this.multiplexer = multiplexer;
+    }
+  }
+}
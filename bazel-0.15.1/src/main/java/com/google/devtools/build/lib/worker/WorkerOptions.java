@@ -19,6 +19,7 @@ import com.google.devtools.common.options.OptionDocumentationCategory;
 import com.google.devtools.common.options.OptionEffectTag;
 import com.google.devtools.common.options.Options;
 import com.google.devtools.common.options.OptionsBase;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -58,6 +59,67 @@ public class WorkerOptions extends OptionsBase {
   )
   public List<Map.Entry<String, Integer>> workerMaxInstances;
 
+  @Option(
+      name = "worker_max_multiplex_instances",
+      converter = Converters.NamedIntegersConverter.class,
+      defaultValue = "",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "How many WorkRequests a multiplex worker process may receive in parallel if you use the"
+              + " 'worker' strategy with --experimental_worker_multiplex. May be specified as "
+              + "[name=value] to give a different value per worker mnemonic.",
+      allowMultiple = true)
+  public List<Map.Entry<String, Integer>> workerMaxMultiplexInstances;
+
+  @Option(
+      name = "experimental_worker_multiplex",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If enabled, workers that support the experimental multiplexing feature (i.e. actions "
+              + "with 'supports-multiplex-workers=1' in their execution info) will use it: a "
+              + "single worker process then handles several requests concurrently.")
+  public boolean workerMultiplex;
+
+  @Option(
+      name = "experimental_worker_adaptive_max_instances",
+      converter = Converters.NamedIntegersConverter.class,
+      defaultValue = "",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "How many worker processes (like the persistent Java compiler) may be launched per "
+              + "mnemonic when all of the --worker_max_instances workers are busy and enough "
+              + "memory is available. Extra workers are shut down again when memory gets scarce. "
+              + "May be specified as [name=value] to give a different value per worker mnemonic. "
+              + "By default, the number of workers doesn't change.",
+      allowMultiple = true)
+  public List<Map.Entry<String, Integer>> workerAdaptiveMaxInstances;
+
+  @Option(
+      name = "experimental_worker_min_free_memory_mb",
+      defaultValue = "1024",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "The amount of free memory, in MB, below which no extra workers are started with "
+              + "--experimental_worker_adaptive_max_instances. Only supported on Linux.")
+  public int workerMinFreeMemoryMb;
+
+  @Option(
+      name = "experimental_worker_max_idle_time",
+      defaultValue = "0",
+      converter = Converters.DurationConverter.class,
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to a positive duration, workers that have been idle for longer than this are "
+              + "shut down, even between builds. They are restarted when needed again. "
+              + "0 means that idle workers are kept running.")
+  public Duration workerMaxIdleTime;
+
   @Option(
       name = "high_priority_workers",
       defaultValue = "",
@@ -13,13 +13,19 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import java.io.IOException;
-import java.util.HashSet;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -32,27 +38,49 @@ import javax.annotation.concurrent.ThreadSafe;
 final class WorkerPool {
   private final AtomicInteger highPriorityWorkersInUse = new AtomicInteger(0);
   private final ImmutableSet<String> highPriorityWorkerMnemonics;
+  private final WorkerFactory factory;
   private final ImmutableMap<String, Integer> config;
-  private final ImmutableMap<Integer, SimpleWorkerPool> pools;
+  private final ImmutableMap<String, Integer> multiplexConfig;
+  private final Duration idleTimeout;
+  /** The pool of each mnemonic, created when it is first used. */
+  private final ConcurrentMap<String, SimpleWorkerPool> pools = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SimpleWorkerPool> multiplexPools = new ConcurrentHashMap<>();
+  @Nullable private final AdaptiveWorkerPoolPolicy adaptivePolicy;
 
   /**
    * @param factory worker factory
    * @param config pool configuration; max number of workers per worker mnemonic; the empty string
    *     key specifies the default maximum
+   * @param multiplexConfig pool configuration for multiplex workers; max number of requests in
+   *     flight per multiplex worker process, keyed like {@code config}
    * @param highPriorityWorkers mnemonics of high priority workers
+   * @param idleTimeout how long a worker may stay idle before it is shut down; zero means forever
+   * @param adaptivePolicy if not null, decides how far the pools may grow beyond {@code config}
    */
   public WorkerPool(
-      WorkerFactory factory, Map<String, Integer> config, Iterable<String> highPriorityWorkers) {
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      Map<String, Integer> multiplexConfig,
+      Iterable<String> highPriorityWorkers,
+      Duration idleTimeout,
+      @Nullable AdaptiveWorkerPoolPolicy adaptivePolicy) {
     highPriorityWorkerMnemonics = ImmutableSet.copyOf(highPriorityWorkers);
+    this.factory = factory;
     this.config = ImmutableMap.copyOf(config);
-    ImmutableMap.Builder<Integer, SimpleWorkerPool> poolsBuilder = ImmutableMap.builder();
-    for (Integer max : new HashSet<>(config.values())) {
-      poolsBuilder.put(max, new SimpleWorkerPool(factory, makeConfig(max)));
-    }
-    pools = poolsBuilder.build();
+    this.multiplexConfig = ImmutableMap.copyOf(multiplexConfig);
+    this.idleTimeout = idleTimeout;
+    this.adaptivePolicy = adaptivePolicy;
+  }
+
+  /**
+   * Creates the pool of {@code mnemonic}. Each mnemonic gets its own pool, sized by its entry in
+   * {@code config} or else the default one, so that each of them can be resized independently.
+   */
+  private SimpleWorkerPool createPool(ImmutableMap<String, Integer> config, String mnemonic) {
+    return new SimpleWorkerPool(factory, makeConfig(getForMnemonic(config, mnemonic), idleTimeout));
   }
 
-  private WorkerPoolConfig makeConfig(int max) {
+  private static WorkerPoolConfig makeConfig(int max, Duration idleTimeout) {
     WorkerPoolConfig config = new WorkerPoolConfig();
 
     // It's better to re-use a worker as often as possible and keep it hot, in order to profit
@@ -77,18 +105,65 @@ final class WorkerPool {
     config.setTestOnCreate(true);
     config.setTestOnReturn(true);
 
-    // No eviction of idle workers.
-    config.setTimeBetweenEvictionRunsMillis(-1);
+    if (idleTimeout.isZero()) {
+      // No eviction of idle workers.
+      config.setTimeBetweenEvictionRunsMillis(-1);
+    } else {
+      // Shut down workers that weren't used for a while; they are restarted on demand. Thanks to
+      // LIFO order, these are the workers beyond what the current load needs.
+      config.setMinIdlePerKey(0);
+      config.setMinEvictableIdleTimeMillis(idleTimeout.toMillis());
+      config.setTimeBetweenEvictionRunsMillis(
+          Math.max(1000, Math.min(idleTimeout.toMillis() / 2, 60000)));
+      // Look at all idle workers in each run.
+      config.setNumTestsPerEvictionRun(-1);
+    }
 
     return config;
   }
 
-  private SimpleWorkerPool getPool(WorkerKey key) {
-    Integer max = config.get(key.getMnemonic());
-    if (max == null) {
-      max = config.get("");
+  private static <T> T getForMnemonic(ImmutableMap<String, T> map, String mnemonic) {
+    T value = map.get(mnemonic);
+    return value != null ? value : map.get("");
+  }
+
+  @VisibleForTesting
+  SimpleWorkerPool getPool(WorkerKey key) {
+    // For multiplex workers, each pooled object is a proxy for one request slot in the shared
+    // worker process, so the multiplex configuration bounds the number of concurrent requests.
+    if (key.getProxied()) {
+      return multiplexPools.computeIfAbsent(
+          key.getMnemonic(), mnemonic -> createPool(multiplexConfig, mnemonic));
+    }
+    return pools.computeIfAbsent(key.getMnemonic(), mnemonic -> createPool(config, mnemonic));
+  }
+
+  /**
+   * Lets the adaptive policy grow the pool for {@code key} if the next request would have to wait
+   * for a worker, or shrink it if the machine is running out of memory.
+   */
+  private void adjustPoolSize(WorkerKey key, SimpleWorkerPool pool) {
+    int configuredMax = getForMnemonic(config, key.getMnemonic());
+    int adaptiveMax = adaptivePolicy.getMaxInstances(key.getMnemonic(), configuredMax);
+    if (adaptiveMax == configuredMax) {
+      return;
+    }
+    synchronized (pool) {
+      int currentMax = pool.getMaxTotalPerKey();
+      boolean exhausted = pool.getNumIdle(key) == 0 && pool.getNumActive(key) >= currentMax;
+      int newMax =
+          adaptivePolicy.computeMaxInstances(currentMax, configuredMax, adaptiveMax, exhausted);
+      if (newMax != currentMax) {
+        // Lowering maxIdlePerKey makes the pool destroy surplus workers as they are returned.
+        pool.setMaxIdlePerKey(newMax);
+        pool.setMaxTotalPerKey(newMax);
+        Profiler.instance()
+            .logEvent(
+                ProfilerTask.WORKER_POOL,
+                String.format(
+                    "%s worker pool resized from %d to %d", key.getMnemonic(), currentMax, newMax));
+      }
     }
-    return pools.get(max);
   }
 
   /**
@@ -98,13 +173,20 @@ final class WorkerPool {
    * @return a worker
    */
   public Worker borrowObject(WorkerKey key) throws IOException, InterruptedException {
+    SimpleWorkerPool pool = getPool(key);
+    if (adaptivePolicy != null && !key.getProxied()) {
+      adjustPoolSize(key, pool);
+    }
+
+    long startTime = Profiler.nanoTimeMaybe();
     Worker result;
     try {
-      result = getPool(key).borrowObject(key);
+      result = pool.borrowObject(key);
     } catch (Throwable t) {
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
     }
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.WORKER_BORROW, key.getMnemonic());
 
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       highPriorityWorkersInUse.incrementAndGet();
@@ -162,9 +244,44 @@ final class WorkerPool {
     }
   }
 
+  /**
+   * Reports the number of workers, evictions and borrow wait times of each pool that was used to
+   * the profiler.
+   */
+  public void logStatistics() {
+    logStatistics(pools, "");
+    logStatistics(multiplexPools, "multiplexed ");
+  }
+
+  private static void logStatistics(Map<String, SimpleWorkerPool> pools, String kind) {
+    for (Map.Entry<String, SimpleWorkerPool> entry : pools.entrySet()) {
+      SimpleWorkerPool pool = entry.getValue();
+      if (pool.getCreatedCount() == 0) {
+        continue;
+      }
+      Profiler.instance()
+          .logEvent(
+              ProfilerTask.WORKER_POOL,
+              String.format(
+                  "%s%s worker pool: %d active, %d idle, %d created, %d evicted, "
+                      + "borrow wait time mean %d ms, max %d ms",
+                  kind,
+                  entry.getKey(),
+                  pool.getNumActive(),
+                  pool.getNumIdle(),
+                  pool.getCreatedCount(),
+                  pool.getDestroyedByEvictorCount(),
+                  pool.getMeanBorrowWaitTimeMillis(),
+                  pool.getMaxBorrowWaitTimeMillis()));
+    }
+  }
+
   public void close() {
     for (SimpleWorkerPool pool : pools.values()) {
       pool.close();
     }
+    for (SimpleWorkerPool pool : multiplexPools.values()) {
+      pool.close();
+    }
   }
 }
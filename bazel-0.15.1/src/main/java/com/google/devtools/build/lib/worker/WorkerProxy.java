@@ -0,0 +1,123 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Worker} that does not own a process, but forwards its requests to a {@link
+ * WorkerMultiplexer} shared with the other proxies for the same {@link WorkerKey}.
+ *
+ * <p>The pool hands out each proxy to one action at a time, just like any other worker, so the
+ * number of proxies per key bounds the number of requests in flight in the shared process.
+ */
+final class WorkerProxy extends Worker {
+  private final WorkerKey workerKey;
+  private final Path workDir;
+  private final WorkerMultiplexerManager multiplexerManager;
+  private final WorkerMultiplexer multiplexer;
+
+  private int pendingRequestId;
+  private Future<WorkResponse> pendingResponse;
+  private boolean released;
+
+  WorkerProxy(
+      WorkerKey workerKey,
+      int workerId,
+      Path workDir,
+      Path logFile,
+      WorkerMultiplexerManager multiplexerManager) {
+    super(workerKey, workerId, workDir, logFile);
+    this.workerKey = workerKey;
+    this.workDir = workDir;
+    this.multiplexerManager = multiplexerManager;
+    this.multiplexer = multiplexerManager.acquire(workerKey, logFile);
+  }
+
+  @Override
+  void createProcess() throws IOException {
+    multiplexer.createProcess(workDir);
+  }
+
+  @Override
+  void destroy() throws IOException {
+    super.destroy();
+    if (pendingResponse != null) {
+      multiplexer.cancelRequest(pendingRequestId);
+      pendingResponse = null;
+    }
+    // Both the pool and the shutdown hook may destroy a worker; release the multiplexer only once.
+    if (!released) {
+      released = true;
+      multiplexerManager.release(workerKey);
+    }
+  }
+
+  @Override
+  boolean isAlive() {
+    return multiplexer.isAlive();
+  }
+
+  @Override
+  public void prepareExecution(
+      Map<PathFragment, Path> inputFiles,
+      Set<PathFragment> outputFiles,
+      Set<PathFragment> workerFiles)
+      throws IOException {
+    createProcess();
+  }
+
+  @Override
+  public Path getLogFile() {
+    return multiplexer.getLogFile();
+  }
+
+  @Override
+  void putRequest(WorkRequest request) throws IOException {
+    Preconditions.checkState(request.getRequestId() != 0, "Multiplexed requests need an id");
+    pendingResponse = multiplexer.putRequest(request);
+    pendingRequestId = request.getRequestId();
+  }
+
+  @Override
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    Preconditions.checkState(pendingResponse != null, "No request pending");
+    try {
+      return pendingResponse.get();
+    } catch (InterruptedException e) {
+      multiplexer.cancelRequest(pendingRequestId);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException("unexpected", e.getCause());
+    } finally {
+      pendingResponse = null;
+    }
+  }
+
+  @Override
+  String getRecordingStreamMessage() {
+    return multiplexer.getRecordedOutput();
+  }
+}
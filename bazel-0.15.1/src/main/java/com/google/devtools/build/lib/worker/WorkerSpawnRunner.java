@@ -53,6 +53,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -71,9 +72,16 @@ final class WorkerSpawnRunner implements SpawnRunner {
   /** Pattern for @flagfile.txt and --flagfile=flagfile.txt */
   private static final Pattern FLAG_FILE_PATTERN = Pattern.compile("(?:@|--?flagfile=)(.+)");
 
+  /**
+   * Source of the ids of requests sent to multiplex workers. Ids only have to be unique among the
+   * requests in flight in one worker process, and 0 is reserved for non-multiplexed requests.
+   */
+  private static final AtomicInteger requestIdCounter = new AtomicInteger(1);
+
   private final Path execRoot;
   private final WorkerPool workers;
   private final Multimap<String, String> extraFlags;
+  private final boolean multiplex;
   private final EventHandler reporter;
   private final SpawnRunner fallbackRunner;
 
@@ -81,11 +89,13 @@ final class WorkerSpawnRunner implements SpawnRunner {
       Path execRoot,
       WorkerPool workers,
       Multimap<String, String> extraFlags,
+      boolean multiplex,
       EventHandler reporter,
       SpawnRunner fallbackRunner) {
     this.execRoot = execRoot;
     this.workers = Preconditions.checkNotNull(workers);
     this.extraFlags = extraFlags;
+    this.multiplex = multiplex;
     this.reporter = reporter;
     this.fallbackRunner = fallbackRunner;
   }
@@ -138,6 +148,10 @@ final class WorkerSpawnRunner implements SpawnRunner {
     Map<PathFragment, Path> inputFiles = SandboxHelpers.processInputFiles(spawn, context, execRoot);
     Set<PathFragment> outputFiles = SandboxHelpers.getOutputFiles(spawn);
 
+    // Speculative spawns must run in a sandboxed worker, which has a working directory of its own;
+    // a multiplex worker process can't provide that for each of its requests.
+    boolean proxied = multiplex && !context.speculating() && supportsMultiplexWorkers(spawn);
+
     WorkerKey key =
         new WorkerKey(
             workerArgs,
@@ -146,9 +160,11 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn.getMnemonic(),
             workerFilesCombinedHash,
             workerFiles,
-            context.speculating());
+            context.speculating(),
+            proxied);
 
-    WorkRequest workRequest = createWorkRequest(spawn, context, flagFiles, inputFileCache);
+    WorkRequest workRequest =
+        createWorkRequest(spawn, context, flagFiles, inputFileCache, proxied ? nextRequestId() : 0);
 
     long startTime = System.currentTimeMillis();
     WorkResponse response = execInWorker(spawn, key, workRequest, context, inputFiles, outputFiles);
@@ -166,6 +182,15 @@ final class WorkerSpawnRunner implements SpawnRunner {
         .build();
   }
 
+  private static int nextRequestId() {
+    return requestIdCounter.getAndUpdate(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+  }
+
+  private static boolean supportsMultiplexWorkers(Spawn spawn) {
+    return "1"
+        .equals(spawn.getExecutionInfo().get(ExecutionRequirements.SUPPORTS_MULTIPLEX_WORKERS));
+  }
+
   /**
    * Splits the command-line arguments of the {@code Spawn} into the part that is used to start the
    * persistent worker ({@code workerArgs}) and the part that goes into the {@code WorkRequest}
@@ -199,9 +224,10 @@ final class WorkerSpawnRunner implements SpawnRunner {
       Spawn spawn,
       SpawnExecutionContext context,
       List<String> flagfiles,
-      ActionInputFileCache inputFileCache)
+      ActionInputFileCache inputFileCache,
+      int requestId)
       throws IOException {
-    WorkRequest.Builder requestBuilder = WorkRequest.newBuilder();
+    WorkRequest.Builder requestBuilder = WorkRequest.newBuilder().setRequestId(requestId);
     for (String flagfile : flagfiles) {
       expandArgument(execRoot, flagfile, requestBuilder);
     }
@@ -291,8 +317,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
         }
 
         try {
-          request.writeDelimitedTo(worker.getOutputStream());
-          worker.getOutputStream().flush();
+          worker.putRequest(request);
         } catch (IOException e) {
           throw new UserExecException(
               ErrorMessage.builder()
@@ -305,17 +330,12 @@ final class WorkerSpawnRunner implements SpawnRunner {
                   .toString());
         }
 
-        RecordingInputStream recordingStream = new RecordingInputStream(worker.getInputStream());
-        recordingStream.startRecording(4096);
         try {
-          // response can be null when the worker has already closed stdout at this point and thus
-          // the InputStream is at EOF.
-          response = WorkResponse.parseDelimitedFrom(recordingStream);
+          response = worker.getResponse();
         } catch (IOException e) {
           // If protobuf couldn't parse the response, try to print whatever the failing worker wrote
           // to stdout - it's probably a stack trace or some kind of error message that will help
           // the user figure out why the compiler is failing.
-          recordingStream.readRemaining();
           throw new UserExecException(
               ErrorMessage.builder()
                   .message(
@@ -323,7 +343,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
                           + "Did you try to print something to stdout? Workers aren't allowed to "
                           + "do this, as it breaks the protocol between Bazel and the worker "
                           + "process.")
-                  .logText(recordingStream.getRecordedDataAsString())
+                  .logText(worker.getRecordingStreamMessage())
                   .exception(e)
                   .build()
                   .toString());
@@ -0,0 +1,119 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
+import com.google.devtools.build.lib.analysis.actions.CustomCommandLine;
+import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.VectorArg;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.OutputStream;
+
+/**
+ * Measures expanding the command line of a large link action the several times an action needs it,
+ * and writing it to a parameter file.
+ *
+ * <p>A {@link CustomCommandLine} caches its expansion, so {@link Mode#FRESH_COMMAND_LINE} builds an
+ * equal command line for every repetition to measure the cost without the cache.
+ */
+public class CustomCommandLineBenchmark {
+  private static final ArtifactExpander NO_EXPANSION = (artifact, output) -> {};
+
+  /** Whether each repetition uses the same command line. */
+  public enum Mode {
+    FRESH_COMMAND_LINE,
+    SAME_COMMAND_LINE
+  }
+
+  @Param({"10000", "100000"})
+  private int inputs;
+
+  @Param private Mode mode;
+
+  private CustomCommandLine.Builder commandLineBuilder;
+  private CustomCommandLine commandLine;
+  private final OutputStream out = ByteStreams.nullOutputStream();
+
+  @BeforeExperiment
+  void setUp() {
+    FileSystem fs = new InMemoryFileSystem();
+    ArtifactRoot root =
+        ArtifactRoot.asDerivedRoot(fs.getPath("/execroot"), fs.getPath("/execroot/bazel-out/bin"));
+    NestedSetBuilder<Artifact> objects = NestedSetBuilder.linkOrder();
+    NestedSetBuilder<PathFragment> libraryDirs = NestedSetBuilder.stableOrder();
+    for (int i = 0; i < inputs; i++) {
+      PathFragment dir = PathFragment.create(String.format("third_party/lib%d", i / 100));
+      objects.add(
+          new Artifact(
+              root.getRoot().getRelative(dir.getRelative(String.format("obj%d.o", i))), root));
+      libraryDirs.add(dir);
+    }
+    NestedSet<Artifact> objectSet = objects.build();
+    commandLineBuilder =
+        CustomCommandLine.builder()
+            .add("-shared")
+            .addFormatted("-Wl,-soname=%s", "libbig.so")
+            .addPaths(VectorArg.addBefore("-L").each(libraryDirs.build()))
+            .addExecPaths(VectorArg.format("-Wl,--whole-archive=%s").each(objectSet))
+            .addExecPaths(objectSet);
+    commandLine = commandLineBuilder.build();
+  }
+
+  private CustomCommandLine commandLine() {
+    return mode == Mode.SAME_COMMAND_LINE ? commandLine : commandLineBuilder.build();
+  }
+
+  /** Expands the command line once each for the spawn, the parameter file and aquery. */
+  @Benchmark
+  int expandThreeTimes(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      CustomCommandLine commandLine = commandLine();
+      for (int j = 0; j < 3; j++) {
+        size += Iterables.size(commandLine.arguments(NO_EXPANSION));
+      }
+    }
+    return size;
+  }
+
+  /** Writes the parameter file from the materialized argument list. */
+  @Benchmark
+  void writeMaterialized(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      ParameterFile.writeParameterFile(
+          out, commandLine().arguments(NO_EXPANSION), ParameterFileType.UNQUOTED, ISO_8859_1);
+    }
+  }
+
+  /** Writes the parameter file as the command line is expanded. */
+  @Benchmark
+  void writeStreamed(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      ParameterFile.writeParameterFile(
+          out, commandLine(), NO_EXPANSION, ParameterFileType.UNQUOTED, ISO_8859_1);
+    }
+  }
+}
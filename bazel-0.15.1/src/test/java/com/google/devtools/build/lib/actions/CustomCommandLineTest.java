@@ -15,13 +15,17 @@ package com.google.devtools.build.lib.actions;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.analysis.actions.CustomCommandLine.builder;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.actions.Artifact.SpecialArtifact;
 import com.google.devtools.build.lib.actions.Artifact.SpecialArtifactType;
 import com.google.devtools.build.lib.actions.Artifact.TreeFileArtifact;
+import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.VectorArg;
 import com.google.devtools.build.lib.cmdline.Label;
@@ -33,6 +37,7 @@ import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.LazyString;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Root;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -47,6 +52,7 @@ import org.junit.runners.JUnit4;
  */
 @RunWith(JUnit4.class)
 public class CustomCommandLineTest {
+  private static final ArtifactExpander NO_EXPANSION = (artifact, output) -> {};
 
   private Scratch scratch;
   private ArtifactRoot rootDir;
@@ -964,6 +970,69 @@ public class CustomCommandLineTest {
     }
   }
 
+  @Test
+  public void testLargeExpansionIsShared() {
+    ImmutableList<String> values = numberedArgs(1000);
+    CustomCommandLine commandLine =
+        builder().addAll(VectorArg.format("--v=%s").each(values)).build();
+
+    Iterable<String> arguments = commandLine.arguments();
+    assertThat(arguments).hasSize(values.size());
+    assertThat(commandLine.arguments()).isSameAs(arguments);
+    assertThat(commandLine.arguments(NO_EXPANSION)).isSameAs(arguments);
+
+    CustomCommandLine small = builder().addAll(values.subList(0, 10)).build();
+    assertThat(small.arguments()).isNotSameAs(small.arguments());
+  }
+
+  @Test
+  public void testTreeArtifactExpansionIsNotShared() {
+    SpecialArtifact treeArtifact = createTreeArtifact("myArtifact/treeArtifact");
+    TreeFileArtifact child = createTreeFileArtifact(treeArtifact, "children/child");
+    CustomCommandLine commandLine =
+        builder()
+            .addAll(numberedArgs(1000))
+            .addExpandedTreeArtifactExecPaths(treeArtifact)
+            .build();
+
+    Iterable<String> unexpanded = commandLine.arguments();
+    Iterable<String> expanded = commandLine.arguments((artifact, output) -> output.add(child));
+    assertThat(expanded).isNotSameAs(unexpanded);
+    assertThat(Iterables.getLast(expanded)).isEqualTo("myArtifact/treeArtifact/children/child");
+  }
+
+  @Test
+  public void testForEachArgument() throws Exception {
+    CustomCommandLine commandLine =
+        builder()
+            .add("--arg")
+            .addFormatted("--foo=%s", "bar")
+            .addAll(VectorArg.addBefore("-I").each(nestedSet("a", "b")))
+            .build();
+    ImmutableList.Builder<String> arguments = ImmutableList.builder();
+    commandLine.forEachArgument(NO_EXPANSION, arguments::add);
+    assertThat(arguments.build())
+        .containsExactlyElementsIn(commandLine.arguments())
+        .inOrder();
+  }
+
+  @Test
+  public void testWriteParameterFile() throws Exception {
+    CustomCommandLine commandLine = builder().add("--arg").addDynamicString("a b").build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ParameterFile.writeParameterFile(
+        out, commandLine, NO_EXPANSION, ParameterFileType.SHELL_QUOTED, ISO_8859_1);
+    assertThat(new String(out.toByteArray(), ISO_8859_1)).isEqualTo("--arg\n'a b'\n");
+  }
+
+  private static ImmutableList<String> numberedArgs(int count) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      args.add("arg" + i);
+    }
+    return args.build();
+  }
+
   private SpecialArtifact createTreeArtifact(String rootRelativePath) {
     PathFragment relpath = PathFragment.create(rootRelativePath);
     return new SpecialArtifact(
@@ -0,0 +1,105 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.actions.ActionKeyContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.analysis.SourceManifestAction.ManifestType;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.OutputStream;
+
+/**
+ * Measures computing the key of, and writing, the runfiles manifest of a test that depends on a
+ * deep chain of libraries, as each of the many tests sharing those libraries does.
+ */
+public class SourceManifestActionBenchmark {
+  private static final int FILES_PER_LIBRARY = 100;
+
+  @Param({"10000", "100000"})
+  private int runfiles;
+
+  private ArtifactRoot root;
+  private Artifact manifest;
+  private NestedSet<Artifact> libraries;
+  private final OutputStream out = ByteStreams.nullOutputStream();
+
+  @BeforeExperiment
+  void setUp() {
+    FileSystem fs = new InMemoryFileSystem();
+    root = ArtifactRoot.asSourceRoot(Root.fromPath(fs.getPath("/workspace")));
+    manifest = new Artifact(PathFragment.create("test.runfiles_manifest"), root);
+    NestedSet<Artifact> transitive = NestedSetBuilder.emptySet(Order.STABLE_ORDER);
+    for (int i = 0; i < runfiles / FILES_PER_LIBRARY; i++) {
+      NestedSetBuilder<Artifact> library = NestedSetBuilder.stableOrder();
+      for (int j = 0; j < FILES_PER_LIBRARY; j++) {
+        library.add(
+            new Artifact(PathFragment.create(String.format("lib%d/file%d.py", i, j)), root));
+      }
+      transitive = library.addTransitive(transitive).build();
+    }
+    libraries = transitive;
+  }
+
+  /** Returns the manifest action of the test with the given index. */
+  private SourceManifestAction createAction(int test) {
+    Runfiles testRunfiles =
+        new Runfiles.Builder("ws")
+            .addArtifact(new Artifact(PathFragment.create("test" + test + ".py"), root))
+            .addTransitiveArtifacts(libraries)
+            .build();
+    return SourceManifestAction.forRunfiles(
+        ManifestType.SOURCE_SYMLINKS, ActionsTestUtil.NULL_ACTION_OWNER, manifest, testRunfiles);
+  }
+
+  /** Computes the key of a single test's manifest. */
+  @Benchmark
+  int key(int reps) {
+    int length = 0;
+    for (int i = 0; i < reps; i++) {
+      length += createAction(i).getKey(new ActionKeyContext()).length();
+    }
+    return length;
+  }
+
+  /** Computes the keys of the manifests of many tests that depend on the same libraries. */
+  @Benchmark
+  int keysOfTestsSharingLibraries(int reps) {
+    ActionKeyContext actionKeyContext = new ActionKeyContext();
+    int length = 0;
+    for (int i = 0; i < reps; i++) {
+      length += createAction(i).getKey(actionKeyContext).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  void write(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      createAction(i).writeOutputFile(out, NullEventHandler.INSTANCE);
+    }
+  }
+}
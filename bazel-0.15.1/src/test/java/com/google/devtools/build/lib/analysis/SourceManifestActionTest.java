@@ -0,0 +1,113 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ActionKeyContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.analysis.SourceManifestAction.ManifestType;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import java.io.ByteArrayOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SourceManifestAction}. */
+@RunWith(JUnit4.class)
+public class SourceManifestActionTest extends FoundationTestCase {
+  private ArtifactRoot root;
+  private Artifact manifest;
+  private Artifact artifactA;
+  private Artifact artifactB;
+
+  @Before
+  public final void createArtifacts() throws Exception {
+    root = ArtifactRoot.asSourceRoot(Root.fromPath(scratch.resolve("/workspace")));
+    manifest = new Artifact(PathFragment.create("MANIFEST"), root);
+    artifactA = new Artifact(PathFragment.create("pkg/a"), root);
+    artifactB = new Artifact(PathFragment.create("pkg/b"), root);
+  }
+
+  private SourceManifestAction createAction(Runfiles runfiles) {
+    return SourceManifestAction.forRunfiles(
+        ManifestType.SOURCE_SYMLINKS, ActionsTestUtil.NULL_ACTION_OWNER, manifest, runfiles);
+  }
+
+  private String getKey(Runfiles runfiles) {
+    return createAction(runfiles).getKey(new ActionKeyContext());
+  }
+
+  @Test
+  public void testWritesSortedManifest() throws Exception {
+    Runfiles runfiles =
+        new Runfiles.Builder("ws")
+            .addArtifact(artifactB)
+            .addSymlink(PathFragment.create("pkg/link"), artifactA)
+            .addRootSymlink(PathFragment.create("root_link"), artifactB)
+            .addArtifact(artifactA)
+            .build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    createAction(runfiles).writeOutputFile(out, reporter);
+    assertThat(out.toString(ISO_8859_1.name()))
+        .isEqualTo(
+            "root_link /workspace/pkg/b\n"
+                + "ws/pkg/a /workspace/pkg/a\n"
+                + "ws/pkg/b /workspace/pkg/b\n"
+                + "ws/pkg/link /workspace/pkg/a\n");
+  }
+
+  @Test
+  public void testKeyOfEqualRunfilesIsEqual() throws Exception {
+    Runfiles runfiles =
+        new Runfiles.Builder("ws")
+            .addArtifact(artifactA)
+            .addSymlink(PathFragment.create("link"), artifactB)
+            .build();
+    Runfiles equalRunfiles =
+        new Runfiles.Builder("ws")
+            .addArtifact(artifactA)
+            .addSymlink(PathFragment.create("link"), artifactB)
+            .build();
+    assertThat(getKey(equalRunfiles)).isEqualTo(getKey(runfiles));
+  }
+
+  @Test
+  public void testKeyDependsOnRunfiles() throws Exception {
+    String artifactKey = getKey(new Runfiles.Builder("ws").addArtifact(artifactA).build());
+    String otherArtifactKey = getKey(new Runfiles.Builder("ws").addArtifact(artifactB).build());
+    String symlinkKey =
+        getKey(
+            new Runfiles.Builder("ws").addSymlink(PathFragment.create("pkg/a"), artifactA).build());
+    String rootSymlinkKey =
+        getKey(
+            new Runfiles.Builder("ws")
+                .addRootSymlink(PathFragment.create("pkg/a"), artifactA)
+                .build());
+    String otherTargetKey =
+        getKey(
+            new Runfiles.Builder("ws").addSymlink(PathFragment.create("pkg/a"), artifactB).build());
+    assertThat(
+            ImmutableSet.of(
+                artifactKey, otherArtifactKey, symlinkKey, rootSymlinkKey, otherTargetKey))
+        .hasSize(5);
+  }
+}
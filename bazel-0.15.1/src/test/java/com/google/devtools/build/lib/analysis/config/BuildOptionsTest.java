@@ -18,6 +18,7 @@ import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.analysis.config.BuildOptions.OptionsDiff;
 import com.google.devtools.build.lib.analysis.config.BuildOptions.OptionsDiffForReconstruction;
 import com.google.devtools.build.lib.rules.android.AndroidConfiguration;
@@ -81,6 +82,19 @@ public class BuildOptionsTest {
         .isFalse();
   }
 
+  @Test
+  public void trimKeepsBuildConfigurationOptions() throws Exception {
+    BuildOptions options =
+        BuildOptions.of(
+            ImmutableList.of(BuildConfiguration.Options.class, CppOptions.class, JavaOptions.class),
+            "--cpu=k8");
+    BuildOptions trimmed = options.trim(ImmutableSet.of(CppOptions.class));
+    assertThat(trimmed.getOptions().stream().map(Object::getClass).collect(Collectors.toList()))
+        .containsExactly(BuildConfiguration.Options.class, CppOptions.class);
+    assertThat(trimmed.get(BuildConfiguration.Options.class))
+        .isSameAs(options.get(BuildConfiguration.Options.class));
+  }
+
   @Test
   public void optionsDiff() throws Exception {
     BuildOptions one = BuildOptions.of(TEST_OPTIONS, "--compilation_mode=opt", "cpu=k8");
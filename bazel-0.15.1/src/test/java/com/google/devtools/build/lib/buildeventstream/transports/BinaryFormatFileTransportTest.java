@@ -177,4 +177,90 @@ public class BinaryFormatFileTransportTest {
       assertThat(in.available()).isEqualTo(0);
     }
   }
+
+  @Test
+  public void testCompressedRoundTrip() throws Exception {
+    File output = tmp.newFile();
+    BinaryFormatFileTransport transport =
+        new BinaryFormatFileTransport(
+            output.getAbsolutePath(), defaultOpts, pathConverter, /*compress=*/ true);
+
+    BuildEventStreamProtos.BuildEvent started =
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setStarted(BuildStarted.newBuilder().setCommand("build"))
+            .build();
+    when(buildEvent.asStreamProto(Matchers.<BuildEventContext>any())).thenReturn(started);
+    transport.sendBuildEvent(buildEvent, artifactGroupNamer);
+
+    BuildEventStreamProtos.BuildEvent completed =
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setCompleted(TargetComplete.newBuilder().setSuccess(true))
+            .build();
+    when(buildEvent.asStreamProto(Matchers.<BuildEventContext>any())).thenReturn(completed);
+    transport.sendBuildEvent(buildEvent, artifactGroupNamer);
+
+    transport.close().get();
+    try (InputStream in = new FileInputStream(output)) {
+      // The output is a standard gzip stream.
+      assertThat(in.read()).isEqualTo(0x1f);
+      assertThat(in.read()).isEqualTo(0x8b);
+    }
+    try (BinaryFormatFileReader reader =
+        new BinaryFormatFileReader(new FileInputStream(output))) {
+      assertThat(reader.readAll()).containsExactly(started, completed).inOrder();
+    }
+  }
+
+  @Test
+  public void testCompressedRepeatedEventsAreSmall() throws Exception {
+    File compressedOutput = tmp.newFile();
+    File uncompressedOutput = tmp.newFile();
+    BinaryFormatFileTransport compressed =
+        new BinaryFormatFileTransport(
+            compressedOutput.getAbsolutePath(), defaultOpts, pathConverter, /*compress=*/ true);
+    BinaryFormatFileTransport uncompressed =
+        new BinaryFormatFileTransport(
+            uncompressedOutput.getAbsolutePath(), defaultOpts, pathConverter);
+
+    for (int i = 0; i < 100; i++) {
+      BuildEventStreamProtos.BuildEvent progress =
+          BuildEventStreamProtos.BuildEvent.newBuilder()
+              .setProgress(
+                  Progress.newBuilder()
+                      .setStdout("file:///some/long/output/path/bazel-out/k8-fastbuild/bin/" + i))
+              .build();
+      when(buildEvent.asStreamProto(Matchers.<BuildEventContext>any())).thenReturn(progress);
+      compressed.sendBuildEvent(buildEvent, artifactGroupNamer);
+      uncompressed.sendBuildEvent(buildEvent, artifactGroupNamer);
+    }
+    compressed.close().get();
+    uncompressed.close().get();
+
+    assertThat(compressedOutput.length() * 2).isLessThan(uncompressedOutput.length());
+    try (BinaryFormatFileReader reader =
+        new BinaryFormatFileReader(new FileInputStream(compressedOutput))) {
+      assertThat(reader.readAll()).hasSize(100);
+    }
+  }
+
+  @Test
+  public void testReaderReadsUncompressedFile() throws Exception {
+    File output = tmp.newFile();
+    BinaryFormatFileTransport transport =
+        new BinaryFormatFileTransport(output.getAbsolutePath(), defaultOpts, pathConverter);
+
+    BuildEventStreamProtos.BuildEvent started =
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setStarted(BuildStarted.newBuilder().setCommand("build"))
+            .build();
+    when(buildEvent.asStreamProto(Matchers.<BuildEventContext>any())).thenReturn(started);
+    transport.sendBuildEvent(buildEvent, artifactGroupNamer);
+    transport.close().get();
+
+    try (BinaryFormatFileReader reader =
+        new BinaryFormatFileReader(new FileInputStream(output))) {
+      assertThat(reader.read()).isEqualTo(started);
+      assertThat(reader.read()).isNull();
+    }
+  }
 }
@@ -0,0 +1,148 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildeventstream.transports;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
+import com.google.devtools.build.lib.buildeventstream.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests {@link QueuedBuildEventTransport}. */
+@RunWith(JUnit4.class)
+public class QueuedBuildEventTransportTest {
+  /** Records events once it is allowed to. */
+  private static final class RecordingTransport implements BuildEventTransport {
+    final List<BuildEvent> events = new CopyOnWriteArrayList<>();
+    final List<Thread> threads = new CopyOnWriteArrayList<>();
+    final CountDownLatch maySend = new CountDownLatch(1);
+    final SettableFuture<Void> closeFuture = SettableFuture.create();
+    volatile boolean closed;
+    volatile boolean closedNow;
+
+    @Override
+    public String name() {
+      return "recording";
+    }
+
+    @Override
+    public void sendBuildEvent(BuildEvent event, ArtifactGroupNamer namer) {
+      try {
+        maySend.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      threads.add(Thread.currentThread());
+      events.add(event);
+    }
+
+    @Override
+    public ListenableFuture<Void> close() {
+      closed = true;
+      return closeFuture;
+    }
+
+    @Override
+    public void closeNow() {
+      closedNow = true;
+    }
+  }
+
+  private final ArtifactGroupNamer namer = Mockito.mock(ArtifactGroupNamer.class);
+
+  private static BuildEvent event() {
+    return Mockito.mock(BuildEvent.class);
+  }
+
+  @Test
+  public void sendsEventsInOrderOnAnotherThread() throws Exception {
+    RecordingTransport delegate = new RecordingTransport();
+    QueuedBuildEventTransport transport = new QueuedBuildEventTransport(delegate, 10);
+    BuildEvent first = event();
+    BuildEvent second = event();
+    BuildEvent third = event();
+
+    transport.sendBuildEvent(first, namer);
+    transport.sendBuildEvent(second, namer);
+    transport.sendBuildEvent(third, namer);
+    // Posting does not wait for the delegate.
+    assertThat(delegate.events).isEmpty();
+
+    delegate.maySend.countDown();
+    ListenableFuture<Void> closeFuture = transport.close();
+    assertThat(closeFuture.isDone()).isFalse();
+    delegate.closeFuture.set(null);
+    closeFuture.get(1, TimeUnit.MINUTES);
+
+    assertThat(delegate.events).containsExactly(first, second, third).inOrder();
+    assertThat(delegate.threads).doesNotContain(Thread.currentThread());
+    assertThat(delegate.closed).isTrue();
+    assertThat(transport.name()).isEqualTo("recording");
+  }
+
+  @Test
+  public void postingBlocksWhileQueueIsFull() throws Exception {
+    RecordingTransport delegate = new RecordingTransport();
+    QueuedBuildEventTransport transport = new QueuedBuildEventTransport(delegate, 1);
+    // One event is being sent, one is queued.
+    transport.sendBuildEvent(event(), namer);
+    transport.sendBuildEvent(event(), namer);
+
+    CountDownLatch posted = new CountDownLatch(1);
+    Thread poster =
+        new Thread(
+            () -> {
+              transport.sendBuildEvent(event(), namer);
+              posted.countDown();
+            });
+    poster.start();
+    assertThat(posted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    delegate.maySend.countDown();
+    assertThat(posted.await(1, TimeUnit.MINUTES)).isTrue();
+    poster.join();
+    delegate.closeFuture.set(null);
+    transport.close().get(1, TimeUnit.MINUTES);
+    assertThat(delegate.events).hasSize(3);
+  }
+
+  @Test
+  public void closeNowDropsQueuedEvents() throws Exception {
+    RecordingTransport delegate = new RecordingTransport();
+    QueuedBuildEventTransport transport = new QueuedBuildEventTransport(delegate, 10);
+    transport.sendBuildEvent(event(), namer);
+    transport.sendBuildEvent(event(), namer);
+
+    transport.closeNow();
+    delegate.maySend.countDown();
+
+    assertThat(delegate.closedNow).isTrue();
+    assertThat(transport.close().isDone()).isTrue();
+    assertThat(delegate.events).isEmpty();
+    // Events posted after closing are ignored.
+    transport.sendBuildEvent(event(), namer);
+    assertThat(delegate.events).isEmpty();
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DynamicExecutionStatistics}. */
+@RunWith(JUnit4.class)
+public class DynamicExecutionStatisticsTest {
+  private final DynamicExecutionStatistics statistics =
+      new DynamicExecutionStatistics(/*minLocalWinsPercent=*/ 10);
+
+  private void recordRaces(String mnemonic, int count, boolean localWon) {
+    for (int i = 0; i < count; i++) {
+      statistics.recordRace(mnemonic, localWon, Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void racesDuringWarmup() {
+    recordRaces("Javac", DynamicExecutionStatistics.WARMUP_RACES - 1, false);
+    assertThat(statistics.shouldRace("Javac")).isTrue();
+  }
+
+  @Test
+  public void racesWhileLocalWinsOftenEnough() {
+    recordRaces("Javac", 9, false);
+    recordRaces("Javac", 1, true);
+    assertThat(statistics.shouldRace("Javac")).isTrue();
+  }
+
+  @Test
+  public void racesOnlyOccasionallyWhenLocalRarelyWins() {
+    recordRaces("CppCompile", 20, false);
+    recordRaces("CppCompile", 1, true);
+
+    int races = 0;
+    for (int i = 0; i < 2 * DynamicExecutionStatistics.RERACE_INTERVAL; i++) {
+      if (statistics.shouldRace("CppCompile")) {
+        races++;
+      }
+    }
+    assertThat(races).isEqualTo(2);
+    // Other mnemonics are not affected.
+    assertThat(statistics.shouldRace("Javac")).isTrue();
+  }
+
+  @Test
+  public void summary() {
+    recordRaces("Javac", 1, true);
+    recordRaces("Javac", 3, false);
+    assertThat(statistics.summary())
+        .isEqualTo(
+            String.format(
+                "Javac: 4 races (local won 1 in 0.100s avg, remote won 3 in 0.100s avg), "
+                    + "0 only remote%n"));
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionKeyContext;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionRequirements;
+import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.SpawnResult.Status;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.exec.util.SpawnBuilder;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DynamicSpawnStrategy}. */
+@RunWith(JUnit4.class)
+public class DynamicSpawnStrategyTest {
+  /** A strategy that waits until it is allowed to finish, then claims the outputs. */
+  private abstract static class FakeStrategy implements SandboxedSpawnActionContext {
+    private final String name;
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch mayFinish = new CountDownLatch(1);
+    volatile boolean executed;
+    volatile boolean interrupted;
+    volatile ExecException failureBeforeLocking;
+    volatile ExecException failureAfterLocking;
+
+    FakeStrategy(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public List<SpawnResult> exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+        throws ExecException, InterruptedException {
+      return exec(spawn, actionExecutionContext, null);
+    }
+
+    @Override
+    public List<SpawnResult> exec(
+        Spawn spawn,
+        ActionExecutionContext actionExecutionContext,
+        AtomicReference<Class<? extends SpawnActionContext>> writeOutputFiles)
+        throws ExecException, InterruptedException {
+      executed = true;
+      started.countDown();
+      try {
+        mayFinish.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+        throw e;
+      }
+      if (failureBeforeLocking != null) {
+        throw failureBeforeLocking;
+      }
+      if (writeOutputFiles != null
+          && !writeOutputFiles.compareAndSet(null, getClass())
+          && writeOutputFiles.get() != getClass()) {
+        throw new InterruptedException();
+      }
+      try {
+        actionExecutionContext.getFileOutErr().getOutputStream().write(name.getBytes(UTF_8));
+        actionExecutionContext.getFileOutErr().getOutputStream().flush();
+      } catch (IOException e) {
+        throw new EnvironmentalExecException("Can't write output", e);
+      }
+      if (failureAfterLocking != null) {
+        throw failureAfterLocking;
+      }
+      return ImmutableList.of(
+          new SpawnResult.Builder()
+              .setStatus(Status.SUCCESS)
+              .setExitCode(0)
+              .setRunnerName(name)
+              .build());
+    }
+  }
+
+  private static final class LocalStrategy extends FakeStrategy {
+    LocalStrategy() {
+      super("local");
+    }
+  }
+
+  private static final class RemoteStrategy extends FakeStrategy {
+    RemoteStrategy() {
+      super("remote");
+    }
+  }
+
+  private final Spawn spawn = new SpawnBuilder("/bin/true").build();
+
+  private ExecutorService executorService;
+  private FileOutErr outErr;
+  private ActionExecutionContext actionExecutionContext;
+  private LocalStrategy local;
+  private RemoteStrategy remote;
+  private DynamicExecutionStatistics statistics;
+  private DynamicSpawnStrategy strategy;
+
+  @Before
+  public final void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    Path execRoot = fs.getPath("/execroot");
+    execRoot.createDirectoryAndParents();
+    outErr = new FileOutErr(execRoot.getChild("stdout"), execRoot.getChild("stderr"));
+    actionExecutionContext =
+        ActionsTestUtil.createContext(
+            /*executor=*/ null,
+            new ActionKeyContext(),
+            outErr,
+            execRoot,
+            /*metadataHandler=*/ null,
+            /*actionGraph=*/ null);
+    executorService = Executors.newCachedThreadPool();
+    local = new LocalStrategy();
+    remote = new RemoteStrategy();
+    statistics = new DynamicExecutionStatistics(/*minLocalWinsPercent=*/ 5);
+    strategy = new DynamicSpawnStrategy(executorService, /*localJobs=*/ 1, statistics);
+    strategy.setStrategies(local, remote);
+  }
+
+  @After
+  public final void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  /** Lets {@code winner} finish as soon as {@code loser} is running. */
+  private static void finishBefore(FakeStrategy winner, FakeStrategy loser) {
+    new Thread(
+            () -> {
+              try {
+                loser.started.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              winner.mayFinish.countDown();
+            })
+        .start();
+  }
+
+  @Test
+  public void remoteWins() throws Exception {
+    finishBefore(remote, local);
+
+    List<SpawnResult> results = strategy.exec(spawn, actionExecutionContext);
+    outErr.close();
+
+    assertThat(results.get(0).getRunnerName()).isEqualTo("remote");
+    assertThat(local.interrupted).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("remote");
+  }
+
+  @Test
+  public void localWins() throws Exception {
+    local.mayFinish.countDown();
+
+    List<SpawnResult> results = strategy.exec(spawn, actionExecutionContext);
+    outErr.close();
+
+    assertThat(results.get(0).getRunnerName()).isEqualTo("local");
+    assertThat(outErr.outAsLatin1()).isEqualTo("local");
+    assertThat(statistics.summary()).contains("local won 1");
+  }
+
+  @Test
+  public void failureWithoutOutputsLetsOtherBranchDecide() throws Exception {
+    local.failureBeforeLocking = new EnvironmentalExecException("sandbox setup failed");
+    local.mayFinish.countDown();
+    remote.mayFinish.countDown();
+
+    List<SpawnResult> results = strategy.exec(spawn, actionExecutionContext);
+    outErr.close();
+
+    assertThat(results.get(0).getRunnerName()).isEqualTo("remote");
+    assertThat(outErr.outAsLatin1()).isEqualTo("remote");
+  }
+
+  @Test
+  public void failureAfterClaimingOutputsIsFinal() throws Exception {
+    local.failureAfterLocking = new UserExecException("compilation failed");
+    finishBefore(local, remote);
+
+    try {
+      strategy.exec(spawn, actionExecutionContext);
+      fail();
+    } catch (UserExecException e) {
+      assertThat(e).hasMessageThat().isEqualTo("compilation failed");
+    }
+    outErr.close();
+    assertThat(remote.interrupted).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("local");
+  }
+
+  @Test
+  public void spawnThatMustRunLocallyIsNotRaced() throws Exception {
+    Spawn localSpawn =
+        new SpawnBuilder("/bin/true").withExecutionInfo(ExecutionRequirements.NO_REMOTE, "").build();
+    local.mayFinish.countDown();
+
+    List<SpawnResult> results = strategy.exec(localSpawn, actionExecutionContext);
+
+    assertThat(results.get(0).getRunnerName()).isEqualTo("local");
+    assertThat(remote.executed).isFalse();
+  }
+
+  @Test
+  public void mnemonicThatNeverWinsLocallyIsNotRaced() throws Exception {
+    for (int i = 0; i < DynamicExecutionStatistics.WARMUP_RACES; i++) {
+      statistics.recordRace(spawn.getMnemonic(), /*localWon=*/ false, Duration.ZERO);
+    }
+    remote.mayFinish.countDown();
+
+    List<SpawnResult> results = strategy.exec(spawn, actionExecutionContext);
+
+    assertThat(results.get(0).getRunnerName()).isEqualTo("remote");
+    assertThat(local.executed).isFalse();
+  }
+}
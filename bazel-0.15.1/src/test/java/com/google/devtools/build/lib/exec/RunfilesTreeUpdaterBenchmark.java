@@ -0,0 +1,77 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long it takes {@link RunfilesTreeUpdater} to update a runfiles tree of the given
+ * size after one of its entries changed.
+ */
+public class RunfilesTreeUpdaterBenchmark {
+  @Param({"1000", "200000"})
+  private int entries;
+
+  private Path root;
+  private RunfilesTreeUpdater before;
+  private RunfilesTreeUpdater after;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    root =
+        new UnixFileSystem()
+            .getPath(
+                java.nio.file.Files.createTempDirectory("runfiles-tree-updater-benchmark")
+                    .toString());
+    Path runfiles = root.getChild("foo.runfiles");
+    Path beforeManifest = root.getChild("before_manifest");
+    Path afterManifest = root.getChild("after_manifest");
+    writeManifest(beforeManifest, "/src/changed-before");
+    writeManifest(afterManifest, "/src/changed-after");
+    before = new RunfilesTreeUpdater(beforeManifest, runfiles);
+    after = new RunfilesTreeUpdater(afterManifest, runfiles);
+    before.update();
+  }
+
+  private void writeManifest(Path manifest, String changedTarget) throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < entries; i++) {
+      lines.add(String.format("ws/pkg%d/file%d /src/pkg%d/file%d", i / 100, i, i / 100, i));
+    }
+    lines.add("ws/changed " + changedTarget);
+    FileSystemUtils.writeLinesAs(manifest, ISO_8859_1, lines);
+  }
+
+  @AfterExperiment
+  void tearDown() throws Exception {
+    FileSystemUtils.deleteTree(root);
+  }
+
+  @Benchmark
+  void oneEntryChanged(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      (i % 2 == 0 ? after : before).update();
+    }
+  }
+}
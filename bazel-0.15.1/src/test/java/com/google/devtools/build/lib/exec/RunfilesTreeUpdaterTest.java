@@ -0,0 +1,142 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RunfilesTreeUpdater}. */
+@RunWith(JUnit4.class)
+public final class RunfilesTreeUpdaterTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+  private Path inputManifest;
+  private Path runfiles;
+  private RunfilesTreeUpdater updater;
+
+  @Before
+  public final void createDirectories() throws Exception {
+    Path bin = fs.getPath("/execroot/bin");
+    bin.createDirectoryAndParents();
+    inputManifest = bin.getChild("foo.runfiles_manifest");
+    runfiles = bin.getChild("foo.runfiles");
+    updater = new RunfilesTreeUpdater(inputManifest, runfiles);
+  }
+
+  private void writeManifest(String... lines) throws IOException {
+    FileSystemUtils.writeIsoLatin1(inputManifest, lines);
+  }
+
+  private void assertSymlink(String link, String target) throws IOException {
+    Path path = runfiles.getRelative(link);
+    assertThat(path.isSymbolicLink()).isTrue();
+    assertThat(path.readSymbolicLink()).isEqualTo(PathFragment.create(target));
+  }
+
+  @Test
+  public void createsMissingTree() throws Exception {
+    writeManifest("ws/a/x /src/a/x", "ws/a/y /src/a/y", "ws/__init__.py ");
+
+    assertThat(updater.update()).isTrue();
+
+    assertSymlink("ws/a/x", "/src/a/x");
+    assertSymlink("ws/a/y", "/src/a/y");
+    assertThat(runfiles.getRelative("ws/__init__.py").isFile(Symlinks.NOFOLLOW)).isTrue();
+    assertThat(FileSystemUtils.readContent(runfiles.getChild("MANIFEST")))
+        .isEqualTo(FileSystemUtils.readContent(inputManifest));
+    assertThat(runfiles.getChild(RunfilesTreeUpdater.APPLIED_MANIFEST).exists()).isTrue();
+  }
+
+  @Test
+  public void doesNotTouchTreeOfUnknownOrigin() throws Exception {
+    runfiles.getRelative("ws").createDirectoryAndParents();
+    writeManifest("ws/a/x /src/a/x");
+
+    assertThat(updater.update()).isFalse();
+
+    assertThat(runfiles.getRelative("ws/a").exists()).isFalse();
+  }
+
+  @Test
+  public void appliesOnlyChanges() throws Exception {
+    writeManifest(
+        "ws/kept /src/kept",
+        "ws/changed /src/old",
+        "ws/removed/deep/x /src/x",
+        "ws/dir/x /src/dir/x",
+        "ws/file /src/file");
+    assertThat(updater.update()).isTrue();
+    // The output manifest is deleted before the symlink tree action runs.
+    runfiles.getChild("MANIFEST").delete();
+    // Unchanged entries must not be rewritten, so this change survives the update.
+    runfiles.getRelative("ws/kept").delete();
+    runfiles.getRelative("ws/kept").createSymbolicLink(PathFragment.create("/marker"));
+
+    writeManifest(
+        "ws/kept /src/kept",
+        "ws/changed /src/new",
+        "ws/added/x /src/added",
+        "ws/dir /src/dir",
+        "ws/file/x /src/file/x");
+    assertThat(updater.update()).isTrue();
+
+    assertSymlink("ws/kept", "/marker");
+    assertSymlink("ws/changed", "/src/new");
+    assertSymlink("ws/added/x", "/src/added");
+    assertSymlink("ws/dir", "/src/dir");
+    assertSymlink("ws/file/x", "/src/file/x");
+    assertThat(runfiles.getRelative("ws/removed").exists()).isFalse();
+    assertThat(runfiles.getChild("MANIFEST").exists()).isTrue();
+  }
+
+  @Test
+  public void recordsTreeCreatedByBuildRunfiles() throws Exception {
+    runfiles.getRelative("ws").createDirectoryAndParents();
+    runfiles.getRelative("ws/x").createSymbolicLink(PathFragment.create("/src/x"));
+    writeManifest("ws/x /src/x");
+    updater.recordTreeCreated();
+
+    writeManifest("ws/x /src/x", "ws/y /src/y");
+    assertThat(updater.update()).isTrue();
+
+    assertSymlink("ws/y", "/src/y");
+  }
+
+  @Test
+  public void failedUpdateIsNotTrusted() throws Exception {
+    writeManifest("ws/x /src/x");
+    assertThat(updater.update()).isTrue();
+
+    writeManifest("/absolute /src/x");
+    try {
+      updater.update();
+      fail();
+    } catch (IOException expected) {
+    }
+
+    assertThat(runfiles.getChild(RunfilesTreeUpdater.APPLIED_MANIFEST).exists()).isFalse();
+    assertThat(updater.update()).isFalse();
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.exec.local.LocalDiskCache.Entry;
+import com.google.devtools.build.lib.exec.local.LocalDiskCache.OutputFile;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LocalDiskCache}. */
+@RunWith(JUnit4.class)
+public class LocalDiskCacheTest {
+  private FileSystem fs;
+  private LocalDiskCache cache;
+
+  @Before
+  public final void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    cache = new LocalDiskCache(fs.getPath("/cache"));
+  }
+
+  private Path createFile(String name, String content) throws Exception {
+    Path path = fs.getPath(name);
+    path.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(path, content);
+    return path;
+  }
+
+  private String putEntry(String key, String content) throws Exception {
+    String digest = cache.putFile(createFile("/out/" + key, content), false);
+    cache.putEntry(
+        key,
+        new Entry(
+            null,
+            null,
+            ImmutableList.of(new OutputFile(PathFragment.create(key), digest, false))));
+    return digest;
+  }
+
+  @Test
+  public void putAndMaterializeFile() throws Exception {
+    Path output = createFile("/execroot/out/tool", "#!/bin/sh");
+    output.setExecutable(true);
+
+    String digest = cache.putFile(output, true);
+    Path blob = cache.getBlobPath(digest, true);
+    assertThat(blob.exists()).isTrue();
+    assertThat(blob.isWritable()).isFalse();
+    assertThat(blob.isExecutable()).isTrue();
+
+    Path target = fs.getPath("/other/out/tool");
+    cache.materializeFile(digest, true, target);
+    assertThat(FileSystemUtils.readContentAsLatin1(target)).isEqualTo("#!/bin/sh".toCharArray());
+    assertThat(target.isExecutable()).isTrue();
+  }
+
+  @Test
+  public void entryRoundTrip() throws Exception {
+    String digest = cache.putFile(createFile("/out/a", "a"), false);
+    String stdout = cache.putFile(createFile("/out/stdout", "hello"), false);
+    Entry entry =
+        new Entry(
+            stdout,
+            null,
+            ImmutableList.of(new OutputFile(PathFragment.create("bin/a b"), digest, false)));
+
+    cache.putEntry("0123456789abcdef", entry);
+    Entry read = cache.getEntry("0123456789abcdef");
+
+    assertThat(read.getStdoutDigest()).isEqualTo(stdout);
+    assertThat(read.getStderrDigest()).isNull();
+    assertThat(read.getOutputFiles()).hasSize(1);
+    assertThat(read.getOutputFiles().get(0).getExecPath())
+        .isEqualTo(PathFragment.create("bin/a b"));
+    assertThat(read.getOutputFiles().get(0).getDigest()).isEqualTo(digest);
+    assertThat(cache.getEntry("fedcba9876543210")).isNull();
+  }
+
+  @Test
+  public void entryWithMissingFileIsIgnored() throws Exception {
+    String digest = putEntry("0123456789abcdef", "content");
+    cache.getBlobPath(digest, false).delete();
+
+    assertThat(cache.getEntry("0123456789abcdef")).isNull();
+  }
+
+  @Test
+  public void garbageCollectionEvictsLeastRecentlyUsedEntries() throws Exception {
+    String oldDigest = putEntry("aa00", "0123456789");
+    String newDigest = putEntry("bb00", "9876543210");
+    fs.getPath("/cache/ac/aa/aa00").setLastModifiedTime(1000L);
+    fs.getPath("/cache/ac/bb/bb00").setLastModifiedTime(2000L);
+    assertThat(cache.needsGarbageCollection(100)).isTrue();
+
+    assertThat(cache.collectGarbage(15)).isEqualTo(10);
+
+    assertThat(cache.getEntry("aa00")).isNull();
+    assertThat(cache.getBlobPath(oldDigest, false).exists()).isFalse();
+    assertThat(cache.getEntry("bb00")).isNotNull();
+    assertThat(cache.getBlobPath(newDigest, false).exists()).isTrue();
+    assertThat(cache.needsGarbageCollection(15)).isFalse();
+  }
+
+  @Test
+  public void garbageCollectionKeepsCacheBelowLimit() throws Exception {
+    putEntry("aa00", "0123456789");
+    putEntry("bb00", "9876543210");
+
+    assertThat(cache.collectGarbage(100)).isEqualTo(0);
+    assertThat(cache.getEntry("aa00")).isNotNull();
+    assertThat(cache.getEntry("bb00")).isNotNull();
+  }
+}
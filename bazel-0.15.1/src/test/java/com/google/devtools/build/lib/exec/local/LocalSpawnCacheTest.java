@@ -0,0 +1,305 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.ExecutionRequirements;
+import com.google.devtools.build.lib.actions.FileStateType;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.SpawnResult.Status;
+import com.google.devtools.build.lib.actions.cache.Metadata;
+import com.google.devtools.build.lib.exec.SpawnCache.CacheHandle;
+import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
+import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
+import com.google.devtools.build.lib.exec.util.SpawnBuilder;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LocalSpawnCache}. */
+@RunWith(JUnit4.class)
+public class LocalSpawnCacheTest {
+  private FileSystem fs;
+  private Path execRoot;
+  private FileOutErr outErr;
+  private LocalDiskCache diskCache;
+
+  /** Computes the metadata of inputs from the files in the execution root. */
+  private final ActionInputFileCache fileCache =
+      new ActionInputFileCache() {
+        @Override
+        public Metadata getMetadata(ActionInput input) throws IOException {
+          byte[] digest = execRoot.getRelative(input.getExecPath()).getDigest();
+          return new Metadata() {
+            @Override
+            public FileStateType getType() {
+              return FileStateType.REGULAR_FILE;
+            }
+
+            @Override
+            public byte[] getDigest() {
+              return digest;
+            }
+
+            @Override
+            public long getSize() {
+              return 0;
+            }
+
+            @Override
+            public long getModifiedTime() {
+              return -1;
+            }
+          };
+        }
+      };
+
+  private final class TestContext implements SpawnExecutionContext {
+    private final Spawn spawn;
+    private boolean lockedOutputs;
+
+    TestContext(Spawn spawn) {
+      this.spawn = spawn;
+    }
+
+    @Override
+    public int getId() {
+      return 0;
+    }
+
+    @Override
+    public void prefetchInputs() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ActionInputFileCache getActionInputFileCache() {
+      return fileCache;
+    }
+
+    @Override
+    public ArtifactExpander getArtifactExpander() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void lockOutputFiles() {
+      lockedOutputs = true;
+    }
+
+    @Override
+    public boolean speculating() {
+      return false;
+    }
+
+    @Override
+    public Duration getTimeout() {
+      return Duration.ZERO;
+    }
+
+    @Override
+    public FileOutErr getFileOutErr() {
+      return outErr;
+    }
+
+    @Override
+    public SortedMap<PathFragment, ActionInput> getInputMapping() {
+      SortedMap<PathFragment, ActionInput> inputMapping = new TreeMap<>();
+      for (ActionInput input : spawn.getInputFiles()) {
+        inputMapping.put(input.getExecPath(), input);
+      }
+      return inputMapping;
+    }
+
+    @Override
+    public void report(ProgressStatus state, String name) {}
+  }
+
+  @Before
+  public final void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    execRoot = fs.getPath("/execroot");
+    execRoot.createDirectoryAndParents();
+    Path outErrDir = fs.getPath("/outerr");
+    outErrDir.createDirectoryAndParents();
+    outErr = new FileOutErr(outErrDir.getChild("stdout"), outErrDir.getChild("stderr"));
+    diskCache = new LocalDiskCache(fs.getPath("/cache"));
+  }
+
+  private void writeFile(String name, String content) throws IOException {
+    Path path = execRoot.getRelative(name);
+    path.getParentDirectory().createDirectoryAndParents();
+    path.delete();
+    FileSystemUtils.writeContentAsLatin1(path, content);
+  }
+
+  private String readFile(String name) throws IOException {
+    return new String(FileSystemUtils.readContentAsLatin1(execRoot.getRelative(name)));
+  }
+
+  private static SpawnResult successfulResult() {
+    return new SpawnResult.Builder()
+        .setStatus(Status.SUCCESS)
+        .setExitCode(0)
+        .setRunnerName("test")
+        .build();
+  }
+
+  /** Pretends to execute {@code spawn} after a cache miss and stores its outputs. */
+  private void executeAndStore(LocalSpawnCache cache, Spawn spawn, String output)
+      throws Exception {
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isFalse();
+      assertThat(handle.willStore()).isTrue();
+      writeFile("out/result", output);
+      outErr.getOutputStream().write("stdout of the action".getBytes(UTF_8));
+      outErr.getOutputStream().flush();
+      handle.store(successfulResult());
+    }
+  }
+
+  @Test
+  public void storeThenHit() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn = new SpawnBuilder("tool", "arg").withInput("in").withOutput("out/result").build();
+    writeFile("in", "input");
+
+    executeAndStore(cache, spawn, "output");
+    execRoot.getRelative("out/result").delete();
+    outErr.clearOut();
+
+    TestContext context = new TestContext(spawn);
+    try (CacheHandle handle = cache.lookup(spawn, context)) {
+      assertThat(handle.hasResult()).isTrue();
+      assertThat(handle.getResult().isCacheHit()).isTrue();
+    }
+    assertThat(context.lockedOutputs).isTrue();
+    assertThat(readFile("out/result")).isEqualTo("output");
+    assertThat(outErr.outAsLatin1()).isEqualTo("stdout of the action");
+  }
+
+  @Test
+  public void sharedAcrossExecRoots() throws Exception {
+    Spawn spawn = new SpawnBuilder("tool", "arg").withInput("in").withOutput("out/result").build();
+    writeFile("in", "input");
+    executeAndStore(new LocalSpawnCache(execRoot, diskCache, null), spawn, "output");
+
+    execRoot = fs.getPath("/other-execroot");
+    writeFile("in", "input");
+    LocalSpawnCache otherCache = new LocalSpawnCache(execRoot, diskCache, null);
+    try (CacheHandle handle = otherCache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isTrue();
+    }
+    assertThat(readFile("out/result")).isEqualTo("output");
+  }
+
+  @Test
+  public void changedInputMisses() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn = new SpawnBuilder("tool", "arg").withInput("in").withOutput("out/result").build();
+    writeFile("in", "input");
+    executeAndStore(cache, spawn, "output");
+
+    writeFile("in", "changed input");
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isFalse();
+    }
+  }
+
+  @Test
+  public void changedExecutionInfoMisses() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn = new SpawnBuilder("tool", "arg").withInput("in").withOutput("out/result").build();
+    writeFile("in", "input");
+    executeAndStore(cache, spawn, "output");
+
+    Spawn otherSpawn =
+        new SpawnBuilder("tool", "arg")
+            .withInput("in")
+            .withOutput("out/result")
+            .withExecutionInfo(ExecutionRequirements.BLOCK_NETWORK, "")
+            .build();
+    try (CacheHandle handle = cache.lookup(otherSpawn, new TestContext(otherSpawn))) {
+      assertThat(handle.hasResult()).isFalse();
+    }
+  }
+
+  @Test
+  public void writingToStoredOutputKeepsCachedContents() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn = new SpawnBuilder("tool", "arg").withInput("in").withOutput("out/result").build();
+    writeFile("in", "input");
+    executeAndStore(cache, spawn, "output");
+
+    Path output = execRoot.getRelative("out/result");
+    assertThat(output.isWritable()).isTrue();
+    FileSystemUtils.writeContentAsLatin1(output, "modified in place");
+
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isTrue();
+    }
+    assertThat(readFile("out/result")).isEqualTo("output");
+  }
+
+  @Test
+  public void failedSpawnIsNotStored() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn = new SpawnBuilder("tool").withOutput("out/result").build();
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      writeFile("out/result", "output");
+      handle.store(
+          new SpawnResult.Builder()
+              .setStatus(Status.NON_ZERO_EXIT)
+              .setExitCode(1)
+              .setRunnerName("test")
+              .build());
+    }
+
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isFalse();
+    }
+  }
+
+  @Test
+  public void noCacheSpawnIsIgnored() throws Exception {
+    LocalSpawnCache cache = new LocalSpawnCache(execRoot, diskCache, null);
+    Spawn spawn =
+        new SpawnBuilder("tool")
+            .withOutput("out/result")
+            .withExecutionInfo(ExecutionRequirements.NO_CACHE, "")
+            .build();
+
+    try (CacheHandle handle = cache.lookup(spawn, new TestContext(spawn))) {
+      assertThat(handle.hasResult()).isFalse();
+      assertThat(handle.willStore()).isFalse();
+    }
+  }
+}
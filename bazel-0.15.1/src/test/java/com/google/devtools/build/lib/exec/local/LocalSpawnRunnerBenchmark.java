@@ -0,0 +1,135 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.LocalHostCapacity;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
+import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
+import com.google.devtools.build.lib.exec.util.SpawnBuilder;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Options;
+import java.time.Duration;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Measures the number of trivial spawns per second that {@link LocalSpawnRunner} can execute
+ * without the process wrapper, with and without writing the output directly to files.
+ */
+public class LocalSpawnRunnerBenchmark {
+  @Param({"false", "true"})
+  private boolean directOutput;
+
+  private final Spawn spawn = new SpawnBuilder("/bin/echo", "Hi!").build();
+
+  private Path execRoot;
+  private FileOutErr outErr;
+  private LocalSpawnRunner runner;
+
+  private final class BenchmarkContext implements SpawnExecutionContext {
+    @Override
+    public int getId() {
+      return 0;
+    }
+
+    @Override
+    public void prefetchInputs() {}
+
+    @Override
+    public void lockOutputFiles() {}
+
+    @Override
+    public boolean speculating() {
+      return false;
+    }
+
+    @Override
+    public ActionInputFileCache getActionInputFileCache() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ArtifactExpander getArtifactExpander() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Duration getTimeout() {
+      return Duration.ZERO;
+    }
+
+    @Override
+    public FileOutErr getFileOutErr() {
+      return outErr;
+    }
+
+    @Override
+    public SortedMap<PathFragment, ActionInput> getInputMapping() {
+      return new TreeMap<>();
+    }
+
+    @Override
+    public void report(ProgressStatus state, String name) {}
+  }
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    execRoot =
+        new UnixFileSystem()
+            .getPath(
+                java.nio.file.Files.createTempDirectory("local-spawn-runner-benchmark")
+                    .toString());
+    outErr = new FileOutErr(execRoot.getChild("stdout"), execRoot.getChild("stderr"));
+    LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.localDirectOutput = directOutput;
+    ResourceManager resourceManager = ResourceManager.instanceForTestingOnly();
+    resourceManager.setAvailableResources(LocalHostCapacity.getLocalHostCapacity());
+    runner =
+        new LocalSpawnRunner(
+            execRoot,
+            options,
+            resourceManager,
+            /*useProcessWrapper=*/ false,
+            OS.getCurrent(),
+            LocalEnvProvider.UNMODIFIED);
+  }
+
+  @AfterExperiment
+  void tearDown() throws Exception {
+    FileSystemUtils.deleteTree(execRoot);
+  }
+
+  @Benchmark
+  void trivialSpawns(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      runner.exec(spawn, new BenchmarkContext());
+      outErr.clearOut();
+      outErr.clearErr();
+    }
+  }
+}
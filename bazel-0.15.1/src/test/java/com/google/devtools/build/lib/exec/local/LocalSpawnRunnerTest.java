@@ -46,6 +46,7 @@ import com.google.devtools.build.lib.exec.util.SpawnBuilder;
 import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
 import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
 import com.google.devtools.build.lib.shell.SubprocessFactory;
 import com.google.devtools.build.lib.testutil.BlazeTestUtils;
 import com.google.devtools.build.lib.testutil.TestConstants;
@@ -62,6 +63,7 @@ import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import com.google.devtools.common.options.Options;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -434,6 +436,83 @@ public class LocalSpawnRunnerTest {
     assertThat(policy.lockOutputFilesCalled).isTrue();
   }
 
+  @Test
+  public void noProcessWrapperWithDirectOutput() throws Exception {
+    // TODO(#3536): Make this test work on Windows.
+    // The Command API implicitly absolutizes the path, and we get weird paths on Windows:
+    // T:\execroot\bin\echo
+    assumeTrue(OS.getCurrent() != OS.WINDOWS);
+
+    FileSystem fs = setupEnvironmentForFakeExecution();
+
+    SubprocessFactory factory = mock(SubprocessFactory.class);
+    ArgumentCaptor<SubprocessBuilder> captor = ArgumentCaptor.forClass(SubprocessBuilder.class);
+    when(factory.create(captor.capture())).thenReturn(new FinishedSubprocess(0));
+    SubprocessBuilder.setSubprocessFactory(factory);
+
+    LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.localDirectOutput = true;
+    LocalSpawnRunner runner =
+        new TestedLocalSpawnRunner(
+            fs.getPath("/execroot"),
+            options,
+            resourceManager,
+            NO_WRAPPER,
+            OS.LINUX,
+            LocalEnvProvider.UNMODIFIED);
+
+    FileOutErr fileOutErr = new FileOutErr(fs.getPath("/out/stdout"), fs.getPath("/out/stderr"));
+    SpawnExecutionContextForTesting policy = new SpawnExecutionContextForTesting(fileOutErr);
+    policy.timeoutMillis = 123 * 1000L;
+    assertThat(fs.getPath("/execroot").createDirectory()).isTrue();
+    SpawnResult result = runner.exec(SIMPLE_SPAWN, policy);
+    assertThat(result.status()).isEqualTo(SpawnResult.Status.SUCCESS);
+
+    assertThat(captor.getValue().getArgv())
+        .containsExactlyElementsIn(ImmutableList.of("/bin/echo", "Hi!"));
+    assertThat(captor.getValue().getTimeoutMillis()).isEqualTo(policy.timeoutMillis);
+    assertThat(captor.getValue().getStdout()).isEqualTo(StreamAction.REDIRECT);
+    assertThat(captor.getValue().getStdoutFile()).isEqualTo(new File("/out/stdout"));
+    assertThat(captor.getValue().getStderr()).isEqualTo(StreamAction.REDIRECT);
+    assertThat(captor.getValue().getStderrFile()).isEqualTo(new File("/out/stderr"));
+  }
+
+  @Test
+  public void directOutputIsNotUsedWithOutputFilter() throws Exception {
+    // TODO(#3536): Make this test work on Windows.
+    // The Command API implicitly absolutizes the path, and we get weird paths on Windows:
+    // T:\execroot\bin\echo
+    assumeTrue(OS.getCurrent() != OS.WINDOWS);
+
+    FileSystem fs = setupEnvironmentForFakeExecution();
+
+    SubprocessFactory factory = mock(SubprocessFactory.class);
+    ArgumentCaptor<SubprocessBuilder> captor = ArgumentCaptor.forClass(SubprocessBuilder.class);
+    when(factory.create(captor.capture())).thenReturn(new FinishedSubprocess(0));
+    SubprocessBuilder.setSubprocessFactory(factory);
+
+    LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.localDirectOutput = true;
+    LocalSpawnRunner runner =
+        new TestedLocalSpawnRunner(
+            fs.getPath("/execroot"),
+            options,
+            resourceManager,
+            NO_WRAPPER,
+            OS.LINUX,
+            LocalEnvProvider.UNMODIFIED);
+
+    FileOutErr fileOutErr = new FileOutErr(fs.getPath("/out/stdout"), fs.getPath("/out/stderr"));
+    fileOutErr.setOutputFilter(out -> new FilterOutputStream(out));
+    SpawnExecutionContextForTesting policy = new SpawnExecutionContextForTesting(fileOutErr);
+    assertThat(fs.getPath("/execroot").createDirectory()).isTrue();
+    runner.exec(SIMPLE_SPAWN, policy);
+
+    // The output has to be streamed through the filter.
+    assertThat(captor.getValue().getStdout()).isEqualTo(StreamAction.STREAM);
+    assertThat(captor.getValue().getStderr()).isEqualTo(StreamAction.STREAM);
+  }
+
   @Test
   public void nonZeroExit() throws Exception {
     // TODO(#3536): Make this test work on Windows.
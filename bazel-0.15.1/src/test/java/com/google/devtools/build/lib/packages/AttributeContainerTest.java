@@ -15,11 +15,14 @@ package com.google.devtools.build.lib.packages;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
@@ -74,6 +77,51 @@ public class AttributeContainerTest {
     assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isFalse();
   }
 
+  @Test
+  public void testUnsetAttributeIsNull() throws Exception {
+    assertThat(container.getAttr(attribute1.getName())).isNull();
+    assertThat(container.getAttr(attribute2.getName())).isNull();
+  }
+
+  @Test
+  public void testDefaultValuesAreNotStored() throws Exception {
+    container.setAttributeValue(attribute1, new ArrayList<>(), false);
+    container.setAttributeValue(attribute2, attribute2.getDefaultValue(null), true);
+    assertThat(container.getAttr(attribute1.getName())).isEqualTo(ImmutableList.of());
+    assertThat(container.getAttr(attribute2.getName()))
+        .isSameAs(attribute2.getDefaultValue(null));
+    assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isTrue();
+    assertThat(container.getStoredValueCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testOverwriteStoredValue() throws Exception {
+    Object someValue1 = new Object();
+    Object someValue2 = new Object();
+    container.setAttributeValue(attribute1, someValue1, false);
+    container.setAttributeValue(attribute2, someValue2, false);
+    assertThat(container.getStoredValueCount()).isEqualTo(2);
+
+    container.setAttributeValue(attribute1, attribute1.getDefaultValue(null), false);
+    assertThat(container.getStoredValueCount()).isEqualTo(1);
+    assertThat(container.getAttr(attribute1.getName())).isEqualTo(ImmutableList.of());
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(someValue2);
+
+    container.setAttributeValue(attribute2, someValue1, false);
+    assertThat(container.getStoredValueCount()).isEqualTo(1);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(someValue1);
+  }
+
+  @Test
+  public void testSmallListsAreShared() throws Exception {
+    Attribute strings = ruleClass.getAttributeByName("dummystrings");
+    AttributeContainer otherContainer = new AttributeContainer(ruleClass);
+    container.setAttributeValue(strings, new ArrayList<>(Arrays.asList("a", "b")), true);
+    otherContainer.setAttributeValue(strings, new ArrayList<>(Arrays.asList("a", "b")), true);
+    assertThat((List<?>) container.getAttr("dummystrings")).containsExactly("a", "b").inOrder();
+    assertThat(container.getAttr("dummystrings")).isSameAs(otherContainer.getAttr("dummystrings"));
+  }
+
   private static Location newLocation() {
     return Location.fromPathAndStartColumn(null, 0, 0, new LineAndColumn(0, 0));
   }
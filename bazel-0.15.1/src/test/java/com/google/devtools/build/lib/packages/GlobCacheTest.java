@@ -187,6 +187,26 @@ public class GlobCacheTest {
         "first.txt", "second.txt", "first.js");
   }
 
+  @Test
+  public void testStartGlobsAsync() throws Exception {
+    cache.startGlobsAsync(list("*.js", "**/first.*", "*.js"), false);
+    assertThat(cache.getKeySet())
+        .containsExactly(Pair.of("*.js", false), Pair.of("**/first.*", false));
+    assertThat(cache.getGlobUnsorted("*.js")).containsExactly("first.js", "second.js");
+    assertThat(cache.getGlobUnsorted("**/first.*")).containsExactly("first.js", "first.txt",
+        "foo/first.js", "bar/first.js");
+  }
+
+  @Test
+  public void testStartGlobsAsyncInvalidPatternStartsNothing() throws Exception {
+    try {
+      cache.startGlobsAsync(list("*.js", "invalid?"), false);
+      fail("Expected an invalid regex exception");
+    } catch (BadGlobException expected) {
+    }
+    assertThat(cache.getKeySet()).isEmpty();
+  }
+
   @Test
   public void testRecursiveGlobDoesNotMatchSubpackage() throws Exception {
     List<String> glob = cache.getGlobUnsorted("**/*.js");
@@ -0,0 +1,119 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.InternedKeyMinDepthUniquifierImpl;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.InternedKeyUniquifierImpl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link InternedKeyUniquifierImpl} and {@link InternedKeyMinDepthUniquifierImpl}.
+ */
+@RunWith(JUnit4.class)
+public final class InternedKeyUniquifierTest {
+  private static final KeyExtractor<String, String> IDENTITY = s -> s;
+
+  private final KeyInterner<String> interner = new KeyInterner<>(/*concurrencyLevel=*/ 1);
+
+  @Test
+  public void uniquifier() {
+    Uniquifier<String> uniquifier = new InternedKeyUniquifierImpl<>(IDENTITY, interner);
+
+    assertThat(uniquifier.uniquePure("a")).isTrue();
+    assertThat(interner.size()).isEqualTo(0);
+    assertThat(uniquifier.unique("a")).isTrue();
+    assertThat(uniquifier.uniquePure("a")).isFalse();
+    assertThat(uniquifier.unique("a")).isFalse();
+    assertThat(uniquifier.unique(ImmutableList.of("b", "a", "c", "b"))).containsExactly("b", "c");
+  }
+
+  @Test
+  public void uniquifiersSharingInternerAreIndependent() {
+    Uniquifier<String> first = new InternedKeyUniquifierImpl<>(IDENTITY, interner);
+    Uniquifier<String> second = new InternedKeyUniquifierImpl<>(IDENTITY, interner);
+
+    assertThat(first.unique("a")).isTrue();
+    assertThat(second.uniquePure("a")).isTrue();
+    assertThat(second.unique("a")).isTrue();
+    assertThat(interner.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void uniquifierSpanningManyPages() {
+    Uniquifier<String> uniquifier = new InternedKeyUniquifierImpl<>(IDENTITY, interner);
+    int count = 1 << 20;
+
+    for (int i = 0; i < count; i++) {
+      assertThat(uniquifier.unique(Integer.toString(i))).isTrue();
+    }
+    for (int i = 0; i < count; i++) {
+      assertThat(uniquifier.uniquePure(Integer.toString(i))).isFalse();
+    }
+  }
+
+  @Test
+  public void concurrentUniquifier() throws Exception {
+    Uniquifier<String> uniquifier = new InternedKeyUniquifierImpl<>(IDENTITY, interner);
+    int keys = 100000;
+    AtomicInteger uniqueCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < keys; i++) {
+                  if (uniquifier.unique(Integer.toString(i))) {
+                    uniqueCount.incrementAndGet();
+                  }
+                }
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertThat(uniqueCount.get()).isEqualTo(keys);
+    assertThat(interner.size()).isEqualTo(keys);
+  }
+
+  @Test
+  public void minDepthUniquifier() {
+    MinDepthUniquifier<String> uniquifier =
+        new InternedKeyMinDepthUniquifierImpl<>(IDENTITY, interner);
+
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualToPure("a", 3)).isTrue();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo("a", 3)).isTrue();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualToPure("a", 3)).isFalse();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo("a", 3)).isFalse();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo("a", 4)).isFalse();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualToPure("a", 2)).isTrue();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo("a", 0)).isTrue();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo("a", 0)).isFalse();
+    assertThat(uniquifier.uniqueAtDepthLessThanOrEqualTo(ImmutableList.of("a", "b", "b"), 1))
+        .containsExactly("b");
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.InternedKeyUniquifierImpl;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.UniquifierImpl;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Compares the uniquifiers of a full traversal of a synthetic graph, the way a {@code deps} or
+ * {@code rdeps} query of the whole universe dedupes the nodes it visits.
+ *
+ * <p>Every traversal uses {@link #UNIQUIFIERS} uniquifiers, as a query uses one for the visitation
+ * and one for its output. Run with {@code -i allocation} to compare the memory they use.
+ */
+public class UniquifierBenchmark {
+  private static final int UNIQUIFIERS = 2;
+  private static final int DEPS_PER_NODE = 4;
+
+  private static final KeyExtractor<Node, String> LABEL_EXTRACTOR = node -> node.label;
+
+  /** The implementations being compared. */
+  public enum Implementation {
+    HASH_SET {
+      @Override
+      Uniquifier<Node> create(KeyInterner<String> interner) {
+        return new UniquifierImpl<>(LABEL_EXTRACTOR, Runtime.getRuntime().availableProcessors());
+      }
+    },
+    INTERNED_BITSET {
+      @Override
+      Uniquifier<Node> create(KeyInterner<String> interner) {
+        return new InternedKeyUniquifierImpl<>(LABEL_EXTRACTOR, interner);
+      }
+    };
+
+    abstract Uniquifier<Node> create(KeyInterner<String> interner);
+  }
+
+  private static final class Node {
+    private final String label;
+    private ImmutableList<Node> deps;
+
+    private Node(String label) {
+      this.label = label;
+    }
+  }
+
+  @Param({"100000", "2000000"})
+  private int nodes;
+
+  @Param private Implementation implementation;
+
+  private Node root;
+
+  @BeforeExperiment
+  void setUp() {
+    Random random = new Random(42);
+    Node[] graph = new Node[nodes];
+    for (int i = 0; i < nodes; i++) {
+      graph[i] = new Node(String.format("//pkg%d:target%d", i / 100, i));
+      ImmutableList.Builder<Node> deps = ImmutableList.builder();
+      for (int j = 0; i > 0 && j < DEPS_PER_NODE; j++) {
+        deps.add(graph[random.nextInt(i)]);
+      }
+      graph[i].deps = deps.build();
+    }
+    root = graph[nodes - 1];
+  }
+
+  @Benchmark
+  int traverse(int reps) {
+    int visited = 0;
+    for (int i = 0; i < reps; i++) {
+      KeyInterner<String> interner = new KeyInterner<>(Runtime.getRuntime().availableProcessors());
+      List<Uniquifier<Node>> uniquifiers = new ArrayList<>();
+      for (int u = 0; u < UNIQUIFIERS; u++) {
+        uniquifiers.add(implementation.create(interner));
+      }
+      for (Uniquifier<Node> uniquifier : uniquifiers) {
+        visited += traverse(uniquifier);
+      }
+    }
+    return visited;
+  }
+
+  private int traverse(Uniquifier<Node> uniquifier) {
+    int visited = 0;
+    Queue<Node> queue = new ArrayDeque<>();
+    uniquifier.unique(root);
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      Node node = queue.remove();
+      visited++;
+      queue.addAll(uniquifier.unique(node.deps));
+    }
+    return visited;
+  }
+}
@@ -0,0 +1,217 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ConcurrentIncludeScanner}. */
+@RunWith(JUnit4.class)
+public class ConcurrentIncludeScannerTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+  private final Path execRoot = fs.getPath("/execroot");
+  private final ArtifactRoot sourceRoot = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+  private final ArtifactRoot derivedRoot =
+      ArtifactRoot.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+
+  private final Map<PathFragment, Artifact> headers = new HashMap<>();
+  private final Map<Artifact, Artifact> legalOutputPaths = new HashMap<>();
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private ActionExecutionContext actionExecutionContext;
+
+  @Before
+  public final void createContext() {
+    actionExecutionContext = mock(ActionExecutionContext.class);
+    when(actionExecutionContext.getInputPath(any(ActionInput.class)))
+        .then(invocation -> ((Artifact) invocation.getArguments()[0]).getPath());
+  }
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private Artifact source(String execPath, String... lines) throws Exception {
+    Artifact artifact = new Artifact(PathFragment.create(execPath), sourceRoot);
+    write(artifact, lines);
+    return artifact;
+  }
+
+  private Artifact header(String execPath, String... lines) throws Exception {
+    Artifact artifact = source(execPath, lines);
+    headers.put(artifact.getExecPath(), artifact);
+    return artifact;
+  }
+
+  private static void write(Artifact artifact, String... lines) throws Exception {
+    FileSystemUtils.createDirectoryAndParents(artifact.getPath().getParentDirectory());
+    FileSystemUtils.writeContent(
+        artifact.getPath(), StandardCharsets.ISO_8859_1, Joiner.on('\n').join(lines));
+  }
+
+  private Set<Artifact> scan(
+      Artifact mainSource, List<String> quoteIncludePaths, List<String> includePaths)
+      throws Exception {
+    ConcurrentIncludeScanner scanner =
+        new ConcurrentIncludeScanner(
+            new IncludeParser(),
+            executor,
+            ImmutableMap.copyOf(headers),
+            toPathFragments(quoteIncludePaths),
+            toPathFragments(includePaths));
+    Set<Artifact> includes = Sets.newConcurrentHashSet();
+    scanner.process(
+        mainSource,
+        ImmutableList.of(),
+        legalOutputPaths,
+        toPathFragments(quoteIncludePaths),
+        toPathFragments(includePaths),
+        ImmutableList.of(),
+        includes,
+        actionExecutionContext,
+        null,
+        null);
+    return includes;
+  }
+
+  private static ImmutableList<PathFragment> toPathFragments(List<String> paths) {
+    ImmutableList.Builder<PathFragment> fragments = ImmutableList.builder();
+    for (String path : paths) {
+      fragments.add(PathFragment.create(path));
+    }
+    return fragments.build();
+  }
+
+  @Test
+  public void findsTransitiveInclusions() throws Exception {
+    Artifact main = source("a/a.cc", "#include \"a/a.h\"", "#include <b.h>");
+    Artifact a = header("a/a.h", "#include \"c.h\"");
+    Artifact c = header("a/c.h");
+    Artifact b = header("include/b.h", "#include <d/d.h>");
+    Artifact d = header("d/d.h");
+    header("a/unused.h");
+    header("include/unused.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of("include", ".")))
+        .containsExactly(main, a, b, c, d);
+  }
+
+  @Test
+  public void angleInclusionsSkipQuoteIncludePaths() throws Exception {
+    Artifact main = source("main.cc", "#include <x.h>");
+    header("quote/x.h");
+    Artifact x = header("angle/x.h");
+
+    assertThat(scan(main, ImmutableList.of("quote"), ImmutableList.of("angle")))
+        .containsExactly(main, x);
+  }
+
+  @Test
+  public void includeNextContinuesAfterIncludingPath() throws Exception {
+    Artifact main = source("main.cc", "#include <x.h>");
+    Artifact first = header("first/x.h", "#include_next <x.h>");
+    Artifact second = header("second/x.h");
+    header("zeroth/x.h");
+
+    assertThat(scan(main, ImmutableList.of("zeroth"), ImmutableList.of("first", "second")))
+        .containsExactly(main, first, second);
+  }
+
+  @Test
+  public void computedInclusionFallsBackToAllHeaders() throws Exception {
+    Artifact main = source("main.cc", "#include \"a.h\"");
+    Artifact a = header("a.h", "#include HEADER");
+    Artifact unused = header("unused.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of()))
+        .containsExactly(main, a, unused);
+  }
+
+  @Test
+  public void findsInclusionsAfterCommentsAndContinuations() throws Exception {
+    Artifact main = source("main.cc", "#include /* c */ \"a.h\"", "#include \\", "  \"b.h\"");
+    Artifact a = header("a.h");
+    Artifact b = header("b.h");
+    header("unused.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of()))
+        .containsExactly(main, a, b);
+  }
+
+  @Test
+  public void unparsableInclusionFallsBackToAllHeaders() throws Exception {
+    Artifact main = source("main.cc", "#include \"a.h\"");
+    Artifact a = header("a.h", "#include /* a comment that", "   goes on */ <b.h>");
+    Artifact b = header("b.h");
+    Artifact unused = header("unused.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of()))
+        .containsExactly(main, a, b, unused);
+  }
+
+  @Test
+  public void generatedHeadersAreScannedThroughExtractedInclusions() throws Exception {
+    Artifact main = source("main.cc", "#include \"out/gen.h\"");
+    Artifact generated = new Artifact(PathFragment.create("gen.h"), derivedRoot);
+    headers.put(generated.getExecPath(), generated);
+    Artifact extracted = new Artifact(PathFragment.create("gen.h.includes"), derivedRoot);
+    write(extracted, "#include \"a.h\"");
+    legalOutputPaths.put(generated, extracted);
+    Artifact a = header("a.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of()))
+        .containsExactly(main, generated, a);
+  }
+
+  @Test
+  public void generatedHeaderWithoutExtractedInclusionsFallsBackToAllHeaders() throws Exception {
+    Artifact main = source("main.cc", "#include \"out/gen.h\"");
+    Artifact generated = new Artifact(PathFragment.create("gen.h"), derivedRoot);
+    headers.put(generated.getExecPath(), generated);
+    legalOutputPaths.put(generated, null);
+    Artifact unused = header("unused.h");
+
+    assertThat(scan(main, ImmutableList.of("."), ImmutableList.of()))
+        .containsExactly(main, generated, unused);
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactOwner;
+import com.google.devtools.build.lib.actions.ArtifactResolver;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.PackageRootResolver;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.util.DependencySet;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures resolving the dependencies of a .d file to artifacts, by decoding every dependency into
+ * a path first, as {@link DependencySet#process} does, or by looking them up by their bytes.
+ *
+ * <p>Run with caliper's allocation instrument to compare the garbage each approach produces.
+ */
+public class HeaderDiscoveryBenchmark {
+
+  /** How the .d file is handed to {@link HeaderDiscovery}. */
+  public enum Mode {
+    DEPENDENCY_SET,
+    PARSER
+  }
+
+  @Param({"1000", "10000"})
+  private int headers;
+
+  @Param private Mode mode;
+
+  private final FileSystem fs = new InMemoryFileSystem();
+  private final Path execRoot = fs.getPath("/execroot");
+  private final ArtifactRoot sourceRoot = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+
+  private byte[] dotdContent;
+  private byte[] buffer;
+  private Artifact sourceFile;
+  private ImmutableList<Artifact> declaredIncludeSrcs;
+  private ArtifactResolver artifactResolver;
+
+  @BeforeExperiment
+  void setUp() {
+    sourceFile = new Artifact(PathFragment.create("pkg/main.cc"), sourceRoot);
+    Map<PathFragment, Artifact> sourceArtifacts = new HashMap<>();
+    sourceArtifacts.put(sourceFile.getExecPath(), sourceFile);
+    StringBuilder dotd = new StringBuilder("pkg/main.o: pkg/main.cc");
+    ImmutableList.Builder<Artifact> declaredIncludeSrcs = ImmutableList.builder();
+    for (int i = 0; i < headers; i++) {
+      Artifact header =
+          new Artifact(
+              PathFragment.create(String.format("third_party/lib%d/include/header%d.h", i / 50, i)),
+              sourceRoot);
+      declaredIncludeSrcs.add(header);
+      sourceArtifacts.put(header.getExecPath(), header);
+      dotd.append(" \\\n  ").append(header.getExecPathString());
+    }
+    dotd.append('\n');
+    this.declaredIncludeSrcs = declaredIncludeSrcs.build();
+    this.artifactResolver = new MapArtifactResolver(sourceArtifacts);
+    dotdContent = dotd.toString().getBytes(StandardCharsets.UTF_8);
+    buffer = new byte[dotdContent.length];
+  }
+
+  @Benchmark
+  int discoverInputs(int reps) throws Exception {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      // Both parse the content in place, so start from a fresh copy each time.
+      System.arraycopy(dotdContent, 0, buffer, 0, dotdContent.length);
+      HeaderDiscovery.Builder discoveryBuilder =
+          new HeaderDiscovery.Builder()
+              .setAction(new ActionsTestUtil.NullAction())
+              .setSourceFile(sourceFile)
+              .setPermittedSystemIncludePrefixes(ImmutableList.of())
+              .setAllowedDerivedinputs(ImmutableList.of())
+              .setDeclaredIncludeSrcs(declaredIncludeSrcs)
+              .shouldValidateInclusions();
+      switch (mode) {
+        case DEPENDENCY_SET:
+          discoveryBuilder.setDependencies(
+              new DependencySet(execRoot).process(buffer).getDependencies());
+          break;
+        case PARSER:
+          discoveryBuilder.setDotdFileParser(new DependencySet.Parser(buffer));
+          break;
+      }
+      found +=
+          discoveryBuilder
+              .build()
+              .discoverInputsFromDependencies(execRoot, artifactResolver)
+              .toList()
+              .size();
+    }
+    return found;
+  }
+
+  /** Resolves the source artifacts of the synthetic tree by exec path. */
+  private static class MapArtifactResolver implements ArtifactResolver {
+    private final Map<PathFragment, Artifact> artifacts;
+
+    MapArtifactResolver(Map<PathFragment, Artifact> artifacts) {
+      this.artifacts = artifacts;
+    }
+
+    @Override
+    public Artifact resolveSourceArtifact(PathFragment execPath, RepositoryName repositoryName) {
+      return artifacts.get(execPath);
+    }
+
+    @Override
+    public Artifact getSourceArtifact(PathFragment execPath, Root root, ArtifactOwner owner) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Artifact getSourceArtifact(PathFragment execPath, Root root) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<PathFragment, Artifact> resolveSourceArtifacts(
+        Iterable<PathFragment> execPaths, PackageRootResolver resolver) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Path getPathFromSourceExecPath(PathFragment execPath) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
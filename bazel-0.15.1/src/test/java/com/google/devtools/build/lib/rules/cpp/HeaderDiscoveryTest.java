@@ -14,8 +14,13 @@
 
 package com.google.devtools.build.lib.rules.cpp;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.ActionExecutionException;
@@ -25,10 +30,15 @@ import com.google.devtools.build.lib.actions.ArtifactOwner;
 import com.google.devtools.build.lib.actions.ArtifactResolver;
 import com.google.devtools.build.lib.actions.ArtifactRoot;
 import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.cmdline.RepositoryName;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.util.DependencySet;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.nio.charset.StandardCharsets;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -41,6 +51,7 @@ public class HeaderDiscoveryTest {
   private final Path execRoot = fs.getPath("/execroot");
   private final Path derivedRoot = execRoot.getRelative("derived");
   private final ArtifactRoot artifactRoot = ArtifactRoot.asDerivedRoot(execRoot, derivedRoot);
+  private final ArtifactRoot sourceRoot = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
 
   /**
    * Test that an included header is satisfied (=doesn't cause an error) if it provided by a tree
@@ -75,6 +86,78 @@ public class HeaderDiscoveryTest {
                 ImmutableList.of(treeArtifact(derivedRoot.getRelative("tree_artifact2")))));
   }
 
+  @Test
+  public void dotdFileDependenciesResolveToKnownInputs() throws Exception {
+    ArtifactResolver artifactResolver = mock(ArtifactResolver.class);
+    Artifact declared = new Artifact(PathFragment.create("pkg/declared.h"), sourceRoot);
+    Artifact derived = new Artifact(derivedRoot.getRelative("pkg/derived.h"), artifactRoot);
+
+    NestedSet<Artifact> inputs =
+        discoverFromDotdFile(
+            artifactResolver,
+            "foo.o: derived/foo.cc \\\n pkg/declared.h derived/pkg/derived.h\n",
+            ImmutableList.of(derived),
+            ImmutableList.of(declared));
+
+    assertThat(inputs).containsExactly(sourceFile(), declared, derived);
+    verifyZeroInteractions(artifactResolver);
+  }
+
+  @Test
+  public void dotdFileDependenciesFallBackToArtifactResolver() throws Exception {
+    ArtifactResolver artifactResolver = mock(ArtifactResolver.class);
+    Artifact undeclared = new Artifact(PathFragment.create("pkg/undeclared.h"), sourceRoot);
+    when(artifactResolver.resolveSourceArtifact(
+            eq(undeclared.getExecPath()), any(RepositoryName.class)))
+        .thenReturn(undeclared);
+
+    NestedSet<Artifact> inputs =
+        discoverFromDotdFile(
+            artifactResolver,
+            "foo.o: derived/foo.cc pkg/sub/../undeclared.h\n",
+            ImmutableList.of(),
+            ImmutableList.of());
+
+    assertThat(inputs).containsExactly(sourceFile(), undeclared);
+  }
+
+  @Test
+  public void dotdFileErrorsWhenMissingHeaders() {
+    ArtifactResolver artifactResolver = mock(ArtifactResolver.class);
+
+    assertThrows(
+        ActionExecutionException.class,
+        () ->
+            discoverFromDotdFile(
+                artifactResolver,
+                "foo.o: derived/foo.cc pkg/missing.h\n",
+                ImmutableList.of(),
+                ImmutableList.of()));
+  }
+
+  private Artifact sourceFile() {
+    return new Artifact(derivedRoot.getRelative("foo.cc"), artifactRoot);
+  }
+
+  private NestedSet<Artifact> discoverFromDotdFile(
+      ArtifactResolver artifactResolver,
+      String dotdContent,
+      ImmutableList<Artifact> allowedDerivedInputs,
+      ImmutableList<Artifact> declaredIncludeSrcs)
+      throws Exception {
+    return new HeaderDiscovery.Builder()
+        .shouldValidateInclusions()
+        .setAction(new ActionsTestUtil.NullAction())
+        .setPermittedSystemIncludePrefixes(ImmutableList.of())
+        .setSourceFile(sourceFile())
+        .setDotdFileParser(
+            new DependencySet.Parser(dotdContent.getBytes(StandardCharsets.UTF_8)))
+        .setAllowedDerivedinputs(allowedDerivedInputs)
+        .setDeclaredIncludeSrcs(declaredIncludeSrcs)
+        .build()
+        .discoverInputsFromDependencies(execRoot, artifactResolver);
+  }
+
   private NestedSet<Artifact> checkHeaderInclusion(
       ArtifactResolver artifactResolver,
       ImmutableList<Path> dependencies,
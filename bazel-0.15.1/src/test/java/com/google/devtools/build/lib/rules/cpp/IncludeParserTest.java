@@ -0,0 +1,162 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion.Kind;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link IncludeParser}. */
+@RunWith(JUnit4.class)
+public class IncludeParserTest {
+  private static ImmutableList<Inclusion> extract(String... lines) {
+    return IncludeParser.extractInclusions(
+        Joiner.on('\n').join(lines).getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  @Test
+  public void extractsInclusions() {
+    assertThat(
+            extract(
+                "#include \"a/b.h\"",
+                "  #  include <vector>",
+                "#include_next <stdlib.h>",
+                "#include_next \"c.h\"",
+                "#import <Foundation/Foundation.h>",
+                "#include FOO_H  // computed",
+                "int x;"))
+        .containsExactly(
+            new Inclusion("a/b.h", Kind.QUOTE),
+            new Inclusion("vector", Kind.ANGLE),
+            new Inclusion("stdlib.h", Kind.NEXT_ANGLE),
+            new Inclusion("c.h", Kind.NEXT_QUOTE),
+            new Inclusion("Foundation/Foundation.h", Kind.ANGLE),
+            new Inclusion("FOO_H", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void ignoresOtherLines() {
+    assertThat(
+            extract(
+                "// #include \"commented.h\"",
+                "#define include",
+                "#includes <x.h>",
+                "#pragma once"))
+        .isEmpty();
+  }
+
+  @Test
+  public void skipsComments() {
+    assertThat(
+            extract(
+                "#include /* c */ \"a.h\"",
+                "/* c */ # /* c */ include_next/* c */<b.h> // c",
+                "#include /* c */ FOO_H /* c */"))
+        .containsExactly(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("b.h", Kind.NEXT_ANGLE),
+            new Inclusion("FOO_H", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void joinsContinuedLines() {
+    assertThat(
+            extract(
+                "#include \\",
+                "  \"a.h\"",
+                "#inc\\\r",
+                "lude <b.h>",
+                "#define X \\",
+                "  #include \"not_an_inclusion.h\"",
+                "#include \"c.h\""))
+        .containsExactly(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("b.h", Kind.ANGLE),
+            new Inclusion("c.h", Kind.QUOTE))
+        .inOrder();
+  }
+
+  @Test
+  public void reportsUnparsableInclusionsAsComputed() {
+    assertThat(
+            extract(
+                "#include",
+                "#include \"unterminated.h",
+                "#include <>",
+                "#include /* unterminated comment",
+                "#import // comment"))
+        .containsExactly(
+            new Inclusion("", Kind.COMPUTED),
+            new Inclusion("\"unterminated.h", Kind.COMPUTED),
+            new Inclusion("<>", Kind.COMPUTED),
+            new Inclusion("/* unterminated comment", Kind.COMPUTED),
+            new Inclusion("// comment", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void handlesCarriageReturns() {
+    assertThat(extract("#include \"a.h\"\r", "#include MACRO\r"))
+        .containsExactly(new Inclusion("a.h", Kind.QUOTE), new Inclusion("MACRO", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void writtenInclusionsParseBack() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    Path input = fs.getPath("/in.h");
+    Path output = fs.getPath("/in.h.includes");
+    FileSystemUtils.writeContent(
+        input,
+        StandardCharsets.ISO_8859_1,
+        "#include \"a.h\"\nint x;\n#include_next <b.h>\n#include FOO\n");
+
+    IncludeParser parser = new IncludeParser();
+    parser.writeInclusions(input, output);
+
+    assertThat(parser.getInclusions(output)).isEqualTo(parser.getInclusions(input));
+    assertThat(parser.getInclusions(output))
+        .containsExactly(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("b.h", Kind.NEXT_ANGLE),
+            new Inclusion("FOO", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void reparsesChangedFiles() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    Path file = fs.getPath("/a.h");
+    IncludeParser parser = new IncludeParser();
+
+    FileSystemUtils.writeContent(file, StandardCharsets.ISO_8859_1, "#include \"b.h\"\n");
+    assertThat(parser.getInclusions(file)).containsExactly(new Inclusion("b.h", Kind.QUOTE));
+
+    FileSystemUtils.writeContent(file, StandardCharsets.ISO_8859_1, "#include \"c.h\"\n");
+    assertThat(parser.getInclusions(file)).containsExactly(new Inclusion("c.h", Kind.QUOTE));
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the throughput of {@link ConcurrentIncludeScanner} on a synthetic header tree, with the
+ * headers spread over {@link #INCLUDE_PATHS} include paths, each including {@link
+ * #INCLUSIONS_PER_HEADER} earlier ones.
+ *
+ * <p>A cold scan parses every header; a warm scan reuses the inclusions parsed by earlier scans,
+ * like the scans of the other compiles of a build.
+ */
+public class IncludeScannerBenchmark {
+  private static final int INCLUDE_PATHS = 20;
+  private static final int INCLUSIONS_PER_HEADER = 5;
+
+  @Param({"10000", "100000"})
+  private int headers;
+
+  @Param({"true", "false"})
+  private boolean warm;
+
+  private ExecutorService executor;
+  private ActionExecutionContext actionExecutionContext;
+  private ImmutableMap<PathFragment, Artifact> includableHeaders;
+  private ImmutableList<PathFragment> includePaths;
+  private Artifact mainSource;
+  private IncludeParser warmParser;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    Path execRoot = fs.getPath("/execroot");
+    ArtifactRoot sourceRoot = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+    Random random = new Random(42);
+
+    ImmutableList.Builder<PathFragment> includePaths = ImmutableList.builder();
+    for (int i = 0; i < INCLUDE_PATHS; i++) {
+      includePaths.add(PathFragment.create("include" + i));
+    }
+    this.includePaths = includePaths.build();
+
+    ImmutableMap.Builder<PathFragment, Artifact> includableHeaders = ImmutableMap.builder();
+    for (int i = 0; i <= headers; i++) {
+      StringBuilder content = new StringBuilder();
+      for (int j = 0; i > 0 && j < INCLUSIONS_PER_HEADER; j++) {
+        int included = random.nextInt(i);
+        content.append(String.format("#include <dir%d/header%d.h>\n", included / 100, included));
+        content.append("int f").append(j).append("();\n");
+      }
+      PathFragment execPath =
+          this.includePaths
+              .get(i % INCLUDE_PATHS)
+              .getRelative(String.format("dir%d/header%d.h", i / 100, i));
+      Artifact header = new Artifact(execPath, sourceRoot);
+      FileSystemUtils.createDirectoryAndParents(header.getPath().getParentDirectory());
+      FileSystemUtils.writeContent(
+          header.getPath(), StandardCharsets.ISO_8859_1, content.toString());
+      if (i == headers) {
+        mainSource = header;
+      } else {
+        includableHeaders.put(execPath, header);
+      }
+    }
+    this.includableHeaders = includableHeaders.build();
+
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    actionExecutionContext = ActionsTestUtil.createContext(NullEventHandler.INSTANCE);
+    warmParser = new IncludeParser();
+    scanOnce(warmParser);
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private int scanOnce(IncludeParser parser) throws Exception {
+    Set<Artifact> includes = Sets.newConcurrentHashSet();
+    new ConcurrentIncludeScanner(
+            parser, executor, includableHeaders, ImmutableList.of(), includePaths)
+        .process(
+            mainSource,
+            ImmutableList.of(),
+            ImmutableMap.of(),
+            ImmutableList.of(),
+            includePaths,
+            ImmutableList.of(),
+            includes,
+            actionExecutionContext,
+            null,
+            null);
+    return includes.size();
+  }
+
+  @Benchmark
+  int scan(int reps) throws Exception {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      found += scanOnce(warm ? warmParser : new IncludeParser());
+    }
+    return found;
+  }
+}
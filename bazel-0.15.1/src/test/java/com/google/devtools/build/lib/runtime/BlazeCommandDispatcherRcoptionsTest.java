@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.runtime;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
 import com.google.common.collect.Collections2;
@@ -122,12 +123,36 @@ public class BlazeCommandDispatcherRcoptionsTest {
   private static class ReportAllInheritedCommand extends ReportAllCommand {
   }
 
+  @Command(
+    name = "reportenv",
+    options = {FooOptions.class},
+    shortDescription = "",
+    help = ""
+  )
+  private static class ReportEnvCommand implements BlazeCommand {
+    private OptionsProvider lastOptions;
+
+    @Override
+    public BlazeCommandResult exec(CommandEnvironment env, OptionsProvider options) {
+      lastOptions = options;
+      FooOptions fooOptions = options.getOptions(FooOptions.class);
+      env.getReporter()
+          .getOutErr()
+          .printOut("" + fooOptions.numOption + " " + env.getClientEnv().get("FOO"));
+      return BlazeCommandResult.exitCode(ExitCode.SUCCESS);
+    }
+
+    @Override
+    public void editOptions(OptionsParser optionsParser) {}
+  }
+
 
   private final Scratch scratch = new Scratch();
   private final RecordingOutErr outErr = new RecordingOutErr();
   private final ReportNumCommand reportNum = new ReportNumCommand();
   private final ReportAllCommand reportAll = new ReportAllCommand();
   private final ReportAllCommand reportAllInherited = new ReportAllInheritedCommand();
+  private final ReportEnvCommand reportEnv = new ReportEnvCommand();
   private BlazeRuntime runtime;
 
   @Before
@@ -315,6 +340,83 @@ public class BlazeCommandDispatcherRcoptionsTest {
     }
   }
 
+  /** Runs {@code reportenv} with the given arguments, and returns its output. */
+  private String reportEnv(BlazeCommandDispatcher dispatch, String... args) throws Exception {
+    outErr.reset();
+    List<String> cmdLine = Lists.newArrayList("reportenv");
+    cmdLine.addAll(ImmutableList.copyOf(args));
+    dispatch.exec(cmdLine, "test", outErr);
+    return outErr.outAsLatin1();
+  }
+
+  @Test
+  public void testParsedOptionsReusedForSameCommandLine() throws Exception {
+    BlazeCommandDispatcher dispatch = new BlazeCommandDispatcher(runtime, reportEnv);
+    String[] args = {
+      "--rc_source=/home/jrluser/.blazerc",
+      "--default_override=0:common=--numoption=99",
+      "--client_env=FOO=foo"
+    };
+
+    assertThat(reportEnv(dispatch, args)).isEqualTo("99 foo");
+    OptionsProvider options = reportEnv.lastOptions;
+    assertThat(reportEnv(dispatch, args)).isEqualTo("99 foo");
+    assertThat(reportEnv.lastOptions).isSameAs(options);
+  }
+
+  @Test
+  public void testChangedRcFileParsedAgain() throws Exception {
+    BlazeCommandDispatcher dispatch = new BlazeCommandDispatcher(runtime, reportEnv);
+
+    assertThat(
+            reportEnv(
+                dispatch,
+                "--rc_source=/home/jrluser/.blazerc",
+                "--default_override=0:common=--numoption=99"))
+        .isEqualTo("99 null");
+    OptionsProvider options = reportEnv.lastOptions;
+    assertThat(
+            reportEnv(
+                dispatch,
+                "--rc_source=/home/jrluser/.blazerc",
+                "--default_override=0:common=--numoption=42"))
+        .isEqualTo("42 null");
+    assertThat(reportEnv.lastOptions).isNotSameAs(options);
+  }
+
+  @Test
+  public void testChangedConfigExpansionParsedAgain() throws Exception {
+    BlazeCommandDispatcher dispatch = new BlazeCommandDispatcher(runtime, reportEnv);
+
+    assertThat(
+            reportEnv(
+                dispatch,
+                "--rc_source=/home/jrluser/.blazerc",
+                "--default_override=0:reportenv:foo=--numoption=7",
+                "--config=foo"))
+        .isEqualTo("7 null");
+    OptionsProvider options = reportEnv.lastOptions;
+    assertThat(
+            reportEnv(
+                dispatch,
+                "--rc_source=/home/jrluser/.blazerc",
+                "--default_override=0:reportenv:foo=--numoption=8",
+                "--config=foo"))
+        .isEqualTo("8 null");
+    assertThat(reportEnv.lastOptions).isNotSameAs(options);
+  }
+
+  @Test
+  public void testChangedClientEnvParsedAgain() throws Exception {
+    BlazeCommandDispatcher dispatch = new BlazeCommandDispatcher(runtime, reportEnv);
+
+    assertThat(reportEnv(dispatch, "--client_env=FOO=foo")).isEqualTo("0 foo");
+    OptionsProvider options = reportEnv.lastOptions;
+    assertThat(reportEnv(dispatch, "--client_env=FOO=bar")).isEqualTo("0 bar");
+    assertThat(reportEnv.lastOptions).isNotSameAs(options);
+    assertThat(reportEnv(dispatch, "--client_env=FOO=foo")).isEqualTo("0 foo");
+  }
+
   /** Options class for testing, so that defaults package has some content. */
   public static class MockFragmentOptions extends FragmentOptions {
     public MockFragmentOptions() {}
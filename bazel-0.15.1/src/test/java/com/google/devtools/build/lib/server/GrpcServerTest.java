@@ -18,10 +18,12 @@ import static junit.framework.TestCase.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.server.CommandProtos.RunResponse;
@@ -30,6 +32,7 @@ import com.google.devtools.build.lib.testutil.Suite;
 import com.google.devtools.build.lib.testutil.TestSpec;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
@@ -38,6 +41,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
@@ -334,4 +338,116 @@ public class GrpcServerTest {
             .setStandardOutput(ByteString.copyFrom(chunk3.getBytes(StandardCharsets.ISO_8859_1)))
             .build());
   }
+
+  private static RunResponse output(StreamType type, String output) {
+    RunResponse.Builder response =
+        RunResponse.newBuilder().setCommandId("command_id").setCookie("cookie");
+    ByteString bytes = ByteString.copyFromUtf8(output);
+    if (type == StreamType.STDOUT) {
+      response.setStandardOutput(bytes);
+    } else {
+      response.setStandardError(bytes);
+    }
+    return response.build();
+  }
+
+  @Test
+  public void testBatchedRpcOutputStreamsKeepOutputInOrder() throws Exception {
+    GrpcServerImpl.GrpcSink mockSink = mock(GrpcServerImpl.GrpcSink.class);
+    when(mockSink.offer(any(RunResponse.class))).thenReturn(true);
+    ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    OutErr underTest =
+        GrpcServerImpl.RpcOutputStream.createBatchedOutErr(
+            "command_id",
+            "cookie",
+            mockSink,
+            flushScheduler,
+            MoreExecutors.directExecutor(),
+            TimeUnit.HOURS.toMillis(1));
+
+    try {
+      underTest.printOut("a");
+      underTest.printOut("b");
+      underTest.printErr("c");
+      underTest.printOut("d");
+      underTest.close();
+    } finally {
+      flushScheduler.shutdownNow();
+    }
+
+    InOrder inOrder = inOrder(mockSink);
+    inOrder.verify(mockSink).offer(output(StreamType.STDOUT, "ab"));
+    inOrder.verify(mockSink).offer(output(StreamType.STDERR, "c"));
+    inOrder.verify(mockSink).offer(output(StreamType.STDOUT, "d"));
+    inOrder.verifyNoMoreInteractions();
+  }
+
+  @Test
+  public void testBatchedRpcOutputStreamFlushesAfterWindow() throws Exception {
+    GrpcServerImpl.GrpcSink mockSink = mock(GrpcServerImpl.GrpcSink.class);
+    CountDownLatch sent = new CountDownLatch(1);
+    when(mockSink.offer(any(RunResponse.class)))
+        .then(
+            invocation -> {
+              sent.countDown();
+              return true;
+            });
+    ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    OutErr underTest =
+        GrpcServerImpl.RpcOutputStream.createBatchedOutErr(
+            "command_id", "cookie", mockSink, flushScheduler, MoreExecutors.directExecutor(), 10);
+
+    try {
+      underTest.printErr("hello");
+      assertThat(sent.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      flushScheduler.shutdownNow();
+    }
+
+    verify(mockSink).offer(output(StreamType.STDERR, "hello"));
+  }
+
+  @Test
+  public void testBatchedRpcOutputStreamFlushesDontWaitForOtherClients() throws Exception {
+    GrpcServerImpl.GrpcSink blockedSink = mock(GrpcServerImpl.GrpcSink.class);
+    CountDownLatch blockedSinkCalled = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    when(blockedSink.offer(any(RunResponse.class)))
+        .then(
+            invocation -> {
+              blockedSinkCalled.countDown();
+              unblock.await();
+              return true;
+            });
+    GrpcServerImpl.GrpcSink mockSink = mock(GrpcServerImpl.GrpcSink.class);
+    CountDownLatch sent = new CountDownLatch(1);
+    when(mockSink.offer(any(RunResponse.class)))
+        .then(
+            invocation -> {
+              sent.countDown();
+              return true;
+            });
+    ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService flushExecutor = Executors.newCachedThreadPool();
+    OutErr slowClient =
+        GrpcServerImpl.RpcOutputStream.createBatchedOutErr(
+            "command_id", "cookie", blockedSink, flushScheduler, flushExecutor, 10);
+    OutErr underTest =
+        GrpcServerImpl.RpcOutputStream.createBatchedOutErr(
+            "command_id", "cookie", mockSink, flushScheduler, flushExecutor, 10);
+
+    try {
+      slowClient.printOut("slow");
+      assertThat(blockedSinkCalled.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+          .isTrue();
+      underTest.printOut("fast");
+      assertThat(sent.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      unblock.countDown();
+      flushScheduler.shutdownNow();
+      flushExecutor.shutdownNow();
+    }
+
+    verify(mockSink).offer(output(StreamType.STDOUT, "fast"));
+  }
 }
@@ -0,0 +1,88 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.analysis.AnalysisProtos;
+import com.google.devtools.build.lib.analysis.AnalysisProtos.ActionGraphContainer;
+import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.skyframe.actiongraph.ActionGraphDump;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for dumping the action graph with {@link ActionGraphDump}. */
+@RunWith(JUnit4.class)
+public class ActionGraphDumpTest extends BuildViewTestCase {
+
+  private ActionGraphContainer dumpInMemory() throws Exception {
+    ActionGraphDump dump = new ActionGraphDump(ImmutableList.of("..."), true);
+    getSkyframeExecutor().dumpActionGraph(dump);
+    return dump.build();
+  }
+
+  private ActionGraphContainer dumpToStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    getSkyframeExecutor().dumpActionGraph(new ActionGraphDump(ImmutableList.of("..."), true, out));
+    return ActionGraphContainer.parseFrom(out.toByteArray());
+  }
+
+  @Test
+  public void streamedDumpParsesAsInMemoryDump() throws Exception {
+    scratch.file(
+        "pkg/BUILD",
+        "genrule(name = 'a', srcs = ['in.txt'], outs = ['a.out'], cmd = 'cp $< $@')",
+        "genrule(name = 'b', srcs = [':a', 'in.txt'], outs = ['b.out'], cmd = 'cat $(SRCS) > $@')",
+        "genrule(name = 'c', srcs = [':a'], outs = ['c1.out', 'c2.out'], cmd = 'touch $(OUTS)')");
+    update(ImmutableList.of("//pkg:b", "//pkg:c"), false, 1, true, new EventBus());
+
+    ActionGraphContainer streamed = dumpToStream();
+
+    assertThat(streamed).isEqualTo(dumpInMemory());
+    // Records shared by several targets are only written once.
+    assertThat(streamed.getActionsList().size()).isAtLeast(3);
+    List<String> artifactIds = new ArrayList<>();
+    for (AnalysisProtos.Artifact artifact : streamed.getArtifactsList()) {
+      artifactIds.add(artifact.getId());
+    }
+    assertThat(artifactIds).containsNoDuplicates();
+    List<String> targetIds = new ArrayList<>();
+    for (AnalysisProtos.Target target : streamed.getTargetsList()) {
+      targetIds.add(target.getId());
+    }
+    assertThat(targetIds).containsNoDuplicates();
+    List<String> ruleClassIds = new ArrayList<>();
+    for (AnalysisProtos.RuleClass ruleClass : streamed.getRuleClassesList()) {
+      ruleClassIds.add(ruleClass.getId());
+    }
+    assertThat(ruleClassIds).containsNoDuplicates();
+    List<String> configurationIds = new ArrayList<>();
+    for (AnalysisProtos.Configuration configuration : streamed.getConfigurationList()) {
+      configurationIds.add(configuration.getId());
+    }
+    assertThat(configurationIds).containsNoDuplicates();
+    // Every reference resolves to a record in the dump.
+    for (AnalysisProtos.Action action : streamed.getActionsList()) {
+      assertThat(artifactIds).containsAllIn(action.getOutputIdsList());
+      assertThat(targetIds).contains(action.getTargetId());
+      assertThat(configurationIds).contains(action.getConfigurationId());
+    }
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.query2.BlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.QueryEnvironmentFactory;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+import com.google.devtools.build.lib.query2.engine.QueryUtil;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.AggregateAllOutputFormatterCallback;
+import com.google.devtools.build.lib.runtime.TargetProviderForQueryEnvironment;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that queries answered from the state {@link SkyframeExecutor} keeps across commands see the
+ * changes made to BUILD files between them.
+ */
+@RunWith(JUnit4.class)
+public class BlazeQueryIncrementalityTest extends PackageLoadingTestCase {
+  private BlazeQueryEnvironment newQueryEnvironment(boolean keepGoing) {
+    return (BlazeQueryEnvironment)
+        new QueryEnvironmentFactory()
+            .create(
+                getPackageManager().newTransitiveLoader(),
+                skyframeExecutor,
+                new TargetProviderForQueryEnvironment(
+                    SkyframeExecutorWrappingWalkableGraph.of(skyframeExecutor),
+                    getPackageManager()),
+                getPackageManager(),
+                getPackageManager().newTargetPatternEvaluator(),
+                keepGoing,
+                /*strictScope=*/ true,
+                /*orderedResults=*/ true,
+                /*universeScope=*/ ImmutableList.of(),
+                /*loadingPhaseThreads=*/ 1,
+                Rule.ALL_LABELS,
+                reporter,
+                ImmutableSet.of(),
+                QueryEnvironment.DEFAULT_QUERY_FUNCTIONS,
+                getPackageManager().getPackagePath(),
+                /*blockUniverseEvaluationErrors=*/ false);
+  }
+
+  private Set<Label> query(String query) throws Exception {
+    return evaluate(newQueryEnvironment(/*keepGoing=*/ false), query);
+  }
+
+  private Set<Label> queryWithResultCache(String query) throws Exception {
+    BlazeQueryEnvironment env = newQueryEnvironment(/*keepGoing=*/ false);
+    env.setQueryResultCache(skyframeExecutor.getQueryResultCache());
+    return evaluate(env, query);
+  }
+
+  private BlazeQueryEnvironment newQueryEnvironmentWithRdepsIndex(boolean keepGoing) {
+    BlazeQueryEnvironment env = newQueryEnvironment(keepGoing);
+    env.setReverseDependencyIndex(
+        skyframeExecutor.getReverseDependencyIndex(), getPackageManager());
+    return env;
+  }
+
+  private Set<Label> queryWithRdepsIndex(String query) throws Exception {
+    return evaluate(newQueryEnvironmentWithRdepsIndex(/*keepGoing=*/ false), query);
+  }
+
+  private static Set<Label> evaluate(BlazeQueryEnvironment env, String query) throws Exception {
+    AggregateAllOutputFormatterCallback<Target, ?> callback =
+        QueryUtil.newOrderedAggregateAllOutputFormatterCallback(env);
+    assertThat(env.evaluateQuery(query, callback).getSuccess()).isTrue();
+    ImmutableSet.Builder<Label> labels = ImmutableSet.builder();
+    for (Target target : callback.getResult()) {
+      labels.add(target.getLabel());
+    }
+    return labels.build();
+  }
+
+  private void invalidate(String... files) throws InterruptedException {
+    ModifiedFileSet.Builder modifiedFileSet = ModifiedFileSet.builder();
+    for (String file : files) {
+      modifiedFileSet.modify(PathFragment.create(file));
+    }
+    skyframeExecutor.invalidateFilesUnderPathForTesting(
+        reporter, modifiedFileSet.build(), Root.fromPath(rootDirectory));
+  }
+
+  @Test
+  public void editingBuildFileDropsCachedResult() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    assertThat(queryWithResultCache("deps(//a)")).isEqualTo(asLabelSet("//a", "//b"));
+    assertThat(skyframeExecutor.getQueryResultCache().size()).isEqualTo(1);
+
+    scratch.overwriteFile("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    invalidate("b/BUILD");
+
+    assertThat(queryWithResultCache("deps(//a)")).isEqualTo(asLabelSet("//a", "//b", "//c"));
+    assertThat(query("deps(//a)")).isEqualTo(asLabelSet("//a", "//b", "//c"));
+  }
+
+  @Test
+  public void editingUnrelatedBuildFileKeepsCachedResult() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    assertThat(queryWithResultCache("deps(//a)")).isEqualTo(asLabelSet("//a", "//b"));
+
+    scratch.overwriteFile("c/BUILD", "sh_library(name = 'c', deps = ['//b'])");
+    invalidate("c/BUILD");
+
+    assertThat(queryWithResultCache("deps(//a)")).isEqualTo(asLabelSet("//a", "//b"));
+    assertThat(skyframeExecutor.getQueryResultCache().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void addingPackageUnderWildcardDropsCachedResult() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a')");
+    assertThat(queryWithResultCache("kind(sh_library, //...)")).isEqualTo(asLabelSet("//a"));
+
+    scratch.file("a/b/BUILD", "sh_library(name = 'b')");
+    invalidate("a/b", "a/b/BUILD");
+
+    assertThat(queryWithResultCache("kind(sh_library, //...)"))
+        .isEqualTo(asLabelSet("//a", "//a/b"));
+  }
+
+  @Test
+  public void rdepsIndexFollowsEditedBuildFiles() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    scratch.file("d/BUILD", "sh_library(name = 'd', deps = ['//c'])");
+    assertThat(queryWithRdepsIndex("rdeps(//..., //c)")).isEqualTo(asLabelSet("//c", "//d"));
+    assertThat(query("rdeps(//..., //c)")).isEqualTo(asLabelSet("//c", "//d"));
+
+    scratch.overwriteFile("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    scratch.overwriteFile("d/BUILD", "sh_library(name = 'd')");
+    invalidate("b/BUILD", "d/BUILD");
+
+    assertThat(queryWithRdepsIndex("rdeps(//..., //c)"))
+        .isEqualTo(asLabelSet("//a", "//b", "//c"));
+    assertThat(query("rdeps(//..., //c)")).isEqualTo(asLabelSet("//a", "//b", "//c"));
+    assertThat(queryWithRdepsIndex("rdeps(//a, //c, 1)"))
+        .isEqualTo(query("rdeps(//a, //c, 1)"));
+  }
+
+  @Test
+  public void rdepsIndexReportsLoadingErrorsOfEditedBuildFiles() throws Exception {
+    reporter.removeHandler(failFastHandler);
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    assertThat(queryWithRdepsIndex("rdeps(//a, //b)")).isEqualTo(asLabelSet("//a", "//b"));
+
+    scratch.overwriteFile("b/BUILD", "sh_library(name = 'b', deps = ['//missing'])");
+    invalidate("b/BUILD");
+
+    assertThrows(QueryException.class, () -> queryWithRdepsIndex("rdeps(//a, //b)"));
+    assertThrows(QueryException.class, () -> query("rdeps(//a, //b)"));
+  }
+
+  @Test
+  public void rdepsIndexReportsLoadingErrorsOfEveryQueryWithKeepGoing() throws Exception {
+    reporter.removeHandler(failFastHandler);
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b', deps = ['//missing'])");
+
+    for (int i = 0; i < 2; i++) {
+      BlazeQueryEnvironment env = newQueryEnvironmentWithRdepsIndex(/*keepGoing=*/ true);
+      AggregateAllOutputFormatterCallback<Target, ?> callback =
+          QueryUtil.newOrderedAggregateAllOutputFormatterCallback(env);
+      assertThat(env.evaluateQuery("rdeps(//a, //b)", callback).getSuccess()).isFalse();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
+import com.google.devtools.build.lib.analysis.config.BuildOptions;
+import com.google.devtools.build.lib.analysis.config.FragmentClassSet;
+import com.google.devtools.build.lib.analysis.config.FragmentOptions;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.rules.cpp.CppConfiguration;
+import com.google.devtools.build.lib.rules.cpp.CppOptions;
+import com.google.devtools.build.lib.rules.java.JavaConfiguration;
+import com.google.devtools.build.lib.rules.java.JavaOptions;
+import com.google.devtools.build.lib.skyframe.ConfigurationFragmentValue.ConfigurationFragmentKey;
+
+/**
+ * Measures computing the keys of the configurations a split transition creates, and of the
+ * configured targets in them: each configuration differs from the top-level one only in its CPU.
+ */
+public class ConfigurationKeyBenchmark {
+  private static final int TARGETS = 1000;
+  private static final ImmutableList<Class<? extends FragmentOptions>> OPTIONS_CLASSES =
+      ImmutableList.of(BuildConfiguration.Options.class, CppOptions.class, JavaOptions.class);
+
+  @Param({"4", "16"})
+  private int configurations;
+
+  private BuildOptions[] options;
+  private BuildOptions.OptionsDiffForReconstruction[] optionsDiffs;
+  private FragmentClassSet fragmentClasses;
+  private Label[] labels;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    BuildOptions topLevelOptions = BuildOptions.of(OPTIONS_CLASSES);
+    options = new BuildOptions[configurations];
+    optionsDiffs = new BuildOptions.OptionsDiffForReconstruction[configurations];
+    for (int i = 0; i < configurations; i++) {
+      options[i] = BuildOptions.of(OPTIONS_CLASSES, "--cpu=cpu" + i);
+      optionsDiffs[i] = BuildOptions.diffForReconstruction(topLevelOptions, options[i]);
+    }
+    fragmentClasses =
+        FragmentClassSet.of(
+            ImmutableSortedSet.orderedBy(BuildConfiguration.lexicalFragmentSorter)
+                .add(CppConfiguration.class, JavaConfiguration.class)
+                .build());
+    labels = new Label[TARGETS];
+    for (int i = 0; i < TARGETS; i++) {
+      labels[i] = Label.parseAbsolute("//pkg" + (i / 10) + ":target" + i);
+    }
+  }
+
+  /**
+   * Computes the keys of the fragments of each configuration, as {@link
+   * BuildConfigurationFunction} does every time it is evaluated.
+   */
+  @Benchmark
+  int fragmentKeys(int reps) {
+    int hash = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      for (BuildOptions buildOptions : options) {
+        BuildOptions cppOptions = buildOptions.trim(ImmutableSet.of(CppOptions.class));
+        hash += ConfigurationFragmentKey.of(cppOptions, CppConfiguration.class).hashCode();
+        BuildOptions javaOptions = buildOptions.trim(ImmutableSet.of(JavaOptions.class));
+        hash += ConfigurationFragmentKey.of(javaOptions, JavaConfiguration.class).hashCode();
+      }
+    }
+    return hash;
+  }
+
+  /** Computes the key of every target in every configuration. */
+  @Benchmark
+  int configuredTargetKeys(int reps) {
+    int hash = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      for (BuildOptions.OptionsDiffForReconstruction optionsDiff : optionsDiffs) {
+        for (Label label : labels) {
+          BuildConfigurationValue.Key configurationKey =
+              BuildConfigurationValue.key(fragmentClasses, optionsDiff);
+          hash += ConfiguredTargetKey.of(label, configurationKey, false).hashCode();
+        }
+      }
+    }
+    return hash;
+  }
+}
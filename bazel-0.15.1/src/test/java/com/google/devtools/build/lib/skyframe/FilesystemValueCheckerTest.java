@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.devtools.build.lib.actions.ActionInputHelper.treeFileArtifact;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -48,6 +49,7 @@ import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystem.HashFunction;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
@@ -75,6 +77,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.junit.Before;
@@ -724,6 +727,168 @@ public class FilesystemValueCheckerTest {
         });
   }
 
+  private void checkDirtyActionsWithOutputFileJournal(BatchStat batchStatter) throws Exception {
+    fs.fastDigests = true;
+    Artifact out1 = createDerivedArtifact("fiz");
+    Artifact out2 = createDerivedArtifact("pop");
+    FileSystemUtils.writeContentAsLatin1(out1.getPath(), "hello");
+    FileSystemUtils.writeContentAsLatin1(out2.getPath(), "fizzlepop");
+
+    ActionLookupKey actionLookupKey =
+        new ActionLookupKey() {
+          @Override
+          public SkyFunctionName functionName() {
+            return SkyFunctionName.FOR_TESTING;
+          }
+        };
+    SkyKey actionKey1 = ActionExecutionValue.key(actionLookupKey, 0);
+    SkyKey actionKey2 = ActionExecutionValue.key(actionLookupKey, 1);
+    OutputFileJournal journal = new OutputFileJournal();
+    differencer.inject(
+        ImmutableMap.<SkyKey, SkyValue>of(
+            actionKey1,
+            journaledActionValue(
+                new TestAction(
+                    Runnables.doNothing(), ImmutableSet.<Artifact>of(), ImmutableSet.of(out1)),
+                journal),
+            actionKey2,
+            journaledActionValue(
+                new TestAction(
+                    Runnables.doNothing(), ImmutableSet.<Artifact>of(), ImmutableSet.of(out2)),
+                journal)));
+    assertThat(
+            driver
+                .evaluate(ImmutableList.<SkyKey>of(), false, 1, NullEventHandler.INSTANCE)
+                .hasError())
+        .isFalse();
+    assertThat(journal.size()).isEqualTo(2);
+
+    fs.fastDigestCalls.set(0);
+    assertThat(
+            new FilesystemValueChecker(null, null, journal)
+                .getDirtyActionValues(
+                    evaluator.getValues(), batchStatter, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .isEmpty();
+    // Unchanged outputs are recognized from their stat alone.
+    assertThat(fs.fastDigestCalls.get()).isEqualTo(0);
+
+    FileSystemUtils.writeContentAsLatin1(out1.getPath(), "goodbye");
+    assertThat(
+            new FilesystemValueChecker(null, null, journal)
+                .getDirtyActionValues(
+                    evaluator.getValues(), batchStatter, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .containsExactly(actionKey1);
+
+    // The journal only vouches for the value it was recorded with, not for the one in the graph,
+    // e.g. if another action wrote the same file later.
+    FileStatus newStat = out1.getPath().stat(Symlinks.NOFOLLOW);
+    journal.record(
+        out1,
+        ActionMetadataHandler.fileValueFromArtifact(
+            out1, FileStatusWithDigestAdapter.adapt(newStat), null),
+        newStat);
+    assertThat(
+            new FilesystemValueChecker(null, null, journal)
+                .getDirtyActionValues(
+                    evaluator.getValues(), batchStatter, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .containsExactly(actionKey1);
+  }
+
+  @Test
+  public void testOutputFileJournalForgetsOutputsOfActionsGoneFromGraph() throws Exception {
+    Artifact out1 = createDerivedArtifact("fiz");
+    Artifact out2 = createDerivedArtifact("pop");
+    Artifact out3 = createDerivedArtifact("bang");
+    FileSystemUtils.writeContentAsLatin1(out1.getPath(), "hello");
+    FileSystemUtils.writeContentAsLatin1(out2.getPath(), "fizzlepop");
+    FileSystemUtils.writeContentAsLatin1(out3.getPath(), "bang");
+
+    ActionLookupKey actionLookupKey =
+        new ActionLookupKey() {
+          @Override
+          public SkyFunctionName functionName() {
+            return SkyFunctionName.FOR_TESTING;
+          }
+        };
+    SkyKey actionKey1 = ActionExecutionValue.key(actionLookupKey, 0);
+    SkyKey actionKey2 = ActionExecutionValue.key(actionLookupKey, 1);
+    OutputFileJournal journal = new OutputFileJournal();
+    differencer.inject(
+        ImmutableMap.<SkyKey, SkyValue>of(
+            actionKey1,
+            journaledActionValue(
+                new TestAction(
+                    Runnables.doNothing(), ImmutableSet.<Artifact>of(), ImmutableSet.of(out1)),
+                journal),
+            actionKey2,
+            journaledActionValue(
+                new TestAction(
+                    Runnables.doNothing(),
+                    ImmutableSet.<Artifact>of(),
+                    ImmutableSet.of(out2, out3)),
+                journal)));
+    assertThat(
+            driver
+                .evaluate(ImmutableList.<SkyKey>of(), false, 1, NullEventHandler.INSTANCE)
+                .hasError())
+        .isFalse();
+    journal.retainOutputsOf(evaluator.getValues().values());
+    assertThat(journal.size()).isEqualTo(3);
+
+    // The file was rebuilt since the value in the graph was created, e.g. by an action whose node
+    // was invalidated later.
+    FileSystemUtils.writeContentAsLatin1(out3.getPath(), "boom!");
+    FileStatus newStat = out3.getPath().stat(Symlinks.NOFOLLOW);
+    journal.record(
+        out3,
+        ActionMetadataHandler.fileValueFromArtifact(
+            out3, FileStatusWithDigestAdapter.adapt(newStat), null),
+        newStat);
+    journal.retainOutputsOf(evaluator.getValues().values());
+    assertThat(journal.size()).isEqualTo(2);
+
+    evaluator.delete(Predicates.equalTo(actionKey2));
+    assertThat(
+            driver
+                .evaluate(ImmutableList.<SkyKey>of(), false, 1, NullEventHandler.INSTANCE)
+                .hasError())
+        .isFalse();
+    journal.retainOutputsOf(evaluator.getValues().values());
+    assertThat(journal.size()).isEqualTo(1);
+    assertThat(
+            new FilesystemValueChecker(null, null, journal)
+                .getDirtyActionValues(
+                    evaluator.getValues(), null, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .isEmpty();
+  }
+
+  @Test
+  public void testDirtyActionsWithOutputFileJournal() throws Exception {
+    checkDirtyActionsWithOutputFileJournal(null);
+  }
+
+  @Test
+  public void testDirtyActionsWithOutputFileJournalBatchStat() throws Exception {
+    checkDirtyActionsWithOutputFileJournal(
+        new BatchStat() {
+          @Override
+          public List<FileStatusWithDigest> batchStat(
+              boolean useDigest, boolean includeLinks, Iterable<PathFragment> paths)
+              throws IOException {
+            List<FileStatusWithDigest> stats = new ArrayList<>();
+            for (PathFragment pathFrag : paths) {
+              final Path path = fs.getPath("/").getRelative(pathFrag);
+              FileStatus stat = path.statIfFound(Symlinks.NOFOLLOW);
+              stats.add(
+                  useDigest
+                      ? statWithDigest(path, stat)
+                      : FileStatusWithDigestAdapter.adapt(stat));
+            }
+            return stats;
+          }
+        });
+  }
+
   // TODO(bazel-team): Add some tests for FileSystemValueChecker#changedKeys*() methods.
   // Presently these appear to be untested.
 
@@ -747,6 +912,24 @@ public class FilesystemValueCheckerTest {
         /*outputSymlinks=*/ null);
   }
 
+  private ActionExecutionValue journaledActionValue(Action action, OutputFileJournal journal)
+      throws IOException {
+    Map<Artifact, FileValue> artifactData = new HashMap<>();
+    for (Artifact output : action.getOutputs()) {
+      FileStatus stat = output.getPath().stat(Symlinks.NOFOLLOW);
+      FileValue value =
+          ActionMetadataHandler.fileValueFromArtifact(
+              output, FileStatusWithDigestAdapter.adapt(stat), null);
+      journal.record(output, value, stat);
+      artifactData.put(output, value);
+    }
+    return new ActionExecutionValue(
+        artifactData,
+        ImmutableMap.<Artifact, TreeArtifactValue>of(),
+        ImmutableMap.<Artifact, FileArtifactValue>of(),
+        /*outputSymlinks=*/ null);
+  }
+
   private ActionExecutionValue actionValueWithEmptyDirectory(Artifact emptyDir) {
     TreeArtifactValue emptyValue = TreeArtifactValue.create
         (ImmutableMap.<TreeFileArtifact, FileArtifactValue>of());
@@ -826,11 +1009,22 @@ public class FilesystemValueCheckerTest {
 
     boolean statThrowsRuntimeException;
     boolean readlinkThrowsIoException;
+    boolean fastDigests;
+    final AtomicInteger fastDigestCalls = new AtomicInteger();
 
     MockFileSystem() {
       super();
     }
 
+    @Override
+    protected byte[] getFastDigest(Path path, HashFunction hashFunction) throws IOException {
+      if (!fastDigests) {
+        return super.getFastDigest(path, hashFunction);
+      }
+      fastDigestCalls.incrementAndGet();
+      return getDigest(path, hashFunction);
+    }
+
     @Override
     public FileStatus stat(Path path, boolean followSymlinks) throws IOException {
       if (statThrowsRuntimeException) {
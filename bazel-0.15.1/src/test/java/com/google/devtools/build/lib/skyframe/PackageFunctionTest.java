@@ -18,9 +18,11 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Predicates;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
 import com.google.devtools.build.lib.clock.BlazeClock;
@@ -33,6 +35,7 @@ import com.google.devtools.build.lib.packages.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.skyframe.util.SkyframeExecutorTestUtils;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.Dirent;
@@ -328,6 +331,68 @@ public class PackageFunctionTest extends BuildViewTestCase {
     assertSrcs(validPackage(skyKey), "foo", "//foo:a.config", "//foo:b.txt");
   }
 
+  @Test
+  public void testGetStaticGlobKeys() throws Exception {
+    PackageIdentifier pkgId = PackageIdentifier.parse("@//foo");
+    Root pkgRoot = Root.fromPath(rootDirectory);
+    BuildFileAST ast =
+        BuildFileAST.parseBuildString(
+            reporter,
+            "sh_library(name = 'a', srcs = glob(['*.sh'], exclude = ['x.sh']))",
+            "sh_library(name = 'b', srcs = glob(include = ['**'], exclude_directories = 0))",
+            "sh_library(name = 'c', srcs = glob([NAME + '.sh']))",
+            "sh_library(name = 'd', srcs = glob(['a/../b']))");
+    assertThat(PackageFunction.getStaticGlobKeys(ast, pkgId, pkgRoot))
+        .containsExactly(
+            GlobValue.key(pkgId, pkgRoot, "*.sh", true, PathFragment.EMPTY_FRAGMENT),
+            GlobValue.key(pkgId, pkgRoot, "x.sh", true, PathFragment.EMPTY_FRAGMENT),
+            GlobValue.key(pkgId, pkgRoot, "**", false, PathFragment.EMPTY_FRAGMENT));
+  }
+
+  @Test
+  public void testPrefetchPackageDeps() throws Exception {
+    // The package loading checks list the directory again with a package loader of their own.
+    initializeSkyframeExecutor(/*doPackageLoadingChecks=*/ false);
+    scratch.file("foo/BUILD",
+        "load('//bar:ext.bzl', 'SRCS')",
+        "sh_library(name = 'foo', srcs = SRCS + glob(['*.txt'], exclude = ['b.txt']))");
+    scratch.file("bar/BUILD");
+    scratch.file("bar/ext.bzl", "SRCS = ['x.sh']");
+    Path fooDir = scratch.file("foo/a.txt").getParentDirectory();
+    scratch.file("foo/b.txt");
+    PackageCacheOptions packageCacheOptions = Options.getDefaults(PackageCacheOptions.class);
+    packageCacheOptions.defaultVisibility = ConstantRuleVisibility.PUBLIC;
+    packageCacheOptions.globbingThreads = 7;
+    packageCacheOptions.prefetchPackageDeps = true;
+    getSkyframeExecutor()
+        .preparePackageLoading(
+            new PathPackageLocator(
+                outputBase,
+                ImmutableList.of(Root.fromPath(rootDirectory)),
+                BazelSkyframeExecutorConstants.BUILD_FILES_BY_PRIORITY),
+            packageCacheOptions,
+            Options.getDefaults(SkylarkSemanticsOptions.class),
+            "",
+            UUID.randomUUID(),
+            ImmutableMap.<String, String>of(),
+            ImmutableMap.<String, String>of(),
+            tsgm);
+    PackageIdentifier pkgId = PackageIdentifier.parse("@//foo");
+    PackageValue value = validPackage(PackageValue.key(pkgId));
+    // Only the Skyframe glob lists the directory. Without prefetching, evaluation would find the
+    // glob missing and list the directory again with the legacy globber before restarting.
+    assertThat(fs.getReaddirCount(fooDir)).isEqualTo(1);
+    assertSrcs(value, "foo", "//foo:x.sh", "//foo:a.txt");
+    // The exclude pattern is prefetched as a glob of its own.
+    for (String pattern : new String[] {"*.txt", "b.txt"}) {
+      SkyKey globKey =
+          GlobValue.key(
+              pkgId, Root.fromPath(rootDirectory), pattern, true, PathFragment.EMPTY_FRAGMENT);
+      assertThat(getSkyframeExecutor().getEvaluatorForTesting().getExistingValue(globKey))
+          .isNotNull();
+    }
+  }
+
   /**
    * Tests that a symlink to a file outside of the package root is handled consistently. If the
    * default behavior of Bazel was changed from {@code
@@ -754,6 +819,7 @@ public class PackageFunctionTest extends BuildViewTestCase {
     private final Map<Path, FileStatusOrException> stubbedStats = Maps.newHashMap();
     private final Set<Path> makeUnreadableAfterReaddir = Sets.newHashSet();
     private final Map<Path, IOException> pathsToErrorOnGetInputStream = Maps.newHashMap();
+    private final Multiset<Path> readdirCalls = ConcurrentHashMultiset.create();
 
     public CustomInMemoryFs(ManualClock manualClock) {
       super(manualClock);
@@ -779,8 +845,13 @@ public class PackageFunctionTest extends BuildViewTestCase {
       makeUnreadableAfterReaddir.add(path);
     }
 
+    public int getReaddirCount(Path path) {
+      return readdirCalls.count(path);
+    }
+
     @Override
     public Collection<Dirent> readdir(Path path, boolean followSymlinks) throws IOException {
+      readdirCalls.add(path);
       Collection<Dirent> result = super.readdir(path, followSymlinks);
       if (makeUnreadableAfterReaddir.contains(path)) {
         path.setReadable(false);
@@ -0,0 +1,111 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link QueryResultCache}. */
+@RunWith(JUnit4.class)
+public class QueryResultCacheTest {
+  private static final PackageIdentifier A = PackageIdentifier.createInMainRepo("a");
+  private static final PackageIdentifier B = PackageIdentifier.createInMainRepo("b");
+
+  private final QueryResultCache cache = new QueryResultCache();
+
+  private static QueryResultCache.Result result(
+      ImmutableSet<PackageIdentifier> packages, ImmutableSet<String> targetPatterns) {
+    return new QueryResultCache.Result(
+        ImmutableList.of(), ImmutableSetMultimap.of(), packages, targetPatterns);
+  }
+
+  @Test
+  public void getReturnsPutResult() {
+    QueryResultCache.Result result = result(ImmutableSet.of(A), ImmutableSet.of("//a"));
+    cache.put("deps(//a)", result, cache.getVersion());
+
+    assertThat(cache.get("deps(//a)")).isSameAs(result);
+    assertThat(cache.get("deps(//b)")).isNull();
+  }
+
+  @Test
+  public void packageInvalidationDropsDependentResults() {
+    cache.put("deps(//a)", result(ImmutableSet.of(A, B), ImmutableSet.of("//a")), 0);
+    cache.put("deps(//b)", result(ImmutableSet.of(B), ImmutableSet.of("//b")), 0);
+
+    cache.packageInvalidated(A);
+
+    assertThat(cache.get("deps(//a)")).isNull();
+    assertThat(cache.get("deps(//b)")).isNotNull();
+
+    cache.packageInvalidated(B);
+
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void targetPatternInvalidationDropsDependentResults() {
+    cache.put("kind(test, //...)", result(ImmutableSet.of(A), ImmutableSet.of("//...")), 0);
+    cache.put("deps(//a)", result(ImmutableSet.of(A), ImmutableSet.of("//a")), 0);
+
+    cache.targetPatternInvalidated("//...");
+
+    assertThat(cache.get("kind(test, //...)")).isNull();
+    assertThat(cache.get("deps(//a)")).isNotNull();
+  }
+
+  @Test
+  public void putAfterInvalidationIsIgnored() {
+    long version = cache.getVersion();
+    cache.packageInvalidated(B);
+
+    cache.put("deps(//a)", result(ImmutableSet.of(A), ImmutableSet.of("//a")), version);
+
+    assertThat(cache.get("deps(//a)")).isNull();
+  }
+
+  @Test
+  public void replacedResultDoesNotKeepOldDependencies() {
+    cache.put("x", result(ImmutableSet.of(A), ImmutableSet.of()), 0);
+    QueryResultCache.Result replacement = result(ImmutableSet.of(B), ImmutableSet.of());
+    cache.put("x", replacement, 0);
+
+    cache.packageInvalidated(A);
+
+    assertThat(cache.get("x")).isSameAs(replacement);
+  }
+
+  @Test
+  public void leastRecentlyUsedResultIsEvicted() {
+    for (int i = 0; i <= QueryResultCache.MAX_ENTRIES; i++) {
+      cache.put("//p" + i, result(ImmutableSet.of(), ImmutableSet.of()), 0);
+      if (i == 0) {
+        continue;
+      }
+      // Keeps the first result the most recently used.
+      assertThat(cache.get("//p0")).isNotNull();
+    }
+
+    assertThat(cache.size()).isEqualTo(QueryResultCache.MAX_ENTRIES);
+    assertThat(cache.get("//p0")).isNotNull();
+    assertThat(cache.get("//p1")).isNull();
+  }
+}
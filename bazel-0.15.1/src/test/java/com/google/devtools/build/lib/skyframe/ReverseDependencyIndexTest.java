@@ -0,0 +1,150 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ReverseDependencyIndex}. */
+@RunWith(JUnit4.class)
+public class ReverseDependencyIndexTest extends PackageLoadingTestCase {
+  private ReverseDependencyIndex index;
+
+  @Before
+  public final void getIndex() {
+    index = getSkyframeExecutor().getReverseDependencyIndex();
+  }
+
+  private void update(String... packages) throws Exception {
+    ImmutableList.Builder<PackageIdentifier> roots = ImmutableList.builder();
+    for (String pkg : packages) {
+      PackageIdentifier packageId = PackageIdentifier.createInMainRepo(pkg);
+      // Skyframe processes invalidations when it next evaluates, which a query does when it
+      // evaluates its target patterns, before updating the index.
+      loadPackage(packageId);
+      roots.add(packageId);
+    }
+    index.update(reporter, getPackageManager(), roots.build());
+  }
+
+  private void loadPackage(PackageIdentifier packageId) throws Exception {
+    try {
+      getPackageManager().getPackage(reporter, packageId);
+    } catch (NoSuchPackageException e) {
+      // Indexed as having no targets.
+    }
+  }
+
+  private ImmutableList<Label> rdeps(String universe, String root, int depth) throws Exception {
+    return index.getReverseDepsInUniverse(
+        asLabelSet(universe), ImmutableList.of(Label.parseAbsolute(root)), depth);
+  }
+
+  @Test
+  public void indexesTransitivePackages() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+
+    assertThat(index.needsUpdate(ImmutableList.of(PackageIdentifier.createInMainRepo("a"))))
+        .isTrue();
+    update("a");
+
+    assertThat(index.isIndexed(PackageIdentifier.createInMainRepo("c"))).isTrue();
+    assertThat(index.needsUpdate(ImmutableList.of(PackageIdentifier.createInMainRepo("a"))))
+        .isFalse();
+    assertThat(index.getDeps(Label.parseAbsolute("//a:a"))).contains(Label.parseAbsolute("//b"));
+  }
+
+  @Test
+  public void reverseDepsInUniverse() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    scratch.file("d/BUILD", "sh_library(name = 'd', deps = ['//c'])");
+    update("a", "d");
+
+    assertThat(rdeps("//a", "//c", Integer.MAX_VALUE))
+        .containsExactly(
+            Label.parseAbsolute("//c"), Label.parseAbsolute("//b"), Label.parseAbsolute("//a"))
+        .inOrder();
+    assertThat(rdeps("//a", "//c", 1)).containsExactlyElementsIn(asLabelSet("//b", "//c"));
+    assertThat(rdeps("//b", "//c", Integer.MAX_VALUE))
+        .containsExactlyElementsIn(asLabelSet("//b", "//c"));
+    assertThat(rdeps("//d", "//b", Integer.MAX_VALUE)).isEmpty();
+  }
+
+  @Test
+  public void reindexesChangedPackages() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    update("a");
+    assertThat(index.isIndexed(PackageIdentifier.createInMainRepo("c"))).isFalse();
+
+    scratch.overwriteFile("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    invalidatePackages();
+    update("a");
+
+    assertThat(index.isIndexed(PackageIdentifier.createInMainRepo("c"))).isTrue();
+    assertThat(index.getDeps(Label.parseAbsolute("//b"))).contains(Label.parseAbsolute("//c"));
+    assertThat(rdeps("//a", "//c", Integer.MAX_VALUE))
+        .containsExactlyElementsIn(asLabelSet("//a", "//b", "//c"));
+  }
+
+  @Test
+  public void indexesMissingPackagesAsEmpty() throws Exception {
+    reporter.removeHandler(failFastHandler);
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//missing'])");
+    update("a");
+
+    assertThat(index.isIndexed(PackageIdentifier.createInMainRepo("missing"))).isTrue();
+    assertThat(index.getDeps(Label.parseAbsolute("//missing"))).isEqualTo(ImmutableSet.of());
+    assertThat(rdeps("//a", "//missing", Integer.MAX_VALUE))
+        .containsExactlyElementsIn(asLabelSet("//a", "//missing"));
+  }
+
+  @Test
+  public void visitsLabelsDependingOnChangedPackages() throws Exception {
+    scratch.file("a/BUILD", "sh_library(name = 'a', deps = ['//b'])");
+    scratch.file("b/BUILD", "sh_library(name = 'b')");
+    scratch.file("c/BUILD", "sh_library(name = 'c')");
+    assertThat(index.getLabelsToVisit(asLabelSet("//a", "//c")))
+        .containsExactlyElementsIn(asLabelSet("//a", "//c"));
+    update("a", "c");
+    index.markVisited(asLabelSet("//a", "//c"));
+    assertThat(index.getLabelsToVisit(asLabelSet("//a", "//b", "//c")))
+        .containsExactlyElementsIn(asLabelSet("//b"));
+
+    scratch.overwriteFile("b/BUILD", "sh_library(name = 'b', deps = ['//c'])");
+    invalidatePackages();
+    loadPackage(PackageIdentifier.createInMainRepo("b"));
+
+    assertThat(index.getLabelsToVisit(asLabelSet("//a", "//c")))
+        .containsExactlyElementsIn(asLabelSet("//a"));
+    update("a", "c");
+    index.markVisited(asLabelSet("//a"));
+    assertThat(index.getLabelsToVisit(asLabelSet("//a", "//c"))).isEmpty();
+  }
+}
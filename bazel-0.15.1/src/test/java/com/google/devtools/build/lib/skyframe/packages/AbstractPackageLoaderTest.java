@@ -32,6 +32,8 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -141,6 +143,62 @@ public abstract class AbstractPackageLoaderTest {
     assertNoEvents(handler.getEvents());
   }
 
+  @Test
+  public void loadPackagesWithCallback() throws Exception {
+    PackageLoader pkgLoader = newPackageLoader();
+    file("good/BUILD", "sh_library(name = 'good')");
+    file("bad/BUILD", "invalidBUILDsyntax");
+    PackageIdentifier goodPkgId = PackageIdentifier.createInMainRepo(PathFragment.create("good"));
+    PackageIdentifier badPkgId = PackageIdentifier.createInMainRepo(PathFragment.create("bad"));
+    PackageIdentifier nopePkgId = PackageIdentifier.createInMainRepo(PathFragment.create("nope"));
+    Map<PackageIdentifier, PackageLoader.PackageOrException> pkgs = new ConcurrentHashMap<>();
+    pkgLoader.loadPackages(
+        ImmutableList.of(goodPkgId, badPkgId, nopePkgId, goodPkgId),
+        (pkgId, pkg) -> assertThat(pkgs.put(pkgId, pkg)).isNull());
+    assertThat(pkgs.keySet()).containsExactly(goodPkgId, badPkgId, nopePkgId);
+    assertThat(pkgs.get(goodPkgId).get().containsErrors()).isFalse();
+    assertThat(pkgs.get(badPkgId).get().containsErrors()).isTrue();
+    try {
+      pkgs.get(nopePkgId).get();
+      fail();
+    } catch (NoSuchPackageException expected) {
+      assertThat(expected).hasMessageThat().contains("BUILD file not found");
+    }
+  }
+
+  @Test
+  public void shareResultsAcrossCalls() throws Exception {
+    PackageLoader pkgLoader =
+        newPackageLoaderBuilder(workspaceDir)
+            .useDefaultSkylarkSemantics()
+            .setReporter(reporter)
+            .setShareResultsAcrossCalls(true)
+            .setSkyframeThreads(4)
+            .build();
+    file("ext/BUILD");
+    file("ext/ext.bzl", "NAME = 'first'");
+    file(
+        "a/BUILD",
+        "load('//ext:ext.bzl', 'NAME')",
+        "sh_library(name = NAME, srcs = glob(['*.sh']))");
+    file("a/a.sh");
+    file("b/BUILD", "load('//ext:ext.bzl', 'NAME')", "sh_library(name = NAME)");
+    PackageIdentifier pkgIdA = PackageIdentifier.createInMainRepo(PathFragment.create("a"));
+    PackageIdentifier pkgIdB = PackageIdentifier.createInMainRepo(PathFragment.create("b"));
+    Package pkgA = pkgLoader.loadPackage(pkgIdA);
+    assertThat(pkgA.containsErrors()).isFalse();
+    assertThat(pkgA.getTarget("first").getAssociatedRule().getRuleClass())
+        .isEqualTo("sh_library");
+    assertThat(pkgA.getTarget("a.sh")).isNotNull();
+
+    // The loaded .bzl file is reused, so the change isn't seen.
+    file("ext/ext.bzl", "NAME = 'second'");
+    assertThat(pkgLoader.loadPackage(pkgIdB).getTarget("first").getName()).isEqualTo("first");
+    // Packages aren't kept, so loading one again rebuilds it.
+    assertThat(pkgLoader.loadPackage(pkgIdA)).isNotSameAs(pkgA);
+    assertNoEvents(handler.getEvents());
+  }
+
   protected Path path(String rootRelativePath) {
     return workspaceDir.getRelative(PathFragment.create(rootRelativePath));
   }
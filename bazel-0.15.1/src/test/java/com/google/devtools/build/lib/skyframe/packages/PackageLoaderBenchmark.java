@@ -0,0 +1,151 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe.packages;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.analysis.ServerDirectories;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures loading every package of a generated repository with a {@link BazelPackageLoader}, in
+ * batches, the way a dependency analyzer does. All packages load the same .bzl file and glob their
+ * sources.
+ */
+public class PackageLoaderBenchmark {
+  private static final int PACKAGES_PER_BATCH = 100;
+  private static final int FILES_PER_PACKAGE = 10;
+
+  /** How the batches are loaded. */
+  public enum Mode {
+    /** {@link PackageLoader#loadPackages(Iterable)}, with a fresh evaluator for each batch. */
+    FRESH_EVALUATOR,
+    /** Streamed to a callback, from an evaluator shared by all batches. */
+    SHARED_EVALUATOR
+  }
+
+  @Param({"1000", "5000"})
+  private int packages;
+
+  @Param({"1", "8"})
+  private int threads;
+
+  @Param private Mode mode;
+
+  private Path workspaceDir;
+  private Path installBase;
+  private Path outputBase;
+  private List<List<PackageIdentifier>> batches;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    workspaceDir = fs.getPath("/workspace");
+    workspaceDir.createDirectoryAndParents();
+    installBase = fs.getPath("/installBase");
+    installBase.createDirectoryAndParents();
+    outputBase = fs.getPath("/outputBase");
+    outputBase.createDirectoryAndParents();
+    Path embeddedBinaries = ServerDirectories.getEmbeddedBinariesRoot(installBase);
+    embeddedBinaries.createDirectoryAndParents();
+    BazelPackageLoaderTest.mockEmbeddedTools(embeddedBinaries);
+    try {
+      BazelPackageLoader.builder(workspaceDir, installBase, outputBase)
+          .setFetchForTesting()
+          .useDefaultSkylarkSemantics()
+          .build()
+          .loadPackage(
+              PackageIdentifier.create(
+                  RepositoryName.create("@bazel_tools"), PathFragment.EMPTY_FRAGMENT));
+    } catch (NoSuchPackageException e) {
+      // Only the side effects of fetching @bazel_tools matter.
+    }
+
+    write("defs/BUILD");
+    write(
+        "defs/defs.bzl",
+        "def library(name, srcs, deps = []):",
+        "  native.sh_library(name = name, srcs = srcs, deps = deps)",
+        "  native.filegroup(name = name + '_srcs', srcs = srcs)");
+    List<PackageIdentifier> pkgIds = new ArrayList<>();
+    for (int i = 0; i < packages; i++) {
+      String pkg = String.format("project%d/pkg%d", i / 100, i);
+      write(
+          pkg + "/BUILD",
+          "load('//defs:defs.bzl', 'library')",
+          String.format(
+              "library(name = 'lib', srcs = glob(['*.sh']), deps = [%s])",
+              i == 0 ? "" : String.format("'//project%d/pkg%d:lib'", (i - 1) / 100, i - 1)));
+      for (int j = 0; j < FILES_PER_PACKAGE; j++) {
+        write(pkg + "/file" + j + ".sh");
+      }
+      pkgIds.add(PackageIdentifier.createInMainRepo(pkg));
+    }
+    batches = ImmutableList.copyOf(Iterables.partition(pkgIds, PACKAGES_PER_BATCH));
+  }
+
+  private void write(String fileName, String... lines) throws Exception {
+    Path path = workspaceDir.getRelative(fileName);
+    path.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeIsoLatin1(path, lines);
+  }
+
+  @Benchmark
+  int loadAllPackages(int reps) throws Exception {
+    AtomicInteger targets = new AtomicInteger();
+    for (int i = 0; i < reps; i++) {
+      PackageLoader pkgLoader =
+          BazelPackageLoader.builder(workspaceDir, installBase, outputBase)
+              .useDefaultSkylarkSemantics()
+              .setSkyframeThreads(threads)
+              .setLegacyGlobbingThreads(threads)
+              .setShareResultsAcrossCalls(mode == Mode.SHARED_EVALUATOR)
+              .build();
+      for (List<PackageIdentifier> batch : batches) {
+        switch (mode) {
+          case FRESH_EVALUATOR:
+            for (PackageLoader.PackageOrException pkg : pkgLoader.loadPackages(batch).values()) {
+              targets.addAndGet(pkg.get().getTargets().size());
+            }
+            break;
+          case SHARED_EVALUATOR:
+            pkgLoader.loadPackages(
+                batch,
+                (pkgId, pkg) -> {
+                  try {
+                    targets.addAndGet(pkg.get().getTargets().size());
+                  } catch (NoSuchPackageException e) {
+                    throw new IllegalStateException(e);
+                  }
+                });
+            break;
+        }
+      }
+    }
+    return targets.get();
+  }
+}
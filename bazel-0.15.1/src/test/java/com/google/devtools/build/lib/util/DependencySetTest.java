@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -219,6 +220,35 @@ public class DependencySetTest {
     assertThat(depset.getDependencies()).isEmpty();
   }
 
+  @Test
+  public void parser_yieldsTargetsAndDependenciesInPlace() throws Exception {
+    byte[] content =
+        "hello.o: \\\n hello.cc dir\\ with\\ spaces/hello.h \\\r\n  other.h\n"
+            .getBytes(StandardCharsets.UTF_8);
+    DependencySet.Parser parser = new DependencySet.Parser(content);
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    while (parser.next()) {
+      assertThat(parser.getBuffer()).isSameAs(content);
+      String name = new String(content, 0, parser.getLength(), StandardCharsets.UTF_8);
+      assertThat(parser.getString()).isEqualTo(name);
+      names.add((parser.isTarget() ? "target " : "dep ") + name);
+    }
+    assertThat(names.build())
+        .containsExactly(
+            "target hello.o", "dep hello.cc", "dep dir with spaces/hello.h", "dep other.h")
+        .inOrder();
+    assertThat(parser.next()).isFalse();
+  }
+
+  @Test
+  public void parser_resolvesPathsAgainstRoot() throws Exception {
+    DependencySet.Parser parser =
+        new DependencySet.Parser("hello.o: a/hello.h\n".getBytes(StandardCharsets.UTF_8));
+    assertThat(parser.next()).isTrue();
+    assertThat(parser.next()).isTrue();
+    assertThat(parser.getPath(root)).isEqualTo(root.getRelative("a/hello.h"));
+  }
+
   @Test
   public void writeSet() throws Exception {
     Path file1 = fileSystem.getPath("/usr/local/blah/blah/genhello/hello.cc");
@@ -260,6 +260,17 @@ public class PathFragmentTest {
     assertThat(create("/foo").getSegment(0)).isEqualTo("foo");
   }
 
+  @Test
+  public void testGetFirstSegment() {
+    ImmutableSet<String> values = ImmutableSet.of("java", "src");
+    assertThat(create("a/java/b/src").getFirstSegment(values)).isEqualTo(1);
+    assertThat(create("/src/java").getFirstSegment(values)).isEqualTo(0);
+    assertThat(create("javax/srcs").getFirstSegment(values))
+        .isEqualTo(PathFragment.INVALID_SEGMENT);
+    assertThat(create("").getFirstSegment(values)).isEqualTo(PathFragment.INVALID_SEGMENT);
+    assertThat(create("/").getFirstSegment(values)).isEqualTo(PathFragment.INVALID_SEGMENT);
+  }
+
   @Test
   public void testBasename() throws Exception {
     assertThat(create("foo/bar").getBaseName()).isEqualTo("bar");
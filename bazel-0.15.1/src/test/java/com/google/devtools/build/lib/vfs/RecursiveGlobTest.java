@@ -18,11 +18,15 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -141,12 +145,47 @@ public class RecursiveGlobTest {
         .setExcludeDirectories(false)
         .globInterruptibleAndReturnNumGlobTasksForTesting();
 
-    // The old glob implementation used to use 41 total glob tasks.
+    // The old glob implementation used to use 41 total glob tasks, and the one visiting each
+    // directory once per pattern segment used 28.
     // Yes, checking for an exact value here is super brittle, but it lets us catch performance
     // regressions. In other words, if you're a developer reading this comment because this test
     // case is failing, you should be very sure you know what you're doing before you change the
     // expectation of the test.
-    assertThat(numGlobTasks).isEqualTo(28);
+    assertThat(numGlobTasks).isEqualTo(14);
+  }
+
+  @Test
+  public void testPatternsShareOneTraversal() throws Exception {
+    long numGlobTasks = new UnixGlob.Builder(tmpPath)
+        .addPatterns("**", "**/wiz", "foo/**/file")
+        .setExcludeDirectories(false)
+        .globInterruptibleAndReturnNumGlobTasksForTesting();
+
+    // Every directory is still only visited once.
+    assertThat(numGlobTasks).isEqualTo(14);
+  }
+
+  @Test
+  public void testGlobAsyncByPattern() throws Exception {
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+    try {
+      List<ListenableFuture<List<Path>>> futures = new UnixGlob.Builder(tmpPath)
+          .addPatterns("foo/**/wiz", "*/baz", "foo/ba?/wiz/*", "not-there")
+          .setThreadPool(executor)
+          .globAsyncByPattern(true);
+
+      assertThat(futures).hasSize(4);
+      assertThat(futures.get(0).get())
+          .containsExactlyElementsIn(
+              resolvePaths("foo/bar/wiz", "foo/baz/quip/wiz", "foo/baz/wiz"));
+      assertThat(futures.get(1).get())
+          .containsExactlyElementsIn(resolvePaths("foo/baz", "food/baz", "fool/baz"));
+      assertThat(futures.get(2).get())
+          .containsExactlyElementsIn(resolvePaths("foo/bar/wiz/file"));
+      assertThat(futures.get(3).get()).isEmpty();
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
   private void assertIllegalWildcard(String pattern)
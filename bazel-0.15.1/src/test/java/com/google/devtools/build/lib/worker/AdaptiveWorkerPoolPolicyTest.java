@@ -0,0 +1,74 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AdaptiveWorkerPoolPolicy}. */
+@RunWith(JUnit4.class)
+public class AdaptiveWorkerPoolPolicyTest {
+
+  private long availableMemoryMb = 4096;
+
+  private AdaptiveWorkerPoolPolicy createPolicy(ImmutableMap<String, Integer> maxInstances) {
+    return new AdaptiveWorkerPoolPolicy(maxInstances, 1024, () -> availableMemoryMb);
+  }
+
+  @Test
+  public void getMaxInstances_usesMnemonicThenDefault() {
+    AdaptiveWorkerPoolPolicy policy = createPolicy(ImmutableMap.of("", 6, "Javac", 10));
+
+    assertThat(policy.getMaxInstances("Javac", 4)).isEqualTo(10);
+    assertThat(policy.getMaxInstances("Scalac", 4)).isEqualTo(6);
+    // Never below the configured number of workers.
+    assertThat(policy.getMaxInstances("Scalac", 8)).isEqualTo(8);
+    assertThat(createPolicy(ImmutableMap.of("Javac", 10)).getMaxInstances("Scalac", 4))
+        .isEqualTo(4);
+  }
+
+  @Test
+  public void computeMaxInstances_growsWhenExhaustedAndMemoryAvailable() {
+    AdaptiveWorkerPoolPolicy policy = createPolicy(ImmutableMap.of("", 6));
+
+    assertThat(policy.computeMaxInstances(4, 4, 6, true)).isEqualTo(5);
+    assertThat(policy.computeMaxInstances(5, 4, 6, true)).isEqualTo(6);
+    assertThat(policy.computeMaxInstances(6, 4, 6, true)).isEqualTo(6);
+    assertThat(policy.computeMaxInstances(4, 4, 6, false)).isEqualTo(4);
+    assertThat(policy.computeMaxInstances(5, 4, 6, false)).isEqualTo(5);
+  }
+
+  @Test
+  public void computeMaxInstances_shrinksWhenMemoryIsScarce() {
+    AdaptiveWorkerPoolPolicy policy = createPolicy(ImmutableMap.of("", 6));
+    availableMemoryMb = 512;
+
+    assertThat(policy.computeMaxInstances(4, 4, 6, true)).isEqualTo(4);
+    assertThat(policy.computeMaxInstances(6, 4, 6, true)).isEqualTo(5);
+    assertThat(policy.computeMaxInstances(5, 4, 6, false)).isEqualTo(4);
+  }
+
+  @Test
+  public void computeMaxInstances_unknownMemoryDoesNotGrow() {
+    AdaptiveWorkerPoolPolicy policy = createPolicy(ImmutableMap.of("", 6));
+    availableMemoryMb = -1;
+
+    assertThat(policy.computeMaxInstances(4, 4, 6, true)).isEqualTo(4);
+    assertThat(policy.computeMaxInstances(5, 4, 6, true)).isEqualTo(4);
+  }
+}
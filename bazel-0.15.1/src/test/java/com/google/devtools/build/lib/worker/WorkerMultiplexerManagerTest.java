@@ -0,0 +1,93 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMultiplexerManager}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerManagerTest {
+
+  private final FileSystem fs = new InMemoryFileSystem();
+  private final Path logFile = fs.getPath("/outputbase/bazel-workers/worker-1-Javac.log");
+
+  private WorkerKey createKey(String mnemonic) {
+    return new WorkerKey(
+        ImmutableList.of("worker"),
+        ImmutableMap.of(),
+        fs.getPath("/outputbase/execroot/workspace"),
+        mnemonic,
+        HashCode.fromInt(0),
+        ImmutableSortedMap.of(),
+        false,
+        true);
+  }
+
+  @Test
+  public void sameKeySharesMultiplexer() {
+    WorkerMultiplexerManager manager = new WorkerMultiplexerManager();
+
+    WorkerMultiplexer first = manager.acquire(createKey("Javac"), logFile);
+    WorkerMultiplexer second = manager.acquire(createKey("Javac"), logFile);
+    WorkerMultiplexer other = manager.acquire(createKey("Scalac"), logFile);
+
+    assertThat(second).isSameAs(first);
+    assertThat(other).isNotSameAs(first);
+    assertThat(manager.getMultiplexerCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void multiplexerIsDiscardedWithLastProxy() {
+    WorkerMultiplexerManager manager = new WorkerMultiplexerManager();
+    WorkerKey key = createKey("Javac");
+
+    WorkerMultiplexer first = manager.acquire(key, logFile);
+    manager.acquire(key, logFile);
+    manager.release(key);
+    assertThat(manager.getMultiplexerCount()).isEqualTo(1);
+
+    manager.release(key);
+    assertThat(manager.getMultiplexerCount()).isEqualTo(0);
+    assertThat(first.isAlive()).isFalse();
+    assertThat(manager.acquire(key, logFile)).isNotSameAs(first);
+  }
+
+  @Test
+  public void proxiedKeysAreDistinctFromNormalKeys() {
+    WorkerKey proxied = createKey("Javac");
+    WorkerKey normal =
+        new WorkerKey(
+            ImmutableList.of("worker"),
+            ImmutableMap.of(),
+            fs.getPath("/outputbase/execroot/workspace"),
+            "Javac",
+            HashCode.fromInt(0),
+            ImmutableSortedMap.of(),
+            false,
+            false);
+
+    assertThat(proxied).isNotEqualTo(normal);
+  }
+}
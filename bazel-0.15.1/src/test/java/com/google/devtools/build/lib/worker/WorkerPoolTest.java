@@ -0,0 +1,100 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerPool}. */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+  private final FileSystem fs = new InMemoryFileSystem();
+  private WorkerPool workerPool;
+
+  @Before
+  public final void createPool() {
+    workerPool =
+        new WorkerPool(
+            new WorkerFactory(new WorkerOptions(), fs.getPath("/outputbase/bazel-workers")),
+            ImmutableMap.of("", 4, "Javac", 2),
+            ImmutableMap.of("", 8),
+            ImmutableList.of(),
+            Duration.ZERO,
+            null);
+  }
+
+  @After
+  public final void closePool() {
+    workerPool.close();
+  }
+
+  private WorkerKey createKey(String mnemonic, boolean proxied) {
+    return new WorkerKey(
+        ImmutableList.of("worker"),
+        ImmutableMap.of(),
+        fs.getPath("/outputbase/execroot/workspace"),
+        mnemonic,
+        HashCode.fromInt(0),
+        ImmutableSortedMap.of(),
+        false,
+        proxied);
+  }
+
+  @Test
+  public void eachMnemonicHasItsOwnPool() {
+    SimpleWorkerPool javac = workerPool.getPool(createKey("Javac", false));
+    SimpleWorkerPool scalac = workerPool.getPool(createKey("Scalac", false));
+    SimpleWorkerPool kotlinc = workerPool.getPool(createKey("Kotlinc", false));
+
+    assertThat(workerPool.getPool(createKey("Javac", false))).isSameAs(javac);
+    assertThat(scalac).isNotSameAs(javac);
+    assertThat(kotlinc).isNotSameAs(scalac);
+    assertThat(javac.getMaxTotalPerKey()).isEqualTo(2);
+    assertThat(scalac.getMaxTotalPerKey()).isEqualTo(4);
+    assertThat(kotlinc.getMaxTotalPerKey()).isEqualTo(4);
+  }
+
+  @Test
+  public void resizingOnePoolLeavesOthersAlone() {
+    SimpleWorkerPool scalac = workerPool.getPool(createKey("Scalac", false));
+    SimpleWorkerPool kotlinc = workerPool.getPool(createKey("Kotlinc", false));
+
+    scalac.setMaxTotalPerKey(6);
+
+    assertThat(kotlinc.getMaxTotalPerKey()).isEqualTo(4);
+    assertThat(workerPool.getPool(createKey("Swiftc", false)).getMaxTotalPerKey()).isEqualTo(4);
+  }
+
+  @Test
+  public void multiplexWorkersHaveSeparatePools() {
+    SimpleWorkerPool javac = workerPool.getPool(createKey("Javac", false));
+    SimpleWorkerPool multiplexJavac = workerPool.getPool(createKey("Javac", true));
+
+    assertThat(multiplexJavac).isNotSameAs(javac);
+    assertThat(multiplexJavac.getMaxTotalPerKey()).isEqualTo(8);
+  }
+}
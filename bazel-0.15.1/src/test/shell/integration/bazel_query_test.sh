@@ -39,6 +39,39 @@ EOF
   expect_log "//peach:harken"
 }
 
+function test_streamed_graph_output() {
+  rm -rf peach
+  mkdir -p peach
+  cat > peach/BUILD <<EOF
+sh_library(name='brighton', deps=[':harken'])
+sh_library(name='harken')
+EOF
+
+  bazel query --output=streamed_graph --order_output=no \
+      'deps(//peach:brighton)' > $TEST_log || fail "Expected success"
+
+  expect_log "^digraph mygraph {"
+  expect_log '^"//peach:brighton"$'
+  expect_log '^"//peach:harken"$'
+  expect_log '^"//peach:brighton" -> "//peach:harken"$'
+  expect_not_log '^"//peach:harken" -> '
+}
+
+function test_streamed_proto_output() {
+  rm -rf peach
+  mkdir -p peach
+  cat > peach/BUILD <<EOF
+sh_library(name='brighton', deps=[':harken'])
+sh_library(name='harken')
+EOF
+
+  bazel query --output=streamed_proto --order_output=no \
+      'deps(//peach:brighton)' > $TEST_log || fail "Expected success"
+
+  expect_log "//peach:brighton"
+  expect_log "//peach:harken"
+}
+
 function test_visibility_affects_xml_output() {
   rm -rf kiwi
   mkdir -p kiwi
@@ -91,6 +91,21 @@ function test_compiles_hello_library_using_persistent_javac() {
     || fail "comparison failed"
 }
 
+function test_compiles_hello_library_using_multiplexed_javac() {
+  write_hello_library_files
+
+  bazel build --experimental_worker_multiplex java/main:main &> $TEST_log \
+    || fail "build failed"
+  if [[ "${WORKER_TYPE_LOG_STRING}" == "sandboxed" ]]; then
+    # Multiplex workers can't be sandboxed, so --worker_sandboxing wins.
+    expect_log "Created new sandboxed Javac worker (id [0-9]\+)"
+  else
+    expect_log "Created new multiplexed Javac worker (id [0-9]\+)"
+  fi
+  $BINS/java/main/main | grep -q "Hello, Library!;Hello, World!" \
+    || fail "comparison failed"
+}
+
 function prepare_example_worker() {
   cp ${example_worker} worker_lib.jar
   chmod +w worker_lib.jar
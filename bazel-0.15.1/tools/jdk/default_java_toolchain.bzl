@@ -69,6 +69,7 @@ DEFAULT_TOOLCHAIN_CONFIGURATION = {
         "@bazel_tools//third_party/java/jdk/langtools:jdk_compiler_jar",
     ],
     "javac_supports_workers": 1,
+    "javac_supports_multiplex_workers": 1,
     "jvm_opts": JDK8_JVM_OPTS,
     "misc": DEFAULT_JAVACOPTS,
     "compatible_javacopts": COMPATIBLE_JAVACOPTS,